@@ -0,0 +1,488 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.managedprovisioning.analytics;
+
+import static com.android.internal.util.Preconditions.checkNotNull;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.managedprovisioning.DevicePolicyProtos.DevicePolicyEvent;
+import com.android.managedprovisioning.common.ProvisionLogger;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of {@link DevicePolicyEvent}s, written by {@link DeferredMetricsWriter} and
+ * replayed by {@link DeferredMetricsReplayer}.
+ *
+ * <p>There is a single log per file, which keeps the file open and owns all writes to it.
+ * Appended events are queued in memory, and a single background thread writes all the queued
+ * events at once and syncs the file once per batch. Before the events are replayed, the log is
+ * {@link #rotate() rotated} on the same thread, so the replay only reads and deletes a file that
+ * is no longer written to.
+ *
+ * <p>The file starts with a magic number, followed by a frame per event: the length of the event
+ * proto as a 4-byte big-endian int, the proto and its CRC-32. A frame torn by a crash fails its
+ * checksum, it ends the replay and is dropped when the log is opened for writing again. Files
+ * without the magic number contain events written with {@link DevicePolicyEvent#writeDelimitedTo},
+ * and are converted when they are opened for writing: the converted events are written to a
+ * temporary file which then replaces the log, so a crash never loses the legacy events.
+ *
+ * <p>Events which can't be written are put back in front of the queue, and written by the next
+ * flush.
+ */
+final class DeferredMetricsLog {
+    private static final int MAGIC = 0x44504d4c; // "DPML"
+    private static final int HEADER_SIZE = 4;
+    private static final String ROTATED_SUFFIX = ".replay";
+    private static final String CONVERTED_SUFFIX = ".tmp";
+    private static final int FRAME_OVERHEAD = 8;
+    /** Frames claiming to be larger than this are treated as corrupted. */
+    private static final int MAX_EVENT_SIZE = 64 * 1024;
+
+    private static final Executor WRITER_EXECUTOR = Executors.newSingleThreadExecutor(
+            runnable -> new Thread(runnable, "DeferredMetricsLog"));
+    @GuardedBy("sLogs")
+    private static final Map<String, DeferredMetricsLog> sLogs = new HashMap<>();
+
+    private final File mFile;
+    private final File mRotatedFile;
+    private final Executor mExecutor;
+
+    private final Object mLock = new Object();
+    @GuardedBy("mLock")
+    private List<DevicePolicyEvent> mQueue = new ArrayList<>();
+    @GuardedBy("mLock")
+    private boolean mFlushScheduled;
+
+    /** Only accessed by {@link #flush()}, which never runs concurrently with itself. */
+    private FileOutputStream mOutputStream;
+
+    /**
+     * Returns the log writing to {@code file}.
+     */
+    static DeferredMetricsLog getInstance(File file) {
+        synchronized (sLogs) {
+            final String path = file.getAbsolutePath();
+            DeferredMetricsLog log = sLogs.get(path);
+            if (log == null) {
+                log = new DeferredMetricsLog(file, WRITER_EXECUTOR);
+                sLogs.put(path, log);
+            }
+            return log;
+        }
+    }
+
+    /**
+     * Creates a log writing to {@code file} on {@code executor}, which must run the tasks one at
+     * a time.
+     */
+    @VisibleForTesting
+    DeferredMetricsLog(File file, Executor executor) {
+        mFile = checkNotNull(file);
+        mRotatedFile = getRotatedFile(file);
+        mExecutor = checkNotNull(executor);
+    }
+
+    /**
+     * Returns the file the events of the log at {@code file} are moved to by {@link #rotate()}.
+     */
+    static File getRotatedFile(File file) {
+        return new File(file.getPath() + ROTATED_SUFFIX);
+    }
+
+    /**
+     * Returns the file the events are moved to by {@link #rotate()}.
+     */
+    File getRotatedFile() {
+        return mRotatedFile;
+    }
+
+    /**
+     * Moves the events written so far to {@link #getRotatedFile()}, and starts a new file for the
+     * events appended afterwards. Runs on the writer thread once the events appended before were
+     * written, and waits for it.
+     *
+     * <p>If the rotated file still exists, because it wasn't entirely replayed, it is kept and
+     * the log isn't rotated, so that the replay can resume from its checkpoint.
+     *
+     * @return the rotated file, or {@code null} if there is nothing to replay.
+     */
+    File rotate() throws InterruptedException {
+        final FutureTask<File> rotation = new FutureTask<>(this::rotateOnWriterThread);
+        mExecutor.execute(rotation);
+        try {
+            return rotation.get();
+        } catch (ExecutionException e) {
+            ProvisionLogger.loge("Failed to rotate the deferred metrics log.", e);
+            return null;
+        }
+    }
+
+    private File rotateOnWriterThread() {
+        flush();
+        if (mRotatedFile.exists()) {
+            return mRotatedFile;
+        }
+        if (!mFile.exists()) {
+            return null;
+        }
+        closeOutputStream();
+        if (!mFile.renameTo(mRotatedFile)) {
+            ProvisionLogger.loge("Failed to rotate the deferred metrics log.");
+            return null;
+        }
+        return mRotatedFile;
+    }
+
+    /**
+     * Queues {@code events} to be appended to the log.
+     */
+    void append(List<DevicePolicyEvent> events) {
+        synchronized (mLock) {
+            mQueue.addAll(events);
+            if (mFlushScheduled) {
+                return;
+            }
+            mFlushScheduled = true;
+        }
+        mExecutor.execute(this::flush);
+    }
+
+    /**
+     * Writes all the queued events. Events appended while writing are written by the next flush.
+     */
+    private void flush() {
+        final List<DevicePolicyEvent> events;
+        synchronized (mLock) {
+            events = mQueue;
+            mQueue = new ArrayList<>();
+            mFlushScheduled = false;
+        }
+        if (events.isEmpty()) {
+            return;
+        }
+        final ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        for (DevicePolicyEvent event : events) {
+            writeFrame(frames, event);
+        }
+        long start = -1;
+        try {
+            final FileOutputStream outputStream = getOutputStream();
+            start = outputStream.getChannel().size();
+            outputStream.write(frames.toByteArray());
+            outputStream.getFD().sync();
+        } catch (IOException e) {
+            ProvisionLogger.loge("Failed to write DevicePolicyEvents to the deferred metrics log.",
+                    e);
+            if (start >= 0) {
+                // Drop the part of the batch that was written, since it is written again.
+                truncateOutputStream(start);
+            }
+            closeOutputStream();
+            synchronized (mLock) {
+                events.addAll(mQueue);
+                mQueue = events;
+            }
+        }
+    }
+
+    private void truncateOutputStream(long length) {
+        try {
+            mOutputStream.getChannel().truncate(length);
+        } catch (IOException e) {
+            ProvisionLogger.loge("Failed to truncate the deferred metrics log.", e);
+        }
+    }
+
+    /**
+     * Returns the stream appending to the log, opening it if needed. The log is reopened if it
+     * was rotated.
+     */
+    private FileOutputStream getOutputStream() throws IOException {
+        if (mOutputStream != null && mFile.exists()) {
+            return mOutputStream;
+        }
+        closeOutputStream();
+
+        long validLength = 0;
+        List<DevicePolicyEvent> legacyEvents = null;
+        if (mFile.exists()) {
+            try (Reader reader = Reader.open(mFile, 0)) {
+                if (reader.isLegacy()) {
+                    legacyEvents = new ArrayList<>();
+                }
+                DevicePolicyEvent event;
+                while ((event = readValidEvent(reader)) != null) {
+                    if (legacyEvents != null) {
+                        legacyEvents.add(event);
+                    }
+                }
+                validLength = legacyEvents == null ? reader.getOffset() : 0;
+            }
+        }
+
+        if (legacyEvents != null) {
+            convertLegacyLog(legacyEvents);
+            validLength = mFile.length();
+        }
+
+        final FileOutputStream outputStream = new FileOutputStream(mFile, /* append */ true);
+        try {
+            if (validLength < mFile.length()) {
+                // Drop the torn frame of an interrupted write.
+                outputStream.getChannel().truncate(validLength);
+            }
+            if (validLength == 0) {
+                outputStream.write(createHeader().toByteArray());
+            }
+        } catch (IOException e) {
+            outputStream.close();
+            throw e;
+        }
+        mOutputStream = outputStream;
+        return outputStream;
+    }
+
+    /**
+     * Replaces the log with {@code legacyEvents} in the current format. The events are written to
+     * a temporary file first, so the log always holds either format entirely.
+     */
+    private void convertLegacyLog(List<DevicePolicyEvent> legacyEvents) throws IOException {
+        final ByteArrayOutputStream converted = createHeader();
+        for (DevicePolicyEvent event : legacyEvents) {
+            writeFrame(converted, event);
+        }
+        final File convertedFile = new File(mFile.getPath() + CONVERTED_SUFFIX);
+        try (FileOutputStream outputStream = new FileOutputStream(convertedFile)) {
+            outputStream.write(converted.toByteArray());
+            outputStream.getFD().sync();
+        }
+        if (!convertedFile.renameTo(mFile)) {
+            convertedFile.delete();
+            throw new IOException("Failed to replace the legacy deferred metrics log.");
+        }
+    }
+
+    private static ByteArrayOutputStream createHeader() {
+        final ByteArrayOutputStream header = new ByteArrayOutputStream();
+        header.write(ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).array(), 0, HEADER_SIZE);
+        return header;
+    }
+
+    private void closeOutputStream() {
+        if (mOutputStream == null) {
+            return;
+        }
+        try {
+            mOutputStream.close();
+        } catch (IOException e) {
+            ProvisionLogger.loge("Failed to close the deferred metrics log.", e);
+        }
+        mOutputStream = null;
+    }
+
+    private static DevicePolicyEvent readValidEvent(Reader reader) {
+        try {
+            return reader.next();
+        } catch (IOException e) {
+            ProvisionLogger.logw("Dropping corrupted end of the deferred metrics log: " + e);
+            return null;
+        }
+    }
+
+    private static void writeFrame(ByteArrayOutputStream out, DevicePolicyEvent event) {
+        final byte[] payload = event.toByteArray();
+        final CRC32 crc = new CRC32();
+        crc.update(payload);
+        final ByteBuffer frame = ByteBuffer.allocate(payload.length + FRAME_OVERHEAD);
+        frame.putInt(payload.length).put(payload).putInt((int) crc.getValue());
+        out.write(frame.array(), 0, frame.capacity());
+    }
+
+    /**
+     * Reads the events of a log, in the order they were appended.
+     */
+    static final class Reader implements Closeable {
+        private final CountingInputStream mInputStream;
+        private final DataInputStream mDataInputStream;
+        private final boolean mLegacy;
+        private long mOffset;
+
+        /**
+         * Opens {@code file} and skips to {@code offset}, which must be 0 or an offset returned
+         * by {@link #getOffset()}.
+         */
+        static Reader open(File file, long offset) throws IOException {
+            boolean legacy = true;
+            try (DataInputStream header = new DataInputStream(new FileInputStream(file))) {
+                legacy = header.readInt() != MAGIC;
+            } catch (EOFException e) {
+                // Too short to have the magic number.
+            }
+            final Reader reader = new Reader(file, legacy);
+            try {
+                reader.skip(legacy ? offset : Math.max(offset, HEADER_SIZE));
+                reader.mOffset = reader.mInputStream.getCount();
+            } catch (IOException e) {
+                reader.close();
+                throw e;
+            }
+            return reader;
+        }
+
+        private Reader(File file, boolean legacy) throws IOException {
+            mInputStream = new CountingInputStream(
+                    new BufferedInputStream(new FileInputStream(file)));
+            mDataInputStream = new DataInputStream(mInputStream);
+            mLegacy = legacy;
+        }
+
+        /**
+         * Returns whether the log is in the format of {@link DevicePolicyEvent#writeDelimitedTo}.
+         */
+        boolean isLegacy() {
+            return mLegacy;
+        }
+
+        /**
+         * Returns the offset just after the last event returned by {@link #next()}.
+         */
+        long getOffset() {
+            return mOffset;
+        }
+
+        /**
+         * Returns the next event, or {@code null} at the end of the log.
+         *
+         * @throws IOException if the next event can't be read, for example because it is
+         * corrupted. The log can't be read past it.
+         */
+        DevicePolicyEvent next() throws IOException {
+            final DevicePolicyEvent event =
+                    mLegacy ? DevicePolicyEvent.parseDelimitedFrom(mInputStream) : readFrame();
+            if (event != null) {
+                mOffset = mInputStream.getCount();
+            }
+            return event;
+        }
+
+        private DevicePolicyEvent readFrame() throws IOException {
+            final int first = mInputStream.read();
+            if (first == -1) {
+                return null;
+            }
+            final int length = (first << 24) | (mDataInputStream.readUnsignedByte() << 16)
+                    | mDataInputStream.readUnsignedShort();
+            if (length < 0 || length > MAX_EVENT_SIZE) {
+                throw new IOException("Invalid event length " + length);
+            }
+            final byte[] payload = new byte[length];
+            mDataInputStream.readFully(payload);
+            final CRC32 crc = new CRC32();
+            crc.update(payload);
+            if (mDataInputStream.readInt() != (int) crc.getValue()) {
+                throw new IOException("Event checksum mismatch");
+            }
+            return DevicePolicyEvent.parseFrom(payload);
+        }
+
+        private void skip(long count) throws IOException {
+            while (count > 0) {
+                final long skipped = mInputStream.skip(count);
+                if (skipped > 0) {
+                    count -= skipped;
+                } else if (mInputStream.read() != -1) {
+                    // skip() may return 0 before the end of the stream.
+                    count--;
+                } else {
+                    throw new IOException("Offset past the end of the log");
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            mInputStream.close();
+        }
+    }
+
+    /**
+     * {@link FilterInputStream} which counts the bytes consumed from the wrapped stream.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        private long mCount;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        long getCount() {
+            return mCount;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b != -1) {
+                mCount++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final int read = super.read(b, off, len);
+            if (read > 0) {
+                mCount += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            final long skipped = super.skip(n);
+            mCount += skipped;
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
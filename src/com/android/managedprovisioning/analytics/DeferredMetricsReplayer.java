@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.managedprovisioning.analytics;
+
+import static com.android.internal.util.Preconditions.checkNotNull;
+
+import android.app.admin.DevicePolicyEventLogger;
+import android.os.SystemClock;
+import android.util.AtomicFile;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.managedprovisioning.DevicePolicyProtos.DevicePolicyEvent;
+import com.android.managedprovisioning.common.ProvisionLogger;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Replays the logs written by {@link DeferredMetricsWriter} to another {@link MetricsWriter}.
+ *
+ * <p>statsd cannot handle too many metrics at once, so the writes are paced by a token bucket:
+ * up to {@link #BURST_SIZE} events are written in a single
+ * {@link MetricsWriter#write(DevicePolicyEventLogger...)} call, and tokens are refilled at
+ * {@link #EVENTS_PER_SECOND}.
+ *
+ * <p>The {@link DeferredMetricsLog} is rotated before it is replayed, so that only the rotated
+ * file is read and deleted, while new events are written to a new file. The offset of the first
+ * event which hasn't been written yet is checkpointed to a file next to the rotated file, so a
+ * replay which is cancelled resumes where it stopped. The rotated file and the checkpoint are
+ * deleted once everything has been replayed.
+ */
+class DeferredMetricsReplayer {
+    @VisibleForTesting
+    static final int EVENTS_PER_SECOND = 100;
+    @VisibleForTesting
+    static final int BURST_SIZE = 20;
+    /** Number of written events after which the offset is checkpointed. */
+    @VisibleForTesting
+    static final int CHECKPOINT_INTERVAL = 200;
+    private static final String CHECKPOINT_SUFFIX = ".offset";
+
+    private final DeferredMetricsLog mLog;
+    private final File mFile;
+    private final AtomicFile mCheckpointFile;
+    private final MetricsWriter mMetricsWriter;
+    private final TokenBucket mTokenBucket;
+    private volatile boolean mCancelled;
+
+    DeferredMetricsReplayer(File file, MetricsWriter metricsWriter) {
+        this(DeferredMetricsLog.getInstance(file), metricsWriter,
+                new TokenBucket(BURST_SIZE, EVENTS_PER_SECOND));
+    }
+
+    @VisibleForTesting
+    DeferredMetricsReplayer(DeferredMetricsLog log, MetricsWriter metricsWriter,
+            TokenBucket tokenBucket) {
+        mLog = checkNotNull(log);
+        mFile = log.getRotatedFile();
+        mCheckpointFile = new AtomicFile(new File(mFile.getPath() + CHECKPOINT_SUFFIX));
+        mMetricsWriter = checkNotNull(metricsWriter);
+        mTokenBucket = checkNotNull(tokenBucket);
+    }
+
+    /**
+     * Stops the replay after the batch which is being written.
+     */
+    void cancel() {
+        mCancelled = true;
+    }
+
+    /**
+     * Writes the logs which haven't been replayed yet.
+     *
+     * @return {@code true} if there is nothing left to replay, or {@code false} if the replay was
+     * cancelled or interrupted before reaching the end of the logs.
+     */
+    boolean replay() {
+        try {
+            if (mLog.rotate() == null) {
+                return true;
+            }
+        } catch (InterruptedException e) {
+            ProvisionLogger.loge("Interrupted while rotating metrics.", e);
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        long offset = readCheckpoint();
+        if (offset > mFile.length()) {
+            // The rotated file was recreated since the checkpoint was written.
+            ProvisionLogger.logw("Metrics checkpoint past the end of the logs, replaying all.");
+            offset = 0;
+        }
+        int uncheckpointed = 0;
+        try (DeferredMetricsLog.Reader reader = DeferredMetricsLog.Reader.open(mFile, offset)) {
+            final List<DevicePolicyEventLogger> batch = new ArrayList<>(BURST_SIZE);
+            boolean reachedEnd = false;
+            while (!reachedEnd) {
+                if (mCancelled) {
+                    writeCheckpoint(offset);
+                    return false;
+                }
+                final int tokens = mTokenBucket.acquire(BURST_SIZE);
+                batch.clear();
+                while (batch.size() < tokens && !reachedEnd) {
+                    final DevicePolicyEvent event = readEvent(reader);
+                    if (event == null) {
+                        reachedEnd = true;
+                    } else {
+                        batch.add(devicePolicyEventToLogger(event));
+                    }
+                }
+                if (batch.isEmpty()) {
+                    continue;
+                }
+                mMetricsWriter.write(batch.toArray(new DevicePolicyEventLogger[batch.size()]));
+                offset = reader.getOffset();
+                uncheckpointed += batch.size();
+                if (uncheckpointed >= CHECKPOINT_INTERVAL && !reachedEnd) {
+                    writeCheckpoint(offset);
+                    uncheckpointed = 0;
+                }
+            }
+        } catch (InterruptedException e) {
+            ProvisionLogger.loge("Interrupted while replaying metrics.", e);
+            writeCheckpoint(offset);
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (IOException e) {
+            ProvisionLogger.loge("Could not read deferred metrics.", e);
+        }
+        deleteFiles();
+        return true;
+    }
+
+    /**
+     * Returns the next event, or {@code null} at the end of the logs. The logs can't be parsed
+     * past a corrupted event, so it is treated as the end.
+     */
+    private static DevicePolicyEvent readEvent(DeferredMetricsLog.Reader reader) {
+        try {
+            return reader.next();
+        } catch (IOException e) {
+            ProvisionLogger.loge(
+                    "Could not parse DevicePolicyEvent while reading from stream.", e);
+            return null;
+        }
+    }
+
+    @VisibleForTesting
+    long readCheckpoint() {
+        if (!mCheckpointFile.getBaseFile().exists()) {
+            return 0;
+        }
+        try {
+            final String offset =
+                    new String(mCheckpointFile.readFully(), StandardCharsets.UTF_8).trim();
+            return Math.max(0, Long.parseLong(offset));
+        } catch (IOException | NumberFormatException e) {
+            ProvisionLogger.loge("Could not read metrics checkpoint, replaying all.", e);
+            return 0;
+        }
+    }
+
+    private void writeCheckpoint(long offset) {
+        FileOutputStream stream = null;
+        try {
+            stream = mCheckpointFile.startWrite();
+            stream.write(Long.toString(offset).getBytes(StandardCharsets.UTF_8));
+            mCheckpointFile.finishWrite(stream);
+        } catch (IOException e) {
+            ProvisionLogger.loge("Could not write metrics checkpoint.", e);
+            mCheckpointFile.failWrite(stream);
+        }
+    }
+
+    private void deleteFiles() {
+        mFile.delete();
+        mCheckpointFile.delete();
+    }
+
+    private static DevicePolicyEventLogger devicePolicyEventToLogger(DevicePolicyEvent event) {
+        final DevicePolicyEventLogger eventLogger = DevicePolicyEventLogger
+                .createEvent(event.getEventId())
+                .setAdmin(event.getAdminPackageName())
+                .setInt(event.getIntegerValue())
+                .setBoolean(event.getBooleanValue())
+                .setTimePeriod(event.getTimePeriodMillis());
+        if (event.getStringListValueCount() > 0) {
+            eventLogger.setStrings(event.getStringListValueList().toArray(new String[0]));
+        }
+        return eventLogger;
+    }
+
+    /**
+     * Token bucket which holds at most {@code capacity} tokens and is refilled continuously at
+     * {@code tokensPerSecond}. It starts full.
+     */
+    @VisibleForTesting
+    static class TokenBucket {
+        private final int mCapacity;
+        private final double mTokensPerMilli;
+        @GuardedBy("this")
+        private double mTokens;
+        @GuardedBy("this")
+        private long mLastRefill;
+
+        TokenBucket(int capacity, int tokensPerSecond) {
+            mCapacity = capacity;
+            mTokensPerMilli = tokensPerSecond / 1000.0;
+            mTokens = capacity;
+            mLastRefill = SystemClock.elapsedRealtime();
+        }
+
+        /**
+         * Waits until at least one token is available and takes up to {@code max} tokens.
+         *
+         * @return the number of tokens taken, between 1 and {@code max}.
+         */
+        synchronized int acquire(int max) throws InterruptedException {
+            while (true) {
+                final long now = SystemClock.elapsedRealtime();
+                mTokens = Math.min(mCapacity, mTokens + (now - mLastRefill) * mTokensPerMilli);
+                mLastRefill = now;
+                if (mTokens >= 1) {
+                    final int taken = (int) Math.min(max, mTokens);
+                    mTokens -= taken;
+                    return taken;
+                }
+                wait(Math.max(1, (long) Math.ceil((1 - mTokens) / mTokensPerMilli)));
+            }
+        }
+    }
+}
@@ -18,26 +18,23 @@ package com.android.managedprovisioning.analytics;
 
 import static com.android.internal.util.Preconditions.checkNotNull;
 
-import android.app.admin.DevicePolicyEventLogger;
 import android.app.job.JobParameters;
 import android.app.job.JobService;
 import android.os.AsyncTask;
 import android.os.PersistableBundle;
 
 import com.android.internal.annotations.VisibleForTesting;
-import com.android.managedprovisioning.DevicePolicyProtos.DevicePolicyEvent;
-import com.android.managedprovisioning.common.ProvisionLogger;
-
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
 import java.io.InputStream;
 
 /**
  * A {@link JobService} that reads the logs from the {@link InputStream} written to by
  * {@link DeferredMetricsWriter} and writes them using another {@link MetricsWriter}.
  *
+ * <p>The logs are replayed by a {@link DeferredMetricsReplayer}. If the job is stopped, the replay
+ * stops at the next batch and the job is rescheduled to resume from the checkpointed offset.
+ *
  * @see DeferredMetricsWriter
  */
 public class ProcessMetricsJobService extends JobService {
@@ -45,6 +42,7 @@ public class ProcessMetricsJobService extends JobService {
     static String EXTRA_FILE_PATH = "extra_file_path";
 
     private final MetricsWriter mMetricsWriter;
+    private ReadDeferredMetricsAsyncTask mReadTask;
 
     @VisibleForTesting
     ProcessMetricsJobService(MetricsWriter metricsWriter) {
@@ -62,7 +60,7 @@ public class ProcessMetricsJobService extends JobService {
             return false;
         }
         final File metrics = new File(extras.getString(EXTRA_FILE_PATH));
-        if (!metrics.exists()) {
+        if (!metrics.exists() && !DeferredMetricsLog.getRotatedFile(metrics).exists()) {
             return false;
         }
         executeReadDeferredMetrics(params, metrics);
@@ -72,81 +70,59 @@ public class ProcessMetricsJobService extends JobService {
     @VisibleForTesting
     void executeReadDeferredMetrics(JobParameters params,
             File metricsFile) {
-        new ReadDeferredMetricsAsyncTask(params, metricsFile, mMetricsWriter).execute();
+        mReadTask = new ReadDeferredMetricsAsyncTask(params,
+                new DeferredMetricsReplayer(metricsFile, mMetricsWriter));
+        // Not using the serial executor, the replay may take long.
+        mReadTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
     }
 
     @Override
     public boolean onStopJob(JobParameters params) {
-        return false;
+        if (mReadTask == null) {
+            return false;
+        }
+        mReadTask.stop();
+        mReadTask = null;
+        // Resume from the checkpoint when the job runs again.
+        return true;
     }
 
     /**
-     * An {@link AsyncTask} which reads the logs from the {@link File} specified in the constructor
-     * and writes them to the specified {@link MetricsWriter}.
+     * An {@link AsyncTask} which replays the logs with the specified
+     * {@link DeferredMetricsReplayer}.
      *
-     * <p>The {@link File} will be deleted after they are written to the {@link MetricsWriter}.
+     * <p>The logs are deleted after they are all written to the {@link MetricsWriter}.
      */
-    private class ReadDeferredMetricsAsyncTask extends AsyncTask<Void, Void, Void> {
-        private static final int METRICS_INTERVAL_MILLIS = 10;
-        private final MetricsWriter mMetricsWriter;
-        private final File mFile;
+    private class ReadDeferredMetricsAsyncTask extends AsyncTask<Void, Void, Boolean> {
+        private final DeferredMetricsReplayer mReplayer;
         private final JobParameters mJobParameters;
+        private volatile boolean mStopped;
 
-        ReadDeferredMetricsAsyncTask(JobParameters params,
-                File file,
-                MetricsWriter metricsWriter) {
-            mFile = checkNotNull(file);
-            mMetricsWriter = metricsWriter;
+        ReadDeferredMetricsAsyncTask(JobParameters params, DeferredMetricsReplayer replayer) {
+            mReplayer = checkNotNull(replayer);
             mJobParameters = params;
         }
 
-        @Override
-        protected Void doInBackground(Void... voids) {
-            try (InputStream inputStream =  new FileInputStream(mFile)) {
-                DevicePolicyEvent event;
-                while ((event = DevicePolicyEvent.parseDelimitedFrom(inputStream)) != null) {
-                    delayProcessMetric();
-                    mMetricsWriter.write(devicePolicyEventToLogger(event));
-                }
-            } catch (IOException e) {
-                ProvisionLogger.loge(
-                        "Could not parse DevicePolicyEvent while reading from stream.", e);
-            } finally {
-                mFile.delete();
-            }
-            return null;
+        void stop() {
+            mStopped = true;
+            mReplayer.cancel();
         }
 
         @Override
-        protected void onPostExecute(Void aVoid) {
-            jobFinished(mJobParameters, false);
+        protected Boolean doInBackground(Void... voids) {
+            return mReplayer.replay();
         }
 
-        /**
-         * Waits for {@link #METRICS_INTERVAL_MILLIS}.
-         * <p>statsd cannot handle too many metrics at once, so we must wait between each
-         * {@link MetricsWriter#write(DevicePolicyEventLogger...)} call.
-         */
-        private void delayProcessMetric() {
-            try {
-                Thread.sleep(METRICS_INTERVAL_MILLIS);
-            } catch (InterruptedException e) {
-                ProvisionLogger.loge(
-                        "Thread interrupted while waiting to log metric.", e);
+        @Override
+        protected void onPostExecute(Boolean finished) {
+            if (mStopped) {
+                // The job scheduler already knows the job was stopped.
+                return;
             }
-        }
-
-        private DevicePolicyEventLogger devicePolicyEventToLogger(DevicePolicyEvent event) {
-            final DevicePolicyEventLogger eventLogger = DevicePolicyEventLogger
-                    .createEvent(event.getEventId())
-                    .setAdmin(event.getAdminPackageName())
-                    .setInt(event.getIntegerValue())
-                    .setBoolean(event.getBooleanValue())
-                    .setTimePeriod(event.getTimePeriodMillis());
-            if (event.getStringListValueCount() > 0) {
-                eventLogger.setStrings(event.getStringListValueList().toArray(new String[0]));
+            if (mReadTask == this) {
+                mReadTask = null;
             }
-            return eventLogger;
+            jobFinished(mJobParameters, !finished);
         }
     }
 }
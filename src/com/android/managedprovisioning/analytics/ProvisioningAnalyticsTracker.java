@@ -92,6 +92,13 @@ public class ProvisioningAnalyticsTracker {
     private static final int PROVISIONING_FLOW_TYPE_ADMIN_INTEGRATED = 1;
     private static final int PROVISIONING_FLOW_TYPE_LEGACY = 2;
 
+    private static final String HISTOGRAM_INSTALL_PACKAGE_THROUGHPUT =
+            "provisioning_install_package_throughput_kbps";
+    private static final String HISTOGRAM_DELETE_PACKAGE_LATENCY =
+            "provisioning_delete_package_latency_ms";
+    private static final String HISTOGRAM_OTA_TASK_LATENCY = "provisioning_ota_task_latency_ms";
+    private static final String OTA_TAG = "ota";
+
     private final MetricsWriter mMetricsWriter;
 
     public ProvisioningAnalyticsTracker(MetricsWriter metricsWriter,
@@ -220,6 +227,66 @@ public class ProvisioningAnalyticsTracker {
                 .setTimePeriod(AnalyticsUtils.getProvisioningTime(mSharedPreferences)));
     }
 
+    /**
+     * Logs the throughput of writing the admin package into the install session.
+     *
+     * @param context Context passed to MetricsLogger
+     * @param bytes Size of the package
+     * @param durationMs Time it took to write the package
+     */
+    public void logPackageInstallThroughput(Context context, long bytes, long durationMs) {
+        // Avoid dividing by zero for tiny packages on fast devices.
+        final long kbPerSecond = bytes * 1000 / 1024 / Math.max(durationMs, 1);
+        mMetricsLoggerWrapper.logHistogram(context, HISTOGRAM_INSTALL_PACKAGE_THROUGHPUT,
+                (int) Math.min(kbPerSecond, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Logs how long it took to delete a non-required package.
+     *
+     * @param context Context passed to MetricsLogger
+     * @param latencyMs Time between requesting the deletion and it finishing
+     */
+    public void logPackageDeletionLatency(Context context, long latencyMs) {
+        mMetricsLoggerWrapper.logHistogram(context, HISTOGRAM_DELETE_PACKAGE_LATENCY,
+                (int) Math.min(latencyMs, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Logs how long a task run after a system update took to complete.
+     *
+     * @param context Context passed to MetricsLogger
+     * @param task Task which completed
+     * @param latencyMs Time between starting the task and it reporting its result
+     */
+    public void logOtaTaskCompleted(Context context, AbstractProvisioningTask task,
+            long latencyMs) {
+        mMetricsLoggerWrapper.logHistogram(context, HISTOGRAM_OTA_TASK_LATENCY,
+                (int) Math.min(latencyMs, Integer.MAX_VALUE));
+        mMetricsWriter.write(DevicePolicyEventLogger
+                .createEvent(DevicePolicyEnums.PROVISIONING_TOTAL_TASK_TIME_MS)
+                .setStrings(task.getClass().getSimpleName(), OTA_TAG)
+                .setTimePeriod(latencyMs));
+    }
+
+    /**
+     * Logs a task run after a system update that failed or didn't complete in time.
+     *
+     * @param context Context passed to MetricsLogger
+     * @param task Task which failed
+     * @param errorCode Code indicating the type of error that happened
+     * @param latencyMs Time between starting the task and it failing
+     */
+    public void logOtaTaskError(Context context, AbstractProvisioningTask task, int errorCode,
+            long latencyMs) {
+        mMetricsLoggerWrapper.logAction(context, PROVISIONING_ERROR,
+                AnalyticsUtils.getErrorString(task, errorCode));
+        mMetricsWriter.write(DevicePolicyEventLogger
+                .createEvent(DevicePolicyEnums.PROVISIONING_ERROR)
+                .setStrings(AnalyticsUtils.getErrorString(task, errorCode), OTA_TAG)
+                .setTimePeriod(latencyMs));
+    }
+
     /**
      * logs number of terms read on the terms screen.
      *
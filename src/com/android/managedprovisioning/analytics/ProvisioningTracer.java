@@ -0,0 +1,384 @@
+/*
+ * Copyright 2019, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.analytics;
+
+import android.os.Binder;
+import android.os.IBinder;
+import android.os.SystemClock;
+import android.os.SystemProperties;
+import android.os.Trace;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.managedprovisioning.task.AbstractProvisioningTask;
+
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Traces the execution of provisioning tasks.
+ *
+ * <p>A {@link Session} is started for every provisioning flow, and records a span for each of its
+ * tasks: how long the task waited for a worker, how long {@link AbstractProvisioningTask#run(int)}
+ * took, how long the task took to report its result after that, and, if enabled, how many
+ * binder calls were made while it was running. Spans are exported as systrace sections, a
+ * synchronous one for the run and an asynchronous one from queueing until the result. The
+ * timelines of the last {@link #MAX_SESSIONS} sessions can be dumped, together with the tasks
+ * which didn't report their result yet and per-task latency histograms across these sessions.</p>
+ *
+ * <p>Binder calls are counted by a process wide {@link Binder.ProxyTransactListener}, which adds
+ * overhead to every binder call of the process, so it is only installed if
+ * {@link #COUNT_BINDER_CALLS_PROPERTY} is true when the tracer is created, e.g. after
+ * {@code adb shell setprop debug.managed_provisioning.count_binder_calls true} and restarting
+ * the process. Only the calls made by {@link AbstractProvisioningTask#run(int)} on the thread
+ * that called it are counted, not the ones made by work it hands off to other threads or by its
+ * asynchronous completion.</p>
+ */
+public class ProvisioningTracer {
+    @VisibleForTesting
+    static final int MAX_SESSIONS = 5;
+    /** Upper bounds of the latency histogram buckets, the last bucket has no bound. */
+    private static final long[] HISTOGRAM_BUCKETS_MS = {100, 1_000, 10_000, 60_000};
+
+    @VisibleForTesting
+    static final String COUNT_BINDER_CALLS_PROPERTY =
+            "debug.managed_provisioning.count_binder_calls";
+
+    private static ProvisioningTracer sInstance;
+    /** Whether the binder calls of the tasks are counted, never reset once set. */
+    private static volatile boolean sCountingBinderCalls;
+    /** The span of the task being run by the current thread, if any. */
+    private static final ThreadLocal<TaskSpan> sRunningSpan = new ThreadLocal<>();
+
+    private final AtomicInteger mNextCookie = new AtomicInteger();
+    @GuardedBy("mSessions")
+    private final ArrayDeque<Session> mSessions = new ArrayDeque<>();
+
+    public static synchronized ProvisioningTracer getInstance() {
+        if (sInstance == null) {
+            sInstance = new ProvisioningTracer();
+            if (SystemProperties.getBoolean(COUNT_BINDER_CALLS_PROPERTY, false)) {
+                installBinderCallCounter();
+                sCountingBinderCalls = true;
+            }
+        }
+        return sInstance;
+    }
+
+    /**
+     * Creates a tracer which doesn't count binder calls.
+     */
+    @VisibleForTesting
+    public ProvisioningTracer() {}
+
+    /**
+     * Starts tracing a provisioning flow. The oldest session is dropped if there are more than
+     * {@link #MAX_SESSIONS}.
+     */
+    public Session startSession(String name) {
+        final Session session = new Session(name);
+        synchronized (mSessions) {
+            mSessions.addLast(session);
+            while (mSessions.size() > MAX_SESSIONS) {
+                mSessions.removeFirst();
+            }
+        }
+        return session;
+    }
+
+    /**
+     * Prints the process wide tracer, if it was created. Doesn't create it, since that may install
+     * a binder listener.
+     */
+    public static void dumpIfCreated(PrintWriter pw) {
+        final ProvisioningTracer instance;
+        synchronized (ProvisioningTracer.class) {
+            instance = sInstance;
+        }
+        if (instance == null) {
+            pw.println("No provisioning traced");
+        } else {
+            instance.dump(pw);
+        }
+    }
+
+    /**
+     * Prints the tasks which didn't report their result yet, the latency histogram of each task
+     * and the timelines of the recent sessions, oldest first.
+     */
+    public void dump(PrintWriter pw) {
+        final List<Session> sessions;
+        synchronized (mSessions) {
+            sessions = new ArrayList<>(mSessions);
+        }
+        final long now = SystemClock.elapsedRealtime();
+        pw.println("Outstanding tasks:");
+        for (Session session : sessions) {
+            session.dumpOutstanding(pw, now);
+        }
+
+        final Map<String, LatencyHistogram> histograms = new TreeMap<>();
+        for (Session session : sessions) {
+            session.addLatencies(histograms);
+        }
+        pw.println("Task latency histograms:");
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            pw.println("  " + entry.getKey() + ": " + entry.getValue());
+        }
+
+        pw.println("Provisioning sessions: " + sessions.size());
+        for (Session session : sessions) {
+            session.dump(pw);
+        }
+    }
+
+    private static void installBinderCallCounter() {
+        Binder.setProxyTransactListener(new Binder.ProxyTransactListener() {
+            @Override
+            public Object onTransactStarted(IBinder binder, int transactionCode) {
+                final TaskSpan span = sRunningSpan.get();
+                if (span != null) {
+                    span.binderCalls++;
+                }
+                return null;
+            }
+
+            @Override
+            public void onTransactEnded(Object session) {}
+        });
+    }
+
+    /**
+     * Timeline of the tasks of one provisioning flow.
+     */
+    public final class Session {
+        private final String mName;
+        private final long mStartTime = SystemClock.elapsedRealtime();
+        private final long mStartWallTime = System.currentTimeMillis();
+        @GuardedBy("this")
+        private final List<TaskSpan> mSpans = new ArrayList<>();
+        /** Spans of the tasks which didn't report their result yet. */
+        @GuardedBy("this")
+        private final Map<AbstractProvisioningTask, TaskSpan> mActiveSpans = new HashMap<>();
+        @GuardedBy("this")
+        private long mEndTime = -1;
+
+        private Session(String name) {
+            mName = name;
+        }
+
+        /**
+         * Called when {@code task} is queued to run for {@code userId}.
+         */
+        public synchronized void onTaskQueued(AbstractProvisioningTask task, int userId) {
+            final TaskSpan span = new TaskSpan(task.getClass().getSimpleName(), userId,
+                    mNextCookie.incrementAndGet(), SystemClock.elapsedRealtime());
+            mSpans.add(span);
+            mActiveSpans.put(task, span);
+            Trace.beginAsyncSection(span.name, span.cookie);
+        }
+
+        /**
+         * Called on the thread running {@code task}, just before calling
+         * {@link AbstractProvisioningTask#run(int)}.
+         */
+        public void onTaskStarted(AbstractProvisioningTask task) {
+            final TaskSpan span;
+            synchronized (this) {
+                span = mActiveSpans.get(task);
+                if (span == null) {
+                    return;
+                }
+                span.startTime = SystemClock.elapsedRealtime();
+            }
+            sRunningSpan.set(span);
+            Trace.beginSection(span.name);
+        }
+
+        /**
+         * Called on the thread running {@code task}, just after
+         * {@link AbstractProvisioningTask#run(int)} returned or threw.
+         */
+        public void onTaskRunReturned(AbstractProvisioningTask task) {
+            final TaskSpan span = sRunningSpan.get();
+            if (span == null) {
+                return;
+            }
+            sRunningSpan.remove();
+            Trace.endSection();
+            synchronized (this) {
+                span.runEndTime = SystemClock.elapsedRealtime();
+            }
+        }
+
+        /**
+         * Called when {@code task} reported its result, or gave up waiting for it.
+         */
+        public synchronized void onTaskCompleted(AbstractProvisioningTask task, boolean success) {
+            final TaskSpan span = mActiveSpans.remove(task);
+            if (span == null) {
+                return;
+            }
+            span.endTime = SystemClock.elapsedRealtime();
+            span.success = success;
+            Trace.endAsyncSection(span.name, span.cookie);
+        }
+
+        /**
+         * Called when the provisioning flow finished. Tasks that didn't report their result are
+         * shown as pending.
+         */
+        public synchronized void finish() {
+            if (mEndTime != -1) {
+                return;
+            }
+            mEndTime = SystemClock.elapsedRealtime();
+            for (TaskSpan span : mActiveSpans.values()) {
+                Trace.endAsyncSection(span.name, span.cookie);
+            }
+            mActiveSpans.clear();
+        }
+
+        synchronized void dumpOutstanding(PrintWriter pw, long now) {
+            for (TaskSpan span : mActiveSpans.values()) {
+                pw.println("  " + mName + ": " + span + ", queued " + (now - span.queueTime)
+                        + "ms ago");
+            }
+        }
+
+        synchronized void addLatencies(Map<String, LatencyHistogram> histograms) {
+            for (TaskSpan span : mSpans) {
+                if (span.endTime != -1) {
+                    histograms.computeIfAbsent(span.name, name -> new LatencyHistogram())
+                            .add(span.endTime - span.queueTime);
+                }
+            }
+        }
+
+        synchronized void dump(PrintWriter pw) {
+            final SimpleDateFormat format =
+                    new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.US);
+            pw.print("  " + mName + ", started " + format.format(new Date(mStartWallTime)));
+            if (mEndTime == -1) {
+                pw.println(", running for " + (SystemClock.elapsedRealtime() - mStartTime)
+                        + "ms");
+            } else {
+                pw.println(", took " + (mEndTime - mStartTime) + "ms");
+            }
+            for (TaskSpan span : mSpans) {
+                pw.println("    +" + (span.queueTime - mStartTime) + "ms " + span.toString());
+            }
+        }
+
+        @VisibleForTesting
+        synchronized List<String> getSpanDescriptions() {
+            final List<String> descriptions = new ArrayList<>();
+            for (TaskSpan span : mSpans) {
+                descriptions.add(span.toString());
+            }
+            return descriptions;
+        }
+    }
+
+    /**
+     * Timings of a single task. Times are {@link SystemClock#elapsedRealtime()}, -1 until the
+     * task gets there.
+     */
+    private static final class TaskSpan {
+        final String name;
+        final int userId;
+        final int cookie;
+        final long queueTime;
+        long startTime = -1;
+        long runEndTime = -1;
+        long endTime = -1;
+        boolean success;
+        /** Only incremented by the thread running the task, and only in debug builds. */
+        volatile int binderCalls;
+
+        TaskSpan(String name, int userId, int cookie, long queueTime) {
+            this.name = name;
+            this.userId = userId;
+            this.cookie = cookie;
+            this.queueTime = queueTime;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder(name).append(" user=").append(userId);
+            if (startTime == -1) {
+                return sb.append(" queued").toString();
+            }
+            sb.append(" wait=").append(startTime - queueTime).append("ms");
+            if (runEndTime != -1) {
+                sb.append(" run=").append(runEndTime - startTime).append("ms");
+            }
+            if (endTime == -1) {
+                sb.append(" pending");
+            } else {
+                if (runEndTime != -1 && endTime > runEndTime) {
+                    sb.append(" async=").append(endTime - runEndTime).append("ms");
+                }
+                sb.append(success ? " succeeded" : " failed");
+            }
+            if (sCountingBinderCalls) {
+                sb.append(" binderCalls=").append(binderCalls);
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Histogram of the latencies of a task, from queueing until the result.
+     */
+    private static final class LatencyHistogram {
+        private final int[] mCounts = new int[HISTOGRAM_BUCKETS_MS.length + 1];
+        private int mTotal;
+        private long mMaxMs;
+
+        void add(long latencyMs) {
+            int bucket = 0;
+            while (bucket < HISTOGRAM_BUCKETS_MS.length
+                    && latencyMs >= HISTOGRAM_BUCKETS_MS[bucket]) {
+                bucket++;
+            }
+            mCounts[bucket]++;
+            mTotal++;
+            mMaxMs = Math.max(mMaxMs, latencyMs);
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder("n=").append(mTotal);
+            for (int i = 0; i < HISTOGRAM_BUCKETS_MS.length; i++) {
+                sb.append(" <").append(HISTOGRAM_BUCKETS_MS[i]).append("ms:").append(mCounts[i]);
+            }
+            sb.append(" >=").append(HISTOGRAM_BUCKETS_MS[HISTOGRAM_BUCKETS_MS.length - 1])
+                    .append("ms:").append(mCounts[HISTOGRAM_BUCKETS_MS.length]);
+            return sb.append(" max=").append(mMaxMs).append("ms").toString();
+        }
+    }
+}
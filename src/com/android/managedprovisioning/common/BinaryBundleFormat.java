@@ -0,0 +1,351 @@
+/*
+ * Copyright 2019, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.common;
+
+import android.os.PersistableBundle;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Compact binary encoding of a {@link PersistableBundle}, used instead of its XML form to persist
+ * state.
+ *
+ * <p>The encoding starts with a magic number and a version byte, followed by the bundle. A bundle
+ * is encoded as its number of entries followed by the entries, each one being the key, a type
+ * byte, the length of the value and the value. Values whose type isn't known are skipped using
+ * their length, so that newer versions can add types without breaking older readers. Numbers
+ * which aren't fixed size are unsigned variable length integers, strings are encoded as their
+ * UTF-8 length plus one (zero for {@code null}) followed by the UTF-8 bytes.</p>
+ */
+public final class BinaryBundleFormat {
+    private static final int MAGIC = 0x4d504242; // "MPBB"
+    private static final int VERSION = 1;
+
+    private static final int TYPE_NULL = 0;
+    private static final int TYPE_INT = 1;
+    private static final int TYPE_LONG = 2;
+    private static final int TYPE_DOUBLE = 3;
+    private static final int TYPE_STRING = 4;
+    private static final int TYPE_BOOLEAN = 5;
+    private static final int TYPE_INT_ARRAY = 6;
+    private static final int TYPE_LONG_ARRAY = 7;
+    private static final int TYPE_DOUBLE_ARRAY = 8;
+    private static final int TYPE_STRING_ARRAY = 9;
+    private static final int TYPE_BOOLEAN_ARRAY = 10;
+    private static final int TYPE_BUNDLE = 11;
+
+    private BinaryBundleFormat() {}
+
+    /**
+     * Returns whether {@code data} starts like an encoded bundle.
+     */
+    public static boolean isEncoded(byte[] data) {
+        return data.length >= 5 && ByteBuffer.wrap(data).getInt() == MAGIC;
+    }
+
+    public static byte[] encode(PersistableBundle bundle) {
+        final Writer writer = new Writer();
+        writer.putInt(MAGIC);
+        writer.putByte(VERSION);
+        writer.putBundle(bundle);
+        return writer.toByteArray();
+    }
+
+    /**
+     * @throws IOException if {@code data} isn't an encoded bundle, or has an unsupported
+     * version.
+     */
+    public static PersistableBundle decode(byte[] data) throws IOException {
+        if (!isEncoded(data)) {
+            throw new IOException("Not an encoded bundle");
+        }
+        final ByteBuffer buffer = ByteBuffer.wrap(data);
+        buffer.position(4);
+        final int version = buffer.get();
+        if (version != VERSION) {
+            throw new IOException("Unsupported bundle version " + version);
+        }
+        try {
+            return readBundle(buffer);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Malformed bundle", e);
+        }
+    }
+
+    private static PersistableBundle readBundle(ByteBuffer buffer) throws IOException {
+        final int count = readVarInt(buffer);
+        final PersistableBundle bundle = new PersistableBundle(count);
+        for (int i = 0; i < count; i++) {
+            final String key = readString(buffer);
+            final int type = buffer.get();
+            final int length = readVarInt(buffer);
+            final int end = buffer.position() + length;
+            if (length > buffer.remaining()) {
+                throw new IOException("Truncated value of " + key);
+            }
+            switch (type) {
+                case TYPE_NULL:
+                    bundle.putString(key, null);
+                    break;
+                case TYPE_INT:
+                    bundle.putInt(key, buffer.getInt());
+                    break;
+                case TYPE_LONG:
+                    bundle.putLong(key, buffer.getLong());
+                    break;
+                case TYPE_DOUBLE:
+                    bundle.putDouble(key, buffer.getDouble());
+                    break;
+                case TYPE_STRING:
+                    bundle.putString(key, readString(buffer));
+                    break;
+                case TYPE_BOOLEAN:
+                    bundle.putBoolean(key, buffer.get() != 0);
+                    break;
+                case TYPE_INT_ARRAY: {
+                    final int[] array = new int[readVarInt(buffer)];
+                    for (int j = 0; j < array.length; j++) {
+                        array[j] = buffer.getInt();
+                    }
+                    bundle.putIntArray(key, array);
+                    break;
+                }
+                case TYPE_LONG_ARRAY: {
+                    final long[] array = new long[readVarInt(buffer)];
+                    for (int j = 0; j < array.length; j++) {
+                        array[j] = buffer.getLong();
+                    }
+                    bundle.putLongArray(key, array);
+                    break;
+                }
+                case TYPE_DOUBLE_ARRAY: {
+                    final double[] array = new double[readVarInt(buffer)];
+                    for (int j = 0; j < array.length; j++) {
+                        array[j] = buffer.getDouble();
+                    }
+                    bundle.putDoubleArray(key, array);
+                    break;
+                }
+                case TYPE_STRING_ARRAY: {
+                    final String[] array = new String[readVarInt(buffer)];
+                    for (int j = 0; j < array.length; j++) {
+                        array[j] = readString(buffer);
+                    }
+                    bundle.putStringArray(key, array);
+                    break;
+                }
+                case TYPE_BOOLEAN_ARRAY: {
+                    final boolean[] array = new boolean[readVarInt(buffer)];
+                    for (int j = 0; j < array.length; j++) {
+                        array[j] = buffer.get() != 0;
+                    }
+                    bundle.putBooleanArray(key, array);
+                    break;
+                }
+                case TYPE_BUNDLE:
+                    bundle.putPersistableBundle(key, readBundle(buffer));
+                    break;
+                default:
+                    // Written by a newer version.
+                    ProvisionLogger.logw("Skipping value of unknown type " + type + ": " + key);
+            }
+            if (buffer.position() > end) {
+                throw new IOException("Malformed value of " + key);
+            }
+            buffer.position(end);
+        }
+        return bundle;
+    }
+
+    private static int readVarInt(ByteBuffer buffer) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            final int b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) {
+                    throw new IOException("Malformed length");
+                }
+                return value;
+            }
+        }
+        throw new IOException("Malformed length");
+    }
+
+    private static String readString(ByteBuffer buffer) throws IOException {
+        final int length = readVarInt(buffer) - 1;
+        if (length < 0) {
+            return null;
+        }
+        if (length > buffer.remaining()) {
+            throw new IOException("Truncated string");
+        }
+        final String value = new String(buffer.array(), buffer.position(), length,
+                StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    /**
+     * Growable big-endian buffer, which can patch the length of a value after writing it.
+     */
+    private static final class Writer {
+        /** Bytes reserved for the length of a value, which is patched once it is known. */
+        private static final int LENGTH_SIZE = 5;
+
+        private byte[] mData = new byte[512];
+        private int mSize;
+
+        void putBundle(PersistableBundle bundle) {
+            putVarInt(bundle.size());
+            for (String key : bundle.keySet()) {
+                putString(key);
+                putValue(bundle.get(key));
+            }
+        }
+
+        private void putValue(Object value) {
+            final int typePosition = mSize;
+            putByte(0);
+            final int lengthPosition = mSize;
+            ensureCapacity(LENGTH_SIZE);
+            mSize += LENGTH_SIZE;
+            final int type;
+            if (value == null) {
+                type = TYPE_NULL;
+            } else if (value instanceof Integer) {
+                type = TYPE_INT;
+                putInt((Integer) value);
+            } else if (value instanceof Long) {
+                type = TYPE_LONG;
+                putLong((Long) value);
+            } else if (value instanceof Double) {
+                type = TYPE_DOUBLE;
+                putLong(Double.doubleToRawLongBits((Double) value));
+            } else if (value instanceof String) {
+                type = TYPE_STRING;
+                putString((String) value);
+            } else if (value instanceof Boolean) {
+                type = TYPE_BOOLEAN;
+                putByte((Boolean) value ? 1 : 0);
+            } else if (value instanceof int[]) {
+                type = TYPE_INT_ARRAY;
+                final int[] array = (int[]) value;
+                putVarInt(array.length);
+                for (int element : array) {
+                    putInt(element);
+                }
+            } else if (value instanceof long[]) {
+                type = TYPE_LONG_ARRAY;
+                final long[] array = (long[]) value;
+                putVarInt(array.length);
+                for (long element : array) {
+                    putLong(element);
+                }
+            } else if (value instanceof double[]) {
+                type = TYPE_DOUBLE_ARRAY;
+                final double[] array = (double[]) value;
+                putVarInt(array.length);
+                for (double element : array) {
+                    putLong(Double.doubleToRawLongBits(element));
+                }
+            } else if (value instanceof String[]) {
+                type = TYPE_STRING_ARRAY;
+                final String[] array = (String[]) value;
+                putVarInt(array.length);
+                for (String element : array) {
+                    putString(element);
+                }
+            } else if (value instanceof boolean[]) {
+                type = TYPE_BOOLEAN_ARRAY;
+                final boolean[] array = (boolean[]) value;
+                putVarInt(array.length);
+                for (boolean element : array) {
+                    putByte(element ? 1 : 0);
+                }
+            } else if (value instanceof PersistableBundle) {
+                type = TYPE_BUNDLE;
+                putBundle((PersistableBundle) value);
+            } else {
+                throw new IllegalArgumentException("Unsupported value " + value.getClass());
+            }
+            mData[typePosition] = (byte) type;
+            patchLength(lengthPosition, mSize - lengthPosition - LENGTH_SIZE);
+        }
+
+        /** Writes {@code length} as a padded variable length integer of {@link #LENGTH_SIZE}. */
+        private void patchLength(int position, int length) {
+            for (int i = 0; i < LENGTH_SIZE - 1; i++) {
+                mData[position + i] = (byte) ((length & 0x7F) | 0x80);
+                length >>>= 7;
+            }
+            mData[position + LENGTH_SIZE - 1] = (byte) length;
+        }
+
+        void putByte(int value) {
+            ensureCapacity(1);
+            mData[mSize++] = (byte) value;
+        }
+
+        void putInt(int value) {
+            ensureCapacity(4);
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                mData[mSize++] = (byte) (value >>> shift);
+            }
+        }
+
+        private void putLong(long value) {
+            putInt((int) (value >>> 32));
+            putInt((int) value);
+        }
+
+        private void putVarInt(int value) {
+            ensureCapacity(LENGTH_SIZE);
+            while ((value & ~0x7F) != 0) {
+                mData[mSize++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            mData[mSize++] = (byte) value;
+        }
+
+        private void putString(String value) {
+            if (value == null) {
+                putVarInt(0);
+                return;
+            }
+            final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            putVarInt(bytes.length + 1);
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, mData, mSize, bytes.length);
+            mSize += bytes.length;
+        }
+
+        private void ensureCapacity(int extra) {
+            if (mSize + extra > mData.length) {
+                mData = Arrays.copyOf(mData, Math.max(mSize + extra, mData.length * 2));
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(mData, mSize);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2019, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.common;
+
+import android.annotation.Nullable;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Computes one or more digests of a file in a single pass over its content.
+ *
+ * <p>Files of at least {@link #DEFAULT_MAP_THRESHOLD} bytes are read through memory mapped
+ * regions of the {@link FileChannel}, so the content is never copied to the Java heap by us.
+ * Smaller files are read through one large buffer. Every region is fed into all requested
+ * digests before the next one is read.</p>
+ */
+public class FileDigester {
+    @VisibleForTesting
+    static final long DEFAULT_MAP_THRESHOLD = 4 * 1024 * 1024;
+    @VisibleForTesting
+    static final long DEFAULT_REGION_SIZE = 32 * 1024 * 1024;
+    @VisibleForTesting
+    static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+
+    private final long mMapThreshold;
+    private final long mRegionSize;
+    private final int mBufferSize;
+
+    public FileDigester() {
+        this(DEFAULT_MAP_THRESHOLD, DEFAULT_REGION_SIZE, DEFAULT_BUFFER_SIZE);
+    }
+
+    @VisibleForTesting
+    FileDigester(long mapThreshold, long regionSize, int bufferSize) {
+        mMapThreshold = mapThreshold;
+        mRegionSize = regionSize;
+        mBufferSize = bufferSize;
+    }
+
+    /**
+     * Computes the digests of a file.
+     *
+     * @param file the file to hash.
+     * @param algorithms names of the {@link MessageDigest} algorithms to compute, e.g.
+     *                   {@link Utils#SHA256_TYPE}.
+     * @return the digests keyed by algorithm name in the order they were requested, or
+     * {@code null} if an algorithm isn't supported or the file couldn't be read.
+     */
+    @Nullable
+    public Map<String, byte[]> digest(File file, String... algorithms) {
+        MessageDigest[] digests = new MessageDigest[algorithms.length];
+        for (int i = 0; i < algorithms.length; i++) {
+            try {
+                digests[i] = MessageDigest.getInstance(algorithms[i]);
+            } catch (NoSuchAlgorithmException e) {
+                ProvisionLogger.loge("Hashing algorithm " + algorithms[i] + " not supported.", e);
+                return null;
+            }
+        }
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size >= mMapThreshold) {
+                updateMapped(channel, size, digests);
+            } else {
+                updateBuffered(channel, digests);
+            }
+        } catch (IOException e) {
+            ProvisionLogger.loge("IO error.", e);
+            return null;
+        }
+
+        Map<String, byte[]> result = new LinkedHashMap<>();
+        for (int i = 0; i < algorithms.length; i++) {
+            result.put(algorithms[i], digests[i].digest());
+        }
+        return result;
+    }
+
+    private void updateMapped(FileChannel channel, long size, MessageDigest[] digests)
+            throws IOException {
+        for (long position = 0; position < size; position += mRegionSize) {
+            MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                    Math.min(mRegionSize, size - position));
+            update(region, digests);
+        }
+    }
+
+    private void updateBuffered(FileChannel channel, MessageDigest[] digests) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(mBufferSize);
+        while (channel.read(buffer) != -1) {
+            buffer.flip();
+            update(buffer, digests);
+            buffer.clear();
+        }
+    }
+
+    private static void update(ByteBuffer data, MessageDigest[] digests) {
+        int start = data.position();
+        for (MessageDigest digest : digests) {
+            data.position(start);
+            digest.update(data);
+        }
+    }
+}
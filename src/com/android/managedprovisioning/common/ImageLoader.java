@@ -0,0 +1,187 @@
+/*
+ * Copyright 2019, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.common;
+
+import android.annotation.Nullable;
+import android.annotation.WorkerThread;
+import android.graphics.Bitmap;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.LruCache;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Process wide loader of the images displayed during provisioning, such as the organisation logo
+ * and the device admin icon.
+ *
+ * <p>Images are decoded at most at the size they are displayed at, subsampling large images
+ * while they are decoded. Decoded bitmaps are kept in a small LRU cache by file and size, so that
+ * screens displaying the same image don't decode it again. A cached bitmap is dropped when its
+ * file is modified. Files which may still be copied by {@link UriContentFetcher} are awaited
+ * before they are decoded.</p>
+ */
+public class ImageLoader {
+    private static final int CACHE_SIZE_BYTES = 4 * 1024 * 1024;
+
+    private static ImageLoader sInstance;
+
+    private final Executor mExecutor;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final LruCache<String, CachedBitmap> mCache =
+            new LruCache<String, CachedBitmap>(CACHE_SIZE_BYTES) {
+                @Override
+                protected int sizeOf(String key, CachedBitmap value) {
+                    return value.mBitmap.getAllocationByteCount();
+                }
+            };
+
+    public static synchronized ImageLoader getInstance() {
+        if (sInstance == null) {
+            sInstance = new ImageLoader(AsyncTask.THREAD_POOL_EXECUTOR);
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    ImageLoader(Executor executor) {
+        mExecutor = executor;
+    }
+
+    /**
+     * Returns the bitmap decoded from {@code file} if it is cached, without decoding it.
+     */
+    @Nullable
+    public Bitmap getCached(File file, int maxWidth, int maxHeight) {
+        final String key = getKey(file, maxWidth, maxHeight);
+        final CachedBitmap cachedBitmap = mCache.get(key);
+        if (cachedBitmap == null) {
+            return null;
+        }
+        if (cachedBitmap.mLastModified != file.lastModified()) {
+            mCache.remove(key);
+            return null;
+        }
+        return cachedBitmap.mBitmap;
+    }
+
+    /**
+     * Returns the bitmap decoded from {@code file}, scaled down to fit in the given size, decoding
+     * it if it isn't cached.
+     *
+     * @return {@code null} if the file doesn't exist or can't be decoded
+     */
+    @WorkerThread
+    @Nullable
+    public Bitmap load(File file, int maxWidth, int maxHeight) {
+        if (!UriContentFetcher.getInstance().await(file)) {
+            return null;
+        }
+        Bitmap bitmap = getCached(file, maxWidth, maxHeight);
+        if (bitmap == null) {
+            bitmap = LogoUtils.decodeBitmap(file.getPath(), maxWidth, maxHeight);
+            if (bitmap == null) {
+                ProvisionLogger.loge("Could not decode image from " + file);
+            } else {
+                put(file, maxWidth, maxHeight, bitmap);
+            }
+        }
+        return bitmap;
+    }
+
+    /**
+     * Passes the bitmap {@link #load loaded} from {@code file} to {@code callback} on the main
+     * thread. The callback is called before returning if the bitmap is cached.
+     */
+    public void loadAsync(File file, int maxWidth, int maxHeight, Consumer<Bitmap> callback) {
+        final Bitmap bitmap = getCached(file, maxWidth, maxHeight);
+        if (bitmap != null) {
+            callback.accept(bitmap);
+        } else {
+            decodeAsync(() -> load(file, maxWidth, maxHeight), callback);
+        }
+    }
+
+    /**
+     * Runs {@code decoder} in the background, and passes its result to {@code callback} on the
+     * main thread.
+     */
+    public void decodeAsync(Supplier<Bitmap> decoder, Consumer<Bitmap> callback) {
+        mExecutor.execute(() -> {
+            final Bitmap bitmap = decoder.get();
+            mMainHandler.post(() -> callback.accept(bitmap));
+        });
+    }
+
+    /**
+     * Caches {@code bitmap}, decoded elsewhere from {@code file} at the given size.
+     */
+    public void put(File file, int maxWidth, int maxHeight, Bitmap bitmap) {
+        mCache.put(getKey(file, maxWidth, maxHeight),
+                new CachedBitmap(bitmap, file.lastModified()));
+    }
+
+    /**
+     * Drops the bitmaps decoded from {@code file}, at any size.
+     */
+    public void invalidate(File file) {
+        final String prefix = file.getAbsolutePath() + '@';
+        for (String key : mCache.snapshot().keySet()) {
+            if (key.startsWith(prefix)) {
+                mCache.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Prints the size and the hit rate of the process wide loader's cache, if it was created.
+     */
+    public static void dumpIfCreated(PrintWriter pw) {
+        final ImageLoader instance;
+        synchronized (ImageLoader.class) {
+            instance = sInstance;
+        }
+        if (instance == null) {
+            pw.println("  Image cache: not created");
+            return;
+        }
+        final LruCache<String, CachedBitmap> cache = instance.mCache;
+        pw.println("  Image cache: " + cache.size() + "/" + cache.maxSize() + " bytes, "
+                + cache.hitCount() + "/" + (cache.hitCount() + cache.missCount()) + " hits");
+    }
+
+    private static String getKey(File file, int maxWidth, int maxHeight) {
+        return file.getAbsolutePath() + '@' + maxWidth + 'x' + maxHeight;
+    }
+
+    private static final class CachedBitmap {
+        final Bitmap mBitmap;
+        final long mLastModified;
+
+        CachedBitmap(Bitmap bitmap, long lastModified) {
+            mBitmap = bitmap;
+            mLastModified = lastModified;
+        }
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2019, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.common;
+
+import android.app.AppGlobals;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.IPackageManager;
+import android.content.pm.PackageManager;
+import android.os.RemoteException;
+import android.os.UserHandle;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Process wide cache of the system apps of each user, shared by all provisioning tasks.
+ *
+ * <p>The system apps of a user are loaded with a single
+ * {@link IPackageManager#getInstalledApplications} call the first time they are requested, and
+ * kept until a package of that user is added, removed or changed. If the package broadcasts can't
+ * be received, nothing is cached.</p>
+ *
+ * <p>Package broadcasts are delivered asynchronously, so the returned apps can miss a change made
+ * right before they are requested, until the broadcast of that change has been received. Entries
+ * are keyed on the binder of the {@link IPackageManager} they were loaded from, requesting the
+ * apps from another one loads them again.</p>
+ */
+public class InstalledAppsCache {
+    private static InstalledAppsCache sInstance;
+
+    private final Object mLock = new Object();
+    @GuardedBy("mLock")
+    private final SparseArray<Entry> mSystemApps = new SparseArray<>();
+    /** Incremented on every invalidation, so that a load racing with it isn't cached. */
+    @GuardedBy("mLock")
+    private final SparseIntArray mGenerations = new SparseIntArray();
+    @GuardedBy("mLock")
+    private int mHits;
+    @GuardedBy("mLock")
+    private int mMisses;
+    private final boolean mEnabled;
+
+    public static synchronized InstalledAppsCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new InstalledAppsCache(AppGlobals.getInitialApplication());
+        }
+        return sInstance;
+    }
+
+    private InstalledAppsCache(Context context) {
+        mEnabled = context != null;
+        if (mEnabled) {
+            registerPackageChangedReceiver(context);
+        } else {
+            ProvisionLogger.logw("No application context, installed apps aren't cached");
+        }
+    }
+
+    /**
+     * Creates a cache which isn't invalidated by package broadcasts.
+     */
+    @VisibleForTesting
+    public InstalledAppsCache() {
+        mEnabled = true;
+    }
+
+    /**
+     * Returns the package names of the system apps available to the given user, including the
+     * ones that are uninstalled for the user, as reported by {@code ipm}. The returned set must not
+     * be modified.
+     */
+    public Set<String> getSystemApps(IPackageManager ipm, int userId) {
+        final int generation;
+        synchronized (mLock) {
+            Entry cached = mSystemApps.get(userId);
+            if (cached != null && isSamePackageManager(cached.mPackageManager, ipm)) {
+                mHits++;
+                return cached.mSystemApps;
+            }
+            mMisses++;
+            generation = mGenerations.get(userId);
+        }
+
+        // Not holding the lock: this is a slow binder call and other users needn't wait for it.
+        Set<String> systemApps = loadSystemApps(ipm, userId);
+        if (systemApps == null) {
+            return Collections.emptySet();
+        }
+        synchronized (mLock) {
+            if (mEnabled && mGenerations.get(userId) == generation) {
+                mSystemApps.put(userId, new Entry(ipm, systemApps));
+            }
+        }
+        return systemApps;
+    }
+
+    /**
+     * Discards the cached apps of the given user.
+     */
+    public void invalidate(int userId) {
+        synchronized (mLock) {
+            mSystemApps.remove(userId);
+            mGenerations.put(userId, mGenerations.get(userId) + 1);
+        }
+    }
+
+    /**
+     * Discards the cached apps of all users.
+     */
+    public void invalidateAll() {
+        synchronized (mLock) {
+            for (int i = 0; i < mSystemApps.size(); i++) {
+                int userId = mSystemApps.keyAt(i);
+                mGenerations.put(userId, mGenerations.get(userId) + 1);
+            }
+            mSystemApps.clear();
+        }
+    }
+
+    /**
+     * Prints the process wide cache, if it was created. Doesn't create it, since that registers
+     * a receiver.
+     */
+    public static void dumpIfCreated(PrintWriter pw) {
+        final InstalledAppsCache instance;
+        synchronized (InstalledAppsCache.class) {
+            instance = sInstance;
+        }
+        if (instance == null) {
+            pw.println("  Installed apps cache: not created");
+        } else {
+            instance.dump(pw);
+        }
+    }
+
+    /**
+     * Prints the cached users and the hit rate of the cache.
+     */
+    public void dump(PrintWriter pw) {
+        synchronized (mLock) {
+            final int requests = mHits + mMisses;
+            pw.println("  Installed apps cache: " + (mEnabled ? "enabled" : "disabled")
+                    + ", " + mSystemApps.size() + " users cached, " + mHits + "/" + requests
+                    + " hits" + (requests == 0 ? "" : " (" + (mHits * 100 / requests) + "%)"));
+        }
+    }
+
+    /**
+     * Returns whether both package managers are the same, callers usually get a new proxy of the
+     * package service for each task.
+     */
+    private static boolean isSamePackageManager(IPackageManager a, IPackageManager b) {
+        return a == b || (a.asBinder() != null && a.asBinder() == b.asBinder());
+    }
+
+    private static Set<String> loadSystemApps(IPackageManager ipm, int userId) {
+        List<ApplicationInfo> aInfos;
+        try {
+            aInfos = ipm.getInstalledApplications(
+                    PackageManager.MATCH_UNINSTALLED_PACKAGES, userId).getList();
+        } catch (RemoteException neverThrown) {
+            ProvisionLogger.loge("This should not happen.", neverThrown);
+            return null;
+        }
+        Set<String> apps = new HashSet<>();
+        for (ApplicationInfo aInfo : aInfos) {
+            if ((aInfo.flags & ApplicationInfo.FLAG_SYSTEM) != 0) {
+                apps.add(aInfo.packageName);
+            }
+        }
+        return Collections.unmodifiableSet(apps);
+    }
+
+    private void registerPackageChangedReceiver(Context context) {
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addDataScheme("package");
+        context.registerReceiverAsUser(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                int userId = getSendingUserId();
+                if (userId == UserHandle.USER_ALL) {
+                    invalidateAll();
+                } else {
+                    invalidate(userId);
+                }
+            }
+        }, UserHandle.ALL, filter, null, null);
+
+        IntentFilter userFilter = new IntentFilter(Intent.ACTION_USER_REMOVED);
+        context.registerReceiverAsUser(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                invalidate(intent.getIntExtra(Intent.EXTRA_USER_HANDLE, UserHandle.USER_NULL));
+            }
+        }, UserHandle.ALL, userFilter, null, null);
+    }
+
+    private static class Entry {
+        final IPackageManager mPackageManager;
+        final Set<String> mSystemApps;
+
+        Entry(IPackageManager packageManager, Set<String> systemApps) {
+            mPackageManager = packageManager;
+            mSystemApps = systemApps;
+        }
+    }
+}
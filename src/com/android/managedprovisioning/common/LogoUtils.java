@@ -24,38 +24,112 @@ import android.graphics.PorterDuff;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
+import android.util.AtomicFile;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.managedprovisioning.R;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.function.Consumer;
 
 public class LogoUtils {
     @VisibleForTesting static final int DEFAULT_LOGO_ID = R.drawable.ic_enterprise_blue_24dp;
+    private static final String LOGO_FILE_NAME = "organisation_logo";
+    private static final String SCALED_LOGO_FILE_PREFIX = LOGO_FILE_NAME + "_";
 
+    /**
+     * Saves the logo, along with a variant scaled down to the size it is displayed at, so that
+     * screens displaying it don't need to scale it down again. The variant is cached in memory.
+     */
     public static void saveOrganisationLogo(Context context, Uri uri) {
         final File logoFile = getOrganisationLogoFile(context);
-        StoreUtils.copyUriIntoFile(context.getContentResolver(), uri, logoFile);
+        deleteScaledOrganisationLogos(context);
+        if (StoreUtils.copyUriIntoFile(context.getContentResolver(), uri, logoFile)) {
+            saveScaledOrganisationLogo(context);
+        }
     }
 
     /**
      * @param colorTint optional color colorTint to apply to the logo
      */
     public static @NonNull Drawable getOrganisationLogo(Context context, Integer colorTint) {
+        return createOrganisationLogoDrawable(context, loadOrganisationLogo(context), colorTint);
+    }
+
+    /**
+     * Passes the logo returned by {@link #getOrganisationLogo} to {@code callback} on the main
+     * thread, decoding it in the background if needed. The callback is called before returning if
+     * the logo doesn't need to be decoded.
+     *
+     * @param colorTint optional color colorTint to apply to the logo
+     */
+    public static void getOrganisationLogoAsync(Context context, Integer colorTint,
+            Consumer<Drawable> callback) {
+        final Bitmap bitmap = ImageLoader.getInstance().getCached(
+                getScaledOrganisationLogoFile(context), getMaxLogoWidth(context),
+                getMaxLogoHeight(context));
+        if (bitmap != null || !getOrganisationLogoFile(context).exists()) {
+            callback.accept(createOrganisationLogoDrawable(context, bitmap, colorTint));
+            return;
+        }
+        ImageLoader.getInstance().decodeAsync(() -> loadOrganisationLogo(context),
+                loadedBitmap -> callback.accept(
+                        createOrganisationLogoDrawable(context, loadedBitmap, colorTint)));
+    }
+
+    private static Bitmap loadOrganisationLogo(Context context) {
         final File logoFile = getOrganisationLogoFile(context);
-        Bitmap bitmap = null;
-        int maxWidth = (int) context.getResources().getDimension(R.dimen.max_logo_width);
-        int maxHeight = (int) context.getResources().getDimension(R.dimen.max_logo_height);
-        if (logoFile.exists()) {
-            bitmap = getBitmapPartiallyResized(logoFile.getPath(), maxWidth, maxHeight);
-            if (bitmap == null) {
-                ProvisionLogger.loge("Could not get organisation logo from " + logoFile);
+        if (!logoFile.exists()) {
+            return null;
+        }
+        final File scaledLogoFile = getScaledOrganisationLogoFile(context);
+        Bitmap bitmap = scaledLogoFile.exists()
+                ? ImageLoader.getInstance().load(scaledLogoFile, getMaxLogoWidth(context),
+                        getMaxLogoHeight(context))
+                : null;
+        if (bitmap == null) {
+            // Saved for another size, or before scaled variants were saved.
+            bitmap = saveScaledOrganisationLogo(context);
+        }
+        return bitmap;
+    }
+
+    private static Bitmap saveScaledOrganisationLogo(Context context) {
+        final File logoFile = getOrganisationLogoFile(context);
+        final int maxWidth = getMaxLogoWidth(context);
+        final int maxHeight = getMaxLogoHeight(context);
+        final Bitmap bitmap = decodeBitmap(logoFile.getPath(), maxWidth, maxHeight);
+        if (bitmap == null) {
+            ProvisionLogger.loge("Could not get organisation logo from " + logoFile);
+            return null;
+        }
+
+        final File scaledLogoFile = getScaledOrganisationLogoFile(context);
+        // Written atomically, so that a reader never decodes a partially written logo.
+        final AtomicFile atomicFile = new AtomicFile(scaledLogoFile);
+        FileOutputStream out = null;
+        try {
+            out = atomicFile.startWrite();
+            if (!bitmap.compress(Bitmap.CompressFormat.PNG, /* quality ignored */ 100, out)) {
+                throw new IOException("Could not compress the scaled organisation logo");
             }
+            atomicFile.finishWrite(out);
+        } catch (IOException e) {
+            ProvisionLogger.logw("Could not save scaled organisation logo to " + scaledLogoFile,
+                    e);
+            atomicFile.failWrite(out);
+            return bitmap;
         }
+        ImageLoader.getInstance().put(scaledLogoFile, maxWidth, maxHeight, bitmap);
+        return bitmap;
+    }
 
+    private static Drawable createOrganisationLogoDrawable(Context context, Bitmap bitmap,
+            Integer colorTint) {
         if (bitmap != null) {
-            return new BitmapDrawable(context.getResources(),
-                    resizeBitmap(bitmap, maxWidth, maxHeight));
+            return new BitmapDrawable(context.getResources(), bitmap);
         }
 
         // fall back to a default logo
@@ -66,6 +140,14 @@ public class LogoUtils {
         return organisationLogo;
     }
 
+    /**
+     * Decodes a bitmap from a file, scaled down to fit in the given size if needed.
+     */
+    static Bitmap decodeBitmap(String filePath, int maxWidth, int maxHeight) {
+        final Bitmap bitmap = getBitmapPartiallyResized(filePath, maxWidth, maxHeight);
+        return bitmap == null ? null : resizeBitmap(bitmap, maxWidth, maxHeight);
+    }
+
     /**
      * Decodes a bitmap from an input stream.
      * If the actual dimensions of the bitmap are larger than the desired ones, will try to return a
@@ -115,9 +197,35 @@ public class LogoUtils {
 
     public static void cleanUp(Context context) {
         getOrganisationLogoFile(context).delete();
+        deleteScaledOrganisationLogos(context);
+    }
+
+    private static void deleteScaledOrganisationLogos(Context context) {
+        // Scaled variants may have been saved for other sizes.
+        final File[] scaledLogoFiles = context.getFilesDir().listFiles(
+                (dir, name) -> name.startsWith(SCALED_LOGO_FILE_PREFIX));
+        if (scaledLogoFiles != null) {
+            for (File scaledLogoFile : scaledLogoFiles) {
+                ImageLoader.getInstance().invalidate(scaledLogoFile);
+                scaledLogoFile.delete();
+            }
+        }
     }
 
     private static File getOrganisationLogoFile(Context context) {
-        return new File(context.getFilesDir() + File.separator + "organisation_logo");
+        return new File(context.getFilesDir() + File.separator + LOGO_FILE_NAME);
+    }
+
+    private static File getScaledOrganisationLogoFile(Context context) {
+        return new File(context.getFilesDir(), SCALED_LOGO_FILE_PREFIX
+                + getMaxLogoWidth(context) + "x" + getMaxLogoHeight(context));
+    }
+
+    private static int getMaxLogoWidth(Context context) {
+        return (int) context.getResources().getDimension(R.dimen.max_logo_width);
+    }
+
+    private static int getMaxLogoHeight(Context context) {
+        return (int) context.getResources().getDimension(R.dimen.max_logo_height);
     }
 }
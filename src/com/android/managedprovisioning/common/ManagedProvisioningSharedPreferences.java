@@ -30,6 +30,9 @@ public class ManagedProvisioningSharedPreferences {
     @VisibleForTesting
     static final String KEY_PROVISIONING_START_TIMESTAMP = "provisioning_start_timestamp";
 
+    @VisibleForTesting
+    static final String KEY_CROSS_PROFILE_INTENT_FILTERS_PREFIX = "cross_profile_intent_filters_";
+
     @VisibleForTesting
     static final String SHARED_PREFERENCE = "managed_profile_shared_preferences";
 
@@ -78,4 +81,25 @@ public class ManagedProvisioningSharedPreferences {
     public long getProvisioningStartedTimestamp() {
         return mSharedPreferences.getLong(KEY_PROVISIONING_START_TIMESTAMP, 0L);
     }
+
+    /**
+     * @param parentSerialNumber serial number of the parent user of the managed profiles
+     * @return the last state of the cross-profile intent filters of the given parent user, or
+     * {@code null} if it is unknown
+     */
+    public String getCrossProfileIntentFiltersState(int parentSerialNumber) {
+        return mSharedPreferences.getString(
+                KEY_CROSS_PROFILE_INTENT_FILTERS_PREFIX + parentSerialNumber, null);
+    }
+
+    /**
+     * @param parentSerialNumber serial number of the parent user of the managed profiles
+     * @param state the state of the cross-profile intent filters of the given parent user, or
+     * {@code null} if it is unknown
+     */
+    public void writeCrossProfileIntentFiltersState(int parentSerialNumber, String state) {
+        mSharedPreferences.edit()
+                .putString(KEY_CROSS_PROFILE_INTENT_FILTERS_PREFIX + parentSerialNumber, state)
+                .apply();
+    }
 }
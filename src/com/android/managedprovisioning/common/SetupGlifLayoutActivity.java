@@ -74,7 +74,12 @@ public abstract class SetupGlifLayoutActivity extends SetupLayoutActivity {
                     getResources().getColorStateList(R.color.header_text_color, getTheme()));
         }
 
-        layout.setIcon(LogoUtils.getOrganisationLogo(this, params.mainColor));
+        LogoUtils.getOrganisationLogoAsync(this, params.mainColor, logo -> {
+            // The logo may be decoded after the activity was destroyed.
+            if (!isDestroyed()) {
+                layout.setIcon(logo);
+            }
+        });
     }
 
     private void setDefaultTheme() {
@@ -0,0 +1,303 @@
+/*
+ * Copyright 2019, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.common;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Copies the content of uris passed by the DPC into local files in the background, so that
+ * parsing the provisioning intent doesn't wait for the content providers.
+ *
+ * <p>Copies run in parallel. Each copy is limited in size and in time: a copy which exceeds its
+ * size or which isn't done within {@link #DEFAULT_TIMEOUT_MS} of starting to run is abandoned,
+ * whether or not a reader awaits it. Time spent queued behind other copies doesn't count.
+ * Content is written to a temporary file which replaces the destination file once complete, so
+ * readers never see a partial file. Readers call {@link #await(File)} before reading a file which
+ * may still be copied, it doesn't wait when called on the main thread.</p>
+ *
+ * <p>A content provider may block a read indefinitely, so cancelling a copy, for example when it
+ * timed out, closes its input stream, which aborts the blocked read.</p>
+ */
+public class UriContentFetcher {
+    private static final int MAX_PARALLEL_FETCHES = 4;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+    @VisibleForTesting
+    static final long DEFAULT_TIMEOUT_MS = 10_000;
+
+    private static UriContentFetcher sInstance;
+
+    private final Executor mExecutor;
+    /** Abandons copies once they time out. */
+    private final Handler mHandler;
+    private final long mTimeoutMs;
+    /** Copies which haven't completed yet, by absolute path of their destination file. */
+    @GuardedBy("mPendingFetches")
+    private final Map<String, Fetch> mPendingFetches = new HashMap<>();
+
+    public static synchronized UriContentFetcher getInstance() {
+        if (sInstance == null) {
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_PARALLEL_FETCHES,
+                    MAX_PARALLEL_FETCHES, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(),
+                    runnable -> new Thread(runnable, "UriContentFetcher"));
+            // Fetches only happen while a provisioning intent is parsed.
+            executor.allowCoreThreadTimeOut(true);
+            // Abandoning a copy only closes its input stream, which doesn't block.
+            sInstance = new UriContentFetcher(executor, new Handler(Looper.getMainLooper()),
+                    DEFAULT_TIMEOUT_MS);
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    UriContentFetcher(Executor executor, Handler handler, long timeoutMs) {
+        mExecutor = executor;
+        mHandler = handler;
+        mTimeoutMs = timeoutMs;
+    }
+
+    /**
+     * Starts copying the content of {@code uri} into {@code outputFile}, replacing the copy into
+     * the same file which may still be pending.
+     *
+     * @param maxSize the maximum size of the content in bytes, above which nothing is copied
+     */
+    public void fetch(ContentResolver cr, Uri uri, File outputFile, long maxSize) {
+        final Fetch fetch = new Fetch(cr, uri, outputFile, maxSize);
+        final Fetch previous;
+        synchronized (mPendingFetches) {
+            previous = mPendingFetches.put(fetch.mKey, fetch);
+        }
+        if (previous != null) {
+            previous.cancel();
+        }
+        mExecutor.execute(fetch.mFuture);
+    }
+
+    /**
+     * Waits for the pending copy into {@code file}, if any, at most until the copy times out. A
+     * copy which is still queued is waited for at most {@link #DEFAULT_TIMEOUT_MS}, unless it
+     * starts meanwhile. On the main thread, doesn't wait and only checks whether the copy
+     * completed.
+     *
+     * @return whether {@code file} exists
+     */
+    public boolean await(File file) {
+        final Fetch fetch;
+        synchronized (mPendingFetches) {
+            fetch = mPendingFetches.get(file.getAbsolutePath());
+        }
+        if (fetch != null && Looper.myLooper() == Looper.getMainLooper()) {
+            ProvisionLogger.logw("Not waiting on the main thread for the copy to " + file);
+        } else if (fetch != null) {
+            long deadline = fetch.getDeadline(SystemClock.elapsedRealtime() + mTimeoutMs);
+            while (true) {
+                final long remainingMs = deadline - SystemClock.elapsedRealtime();
+                try {
+                    fetch.mFuture.get(Math.max(0, remainingMs), TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    // The copy may have started while it was waited for.
+                    final long startedDeadline = fetch.getDeadline(deadline);
+                    if (startedDeadline > deadline) {
+                        deadline = startedDeadline;
+                        continue;
+                    }
+                    fetch.timeOut();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                } catch (ExecutionException | CancellationException e) {
+                    ProvisionLogger.logw("Could not copy " + fetch.mUri + " to " + file, e);
+                }
+                break;
+            }
+        }
+        return file.exists();
+    }
+
+    /**
+     * Cancels the pending copy into {@code file}, if any, so that the file isn't written after it
+     * is deleted.
+     */
+    public void cancel(File file) {
+        final Fetch fetch;
+        synchronized (mPendingFetches) {
+            fetch = mPendingFetches.remove(file.getAbsolutePath());
+        }
+        if (fetch != null) {
+            fetch.cancel();
+        }
+    }
+
+    private void removePending(Fetch fetch) {
+        synchronized (mPendingFetches) {
+            if (mPendingFetches.get(fetch.mKey) == fetch) {
+                mPendingFetches.remove(fetch.mKey);
+            }
+        }
+    }
+
+    private final class Fetch implements Callable<Boolean> {
+        private final ContentResolver mContentResolver;
+        private final Uri mUri;
+        private final File mOutputFile;
+        private final long mMaxSize;
+        private final String mKey;
+        private final FutureTask<Boolean> mFuture = new FutureTask<>(this);
+        private final Runnable mTimeoutRunnable = this::timeOut;
+        /** When the copy times out, set once it starts to run. */
+        @GuardedBy("this")
+        private long mDeadline;
+        @GuardedBy("this")
+        private boolean mCancelled;
+        /** The stream being copied, closed by {@link #cancel()} to abort a blocked read. */
+        @GuardedBy("this")
+        private InputStream mInputStream;
+
+        Fetch(ContentResolver cr, Uri uri, File outputFile, long maxSize) {
+            mContentResolver = cr;
+            mUri = uri;
+            mOutputFile = outputFile;
+            mMaxSize = maxSize;
+            mKey = outputFile.getAbsolutePath();
+        }
+
+        @Override
+        public Boolean call() {
+            synchronized (this) {
+                mDeadline = SystemClock.elapsedRealtime() + mTimeoutMs;
+            }
+            // Abandons the copy even if nobody awaits it, since a read may block indefinitely.
+            mHandler.postDelayed(mTimeoutRunnable, mTimeoutMs);
+            try {
+                return copy();
+            } finally {
+                mHandler.removeCallbacks(mTimeoutRunnable);
+                removePending(this);
+            }
+        }
+
+        /** Returns when the copy times out, or {@code notStarted} if it didn't start to run. */
+        synchronized long getDeadline(long notStarted) {
+            return mDeadline == 0 ? notStarted : mDeadline;
+        }
+
+        private boolean copy() {
+            File tempFile = null;
+            // openInputStream throws SecurityException
+            try (InputStream in = mContentResolver.openInputStream(mUri)) {
+                if (in == null) {
+                    throw new IOException("No content");
+                }
+                synchronized (this) {
+                    if (mCancelled) {
+                        throw new IOException("Copy abandoned");
+                    }
+                    mInputStream = in;
+                }
+                // Each copy has its own temporary file, in case another copy into the same file
+                // is still being cancelled.
+                tempFile = File.createTempFile(mOutputFile.getName(), ".tmp",
+                        mOutputFile.getParentFile());
+                try (FileOutputStream out = new FileOutputStream(tempFile)) {
+                    copyContent(in, out);
+                    out.getFD().sync();
+                }
+                synchronized (this) {
+                    if (mCancelled || !tempFile.renameTo(mOutputFile)) {
+                        throw new IOException("Could not replace " + mOutputFile);
+                    }
+                }
+                ProvisionLogger.logi("Successfully copy from uri " + mUri + " to " + mOutputFile);
+                return true;
+            } catch (IOException | SecurityException e) {
+                ProvisionLogger.logi("Could not write file from " + mUri + " to " + mOutputFile,
+                        e);
+                if (tempFile != null) {
+                    tempFile.delete();
+                }
+                return false;
+            }
+        }
+
+        private void copyContent(InputStream in, FileOutputStream out) throws IOException {
+            final byte[] buffer = new byte[8192];
+            long size = 0;
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                size += count;
+                if (size > mMaxSize) {
+                    throw new IOException("Content exceeds " + mMaxSize + " bytes");
+                }
+                if (SystemClock.elapsedRealtime() > getDeadline(Long.MAX_VALUE) || isCancelled()) {
+                    throw new IOException("Copy abandoned");
+                }
+                out.write(buffer, 0, count);
+            }
+        }
+
+        synchronized boolean isCancelled() {
+            return mCancelled;
+        }
+
+        void timeOut() {
+            ProvisionLogger.logw("Timed out copying " + mUri + " to " + mOutputFile);
+            removePending(this);
+            cancel();
+        }
+
+        void cancel() {
+            final InputStream in;
+            synchronized (this) {
+                mCancelled = true;
+                in = mInputStream;
+                mInputStream = null;
+            }
+            mFuture.cancel(true);
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    ProvisionLogger.logw("Could not close the content of " + mUri, e);
+                }
+            }
+        }
+    }
+}
@@ -85,13 +85,14 @@ import com.android.managedprovisioning.model.PackageDownloadInfo;
 import com.android.managedprovisioning.model.ProvisioningParams;
 import com.android.managedprovisioning.preprovisioning.WebActivity;
 
-import java.io.FileInputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import com.google.android.setupdesign.GlifLayout;
@@ -108,32 +109,32 @@ public class Utils {
     // value chosen to match UX designs; when updating check status bar icon colors
     private static final int THRESHOLD_BRIGHT_COLOR = 190;
 
-    public Utils() {}
+    private final InstalledAppsCache mInstalledAppsCache;
+
+    public Utils() {
+        this(null);
+    }
+
+    @VisibleForTesting
+    public Utils(InstalledAppsCache installedAppsCache) {
+        mInstalledAppsCache = installedAppsCache;
+    }
 
     /**
      * Returns the system apps currently available to a given user.
      *
-     * <p>Calls the {@link IPackageManager} to retrieve all system apps available to a user and
-     * returns their package names.
+     * <p>Retrieves all system apps available to a user from the {@link InstalledAppsCache}, which
+     * calls {@code ipm} only once per user until a package changes, and returns their package
+     * names. A package change may only be reflected once its broadcast has been received.
      *
      * @param ipm an {@link IPackageManager} object
      * @param userId the id of the user to check the apps for
      */
     public Set<String> getCurrentSystemApps(IPackageManager ipm, int userId) {
-        Set<String> apps = new HashSet<>();
-        List<ApplicationInfo> aInfos = null;
-        try {
-            aInfos = ipm.getInstalledApplications(
-                    PackageManager.MATCH_UNINSTALLED_PACKAGES, userId).getList();
-        } catch (RemoteException neverThrown) {
-            ProvisionLogger.loge("This should not happen.", neverThrown);
-        }
-        for (ApplicationInfo aInfo : aInfos) {
-            if ((aInfo.flags & ApplicationInfo.FLAG_SYSTEM) != 0) {
-                apps.add(aInfo.packageName);
-            }
-        }
-        return apps;
+        InstalledAppsCache cache = mInstalledAppsCache != null
+                ? mInstalledAppsCache : InstalledAppsCache.getInstance();
+        // Callers may modify the result, the cached set is shared.
+        return new HashSet<>(cache.getSystemApps(ipm, userId));
     }
 
     /**
@@ -150,6 +151,25 @@ public class Utils {
                 userId);
     }
 
+    /**
+     * Disables the given components in a given user, using one {@link IPackageManager} for all
+     * of them.
+     *
+     * @param toDisable the components that should be disabled
+     * @param userId the id of the user where the components should be disabled.
+     */
+    public void disableComponents(Collection<ComponentName> toDisable, int userId) {
+        if (toDisable.isEmpty()) {
+            return;
+        }
+        final IPackageManager ipm =
+                IPackageManager.Stub.asInterface(ServiceManager.getService("package"));
+        for (ComponentName component : toDisable) {
+            setComponentEnabledSetting(ipm, component,
+                    PackageManager.COMPONENT_ENABLED_STATE_DISABLED, userId);
+        }
+    }
+
     /**
      * Enables a given component in a given user.
      *
@@ -712,43 +732,10 @@ public class Utils {
     /**
      * Computes a hash of a file with a spcific hash algorithm.
      */
-    // TODO: Add unit tests
     @Nullable
     public byte[] computeHashOfFile(String fileLocation, String hashType) {
-        InputStream fis = null;
-        MessageDigest md;
-        byte hash[] = null;
-        try {
-            md = MessageDigest.getInstance(hashType);
-        } catch (NoSuchAlgorithmException e) {
-            ProvisionLogger.loge("Hashing algorithm " + hashType + " not supported.", e);
-            return null;
-        }
-        try {
-            fis = new FileInputStream(fileLocation);
-
-            byte[] buffer = new byte[256];
-            int n = 0;
-            while (n != -1) {
-                n = fis.read(buffer);
-                if (n > 0) {
-                    md.update(buffer, 0, n);
-                }
-            }
-            hash = md.digest();
-        } catch (IOException e) {
-            ProvisionLogger.loge("IO error.", e);
-        } finally {
-            // Close input stream quietly.
-            try {
-                if (fis != null) {
-                    fis.close();
-                }
-            } catch (IOException e) {
-                // Ignore.
-            }
-        }
-        return hash;
+        Map<String, byte[]> hashes = new FileDigester().digest(new File(fileLocation), hashType);
+        return hashes == null ? null : hashes.get(hashType);
     }
 
     public boolean isBrightColor(int color) {
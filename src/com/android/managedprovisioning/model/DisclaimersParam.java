@@ -21,6 +21,7 @@ import android.os.PersistableBundle;
 import com.android.internal.annotations.Immutable;
 import com.android.managedprovisioning.common.PersistableBundlable;
 import com.android.managedprovisioning.common.StoreUtils;
+import com.android.managedprovisioning.common.UriContentFetcher;
 import java.io.File;
 import java.io.IOException;
 
@@ -78,7 +79,9 @@ public class DisclaimersParam extends PersistableBundlable {
     public void cleanUp() {
         if (mDisclaimers != null) {
             for(Disclaimer disclaimer : mDisclaimers) {
-                new File(disclaimer.mContentFilePath).delete();
+                final File file = new File(disclaimer.mContentFilePath);
+                UriContentFetcher.getInstance().cancel(file);
+                file.delete();
             }
         }
     }
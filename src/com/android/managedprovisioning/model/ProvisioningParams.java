@@ -59,24 +59,23 @@ import android.util.Xml;
 
 import androidx.annotation.Nullable;
 
-import com.android.internal.util.FastXmlSerializer;
+import com.android.managedprovisioning.common.BinaryBundleFormat;
 import com.android.managedprovisioning.common.IllegalProvisioningArgumentException;
 import com.android.managedprovisioning.common.PersistableBundlable;
 import com.android.managedprovisioning.common.ProvisionLogger;
 import com.android.managedprovisioning.common.StoreUtils;
+import com.android.managedprovisioning.common.UriContentFetcher;
 import com.android.managedprovisioning.common.Utils;
 
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
-import org.xmlpull.v1.XmlSerializer;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
-import java.nio.charset.StandardCharsets;
 import java.util.Locale;
 
 /**
@@ -435,7 +434,8 @@ public final class ProvisioningParams extends PersistableBundlable {
     }
 
     /**
-     * Saves the ProvisioningParams to the specified file.
+     * Saves the ProvisioningParams to the specified file, in the format of
+     * {@link BinaryBundleFormat}.
      */
     public void save(File file) {
         ProvisionLogger.logd("Saving ProvisioningParams to " + file);
@@ -444,15 +444,9 @@ public final class ProvisioningParams extends PersistableBundlable {
         try {
             atomicFile = new AtomicFile(file);
             stream = atomicFile.startWrite();
-            XmlSerializer serializer = new FastXmlSerializer();
-            serializer.setOutput(stream, StandardCharsets.UTF_8.name());
-            serializer.startDocument(null, true);
-            serializer.startTag(null, TAG_PROVISIONING_PARAMS);
-            toPersistableBundle().saveToXml(serializer);
-            serializer.endTag(null, TAG_PROVISIONING_PARAMS);
-            serializer.endDocument();
+            stream.write(BinaryBundleFormat.encode(toPersistableBundle()));
             atomicFile.finishWrite(stream);
-        } catch (IOException | XmlPullParserException e) {
+        } catch (IOException e) {
             ProvisionLogger.loge("Caught exception while trying to save Provisioning Params to "
                     + " file " + file, e);
             file.delete();
@@ -467,21 +461,28 @@ public final class ProvisioningParams extends PersistableBundlable {
             disclaimersParam.cleanUp();
         }
         if (deviceAdminIconFilePath != null) {
-            new File(deviceAdminIconFilePath).delete();
+            final File file = new File(deviceAdminIconFilePath);
+            UriContentFetcher.getInstance().cancel(file);
+            file.delete();
         }
     }
 
     /**
-     * Loads the ProvisioningParams From the specified file.
+     * Loads the ProvisioningParams From the specified file. Files saved as XML by previous
+     * versions are still loaded.
      */
     public static ProvisioningParams load(File file) {
         if (!file.exists()) {
             return null;
         }
         ProvisionLogger.logd("Loading ProvisioningParams from " + file);
-        try (FileInputStream stream = new FileInputStream(file)) {
+        try {
+            final byte[] data = new AtomicFile(file).readFully();
+            if (BinaryBundleFormat.isEncoded(data)) {
+                return fromPersistableBundle(BinaryBundleFormat.decode(data));
+            }
             XmlPullParser parser = Xml.newPullParser();
-            parser.setInput(stream, null);
+            parser.setInput(new ByteArrayInputStream(data), null);
             return load(parser);
         } catch (IOException | XmlPullParserException e) {
             ProvisionLogger.loge("Caught exception while trying to load the provisioning params"
@@ -32,6 +32,7 @@ import android.content.pm.UserInfo;
 import android.os.UserHandle;
 import android.os.UserManager;
 import android.util.ArraySet;
+import android.util.SparseArray;
 import android.view.inputmethod.InputMethod;
 import android.view.inputmethod.InputMethodSystemProperty;
 
@@ -42,6 +43,7 @@ import com.android.managedprovisioning.common.ManagedProvisioningSharedPreferenc
 import com.android.managedprovisioning.common.ProvisionLogger;
 import com.android.managedprovisioning.common.SettingsFacade;
 import com.android.managedprovisioning.model.ProvisioningParams;
+import com.android.managedprovisioning.task.AbstractProvisioningTask;
 import com.android.managedprovisioning.task.CrossProfileIntentFiltersSetter;
 import com.android.managedprovisioning.task.DeleteNonRequiredAppsTask;
 import com.android.managedprovisioning.task.DisableInstallShortcutListenersTask;
@@ -49,17 +51,32 @@ import com.android.managedprovisioning.task.DisallowAddUserTask;
 import com.android.managedprovisioning.task.InstallExistingPackageTask;
 import com.android.managedprovisioning.task.MigrateSystemAppsSnapshotTask;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.function.IntFunction;
 
 /**
  * After a system update, this class resets the cross-profile intent filters and performs any
  * tasks necessary to bring the system up to date.
+ *
+ * <p>The work of different users is independent, so it runs in parallel on up to
+ * {@link #MAX_PARALLEL_USERS} threads. The work of a single user runs in order. {@link #run()}
+ * returns once all users are done, or after {@link #TIMEOUT_MS} so that boot isn't blocked. The
+ * tasks that report their result asynchronously are then waited for by
+ * {@link #awaitTaskResults()}, at most until they time out, see {@link TaskExecutor}.</p>
  */
 public class OtaController {
 
     private static final String TELECOM_PACKAGE = "com.android.server.telecom";
 
+    @VisibleForTesting
+    static final int MAX_PARALLEL_USERS = 4;
+    @VisibleForTesting
+    static final long TIMEOUT_MS = TimeUnit.MINUTES.toMillis(2);
+
     private final Context mContext;
     private final TaskExecutor mTaskExecutor;
     private final CrossProfileIntentFiltersSetter mCrossProfileIntentFiltersSetter;
@@ -69,15 +86,23 @@ public class OtaController {
 
     private final IntFunction<ArraySet<String>> mMissingSystemImeProvider;
     private final ProvisioningAnalyticsTracker mProvisioningAnalyticsTracker;
+    private final int mMaxParallelUsers;
+    private final long mTimeoutMs;
 
     public OtaController(Context context) {
-        this(context, new TaskExecutor(), new CrossProfileIntentFiltersSetter(context),
+        this(context, new ProvisioningAnalyticsTracker(
+                MetricsWriterFactory.getMetricsWriter(context, new SettingsFacade()),
+                new ManagedProvisioningSharedPreferences(context)));
+    }
+
+    private OtaController(Context context,
+            ProvisioningAnalyticsTracker provisioningAnalyticsTracker) {
+        this(context, new TaskExecutor(context, provisioningAnalyticsTracker),
+                new CrossProfileIntentFiltersSetter(context),
                 InputMethodSystemProperty.PER_PROFILE_IME_ENABLED
                         ? userId -> getMissingSystemImePackages(context, UserHandle.of(userId))
                         : userId -> new ArraySet<>(),
-                new ProvisioningAnalyticsTracker(
-                        MetricsWriterFactory.getMetricsWriter(context, new SettingsFacade()),
-                        new ManagedProvisioningSharedPreferences(context)));
+                provisioningAnalyticsTracker);
     }
 
     @VisibleForTesting
@@ -85,6 +110,16 @@ public class OtaController {
             CrossProfileIntentFiltersSetter crossProfileIntentFiltersSetter,
             IntFunction<ArraySet<String>> missingSystemImeProvider,
             ProvisioningAnalyticsTracker provisioningAnalyticsTracker) {
+        this(context, taskExecutor, crossProfileIntentFiltersSetter, missingSystemImeProvider,
+                provisioningAnalyticsTracker, MAX_PARALLEL_USERS, TIMEOUT_MS);
+    }
+
+    @VisibleForTesting
+    OtaController(Context context, TaskExecutor taskExecutor,
+            CrossProfileIntentFiltersSetter crossProfileIntentFiltersSetter,
+            IntFunction<ArraySet<String>> missingSystemImeProvider,
+            ProvisioningAnalyticsTracker provisioningAnalyticsTracker,
+            int maxParallelUsers, long timeoutMs) {
         mContext = checkNotNull(context);
         mTaskExecutor = checkNotNull(taskExecutor);
         mCrossProfileIntentFiltersSetter = checkNotNull(crossProfileIntentFiltersSetter);
@@ -95,37 +130,109 @@ public class OtaController {
                 Context.DEVICE_POLICY_SERVICE);
 
         mMissingSystemImeProvider = missingSystemImeProvider;
+        mMaxParallelUsers = maxParallelUsers;
+        mTimeoutMs = timeoutMs;
     }
 
     public void run() {
         if (mContext.getUserId() != UserHandle.USER_SYSTEM) {
             return;
         }
-        // Migrate snapshot files to use user serial number as file name.
+        // Migrate snapshot files to use user serial number as file name. This has to finish
+        // before any user's snapshot is read.
         mTaskExecutor.execute(
                 UserHandle.USER_SYSTEM, new MigrateSystemAppsSnapshotTask(
                         mContext, mTaskExecutor, mProvisioningAnalyticsTracker));
 
+        final SparseArray<List<Runnable>> userWork = new SparseArray<>();
+
         // Check for device owner.
         final int deviceOwnerUserId = mDevicePolicyManager.getDeviceOwnerUserId();
         if (deviceOwnerUserId != UserHandle.USER_NULL) {
-            addDeviceOwnerTasks(deviceOwnerUserId, mContext);
+            addDeviceOwnerTasks(deviceOwnerUserId, mContext, getWork(userWork, deviceOwnerUserId));
         }
 
         for (UserInfo userInfo : mUserManager.getUsers()) {
+            final int userId = userInfo.id;
+            final List<Runnable> work = getWork(userWork, userId);
             if (userInfo.isManagedProfile()) {
-                addManagedProfileTasks(userInfo.id, mContext);
-            } else if (mDevicePolicyManager.getProfileOwnerAsUser(userInfo.id) != null) {
-                addManagedUserTasks(userInfo.id, mContext);
+                addManagedProfileTasks(userId, mContext, work);
+            } else if (mDevicePolicyManager.getProfileOwnerAsUser(userId) != null) {
+                addManagedUserTasks(userId, mContext, work);
             } else {
                 // if this user has managed profiles, reset the cross-profile intent filters between
                 // this user and its managed profiles.
-                mCrossProfileIntentFiltersSetter.resetFilters(userInfo.id);
+                work.add(() -> mCrossProfileIntentFiltersSetter.resetFilters(userId));
+            }
+        }
+
+        runUserWork(userWork);
+    }
+
+    /**
+     * Waits for the tasks executed by {@link #run()} that report their result after they
+     * returned, at most until each of them times out, and logs their results. The caller must keep
+     * the process alive meanwhile, so that the results are received and logged.
+     */
+    public void awaitTaskResults() {
+        try {
+            ProvisionLogger.logi("OTA tasks completed: " + mTaskExecutor.awaitCompletion());
+        } catch (InterruptedException e) {
+            ProvisionLogger.logw("Interrupted while waiting for OTA tasks");
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static List<Runnable> getWork(SparseArray<List<Runnable>> userWork, int userId) {
+        List<Runnable> work = userWork.get(userId);
+        if (work == null) {
+            work = new ArrayList<>();
+            userWork.put(userId, work);
+        }
+        return work;
+    }
+
+    /**
+     * Runs the work of every user on a bounded pool, the work of one user in order. Waits until
+     * all users are done or the timeout expired.
+     */
+    private void runUserWork(SparseArray<List<Runnable>> userWork) {
+        final int threads = Math.min(userWork.size(), mMaxParallelUsers);
+        if (threads == 0) {
+            return;
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "OtaUserWorker");
+            thread.setPriority(Thread.MAX_PRIORITY);
+            return thread;
+        });
+        for (int i = 0; i < userWork.size(); i++) {
+            final int userId = userWork.keyAt(i);
+            final List<Runnable> work = userWork.valueAt(i);
+            executor.execute(() -> {
+                try {
+                    for (Runnable step : work) {
+                        step.run();
+                    }
+                } catch (RuntimeException e) {
+                    // Don't let one user's failure affect the others.
+                    ProvisionLogger.loge("OTA tasks failed for user " + userId, e);
+                }
+            });
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(mTimeoutMs, TimeUnit.MILLISECONDS)) {
+                ProvisionLogger.loge("OTA tasks didn't finish within " + mTimeoutMs + " ms");
+                executor.shutdownNow();
             }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
         }
     }
 
-    void addDeviceOwnerTasks(final int userId, Context context) {
+    void addDeviceOwnerTasks(final int userId, Context context, List<Runnable> work) {
         ComponentName deviceOwner = mDevicePolicyManager.getDeviceOwnerComponentOnAnyUser();
         if (deviceOwner == null) {
             // Shouldn't happen
@@ -139,19 +246,19 @@ public class OtaController {
                 .setProvisioningAction(ACTION_PROVISION_MANAGED_DEVICE)
                 .build();
 
-        mTaskExecutor.execute(userId,
+        execute(work, userId,
                 new DeleteNonRequiredAppsTask(false, context, fakeParams, mTaskExecutor,
                         mProvisioningAnalyticsTracker));
-        mTaskExecutor.execute(userId,
+        execute(work, userId,
                 new DisallowAddUserTask(UserManager.isSplitSystemUser(), context, fakeParams,
                         mTaskExecutor, mProvisioningAnalyticsTracker));
     }
 
-    void addManagedProfileTasks(final int userId, Context context) {
-        mUserManager.setUserRestriction(UserManager.DISALLOW_WALLPAPER, true,
-                UserHandle.of(userId));
+    void addManagedProfileTasks(final int userId, Context context, List<Runnable> work) {
+        work.add(() -> mUserManager.setUserRestriction(UserManager.DISALLOW_WALLPAPER, true,
+                UserHandle.of(userId)));
         // Enabling telecom package as it supports managed profiles from N.
-        mTaskExecutor.execute(userId,
+        execute(work, userId,
                 new InstallExistingPackageTask(TELECOM_PACKAGE, context, null, mTaskExecutor,
                         mProvisioningAnalyticsTracker));
 
@@ -167,20 +274,22 @@ public class OtaController {
                 .setDeviceAdminComponentName(profileOwner)
                 .setProvisioningAction(ACTION_PROVISION_MANAGED_PROFILE)
                 .build();
-        mTaskExecutor.execute(userId,
+        execute(work, userId,
                 new DisableInstallShortcutListenersTask(context, fakeParams, mTaskExecutor,
                         mProvisioningAnalyticsTracker));
-        mTaskExecutor.execute(userId,
+        execute(work, userId,
                 new DeleteNonRequiredAppsTask(false, context, fakeParams, mTaskExecutor,
                         mProvisioningAnalyticsTracker));
 
-        // Copying missing system IMEs if necessary.
-        mMissingSystemImeProvider.apply(userId).forEach(packageName -> mTaskExecutor.execute(userId,
-                new InstallExistingPackageTask(packageName, context, fakeParams, mTaskExecutor,
-                        mProvisioningAnalyticsTracker)));
+        // Copying missing system IMEs if necessary. Looking them up queries the package manager
+        // of two users, so it is part of this user's work too.
+        work.add(() -> mMissingSystemImeProvider.apply(userId).forEach(packageName ->
+                mTaskExecutor.execute(userId,
+                        new InstallExistingPackageTask(packageName, context, fakeParams,
+                                mTaskExecutor, mProvisioningAnalyticsTracker))));
     }
 
-    void addManagedUserTasks(final int userId, Context context) {
+    void addManagedUserTasks(final int userId, Context context, List<Runnable> work) {
         ComponentName profileOwner = mDevicePolicyManager.getProfileOwnerAsUser(userId);
         if (profileOwner == null) {
             // Shouldn't happen.
@@ -193,11 +302,15 @@ public class OtaController {
                 .setDeviceAdminComponentName(profileOwner)
                 .setProvisioningAction(ACTION_PROVISION_MANAGED_USER)
                 .build();
-        mTaskExecutor.execute(userId,
+        execute(work, userId,
                 new DeleteNonRequiredAppsTask(false, context, fakeParams, mTaskExecutor,
                         mProvisioningAnalyticsTracker));
     }
 
+    private void execute(List<Runnable> work, int userId, AbstractProvisioningTask task) {
+        work.add(() -> mTaskExecutor.execute(userId, task));
+    }
+
     /**
      * Returns IME packages that can be installed from the profile parent user.
      *
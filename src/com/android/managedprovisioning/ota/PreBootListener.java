@@ -32,7 +32,11 @@ public class PreBootListener extends BroadcastReceiver {
         if (Intent.ACTION_PRE_BOOT_COMPLETED.equals(intent.getAction())) {
             final PendingResult result = goAsync();
             Thread thread = new Thread(() -> {
-                new OtaController(context).run();
+                final OtaController controller = new OtaController(context);
+                controller.run();
+                // Finishing the broadcast lets the process be killed, so the asynchronous
+                // results are awaited first. Each task is only waited for until it times out.
+                controller.awaitTaskResults();
                 result.finish();
             });
             thread.setPriority(Thread.MAX_PRIORITY);
@@ -16,25 +16,194 @@
 
 package com.android.managedprovisioning.ota;
 
+import static com.android.internal.util.Preconditions.checkNotNull;
+
+import android.content.Context;
+import android.os.SystemClock;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.managedprovisioning.analytics.ProvisioningAnalyticsTracker;
+import com.android.managedprovisioning.analytics.ProvisioningTracer;
 import com.android.managedprovisioning.common.ProvisionLogger;
 import com.android.managedprovisioning.task.AbstractProvisioningTask;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
 /**
- * Class that executes the provisioning tasks during the OTA process.
+ * Class that executes the provisioning tasks during the OTA process. Tasks of different users may
+ * be executed concurrently.
+ *
+ * <p>Many tasks report their result after {@link AbstractProvisioningTask#run(int)} returned, for
+ * example once the package manager finished deleting packages. Every executed task is tracked
+ * until it reports its result, and {@link #awaitCompletion()} waits for all of them, giving each
+ * task at most {@link #DEFAULT_TASK_TIMEOUT_MS} from its start. The latency of every task, and
+ * every failure or timeout, is logged to the {@link ProvisioningAnalyticsTracker}, and every task
+ * is traced by the {@link ProvisioningTracer}.</p>
  */
 public class TaskExecutor implements AbstractProvisioningTask.Callback {
+    @VisibleForTesting
+    static final long DEFAULT_TASK_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(1);
+    /** Error code logged for a task that didn't report its result in time. */
+    @VisibleForTesting
+    static final int ERROR_TIMED_OUT = -1;
+    /** Error code logged for a task that threw an exception while running. */
+    @VisibleForTesting
+    static final int ERROR_EXCEPTION = -2;
+
+    /**
+     * Results of the tasks waited for by {@link #awaitCompletion()}.
+     */
+    public static final class Result {
+        public final int succeeded;
+        public final int failed;
+        public final int timedOut;
+
+        Result(int succeeded, int failed, int timedOut) {
+            this.succeeded = succeeded;
+            this.failed = failed;
+            this.timedOut = timedOut;
+        }
 
-    public synchronized void execute(int userId, AbstractProvisioningTask task) {
-        task.run(userId);
+        @Override
+        public String toString() {
+            return succeeded + " succeeded, " + failed + " failed, " + timedOut + " timed out";
+        }
+    }
+
+    private final Context mContext;
+    private final ProvisioningAnalyticsTracker mProvisioningAnalyticsTracker;
+    private final long mTaskTimeoutMs;
+    private final ProvisioningTracer.Session mTraceSession =
+            ProvisioningTracer.getInstance().startSession("OTA");
+
+    private final Object mLock = new Object();
+    @GuardedBy("mLock")
+    private final Map<AbstractProvisioningTask, PendingTask> mPendingTasks = new HashMap<>();
+
+    public TaskExecutor(Context context,
+            ProvisioningAnalyticsTracker provisioningAnalyticsTracker) {
+        this(context, provisioningAnalyticsTracker, DEFAULT_TASK_TIMEOUT_MS);
+    }
+
+    @VisibleForTesting
+    TaskExecutor(Context context, ProvisioningAnalyticsTracker provisioningAnalyticsTracker,
+            long taskTimeoutMs) {
+        mContext = checkNotNull(context);
+        mProvisioningAnalyticsTracker = checkNotNull(provisioningAnalyticsTracker);
+        mTaskTimeoutMs = taskTimeoutMs;
+    }
+
+    public void execute(int userId, AbstractProvisioningTask task) {
+        final PendingTask pendingTask = new PendingTask(userId, SystemClock.elapsedRealtime());
+        synchronized (mLock) {
+            mPendingTasks.put(task, pendingTask);
+        }
+        mTraceSession.onTaskQueued(task, userId);
+        mTraceSession.onTaskStarted(task);
+        try {
+            task.run(userId);
+        } catch (RuntimeException e) {
+            onCompleted(task, false, ERROR_EXCEPTION);
+            throw e;
+        } finally {
+            mTraceSession.onTaskRunReturned(task);
+        }
+    }
+
+    /**
+     * Waits until every task executed so far reported its result or timed out, and returns the
+     * aggregated results. Tasks are only counted by one call.
+     */
+    public Result awaitCompletion() throws InterruptedException {
+        final List<Map.Entry<AbstractProvisioningTask, PendingTask>> tasks;
+        synchronized (mLock) {
+            tasks = new ArrayList<>(mPendingTasks.entrySet());
+        }
+        int succeeded = 0;
+        int failed = 0;
+        int timedOut = 0;
+        for (Map.Entry<AbstractProvisioningTask, PendingTask> entry : tasks) {
+            final AbstractProvisioningTask task = entry.getKey();
+            final PendingTask pendingTask = entry.getValue();
+            final long remainingMs =
+                    pendingTask.startTime + mTaskTimeoutMs - SystemClock.elapsedRealtime();
+            try {
+                if (pendingTask.result.get(Math.max(remainingMs, 0), TimeUnit.MILLISECONDS)) {
+                    succeeded++;
+                } else {
+                    failed++;
+                }
+            } catch (TimeoutException e) {
+                if (pendingTask.result.complete(false)) {
+                    ProvisionLogger.loge("Task timed out: " + task.getClass().getSimpleName()
+                            + " for user " + pendingTask.userId);
+                    mTraceSession.onTaskCompleted(task, false);
+                    mProvisioningAnalyticsTracker.logOtaTaskError(mContext, task, ERROR_TIMED_OUT,
+                            SystemClock.elapsedRealtime() - pendingTask.startTime);
+                    timedOut++;
+                } else if (pendingTask.result.getNow(false)) {
+                    // Completed while timing out.
+                    succeeded++;
+                } else {
+                    failed++;
+                }
+            } catch (ExecutionException e) {
+                // The future is never completed exceptionally.
+                failed++;
+            }
+            synchronized (mLock) {
+                mPendingTasks.remove(task);
+            }
+        }
+        mTraceSession.finish();
+        return new Result(succeeded, failed, timedOut);
     }
 
     @Override
     public void onSuccess(AbstractProvisioningTask task) {
         ProvisionLogger.logd("Task ran successfully: " + task.getClass().getSimpleName());
+        onCompleted(task, true, 0);
     }
 
     @Override
     public void onError(AbstractProvisioningTask task, int errorMsg) {
         ProvisionLogger.logd("Error running task: " + task.getClass().getSimpleName());
+        onCompleted(task, false, errorMsg);
+    }
+
+    private void onCompleted(AbstractProvisioningTask task, boolean success, int errorCode) {
+        final PendingTask pendingTask;
+        synchronized (mLock) {
+            pendingTask = mPendingTasks.get(task);
+        }
+        if (pendingTask == null || !pendingTask.result.complete(success)) {
+            // Not executed by this executor, already completed, or timed out.
+            return;
+        }
+        mTraceSession.onTaskCompleted(task, success);
+        final long latencyMs = SystemClock.elapsedRealtime() - pendingTask.startTime;
+        mProvisioningAnalyticsTracker.logOtaTaskCompleted(mContext, task, latencyMs);
+        if (!success) {
+            mProvisioningAnalyticsTracker.logOtaTaskError(mContext, task, errorCode, latencyMs);
+        }
+    }
+
+    private static final class PendingTask {
+        final int userId;
+        final long startTime;
+        final CompletableFuture<Boolean> result = new CompletableFuture<>();
+
+        PendingTask(int userId, long startTime) {
+            this.userId = userId;
+            this.startTime = startTime;
+        }
     }
 }
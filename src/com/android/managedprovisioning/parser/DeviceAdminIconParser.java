@@ -20,27 +20,40 @@ import static com.android.managedprovisioning.common.StoreUtils.DIR_PROVISIONING
 import android.content.Context;
 import android.net.Uri;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 
-import com.android.managedprovisioning.common.StoreUtils;
+import com.android.managedprovisioning.common.UriContentFetcher;
 
 import java.io.File;
 
 /**
- * parser for {@link EXTRA_PROVISIONING_DEVICE_ADMIN_PACKAGE_ICON_URI} into a local file
+ * parser for {@link EXTRA_PROVISIONING_DEVICE_ADMIN_PACKAGE_ICON_URI} into a local file, which is
+ * saved in the background: readers of the file call {@link UriContentFetcher#await(File)} first.
  */
 public class DeviceAdminIconParser {
     private static final String FILE_PREFIX = "device_admin_icon_";
+    @VisibleForTesting
+    static final long MAX_ICON_SIZE = 2 * 1024 * 1024;
     private final Context mContext;
     private final File mFileIcon;
+    private final UriContentFetcher mUriContentFetcher;
 
     public DeviceAdminIconParser(Context context, long provisioningId) {
+        this(context, provisioningId, UriContentFetcher.getInstance());
+    }
+
+    @VisibleForTesting
+    DeviceAdminIconParser(Context context, long provisioningId,
+            UriContentFetcher uriContentFetcher) {
         mContext = context;
         mFileIcon =  new File(new File(mContext.getFilesDir(), DIR_PROVISIONING_PARAMS_FILE_CACHE),
                 FILE_PREFIX + provisioningId);
+        mUriContentFetcher = uriContentFetcher;
     }
 
     /**
-     * @return absolute path of the local file cache of the icon. Otherwise, return null.
+     * @return absolute path of the local file cache of the icon, which doesn't exist if the icon
+     * can't be saved. Return null if there is no icon.
      */
     @Nullable
     public String parse(Uri uri) {
@@ -49,7 +62,7 @@ public class DeviceAdminIconParser {
         }
 
         mFileIcon.getParentFile().mkdirs();
-        boolean success = StoreUtils.copyUriIntoFile(mContext.getContentResolver(), uri, mFileIcon);
-        return success ? mFileIcon.getAbsolutePath() : null;
+        mUriContentFetcher.fetch(mContext.getContentResolver(), uri, mFileIcon, MAX_ICON_SIZE);
+        return mFileIcon.getAbsolutePath();
     }
 }
@@ -28,7 +28,7 @@ import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
 import android.text.TextUtils;
 import com.android.managedprovisioning.common.ProvisionLogger;
-import com.android.managedprovisioning.common.StoreUtils;
+import com.android.managedprovisioning.common.UriContentFetcher;
 import com.android.managedprovisioning.model.DisclaimersParam;
 import com.android.managedprovisioning.model.DisclaimersParam.Disclaimer;
 import java.io.File;
@@ -37,19 +37,29 @@ import java.util.List;
 
 /**
  * Parser for {@link EXTRA_PROVISIONING_DISCLAIMERS} into {@link DisclaimersParam}
- * It also saves the disclaimer content into files
+ * It also saves the disclaimer content into files, in the background: readers of the files call
+ * {@link UriContentFetcher#await(File)} first.
  */
 public class DisclaimersParser {
     private static final int MAX_LENGTH = 3;
+    @VisibleForTesting
+    static final long MAX_CONTENT_SIZE = 1024 * 1024;
 
     private final Context mContext;
     private final long mProvisioningId;
     private final File mDisclaimerDir;
+    private final UriContentFetcher mUriContentFetcher;
 
     public DisclaimersParser(Context context, long provisioningId) {
+        this(context, provisioningId, UriContentFetcher.getInstance());
+    }
+
+    @VisibleForTesting
+    DisclaimersParser(Context context, long provisioningId, UriContentFetcher uriContentFetcher) {
         mContext = context;
         mProvisioningId = provisioningId;
         mDisclaimerDir =  new File(mContext.getFilesDir(), DIR_PROVISIONING_PARAMS_FILE_CACHE);
+        mUriContentFetcher = uriContentFetcher;
     }
 
     @Nullable
@@ -78,12 +88,6 @@ public class DisclaimersParser {
             }
 
             File disclaimerFile = saveDisclaimerContentIntoFile(uri, i);
-
-            if (disclaimerFile == null) {
-                ProvisionLogger.logw("Failed to copy disclaimer uri in " + i + " element");
-                continue;
-            }
-
             disclaimers.add(new Disclaimer(header, disclaimerFile.getPath()));
         }
         return disclaimers.isEmpty() ? null : new DisclaimersParam.Builder()
@@ -91,8 +95,9 @@ public class DisclaimersParser {
     }
 
     /**
-     * @return {@link File} if the uri content is saved into the file successfully. Otherwise,
-     * return null.
+     * Starts saving the uri content into a file. The file doesn't exist if it can't be saved.
+     *
+     * @return the {@link File} the uri content is saved into
      */
     private File saveDisclaimerContentIntoFile(Uri uri, int index) {
         if (!mDisclaimerDir.exists()) {
@@ -102,8 +107,8 @@ public class DisclaimersParser {
         String filename = "disclaimer_content_" + mProvisioningId + "_" + index + ".txt";
         File outputFile = new File(mDisclaimerDir, filename);
 
-        boolean success = StoreUtils.copyUriIntoFile(mContext.getContentResolver(), uri,
-                outputFile);
-        return success ? outputFile : null;
+        mUriContentFetcher.fetch(mContext.getContentResolver(), uri, outputFile,
+                MAX_CONTENT_SIZE);
+        return outputFile;
     }
 }
@@ -78,7 +78,6 @@ import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
 import android.os.Bundle;
-import android.os.Parcelable;
 import android.os.UserHandle;
 
 import androidx.annotation.Nullable;
@@ -361,6 +360,20 @@ public class ExtrasProvisioningDataParser implements ProvisioningDataParser {
         return shorterExtras;
     }
 
+    /**
+     * The long name of each short extra name, so that the extras can be normalized in a single
+     * pass over the intent instead of looking up both names of every extra.
+     */
+    private static final Map<String, String> LONGER_EXTRAS = buildLongerExtrasMap();
+
+    private static Map<String, String> buildLongerExtrasMap() {
+        Map<String, String> longerExtras = new HashMap<>(SHORTER_EXTRAS.size() * 2);
+        for (Map.Entry<String, String> entry : SHORTER_EXTRAS.entrySet()) {
+            longerExtras.put(entry.getValue(), entry.getKey());
+        }
+        return longerExtras;
+    }
+
     private final Utils mUtils;
     private final Context mContext;
     private final ManagedProvisioningSharedPreferences mSharedPreferences;
@@ -382,16 +395,18 @@ public class ExtrasProvisioningDataParser implements ProvisioningDataParser {
             throws IllegalProvisioningArgumentException{
         String provisioningAction = provisioningIntent.getAction();
         if (ACTION_RESUME_PROVISIONING.equals(provisioningAction)) {
-            return getParcelableExtraFromLongName(provisioningIntent,
+            return provisioningIntent.getParcelableExtra(
                     ProvisioningParams.EXTRA_PROVISIONING_PARAMS);
         }
         if (PROVISIONING_ACTIONS_SUPPORT_MIN_PROVISIONING_DATA.contains(provisioningAction)) {
             ProvisionLogger.logi("Processing mininalist extras intent.");
-            return parseMinimalistSupportedProvisioningDataInternal(provisioningIntent, mContext)
+            return parseMinimalistSupportedProvisioningDataInternal(provisioningIntent,
+                    normalizeExtras(provisioningIntent), mContext)
                     .build();
         } else if (PROVISIONING_ACTIONS_SUPPORT_ALL_PROVISIONING_DATA.contains(
                 provisioningAction)) {
-            return parseAllSupportedProvisioningData(provisioningIntent, mContext);
+            return parseAllSupportedProvisioningData(provisioningIntent,
+                    normalizeExtras(provisioningIntent), mContext);
         } else {
             throw new IllegalProvisioningArgumentException("Unsupported provisioning action: "
                     + provisioningAction);
@@ -405,79 +420,12 @@ public class ExtrasProvisioningDataParser implements ProvisioningDataParser {
         return SHORTER_EXTRAS.get(extraName);
     }
 
-    private boolean hasExtraFromLongName(Intent intent, String longName) {
-        return intent.hasExtra(longName) || intent.hasExtra(getShortExtraNames(longName));
-    }
-
-    @Nullable
-    private <T extends Parcelable> T getParcelableExtraFromLongName(
-            Intent intent, String longName) {
-        if (intent.hasExtra(longName)) {
-            return intent.getParcelableExtra(longName);
-        }
-        String shortName = getShortExtraNames(longName);
-        if (intent.hasExtra(shortName)) {
-            return intent.getParcelableExtra(shortName);
-        }
-        return null;
-    }
-
-    @Nullable
-    private Parcelable[] getParcelableArrayExtraFromLongName(Intent intent, String longName) {
-        if (intent.hasExtra(longName)) {
-            return intent.getParcelableArrayExtra(longName);
-        }
-        String shortName = getShortExtraNames(longName);
-        if (intent.hasExtra(shortName)) {
-            return intent.getParcelableArrayExtra(shortName);
-        }
-        return null;
-    }
-
-    private int getIntExtraFromLongName(Intent intent, String longName, int defaultValue) {
-        if (intent.hasExtra(longName)) {
-            return intent.getIntExtra(longName, defaultValue);
-        }
-        String shortName = getShortExtraNames(longName);
-        if (intent.hasExtra(shortName)) {
-            return intent.getIntExtra(shortName, defaultValue);
-        }
-        return defaultValue;
-    }
-
-    private boolean getBooleanExtraFromLongName(
-            Intent intent, String longName, boolean defaultValue) {
-        if (intent.hasExtra(longName)) {
-            return intent.getBooleanExtra(longName, defaultValue);
-        }
-        String shortName = getShortExtraNames(longName);
-        if (intent.hasExtra(shortName)) {
-            return intent.getBooleanExtra(shortName, defaultValue);
-        }
-        return defaultValue;
-    }
-
-    private long getParcelableExtraFromLongName(Intent intent, String longName, long defaultValue) {
-        if (intent.hasExtra(longName)) {
-            return intent.getLongExtra(longName, defaultValue);
-        }
-        String shortName = getShortExtraNames(longName);
-        if (intent.hasExtra(shortName)) {
-            return intent.getLongExtra(shortName, defaultValue);
-        }
-        return defaultValue;
-    }
-
-    @Nullable
-    private String getStringExtraFromLongName(Intent intent, String longName) {
-        if (intent.getStringExtra(longName) != null) {
-            return intent.getStringExtra(longName);
-        }
-        String shortName = getShortExtraNames(longName);
-        if (intent.getStringExtra(shortName) != null) {
-            return intent.getStringExtra(shortName);
-        }
-        return null;
+    /**
+     * Returns the extras of {@code intent}, with short extra names replaced by their long names.
+     */
+    @VisibleForTesting
+    static NormalizedExtras normalizeExtras(Intent intent) {
+        return new NormalizedExtras(intent.getExtras(), LONGER_EXTRAS);
     }
 
     /**
@@ -504,7 +452,7 @@ public class ExtrasProvisioningDataParser implements ProvisioningDataParser {
      * </ul>
      */
     private ProvisioningParams.Builder parseMinimalistSupportedProvisioningDataInternal(
-            Intent intent, Context context)
+            Intent intent, NormalizedExtras extras, Context context)
             throws IllegalProvisioningArgumentException {
         final DevicePolicyManager dpm = context.getSystemService(DevicePolicyManager.class);
         boolean isProvisionManagedDeviceFromTrustedSourceIntent =
@@ -516,16 +464,16 @@ public class ExtrasProvisioningDataParser implements ProvisioningDataParser {
                     ACTION_PROVISION_MANAGED_PROFILE.equals(provisioningAction);
 
             // Parse device admin package name and component name.
-            ComponentName deviceAdminComponentName = getParcelableExtraFromLongName(
-                    intent, EXTRA_PROVISIONING_DEVICE_ADMIN_COMPONENT_NAME);
+            ComponentName deviceAdminComponentName =
+                    extras.getParcelable(EXTRA_PROVISIONING_DEVICE_ADMIN_COMPONENT_NAME);
             // Device admin package name is deprecated. It is only supported in Profile Owner
             // provisioning and when resuming NFC provisioning.
             String deviceAdminPackageName = null;
             if (isManagedProfileAction) {
                 // In L, we only support package name. This means some DPC may still send us the
                 // device admin package name only. Attempts to obtain the package name from extras.
-                deviceAdminPackageName = getStringExtraFromLongName(
-                        intent, EXTRA_PROVISIONING_DEVICE_ADMIN_PACKAGE_NAME);
+                deviceAdminPackageName =
+                        extras.getString(EXTRA_PROVISIONING_DEVICE_ADMIN_PACKAGE_NAME);
                 // For profile owner, the device admin package should be installed. Verify the
                 // device admin package.
                 deviceAdminComponentName = mUtils.findDeviceAdmin(
@@ -547,26 +495,26 @@ public class ExtrasProvisioningDataParser implements ProvisioningDataParser {
             if (!isProvisionManagedDeviceFromTrustedSourceIntent
                     && (provisioningAction.equals(ACTION_PROVISION_MANAGED_USER)
                             || provisioningAction.equals(ACTION_PROVISION_MANAGED_DEVICE))) {
-                skipUserSetup = getBooleanExtraFromLongName(
-                        intent, EXTRA_PROVISIONING_SKIP_USER_SETUP,
+                skipUserSetup = extras.getBoolean(
+                        EXTRA_PROVISIONING_SKIP_USER_SETUP,
                         ProvisioningParams.DEFAULT_SKIP_USER_SETUP);
             }
 
             // Only current DeviceOwner can specify EXTRA_PROVISIONING_SKIP_USER_CONSENT when
             // provisioning PO with ACTION_PROVISION_MANAGED_PROFILE
             final boolean skipUserConsent = isManagedProfileAction
-                            && getBooleanExtraFromLongName(intent,
+                            && extras.getBoolean(
                                 EXTRA_PROVISIONING_SKIP_USER_CONSENT,
                                 ProvisioningParams.DEFAULT_EXTRA_PROVISIONING_SKIP_USER_CONSENT)
                             && mUtils.isPackageDeviceOwner(dpm, inferStaticDeviceAdminPackageName(
                                     deviceAdminComponentName, deviceAdminPackageName));
 
-            final boolean skipEducationScreens = shouldSkipEducationScreens(intent);
+            final boolean skipEducationScreens = shouldSkipEducationScreens(intent, extras);
 
             // Only when provisioning PO with ACTION_PROVISION_MANAGED_PROFILE
             final boolean keepAccountMigrated = isManagedProfileAction
-                            && getBooleanExtraFromLongName(
-                                intent, EXTRA_PROVISIONING_KEEP_ACCOUNT_ON_MIGRATION,
+                            && extras.getBoolean(
+                                EXTRA_PROVISIONING_KEEP_ACCOUNT_ON_MIGRATION,
                                 ProvisioningParams
                                         .DEFAULT_EXTRA_PROVISIONING_KEEP_ACCOUNT_MIGRATED);
 
@@ -575,36 +523,32 @@ public class ExtrasProvisioningDataParser implements ProvisioningDataParser {
             // organization logo to the device at this stage.
             Integer mainColor = ProvisioningParams.DEFAULT_MAIN_COLOR;
             if (!isProvisionManagedDeviceFromTrustedSourceIntent) {
-                if (hasExtraFromLongName(intent, EXTRA_PROVISIONING_MAIN_COLOR)) {
-                    mainColor = getIntExtraFromLongName(
-                            intent, EXTRA_PROVISIONING_MAIN_COLOR, 0 /* not used */);
+                if (extras.containsKey(EXTRA_PROVISIONING_MAIN_COLOR)) {
+                    mainColor = extras.getInt(EXTRA_PROVISIONING_MAIN_COLOR, 0 /* not used */);
                 }
-                parseOrganizationLogoUrlFromExtras(context, intent);
+                parseOrganizationLogoUrlFromExtras(context, extras);
             }
 
             DisclaimersParam disclaimersParam = new DisclaimersParser(context, provisioningId)
-                    .parse(getParcelableArrayExtraFromLongName(
-                            intent, EXTRA_PROVISIONING_DISCLAIMERS));
+                    .parse(extras.getParcelableArray(EXTRA_PROVISIONING_DISCLAIMERS));
 
             String deviceAdminLabel = null;
             String organizationName = null;
             String supportUrl = null;
             String deviceAdminIconFilePath = null;
             if (isProvisionManagedDeviceFromTrustedSourceIntent) {
-                deviceAdminLabel = getStringExtraFromLongName(intent,
-                        EXTRA_PROVISIONING_DEVICE_ADMIN_PACKAGE_LABEL);
-                organizationName = getStringExtraFromLongName(
-                        intent,EXTRA_PROVISIONING_ORGANIZATION_NAME);
-                supportUrl = getStringExtraFromLongName(intent,EXTRA_PROVISIONING_SUPPORT_URL);
+                deviceAdminLabel =
+                        extras.getString(EXTRA_PROVISIONING_DEVICE_ADMIN_PACKAGE_LABEL);
+                organizationName = extras.getString(EXTRA_PROVISIONING_ORGANIZATION_NAME);
+                supportUrl = extras.getString(EXTRA_PROVISIONING_SUPPORT_URL);
                 deviceAdminIconFilePath = new DeviceAdminIconParser(context, provisioningId).parse(
-                        getParcelableExtraFromLongName(intent,
-                                EXTRA_PROVISIONING_DEVICE_ADMIN_PACKAGE_ICON_URI));
+                        extras.getParcelable(EXTRA_PROVISIONING_DEVICE_ADMIN_PACKAGE_ICON_URI));
             }
 
             final boolean leaveAllSystemAppsEnabled = isManagedProfileAction
                     ? false
-                    : getBooleanExtraFromLongName(
-                            intent, EXTRA_PROVISIONING_LEAVE_ALL_SYSTEM_APPS_ENABLED,
+                    : extras.getBoolean(
+                            EXTRA_PROVISIONING_LEAVE_ALL_SYSTEM_APPS_ENABLED,
                             ProvisioningParams.DEFAULT_LEAVE_ALL_SYSTEM_APPS_ENABLED);
 
             return ProvisioningParams.Builder.builder()
@@ -613,20 +557,20 @@ public class ExtrasProvisioningDataParser implements ProvisioningDataParser {
                     .setDeviceAdminComponentName(deviceAdminComponentName)
                     .setDeviceAdminPackageName(deviceAdminPackageName)
                     .setSkipEncryption(
-                            getBooleanExtraFromLongName(
-                                    intent, EXTRA_PROVISIONING_SKIP_ENCRYPTION,
+                            extras.getBoolean(
+                                    EXTRA_PROVISIONING_SKIP_ENCRYPTION,
                                     ProvisioningParams.DEFAULT_EXTRA_PROVISIONING_SKIP_ENCRYPTION))
                     .setLeaveAllSystemAppsEnabled(leaveAllSystemAppsEnabled)
-                    .setAdminExtrasBundle(getParcelableExtraFromLongName(
-                            intent, EXTRA_PROVISIONING_ADMIN_EXTRAS_BUNDLE))
+                    .setAdminExtrasBundle(
+                            extras.getParcelable(EXTRA_PROVISIONING_ADMIN_EXTRAS_BUNDLE))
                     .setMainColor(mainColor)
                     .setDisclaimersParam(disclaimersParam)
                     .setSkipUserConsent(skipUserConsent)
                     .setKeepAccountMigrated(keepAccountMigrated)
                     .setSkipUserSetup(skipUserSetup)
                     .setSkipEducationScreens(skipEducationScreens)
-                    .setAccountToMigrate(getParcelableExtraFromLongName(
-                            intent, EXTRA_PROVISIONING_ACCOUNT_TO_MIGRATE))
+                    .setAccountToMigrate(
+                            extras.getParcelable(EXTRA_PROVISIONING_ACCOUNT_TO_MIGRATE))
                     .setDeviceAdminLabel(deviceAdminLabel)
                     .setOrganizationName(organizationName)
                     .setSupportUrl(supportUrl)
@@ -648,9 +592,8 @@ public class ExtrasProvisioningDataParser implements ProvisioningDataParser {
      * a provisioning extra, we only process it for managed Google account enrollment and
      * persistent device owner.
      */
-    private boolean shouldSkipEducationScreens(Intent intent) {
-        if (!getBooleanExtraFromLongName(intent,
-                EXTRA_PROVISIONING_SKIP_EDUCATION_SCREENS,
+    private boolean shouldSkipEducationScreens(Intent intent, NormalizedExtras extras) {
+        if (!extras.getBoolean(EXTRA_PROVISIONING_SKIP_EDUCATION_SCREENS,
                 DEFAULT_EXTRA_PROVISIONING_SKIP_EDUCATION_SCREENS)) {
             return false;
         }
@@ -669,29 +612,31 @@ public class ExtrasProvisioningDataParser implements ProvisioningDataParser {
      * Parses an intent and return a corresponding {@link ProvisioningParams} object.
      *
      * @param intent intent to be parsed.
+     * @param extras the normalized extras of {@code intent}
      * @param context a context
      */
-    private ProvisioningParams parseAllSupportedProvisioningData(Intent intent, Context context)
+    private ProvisioningParams parseAllSupportedProvisioningData(Intent intent,
+            NormalizedExtras extras, Context context)
             throws IllegalProvisioningArgumentException {
         try {
             ProvisionLogger.logi("Processing all supported extras intent: " + intent.getAction());
-            return parseMinimalistSupportedProvisioningDataInternal(intent, context)
+            return parseMinimalistSupportedProvisioningDataInternal(intent, extras, context)
                     // Parse time zone, local time and locale.
-                    .setTimeZone(getStringExtraFromLongName(intent, EXTRA_PROVISIONING_TIME_ZONE))
+                    .setTimeZone(extras.getString(EXTRA_PROVISIONING_TIME_ZONE))
                     .setLocalTime(
-                            getParcelableExtraFromLongName(
-                                    intent, EXTRA_PROVISIONING_LOCAL_TIME,
+                            extras.getLong(
+                                    EXTRA_PROVISIONING_LOCAL_TIME,
                                     ProvisioningParams.DEFAULT_LOCAL_TIME))
                     .setLocale(StoreUtils.stringToLocale(
-                            getStringExtraFromLongName(intent,EXTRA_PROVISIONING_LOCALE)))
+                            extras.getString(EXTRA_PROVISIONING_LOCALE)))
                     .setUseMobileData(
-                            getBooleanExtraFromLongName(
-                                    intent, EXTRA_PROVISIONING_USE_MOBILE_DATA,
+                            extras.getBoolean(
+                                    EXTRA_PROVISIONING_USE_MOBILE_DATA,
                                     DEFAULT_EXTRA_PROVISIONING_USE_MOBILE_DATA))
                     // Parse WiFi configuration.
-                    .setWifiInfo(parseWifiInfoFromExtras(intent))
+                    .setWifiInfo(parseWifiInfoFromExtras(extras))
                     // Parse device admin package download info.
-                    .setDeviceAdminDownloadInfo(parsePackageDownloadInfoFromExtras(intent))
+                    .setDeviceAdminDownloadInfo(parsePackageDownloadInfoFromExtras(extras))
                     // Cases where startedByTrustedSource can be true are
                     // 1. We are reloading a stored provisioning intent, either Nfc bump or
                     //    PROVISION_MANAGED_DEVICE_FROM_TRUSTED_SOURCE, after encryption reboot,
@@ -710,69 +655,58 @@ public class ExtrasProvisioningDataParser implements ProvisioningDataParser {
     }
 
     /**
-     * Parses Wifi configuration from an Intent and returns the result in {@link WifiInfo}.
+     * Parses Wifi configuration from the extras and returns the result in {@link WifiInfo}.
      */
     @Nullable
-    private WifiInfo parseWifiInfoFromExtras(Intent intent) {
-        if (getStringExtraFromLongName(intent, EXTRA_PROVISIONING_WIFI_SSID) == null) {
+    private WifiInfo parseWifiInfoFromExtras(NormalizedExtras extras) {
+        if (extras.getString(EXTRA_PROVISIONING_WIFI_SSID) == null) {
             return null;
         }
         return WifiInfo.Builder.builder()
-                .setSsid(getStringExtraFromLongName(intent, EXTRA_PROVISIONING_WIFI_SSID))
-                .setSecurityType(
-                        getStringExtraFromLongName(intent, EXTRA_PROVISIONING_WIFI_SECURITY_TYPE))
-                .setPassword(getStringExtraFromLongName(intent, EXTRA_PROVISIONING_WIFI_PASSWORD))
-                .setProxyHost(getStringExtraFromLongName(
-                        intent, EXTRA_PROVISIONING_WIFI_PROXY_HOST))
-                .setProxyBypassHosts(
-                        getStringExtraFromLongName(intent, EXTRA_PROVISIONING_WIFI_PROXY_BYPASS))
-                .setPacUrl(getStringExtraFromLongName(intent, EXTRA_PROVISIONING_WIFI_PAC_URL))
-                .setProxyPort(getIntExtraFromLongName(
-                        intent, EXTRA_PROVISIONING_WIFI_PROXY_PORT,
+                .setSsid(extras.getString(EXTRA_PROVISIONING_WIFI_SSID))
+                .setSecurityType(extras.getString(EXTRA_PROVISIONING_WIFI_SECURITY_TYPE))
+                .setPassword(extras.getString(EXTRA_PROVISIONING_WIFI_PASSWORD))
+                .setProxyHost(extras.getString(EXTRA_PROVISIONING_WIFI_PROXY_HOST))
+                .setProxyBypassHosts(extras.getString(EXTRA_PROVISIONING_WIFI_PROXY_BYPASS))
+                .setPacUrl(extras.getString(EXTRA_PROVISIONING_WIFI_PAC_URL))
+                .setProxyPort(extras.getInt(
+                        EXTRA_PROVISIONING_WIFI_PROXY_PORT,
                         WifiInfo.DEFAULT_WIFI_PROXY_PORT))
-                .setEapMethod(getStringExtraFromLongName(
-                        intent, EXTRA_PROVISIONING_WIFI_EAP_METHOD))
-                .setPhase2Auth(getStringExtraFromLongName(
-                        intent, EXTRA_PROVISIONING_WIFI_PHASE2_AUTH))
-                .setCaCertificate(getStringExtraFromLongName(
-                        intent, EXTRA_PROVISIONING_WIFI_CA_CERTIFICATE))
-                .setUserCertificate(getStringExtraFromLongName(
-                        intent, EXTRA_PROVISIONING_WIFI_USER_CERTIFICATE))
-                .setIdentity(getStringExtraFromLongName(intent, EXTRA_PROVISIONING_WIFI_IDENTITY))
-                .setAnonymousIdentity(getStringExtraFromLongName(
-                        intent, EXTRA_PROVISIONING_WIFI_ANONYMOUS_IDENTITY))
-                .setDomain(getStringExtraFromLongName(intent, EXTRA_PROVISIONING_WIFI_DOMAIN))
-                .setHidden(getBooleanExtraFromLongName(
-                        intent, EXTRA_PROVISIONING_WIFI_HIDDEN, WifiInfo.DEFAULT_WIFI_HIDDEN))
+                .setEapMethod(extras.getString(EXTRA_PROVISIONING_WIFI_EAP_METHOD))
+                .setPhase2Auth(extras.getString(EXTRA_PROVISIONING_WIFI_PHASE2_AUTH))
+                .setCaCertificate(extras.getString(EXTRA_PROVISIONING_WIFI_CA_CERTIFICATE))
+                .setUserCertificate(extras.getString(EXTRA_PROVISIONING_WIFI_USER_CERTIFICATE))
+                .setIdentity(extras.getString(EXTRA_PROVISIONING_WIFI_IDENTITY))
+                .setAnonymousIdentity(
+                        extras.getString(EXTRA_PROVISIONING_WIFI_ANONYMOUS_IDENTITY))
+                .setDomain(extras.getString(EXTRA_PROVISIONING_WIFI_DOMAIN))
+                .setHidden(extras.getBoolean(
+                        EXTRA_PROVISIONING_WIFI_HIDDEN, WifiInfo.DEFAULT_WIFI_HIDDEN))
                 .build();
     }
 
     /**
-     * Parses device admin package download info configuration from an Intent and returns the result
-     * in {@link PackageDownloadInfo}.
+     * Parses device admin package download info configuration from the extras and returns the
+     * result in {@link PackageDownloadInfo}.
      */
     @Nullable
-    private PackageDownloadInfo parsePackageDownloadInfoFromExtras(Intent intent) {
-        if (getStringExtraFromLongName(
-                intent, EXTRA_PROVISIONING_DEVICE_ADMIN_PACKAGE_DOWNLOAD_LOCATION) == null) {
+    private PackageDownloadInfo parsePackageDownloadInfoFromExtras(NormalizedExtras extras) {
+        if (extras.getString(EXTRA_PROVISIONING_DEVICE_ADMIN_PACKAGE_DOWNLOAD_LOCATION) == null) {
             return null;
         }
         PackageDownloadInfo.Builder downloadInfoBuilder = PackageDownloadInfo.Builder.builder()
-                .setMinVersion(getIntExtraFromLongName(
-                        intent, EXTRA_PROVISIONING_DEVICE_ADMIN_MINIMUM_VERSION_CODE,
+                .setMinVersion(extras.getInt(
+                        EXTRA_PROVISIONING_DEVICE_ADMIN_MINIMUM_VERSION_CODE,
                         PackageDownloadInfo.DEFAULT_MINIMUM_VERSION))
-                .setLocation(getStringExtraFromLongName(
-                        intent, EXTRA_PROVISIONING_DEVICE_ADMIN_PACKAGE_DOWNLOAD_LOCATION))
-                .setCookieHeader(getStringExtraFromLongName(
-                        intent, EXTRA_PROVISIONING_DEVICE_ADMIN_PACKAGE_DOWNLOAD_COOKIE_HEADER));
-        String packageHash =
-                getStringExtraFromLongName(
-                        intent, EXTRA_PROVISIONING_DEVICE_ADMIN_PACKAGE_CHECKSUM);
+                .setLocation(extras.getString(
+                        EXTRA_PROVISIONING_DEVICE_ADMIN_PACKAGE_DOWNLOAD_LOCATION))
+                .setCookieHeader(extras.getString(
+                        EXTRA_PROVISIONING_DEVICE_ADMIN_PACKAGE_DOWNLOAD_COOKIE_HEADER));
+        String packageHash = extras.getString(EXTRA_PROVISIONING_DEVICE_ADMIN_PACKAGE_CHECKSUM);
         if (packageHash != null) {
             downloadInfoBuilder.setPackageChecksum(StoreUtils.stringToByteArray(packageHash));
         }
-        String sigHash = getStringExtraFromLongName(
-                intent, EXTRA_PROVISIONING_DEVICE_ADMIN_SIGNATURE_CHECKSUM);
+        String sigHash = extras.getString(EXTRA_PROVISIONING_DEVICE_ADMIN_SIGNATURE_CHECKSUM);
         if (sigHash != null) {
             downloadInfoBuilder.setSignatureChecksum(StoreUtils.stringToByteArray(sigHash));
         }
@@ -780,10 +714,10 @@ public class ExtrasProvisioningDataParser implements ProvisioningDataParser {
     }
 
     /**
-     * Parses the organization logo url from intent.
+     * Parses the organization logo url from the extras.
      */
-    private void parseOrganizationLogoUrlFromExtras(Context context, Intent intent) {
-        Uri logoUri = getParcelableExtraFromLongName(intent, EXTRA_PROVISIONING_LOGO_URI);
+    private void parseOrganizationLogoUrlFromExtras(Context context, NormalizedExtras extras) {
+        Uri logoUri = extras.getParcelable(EXTRA_PROVISIONING_LOGO_URI);
         if (logoUri != null) {
             // If we go through encryption, and if the uri is a content uri:
             // We'll lose the grant to this uri. So we need to save it to a local file.
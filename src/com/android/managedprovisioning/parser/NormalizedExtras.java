@@ -0,0 +1,129 @@
+/*
+ * Copyright 2019, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.parser;
+
+import android.os.Bundle;
+import android.os.Parcelable;
+
+import androidx.annotation.Nullable;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * View of the extras of a provisioning intent in which short extra names are replaced by their
+ * long names, built by walking the extras once.
+ *
+ * <p>When an extra is passed under both its long and its short name, the long name wins, as it
+ * did when the intent was probed for the long name first. The shadowed short value is only kept
+ * for {@link #getString(String)}, which falls back to it if the long value isn't a string.</p>
+ *
+ * <p>Getters return the default value when the extra has another type, like the getters of
+ * {@link Bundle}.</p>
+ */
+final class NormalizedExtras {
+    private final Map<String, Object> mValues;
+    /** Values passed under a short name whose long name was passed as well. */
+    private final Map<String, Object> mShadowedValues;
+
+    /**
+     * @param extras the extras of the intent, can be {@code null}
+     * @param longNames the long name of each short name
+     */
+    NormalizedExtras(@Nullable Bundle extras, Map<String, String> longNames) {
+        if (extras == null || extras.isEmpty()) {
+            mValues = Collections.emptyMap();
+            mShadowedValues = Collections.emptyMap();
+            return;
+        }
+        mValues = new HashMap<>(extras.size() * 2);
+        Map<String, Object> shadowedValues = null;
+        for (String key : extras.keySet()) {
+            final Object value = extras.get(key);
+            final String longName = longNames.get(key);
+            if (longName == null) {
+                // Keys are unique, so a value can only be there already if it was passed under
+                // the short name.
+                if (mValues.containsKey(key)) {
+                    shadowedValues = putShadowed(shadowedValues, key, mValues.get(key));
+                }
+                mValues.put(key, value);
+            } else if (mValues.containsKey(longName)) {
+                shadowedValues = putShadowed(shadowedValues, longName, value);
+            } else {
+                mValues.put(longName, value);
+            }
+        }
+        mShadowedValues = shadowedValues == null ? Collections.emptyMap() : shadowedValues;
+    }
+
+    private static Map<String, Object> putShadowed(
+            @Nullable Map<String, Object> shadowedValues, String longName, Object value) {
+        if (shadowedValues == null) {
+            shadowedValues = new HashMap<>();
+        }
+        shadowedValues.put(longName, value);
+        return shadowedValues;
+    }
+
+    boolean containsKey(String longName) {
+        return mValues.containsKey(longName);
+    }
+
+    @Nullable
+    String getString(String longName) {
+        final Object value = mValues.get(longName);
+        if (value instanceof String) {
+            return (String) value;
+        }
+        final Object shadowedValue = mShadowedValues.get(longName);
+        return shadowedValue instanceof String ? (String) shadowedValue : null;
+    }
+
+    boolean getBoolean(String longName, boolean defaultValue) {
+        final Object value = mValues.get(longName);
+        return value instanceof Boolean ? (Boolean) value : defaultValue;
+    }
+
+    int getInt(String longName, int defaultValue) {
+        final Object value = mValues.get(longName);
+        return value instanceof Integer ? (Integer) value : defaultValue;
+    }
+
+    long getLong(String longName, long defaultValue) {
+        final Object value = mValues.get(longName);
+        return value instanceof Long ? (Long) value : defaultValue;
+    }
+
+    /**
+     * Returns the parcelable extra, which is cast to the type expected by the caller. A
+     * {@link ClassCastException} is thrown by the caller if it has another type.
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    <T extends Parcelable> T getParcelable(String longName) {
+        final Object value = mValues.get(longName);
+        return value instanceof Parcelable ? (T) value : null;
+    }
+
+    @Nullable
+    Parcelable[] getParcelableArray(String longName) {
+        final Object value = mValues.get(longName);
+        return value instanceof Parcelable[] ? (Parcelable[]) value : null;
+    }
+}
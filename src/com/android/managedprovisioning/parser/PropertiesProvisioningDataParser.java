@@ -73,8 +73,8 @@ import com.android.managedprovisioning.model.PackageDownloadInfo;
 import com.android.managedprovisioning.model.ProvisioningParams;
 import com.android.managedprovisioning.model.WifiInfo;
 
-import java.io.IOException;
-import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.util.IllformedLocaleException;
 import java.util.Properties;
 
@@ -91,6 +91,42 @@ import java.util.Properties;
  */
 @VisibleForTesting
 public class PropertiesProvisioningDataParser implements ProvisioningDataParser {
+    /** Payloads larger than this are rejected before being decoded. */
+    @VisibleForTesting
+    static final int MAX_PAYLOAD_SIZE = 64 * 1024;
+
+    /** The long names of the properties read from the payload. */
+    private static final String[] SUPPORTED_PROPERTIES = {
+            EXTRA_PROVISIONING_ADMIN_EXTRAS_BUNDLE,
+            EXTRA_PROVISIONING_DEVICE_ADMIN_COMPONENT_NAME,
+            EXTRA_PROVISIONING_DEVICE_ADMIN_MINIMUM_VERSION_CODE,
+            EXTRA_PROVISIONING_DEVICE_ADMIN_PACKAGE_CHECKSUM,
+            EXTRA_PROVISIONING_DEVICE_ADMIN_PACKAGE_DOWNLOAD_COOKIE_HEADER,
+            EXTRA_PROVISIONING_DEVICE_ADMIN_PACKAGE_DOWNLOAD_LOCATION,
+            EXTRA_PROVISIONING_DEVICE_ADMIN_PACKAGE_NAME,
+            EXTRA_PROVISIONING_DEVICE_ADMIN_SIGNATURE_CHECKSUM,
+            EXTRA_PROVISIONING_LEAVE_ALL_SYSTEM_APPS_ENABLED,
+            EXTRA_PROVISIONING_LOCALE,
+            EXTRA_PROVISIONING_LOCAL_TIME,
+            EXTRA_PROVISIONING_SKIP_ENCRYPTION,
+            EXTRA_PROVISIONING_TIME_ZONE,
+            EXTRA_PROVISIONING_USE_MOBILE_DATA,
+            EXTRA_PROVISIONING_WIFI_ANONYMOUS_IDENTITY,
+            EXTRA_PROVISIONING_WIFI_CA_CERTIFICATE,
+            EXTRA_PROVISIONING_WIFI_DOMAIN,
+            EXTRA_PROVISIONING_WIFI_EAP_METHOD,
+            EXTRA_PROVISIONING_WIFI_HIDDEN,
+            EXTRA_PROVISIONING_WIFI_IDENTITY,
+            EXTRA_PROVISIONING_WIFI_PAC_URL,
+            EXTRA_PROVISIONING_WIFI_PASSWORD,
+            EXTRA_PROVISIONING_WIFI_PHASE2_AUTH,
+            EXTRA_PROVISIONING_WIFI_PROXY_BYPASS,
+            EXTRA_PROVISIONING_WIFI_PROXY_HOST,
+            EXTRA_PROVISIONING_WIFI_PROXY_PORT,
+            EXTRA_PROVISIONING_WIFI_SECURITY_TYPE,
+            EXTRA_PROVISIONING_WIFI_SSID,
+            EXTRA_PROVISIONING_WIFI_USER_CERTIFICATE,
+    };
 
     private final Utils mUtils;
     private final Context mContext;
@@ -108,18 +144,6 @@ public class PropertiesProvisioningDataParser implements ProvisioningDataParser
         mSharedPreferences = checkNotNull(sharedPreferences);
     }
 
-    @Nullable
-    private String getPropertyFromLongName(Properties properties, String longName) {
-        if (properties.containsKey(longName)) {
-            return properties.getProperty(longName);
-        }
-        String shortName = ExtrasProvisioningDataParser.getShortExtraNames(longName);
-        if (properties.containsKey(shortName)) {
-            return properties.getProperty(shortName);
-        }
-        return null;
-    }
-
     public ProvisioningParams parse(Intent nfcIntent)
             throws IllegalProvisioningArgumentException {
         if (!ACTION_NDEF_DISCOVERED.equals(nfcIntent.getAction())) {
@@ -130,9 +154,13 @@ public class PropertiesProvisioningDataParser implements ProvisioningDataParser
         ProvisionLogger.logi("Processing Nfc Payload.");
         NdefRecord firstRecord = getFirstNdefRecord(nfcIntent);
         if (firstRecord != null) {
+            final byte[] payload = firstRecord.getPayload();
+            if (payload.length > MAX_PAYLOAD_SIZE) {
+                throw new IllegalProvisioningArgumentException(
+                        "Nfc payload too large: " + payload.length + " bytes");
+            }
             try {
-                Properties props = new Properties();
-                props.load(new StringReader(new String(firstRecord.getPayload(), UTF_8)));
+                NfcProperties props = NfcProperties.parse(payload);
 
                 // For parsing non-string parameters.
                 String s = null;
@@ -143,19 +171,15 @@ public class PropertiesProvisioningDataParser implements ProvisioningDataParser
                         .setIsNfc(true)
                         .setProvisioningAction(mUtils.mapIntentToDpmAction(nfcIntent))
                         .setDeviceAdminPackageName(
-                                getPropertyFromLongName(
-                                        props, EXTRA_PROVISIONING_DEVICE_ADMIN_PACKAGE_NAME));
-                if ((s = getPropertyFromLongName(
-                        props, EXTRA_PROVISIONING_DEVICE_ADMIN_COMPONENT_NAME))
-                        != null) {
+                                props.get(EXTRA_PROVISIONING_DEVICE_ADMIN_PACKAGE_NAME));
+                if ((s = props.get(EXTRA_PROVISIONING_DEVICE_ADMIN_COMPONENT_NAME)) != null) {
                     builder.setDeviceAdminComponentName(ComponentName.unflattenFromString(s));
                 }
 
                 // Parse time zone, locale and local time.
-                builder.setTimeZone(getPropertyFromLongName(props, EXTRA_PROVISIONING_TIME_ZONE))
-                        .setLocale(StoreUtils.stringToLocale(
-                                getPropertyFromLongName(props, EXTRA_PROVISIONING_LOCALE)));
-                if ((s = getPropertyFromLongName(props, EXTRA_PROVISIONING_LOCAL_TIME)) != null) {
+                builder.setTimeZone(props.get(EXTRA_PROVISIONING_TIME_ZONE))
+                        .setLocale(StoreUtils.stringToLocale(props.get(EXTRA_PROVISIONING_LOCALE)));
+                if ((s = props.get(EXTRA_PROVISIONING_LOCAL_TIME)) != null) {
                     builder.setLocalTime(Long.parseLong(s));
                 }
 
@@ -167,26 +191,21 @@ public class PropertiesProvisioningDataParser implements ProvisioningDataParser
                         // Note: EXTRA_PROVISIONING_ADMIN_EXTRAS_BUNDLE property contains a
                         // Properties object serialized into String. See Properties.store() and
                         // Properties.load() for more details. The property value is optional.
-                        .setAdminExtrasBundle(deserializeExtrasBundle(props,
-                                EXTRA_PROVISIONING_ADMIN_EXTRAS_BUNDLE));
-                if ((s = getPropertyFromLongName(
-                        props, EXTRA_PROVISIONING_LEAVE_ALL_SYSTEM_APPS_ENABLED)) != null) {
+                        .setAdminExtrasBundle(
+                                props.getBundle(EXTRA_PROVISIONING_ADMIN_EXTRAS_BUNDLE));
+                if ((s = props.get(EXTRA_PROVISIONING_LEAVE_ALL_SYSTEM_APPS_ENABLED)) != null) {
                     builder.setLeaveAllSystemAppsEnabled(Boolean.parseBoolean(s));
                 }
-                if ((s = getPropertyFromLongName(
-                        props, EXTRA_PROVISIONING_SKIP_ENCRYPTION)) != null) {
+                if ((s = props.get(EXTRA_PROVISIONING_SKIP_ENCRYPTION)) != null) {
                     builder.setSkipEncryption(Boolean.parseBoolean(s));
                 }
-                if ((s = getPropertyFromLongName(
-                        props, EXTRA_PROVISIONING_USE_MOBILE_DATA)) != null) {
+                if ((s = props.get(EXTRA_PROVISIONING_USE_MOBILE_DATA)) != null) {
                     builder.setUseMobileData(Boolean.parseBoolean(s));
                 }
                 builder.setIsOrganizationOwnedProvisioning(
                         mUtils.isOrganizationOwnedProvisioning(nfcIntent));
                 ProvisionLogger.logi("End processing Nfc Payload.");
                 return builder.build();
-            } catch (IOException e) {
-                throw new IllegalProvisioningArgumentException("Couldn't load payload", e);
             } catch (NumberFormatException e) {
                 throw new IllegalProvisioningArgumentException("Incorrect numberformat.", e);
             } catch (IllformedLocaleException e) {
@@ -203,39 +222,33 @@ public class PropertiesProvisioningDataParser implements ProvisioningDataParser
     }
 
     /**
-     * Parses Wifi configuration from an {@link Properties} and returns the result in
-     * {@link WifiInfo}.
+     * Parses Wifi configuration from the properties and returns the result in {@link WifiInfo}.
      */
     @Nullable
-    private WifiInfo parseWifiInfoFromProperties(Properties props) {
-        if (getPropertyFromLongName(props, EXTRA_PROVISIONING_WIFI_SSID) == null) {
+    private WifiInfo parseWifiInfoFromProperties(NfcProperties props) {
+        if (props.get(EXTRA_PROVISIONING_WIFI_SSID) == null) {
             return null;
         }
         WifiInfo.Builder builder = WifiInfo.Builder.builder()
-                .setSsid(getPropertyFromLongName(props, EXTRA_PROVISIONING_WIFI_SSID))
-                .setSecurityType(getPropertyFromLongName(
-                        props, EXTRA_PROVISIONING_WIFI_SECURITY_TYPE))
-                .setPassword(getPropertyFromLongName(props, EXTRA_PROVISIONING_WIFI_PASSWORD))
-                .setEapMethod(getPropertyFromLongName(props, EXTRA_PROVISIONING_WIFI_EAP_METHOD))
-                .setPhase2Auth(getPropertyFromLongName(props, EXTRA_PROVISIONING_WIFI_PHASE2_AUTH))
-                .setCaCertificate(getPropertyFromLongName(
-                        props, EXTRA_PROVISIONING_WIFI_CA_CERTIFICATE))
-                .setUserCertificate(getPropertyFromLongName(
-                        props, EXTRA_PROVISIONING_WIFI_USER_CERTIFICATE))
-                .setIdentity(getPropertyFromLongName(props, EXTRA_PROVISIONING_WIFI_IDENTITY))
-                .setAnonymousIdentity(getPropertyFromLongName(
-                        props, EXTRA_PROVISIONING_WIFI_ANONYMOUS_IDENTITY))
-                .setDomain(getPropertyFromLongName(props, EXTRA_PROVISIONING_WIFI_DOMAIN))
-                .setProxyHost(getPropertyFromLongName(props, EXTRA_PROVISIONING_WIFI_PROXY_HOST))
-                .setProxyBypassHosts(getPropertyFromLongName(
-                        props, EXTRA_PROVISIONING_WIFI_PROXY_BYPASS))
-                .setPacUrl(getPropertyFromLongName(props, EXTRA_PROVISIONING_WIFI_PAC_URL));
+                .setSsid(props.get(EXTRA_PROVISIONING_WIFI_SSID))
+                .setSecurityType(props.get(EXTRA_PROVISIONING_WIFI_SECURITY_TYPE))
+                .setPassword(props.get(EXTRA_PROVISIONING_WIFI_PASSWORD))
+                .setEapMethod(props.get(EXTRA_PROVISIONING_WIFI_EAP_METHOD))
+                .setPhase2Auth(props.get(EXTRA_PROVISIONING_WIFI_PHASE2_AUTH))
+                .setCaCertificate(props.get(EXTRA_PROVISIONING_WIFI_CA_CERTIFICATE))
+                .setUserCertificate(props.get(EXTRA_PROVISIONING_WIFI_USER_CERTIFICATE))
+                .setIdentity(props.get(EXTRA_PROVISIONING_WIFI_IDENTITY))
+                .setAnonymousIdentity(props.get(EXTRA_PROVISIONING_WIFI_ANONYMOUS_IDENTITY))
+                .setDomain(props.get(EXTRA_PROVISIONING_WIFI_DOMAIN))
+                .setProxyHost(props.get(EXTRA_PROVISIONING_WIFI_PROXY_HOST))
+                .setProxyBypassHosts(props.get(EXTRA_PROVISIONING_WIFI_PROXY_BYPASS))
+                .setPacUrl(props.get(EXTRA_PROVISIONING_WIFI_PAC_URL));
         // For parsing non-string parameters.
         String s = null;
-        if ((s = getPropertyFromLongName(props, EXTRA_PROVISIONING_WIFI_PROXY_PORT)) != null) {
+        if ((s = props.get(EXTRA_PROVISIONING_WIFI_PROXY_PORT)) != null) {
             builder.setProxyPort(Integer.parseInt(s));
         }
-        if ((s = getPropertyFromLongName(props, EXTRA_PROVISIONING_WIFI_HIDDEN)) != null) {
+        if ((s = props.get(EXTRA_PROVISIONING_WIFI_HIDDEN)) != null) {
             builder.setHidden(Boolean.parseBoolean(s));
         }
 
@@ -243,59 +256,32 @@ public class PropertiesProvisioningDataParser implements ProvisioningDataParser
     }
 
     /**
-     * Parses device admin package download info from an {@link Properties} and returns the result
-     * in {@link PackageDownloadInfo}.
+     * Parses device admin package download info from the properties and returns the result in
+     * {@link PackageDownloadInfo}.
      */
     @Nullable
-    private PackageDownloadInfo parsePackageDownloadInfoFromProperties(Properties props) {
-        if (getPropertyFromLongName(
-                props, EXTRA_PROVISIONING_DEVICE_ADMIN_PACKAGE_DOWNLOAD_LOCATION) == null) {
+    private PackageDownloadInfo parsePackageDownloadInfoFromProperties(NfcProperties props) {
+        if (props.get(EXTRA_PROVISIONING_DEVICE_ADMIN_PACKAGE_DOWNLOAD_LOCATION) == null) {
             return null;
         }
         PackageDownloadInfo.Builder builder = PackageDownloadInfo.Builder.builder()
-                .setLocation(getPropertyFromLongName(props,
-                        EXTRA_PROVISIONING_DEVICE_ADMIN_PACKAGE_DOWNLOAD_LOCATION))
-                .setCookieHeader(getPropertyFromLongName(props,
-                        EXTRA_PROVISIONING_DEVICE_ADMIN_PACKAGE_DOWNLOAD_COOKIE_HEADER));
+                .setLocation(props.get(EXTRA_PROVISIONING_DEVICE_ADMIN_PACKAGE_DOWNLOAD_LOCATION))
+                .setCookieHeader(
+                        props.get(EXTRA_PROVISIONING_DEVICE_ADMIN_PACKAGE_DOWNLOAD_COOKIE_HEADER));
         // For parsing non-string parameters.
         String s = null;
-        if ((s = getPropertyFromLongName(
-                props, EXTRA_PROVISIONING_DEVICE_ADMIN_MINIMUM_VERSION_CODE)) != null) {
+        if ((s = props.get(EXTRA_PROVISIONING_DEVICE_ADMIN_MINIMUM_VERSION_CODE)) != null) {
             builder.setMinVersion(Integer.parseInt(s));
         }
-        if ((s = getPropertyFromLongName(
-                props, EXTRA_PROVISIONING_DEVICE_ADMIN_PACKAGE_CHECKSUM)) != null) {
+        if ((s = props.get(EXTRA_PROVISIONING_DEVICE_ADMIN_PACKAGE_CHECKSUM)) != null) {
             builder.setPackageChecksum(StoreUtils.stringToByteArray(s));
         }
-        if ((s = getPropertyFromLongName(props, EXTRA_PROVISIONING_DEVICE_ADMIN_SIGNATURE_CHECKSUM))
-                != null) {
+        if ((s = props.get(EXTRA_PROVISIONING_DEVICE_ADMIN_SIGNATURE_CHECKSUM)) != null) {
             builder.setSignatureChecksum(StoreUtils.stringToByteArray(s));
         }
         return builder.build();
     }
 
-    /**
-     * Get a {@link PersistableBundle} from a String property in a Properties object.
-     * @param props the source of the extra
-     * @param extraName key into the Properties object
-     * @return the bundle or {@code null} if there was no property with the given name
-     * @throws IOException if there was an error parsing the propery
-     */
-    private PersistableBundle deserializeExtrasBundle(Properties props, String extraName)
-            throws IOException {
-        PersistableBundle extrasBundle = null;
-        String serializedExtras = getPropertyFromLongName(props, extraName);
-        if (serializedExtras != null) {
-            Properties extrasProp = new Properties();
-            extrasProp.load(new StringReader(serializedExtras));
-            extrasBundle = new PersistableBundle(extrasProp.size());
-            for (String propName : extrasProp.stringPropertyNames()) {
-                extrasBundle.putString(propName, extrasProp.getProperty(propName));
-            }
-        }
-        return extrasBundle;
-    }
-
     /**
      * @return the first {@link NdefRecord} found with a recognized MIME-type
      */
@@ -320,4 +306,124 @@ public class PropertiesProvisioningDataParser implements ProvisioningDataParser
         }
         return null;
     }
+
+    /**
+     * The supported properties of an NFC payload, read in a single pass over the payload.
+     *
+     * <p>Keys are matched against an open addressing table of the long and short names of the
+     * {@link #SUPPORTED_PROPERTIES} without being turned into strings, and only the values of the
+     * supported properties are unescaped. As with {@link Properties}, the last value of a property
+     * wins, and the long name of a property takes precedence over its short name.</p>
+     */
+    @VisibleForTesting
+    static final class NfcProperties {
+        /** The long and short names of the supported properties, by hash. */
+        private static final String[] NAMES;
+        /**
+         * For each name of {@link #NAMES}, the index of the property in
+         * {@link #SUPPORTED_PROPERTIES}, plus the number of properties for short names.
+         */
+        private static final int[] INDICES;
+
+        static {
+            // At most a quarter full, so that probes are short.
+            final int size = Integer.highestOneBit(SUPPORTED_PROPERTIES.length * 2 * 4 - 1) << 1;
+            NAMES = new String[size];
+            INDICES = new int[size];
+            for (int i = 0; i < SUPPORTED_PROPERTIES.length; i++) {
+                addName(SUPPORTED_PROPERTIES[i], i);
+                final String shortName =
+                        ExtrasProvisioningDataParser.getShortExtraNames(SUPPORTED_PROPERTIES[i]);
+                if (shortName != null) {
+                    addName(shortName, i + SUPPORTED_PROPERTIES.length);
+                }
+            }
+        }
+
+        private final String[] mValues = new String[SUPPORTED_PROPERTIES.length * 2];
+
+        private NfcProperties() {}
+
+        /**
+         * Reads the supported properties of a payload in the format of
+         * {@link Properties#store(java.io.Writer, String)}, encoded as UTF-8.
+         *
+         * @throws IllegalArgumentException if the payload contains a malformed escape
+         */
+        static NfcProperties parse(byte[] payload) {
+            final NfcProperties properties = new NfcProperties();
+            final CharBuffer text = UTF_8.decode(ByteBuffer.wrap(payload));
+            final PropertiesTokenizer tokenizer =
+                    new PropertiesTokenizer(text.array(), text.limit());
+            while (tokenizer.next()) {
+                final int index = indexOf(tokenizer.key());
+                if (index >= 0) {
+                    properties.mValues[index] = tokenizer.value();
+                }
+            }
+            return properties;
+        }
+
+        /**
+         * Returns the value of a property, looked up by its long name and then by its short
+         * name, or {@code null} if the payload doesn't contain it.
+         */
+        @Nullable
+        String get(String longName) {
+            final int index = indexOf(longName);
+            if (index < 0 || index >= SUPPORTED_PROPERTIES.length) {
+                throw new IllegalArgumentException("Unsupported property " + longName);
+            }
+            final String value = mValues[index];
+            return value != null ? value : mValues[index + SUPPORTED_PROPERTIES.length];
+        }
+
+        /**
+         * Returns the string bundle stored in a property, which contains properties in the
+         * format of {@link Properties#store(java.io.Writer, String)}, or {@code null} if the
+         * payload doesn't contain it.
+         *
+         * @throws IllegalArgumentException if the property contains a malformed escape
+         */
+        @Nullable
+        PersistableBundle getBundle(String longName) {
+            final String value = get(longName);
+            if (value == null) {
+                return null;
+            }
+            final PersistableBundle bundle = new PersistableBundle();
+            final PropertiesTokenizer tokenizer =
+                    new PropertiesTokenizer(value.toCharArray(), value.length());
+            while (tokenizer.next()) {
+                bundle.putString(tokenizer.key().toString(), tokenizer.value());
+            }
+            return bundle;
+        }
+
+        private static void addName(String name, int index) {
+            int slot = name.hashCode() & (NAMES.length - 1);
+            while (NAMES[slot] != null) {
+                slot = (slot + 1) & (NAMES.length - 1);
+            }
+            NAMES[slot] = name;
+            INDICES[slot] = index;
+        }
+
+        /** Returns the index of a name in {@link #mValues}, or -1 if it isn't supported. */
+        private static int indexOf(CharSequence name) {
+            // Same as String#hashCode(), without turning the key into a string.
+            int hash = 0;
+            for (int i = 0; i < name.length(); i++) {
+                hash = 31 * hash + name.charAt(i);
+            }
+            int slot = hash & (NAMES.length - 1);
+            while (NAMES[slot] != null) {
+                if (NAMES[slot].contentEquals(name)) {
+                    return INDICES[slot];
+                }
+                slot = (slot + 1) & (NAMES.length - 1);
+            }
+            return -1;
+        }
+    }
 }
@@ -0,0 +1,249 @@
+/*
+ * Copyright 2019, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.parser;
+
+/**
+ * Tokenizer of text in the format of {@link java.util.Properties#load(java.io.Reader)}, which
+ * returns the entries one by one instead of collecting them in a table.
+ *
+ * <p>Keys are unescaped into a reused buffer, so that they can be matched without allocating.
+ * Values are only unescaped when asked for, so that the values of unknown keys are skipped. The
+ * syntax is the one of {@link java.util.Properties}: comment lines start with {@code #} or
+ * {@code !}, a line ending with an odd number of backslashes continues on the next line, the key
+ * ends at the first unescaped {@code =}, {@code :} or whitespace, and {@code \t}, {@code \n},
+ * {@code \f}, {@code \r} and {@code \}{@code uXXXX} escapes are supported.</p>
+ */
+final class PropertiesTokenizer {
+    private final char[] mText;
+    private final int mEnd;
+    private final StringBuilder mKey = new StringBuilder();
+    private final StringBuilder mValue = new StringBuilder();
+    private int mPosition;
+    private int mValueStart;
+    private int mValueEnd;
+
+    /**
+     * @param text the text to tokenize, which isn't copied
+     * @param length the length of the text in {@code text}
+     */
+    PropertiesTokenizer(char[] text, int length) {
+        mText = text;
+        mEnd = length;
+    }
+
+    /**
+     * Moves to the next entry.
+     *
+     * @return {@code false} if there are no more entries
+     * @throws IllegalArgumentException if the key contains a malformed {@code \}{@code uXXXX}
+     * escape
+     */
+    boolean next() {
+        if (!skipToLogicalLine()) {
+            return false;
+        }
+        mKey.setLength(0);
+        boolean hasSeparator = false;
+        while (mPosition < mEnd) {
+            final char c = mText[mPosition];
+            if (c == '\\') {
+                mPosition = unescape(mPosition, mKey);
+            } else if (c == '=' || c == ':') {
+                mPosition++;
+                hasSeparator = true;
+                break;
+            } else if (isWhitespace(c)) {
+                break;
+            } else if (isLineTerminator(c)) {
+                break;
+            } else {
+                mKey.append(c);
+                mPosition++;
+            }
+        }
+        skipWhitespace();
+        if (!hasSeparator && mPosition < mEnd
+                && (mText[mPosition] == '=' || mText[mPosition] == ':')) {
+            mPosition++;
+            skipWhitespace();
+        }
+        mValueStart = mPosition;
+        while (mPosition < mEnd && !isLineTerminator(mText[mPosition])) {
+            if (isContinuation(mPosition)) {
+                mPosition = skipContinuation(mPosition);
+            } else {
+                // Skip escaped characters, which can't end the value.
+                mPosition += mText[mPosition] == '\\' ? 2 : 1;
+            }
+        }
+        mPosition = Math.min(mPosition, mEnd);
+        mValueEnd = mPosition;
+        return true;
+    }
+
+    /**
+     * Returns the unescaped key of the current entry, which is only valid until the next call to
+     * {@link #next()}.
+     */
+    CharSequence key() {
+        return mKey;
+    }
+
+    /**
+     * Returns the unescaped value of the current entry.
+     *
+     * @throws IllegalArgumentException if the value contains a malformed
+     * {@code \}{@code uXXXX} escape
+     */
+    String value() {
+        mValue.setLength(0);
+        int i = mValueStart;
+        while (i < mValueEnd) {
+            if (mText[i] == '\\') {
+                i = unescape(i, mValue);
+            } else {
+                mValue.append(mText[i++]);
+            }
+        }
+        return mValue.toString();
+    }
+
+    /**
+     * Skips blank and comment lines.
+     *
+     * @return {@code false} if the end of the text was reached
+     */
+    private boolean skipToLogicalLine() {
+        while (mPosition < mEnd) {
+            final char c = mText[mPosition];
+            if (isWhitespace(c) || isLineTerminator(c)) {
+                mPosition++;
+            } else if (isContinuation(mPosition)) {
+                // The line is still empty, so it can turn out to be blank or a comment.
+                mPosition = skipContinuation(mPosition);
+                if (mPosition == mEnd && isLineTerminator(mText[mEnd - 1])
+                        && !(mText[mEnd - 1] == '\n' && mText[mEnd - 2] == '\r')) {
+                    // Like Properties, an empty entry is read if the text ends right after a
+                    // single character line terminator.
+                    return true;
+                }
+            } else if (c == '#' || c == '!') {
+                // Comment lines can't be continued.
+                while (mPosition < mEnd && !isLineTerminator(mText[mPosition])) {
+                    mPosition++;
+                }
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void skipWhitespace() {
+        while (mPosition < mEnd) {
+            if (isWhitespace(mText[mPosition])) {
+                mPosition++;
+            } else if (isContinuation(mPosition)) {
+                mPosition = skipContinuation(mPosition);
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Appends the character escaped by the backslash at {@code position} to {@code out}.
+     *
+     * @return the position after the escape sequence
+     */
+    private int unescape(int position, StringBuilder out) {
+        if (isContinuation(position)) {
+            return skipContinuation(position);
+        }
+        if (position + 1 >= mEnd) {
+            // A trailing backslash is dropped.
+            return mEnd;
+        }
+        final char c = mText[position + 1];
+        switch (c) {
+            case 't':
+                out.append('\t');
+                break;
+            case 'n':
+                out.append('\n');
+                break;
+            case 'r':
+                out.append('\r');
+                break;
+            case 'f':
+                out.append('\f');
+                break;
+            case 'u':
+                int value = 0;
+                int i = position + 2;
+                for (int digits = 0; digits < 4; digits++) {
+                    // Lines are joined before escapes are read.
+                    while (i < mEnd && isContinuation(i)) {
+                        i = skipContinuation(i);
+                    }
+                    final int digit = i < mEnd ? Character.digit(mText[i], 16) : -1;
+                    if (digit < 0) {
+                        throw new IllegalArgumentException("Malformed \\uxxxx encoding.");
+                    }
+                    value = (value << 4) | digit;
+                    i++;
+                }
+                out.append((char) value);
+                return i;
+            default:
+                out.append(c);
+        }
+        return position + 2;
+    }
+
+    /** Returns whether the backslash at {@code position} escapes a line terminator. */
+    private boolean isContinuation(int position) {
+        return mText[position] == '\\' && position + 1 < mEnd
+                && isLineTerminator(mText[position + 1]);
+    }
+
+    /**
+     * Skips the escaped line terminator at {@code position}, and the leading whitespace of the
+     * next line.
+     *
+     * @return the position of the first character of the continued line
+     */
+    private int skipContinuation(int position) {
+        position++;
+        if (mText[position] == '\r' && position + 1 < mEnd && mText[position + 1] == '\n') {
+            position++;
+        }
+        position++;
+        while (position < mEnd && isWhitespace(mText[position])) {
+            position++;
+        }
+        return position;
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\f';
+    }
+
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r';
+    }
+}
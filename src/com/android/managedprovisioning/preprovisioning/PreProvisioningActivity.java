@@ -354,6 +354,10 @@ public class PreProvisioningActivity extends SetupGlifLayoutActivity implements
 
     @Override
     public void initiateUi(UiParams uiParams) {
+        // Called once the disclaimer headings are sourced in the background.
+        if (isDestroyed()) {
+            return;
+        }
         mConsentUiHelper.initiateUi(uiParams);
     }
 
@@ -82,11 +82,9 @@ import com.android.managedprovisioning.model.ProvisioningParams;
 import com.android.managedprovisioning.model.ProvisioningParams.ProvisioningMode;
 import com.android.managedprovisioning.parser.MessageParser;
 import com.android.managedprovisioning.preprovisioning.terms.TermsActivity;
-import com.android.managedprovisioning.preprovisioning.terms.TermsDocument;
 import com.android.managedprovisioning.preprovisioning.terms.TermsProvider;
 
 import java.util.List;
-import java.util.stream.Collectors;
 
 public class PreProvisioningController {
     private final Context mContext;
@@ -108,6 +106,7 @@ public class PreProvisioningController {
     private final ManagedProvisioningSharedPreferences mSharedPreferences;
 
     private ProvisioningParams mParams;
+    private AsyncTask<?, ?, ?> mLoadHeadingsTask;
 
     public PreProvisioningController(
             @NonNull Context context,
@@ -262,6 +261,9 @@ public class PreProvisioningController {
             return;
         }
 
+        // The terms are shown by the consent screen, start sourcing them right away.
+        new TermsProvider(mContext, StoreUtils::readString, mUtils).prefetchTerms(mParams);
+
         if (!checkFactoryResetProtection(mParams, callingPackage)) {
             return;
         }
@@ -352,7 +354,6 @@ public class PreProvisioningController {
         uiParams.customization = customization;
         uiParams.deviceAdminIconFilePath = mParams.deviceAdminIconFilePath;
         uiParams.deviceAdminLabel = mParams.deviceAdminLabel;
-        uiParams.disclaimerHeadings = getDisclaimerHeadings();
         uiParams.provisioningMode = mParams.provisioningMode;
         uiParams.provisioningAction = mParams.provisioningAction;
         uiParams.packageName = packageName;
@@ -362,7 +363,18 @@ public class PreProvisioningController {
         uiParams.isSilentProvisioning = Utils.isSilentProvisioning(mContext, mParams);
         uiParams.isOrganizationOwnedProvisioning = mParams.isOrganizationOwnedProvisioning;
 
-        mUi.initiateUi(uiParams);
+        // Sourcing the headings scans the system apps for their terms, and waits for the content
+        // passed by the DPC to be copied.
+        if (mLoadHeadingsTask != null) {
+            mLoadHeadingsTask.cancel(false);
+        }
+        mLoadHeadingsTask = new TermsProvider(mContext, StoreUtils::readString, mUtils)
+                .loadTermsHeadings(mParams, TermsProvider.Flags.SKIP_GENERAL_DISCLAIMER,
+                        headings -> {
+                            mLoadHeadingsTask = null;
+                            uiParams.disclaimerHeadings = headings;
+                            mUi.initiateUi(uiParams);
+                        });
     }
 
     boolean updateProvisioningParamsFromIntent(Intent resultIntent) {
@@ -429,15 +441,6 @@ public class PreProvisioningController {
         intentGetMode.putExtra(EXTRA_PROVISIONING_ADMIN_EXTRAS_BUNDLE, mParams.adminExtrasBundle);
     }
 
-    private @NonNull List<String> getDisclaimerHeadings() {
-        // TODO: only fetch headings, no need to fetch content; now not fast, but at least correct
-        return new TermsProvider(mContext, StoreUtils::readString, mUtils)
-                .getTerms(mParams, TermsProvider.Flags.SKIP_GENERAL_DISCLAIMER)
-                .stream()
-                .map(TermsDocument::getHeading)
-                .collect(Collectors.toList());
-    }
-
     private Intent createViewTermsIntent() {
         return new Intent(mContext, TermsActivity.class).putExtra(
             ProvisioningParams.EXTRA_PROVISIONING_PARAMS, mParams);
@@ -23,8 +23,6 @@ import android.annotation.NonNull;
 import android.annotation.Nullable;
 import android.app.Activity;
 import android.content.Intent;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.text.Spannable;
@@ -40,6 +38,7 @@ import android.widget.TextView;
 import com.android.managedprovisioning.R;
 import com.android.managedprovisioning.common.AccessibilityContextMenuMaker;
 import com.android.managedprovisioning.common.ClickableSpanFactory;
+import com.android.managedprovisioning.common.ImageLoader;
 import com.android.managedprovisioning.common.ProvisionLogger;
 import com.android.managedprovisioning.common.StringConcatenator;
 import com.android.managedprovisioning.common.TouchTargetEnforcer;
@@ -48,6 +47,7 @@ import com.android.managedprovisioning.model.CustomizationParams;
 import com.android.managedprovisioning.preprovisioning.PreProvisioningController.UiParams;
 import com.android.managedprovisioning.preprovisioning.anim.BenefitsAnimation;
 import com.google.android.setupdesign.GlifLayout;
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -176,8 +176,7 @@ class LegacyConsentUiHelper implements ConsentUiHelper {
                 ? uiParams.packageInfo.appLabel
                 : uiParams.deviceAdminLabel != null
                         ? uiParams.deviceAdminLabel : uiParams.packageName;
-            packageIcon = uiParams.packageInfo != null ? uiParams.packageInfo.packageIcon
-                : getDeviceAdminIconDrawable(uiParams.deviceAdminIconFilePath);
+            packageIcon = uiParams.packageInfo != null ? uiParams.packageInfo.packageIcon : null;
         }
 
         final CustomizationParams customization = uiParams.customization;
@@ -198,6 +197,10 @@ class LegacyConsentUiHelper implements ConsentUiHelper {
         } else if (mUtils.isDeviceOwnerAction(uiParams.provisioningAction)){
             initiateUIDeviceOwner(packageLabel, packageIcon, headers, customization,
                 uiParams.viewTermsIntent);
+            if (uiParams.packageInfo == null && uiParams.deviceAdminIconFilePath != null) {
+                loadDeviceAdminIcon(uiParams.deviceAdminIconFilePath, packageLabel,
+                    customization.orgName);
+            }
         }
     }
 
@@ -284,15 +287,25 @@ class LegacyConsentUiHelper implements ConsentUiHelper {
                 mContextMenuMaker, info, deviceProvider, contactDeviceProvider);
     }
 
-    private Drawable getDeviceAdminIconDrawable(@Nullable String deviceAdminIconFilePath) {
-        if (deviceAdminIconFilePath == null) {
-            return null;
-        }
-
-        Bitmap bitmap = BitmapFactory.decodeFile(deviceAdminIconFilePath);
-        if (bitmap == null) {
-            return null;
+    /**
+     * Sets up the DPC icon and label once the icon passed by the DPC is decoded in the background.
+     */
+    private void loadDeviceAdminIcon(String deviceAdminIconFilePath, String packageName,
+            String orgName) {
+        final ImageView imageView = mActivity.findViewById(R.id.device_manager_icon_view);
+        if (imageView == null) {
+            return;
         }
-        return new BitmapDrawable(mActivity.getResources(), bitmap);
+        final int maxWidth = imageView.getLayoutParams().width > 0
+                ? imageView.getLayoutParams().width : Integer.MAX_VALUE;
+        final int maxHeight = imageView.getLayoutParams().height > 0
+                ? imageView.getLayoutParams().height : Integer.MAX_VALUE;
+        ImageLoader.getInstance().loadAsync(new File(deviceAdminIconFilePath), maxWidth,
+                maxHeight, bitmap -> {
+                    if (bitmap != null && !mActivity.isDestroyed()) {
+                        setDpcIconAndLabel(packageName,
+                                new BitmapDrawable(mActivity.getResources(), bitmap), orgName);
+                    }
+                });
     }
 }
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2019, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.preprovisioning.terms;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.PersistableBundle;
+import android.util.AtomicFile;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.managedprovisioning.common.BinaryBundleFormat;
+import com.android.managedprovisioning.common.ProvisionLogger;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Process wide cache of the terms exposed by system apps, which are expensive to source since
+ * the meta-data of every system app is scanned.
+ *
+ * <p>System apps only change with the system image, so the terms are cached for the fingerprint
+ * of the system image and the locales they were read in. They are kept in memory, and in a file
+ * in the cache directory so that they survive the process.</p>
+ *
+ * <p>Terms are only loaded once at a time: a caller asking for them while they are loaded waits
+ * for that load instead of scanning the system apps again.</p>
+ */
+final class SystemAppTermsCache {
+    @VisibleForTesting
+    static final String CACHE_FILE_NAME = "system_app_terms";
+    private static final String KEY_CACHE_KEY = "cache_key";
+    private static final String KEY_HEADINGS = "headings";
+    private static final String KEY_CONTENTS = "contents";
+
+    private static SystemAppTermsCache sInstance;
+
+    @GuardedBy("this")
+    private String mCacheKey;
+    @GuardedBy("this")
+    private List<TermsDocument> mTerms;
+    @GuardedBy("this")
+    private int mHits;
+    @GuardedBy("this")
+    private int mMisses;
+
+    static synchronized SystemAppTermsCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new SystemAppTermsCache();
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    SystemAppTermsCache() {}
+
+    /**
+     * Returns the cached terms if they were sourced for the current system image and locales,
+     * otherwise sources them with {@code loader} and caches them.
+     */
+    synchronized List<TermsDocument> get(Context context, Supplier<List<TermsDocument>> loader) {
+        final String cacheKey = Build.FINGERPRINT + '/'
+                + context.getResources().getConfiguration().getLocales().toLanguageTags();
+        if (cacheKey.equals(mCacheKey)) {
+            mHits++;
+        } else {
+            mMisses++;
+            final File file = getCacheFile(context);
+            List<TermsDocument> terms = file == null ? null : read(file, cacheKey);
+            if (terms == null) {
+                terms = Collections.unmodifiableList(new ArrayList<>(loader.get()));
+                if (file != null) {
+                    write(file, cacheKey, terms);
+                }
+            }
+            mCacheKey = cacheKey;
+            mTerms = terms;
+        }
+        return mTerms;
+    }
+
+    private static File getCacheFile(Context context) {
+        final File cacheDir = context.getCacheDir();
+        return cacheDir == null ? null : new File(cacheDir, CACHE_FILE_NAME);
+    }
+
+    private static List<TermsDocument> read(File file, String cacheKey) {
+        try {
+            final PersistableBundle bundle =
+                    BinaryBundleFormat.decode(new AtomicFile(file).readFully());
+            if (!cacheKey.equals(bundle.getString(KEY_CACHE_KEY))) {
+                return null;
+            }
+            final String[] headings = bundle.getStringArray(KEY_HEADINGS);
+            final String[] contents = bundle.getStringArray(KEY_CONTENTS);
+            if (headings == null || contents == null || headings.length != contents.length) {
+                return null;
+            }
+            final List<TermsDocument> terms = new ArrayList<>(headings.length);
+            for (int i = 0; i < headings.length; i++) {
+                final TermsDocument document = TermsDocument.createInstance(headings[i],
+                        contents[i]);
+                if (document != null) {
+                    terms.add(document);
+                }
+            }
+            return Collections.unmodifiableList(terms);
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            ProvisionLogger.logw("Could not read system app terms from " + file, e);
+            return null;
+        }
+    }
+
+    private static void write(File file, String cacheKey, List<TermsDocument> terms) {
+        final String[] headings = new String[terms.size()];
+        final String[] contents = new String[terms.size()];
+        for (int i = 0; i < terms.size(); i++) {
+            headings[i] = terms.get(i).getHeading();
+            contents[i] = terms.get(i).getContent();
+        }
+        final PersistableBundle bundle = new PersistableBundle();
+        bundle.putString(KEY_CACHE_KEY, cacheKey);
+        bundle.putStringArray(KEY_HEADINGS, headings);
+        bundle.putStringArray(KEY_CONTENTS, contents);
+
+        final AtomicFile atomicFile = new AtomicFile(file);
+        FileOutputStream stream = null;
+        try {
+            stream = atomicFile.startWrite();
+            stream.write(BinaryBundleFormat.encode(bundle));
+            atomicFile.finishWrite(stream);
+        } catch (IOException e) {
+            ProvisionLogger.logw("Could not write system app terms to " + file, e);
+            if (stream != null) {
+                atomicFile.failWrite(stream);
+            }
+        }
+    }
+
+    /**
+     * Prints the process wide cache, if it was created. Waits for the terms being loaded, if any.
+     */
+    static void dumpIfCreated(PrintWriter pw) {
+        final SystemAppTermsCache instance;
+        synchronized (SystemAppTermsCache.class) {
+            instance = sInstance;
+        }
+        if (instance == null) {
+            pw.println("  System app terms cache: not created");
+        } else {
+            instance.dump(pw);
+        }
+    }
+
+    private synchronized void dump(PrintWriter pw) {
+        pw.println("  System app terms cache: "
+                + (mTerms == null ? "empty" : mTerms.size() + " terms") + ", " + mHits + "/"
+                + (mHits + mMisses) + " hits");
+    }
+
+    /** Forgets the terms kept in memory, so that they are read from the file again. */
+    @VisibleForTesting
+    synchronized void clearMemory() {
+        mCacheKey = null;
+        mTerms = null;
+    }
+}
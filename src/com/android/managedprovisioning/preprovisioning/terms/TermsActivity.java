@@ -21,6 +21,7 @@ import static com.android.internal.util.Preconditions.checkNotNull;
 
 import android.annotation.ColorInt;
 import android.content.pm.PackageManager;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import androidx.annotation.VisibleForTesting;
 import android.util.ArraySet;
@@ -46,6 +47,7 @@ import com.android.managedprovisioning.model.ProvisioningParams;
 import com.android.managedprovisioning.preprovisioning.terms.adapters.TermsListAdapterCar;
 import com.android.managedprovisioning.preprovisioning.terms.adapters.TermsListAdapter;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 
@@ -58,6 +60,7 @@ public class TermsActivity extends SetupLayoutActivity {
     private final Set<Integer> mExpandedGroupsPosition = new ArraySet<>();
     private final SettingsFacade mSettingsFacade;
     private ProvisioningAnalyticsTracker mProvisioningAnalyticsTracker;
+    private AsyncTask<?, ?, ?> mLoadTermsTask;
 
     @SuppressWarnings("unused")
     public TermsActivity() {
@@ -84,9 +87,9 @@ public class TermsActivity extends SetupLayoutActivity {
 
         ProvisioningParams params = checkNotNull(
                 getIntent().getParcelableExtra(ProvisioningParams.EXTRA_PROVISIONING_PARAMS));
-        List<TermsDocument> terms = mTermsProvider.getTerms(params, 0);
+        List<TermsDocument> terms = new ArrayList<>();
 
-        setUpTermsList(terms, statusBarColor);
+        Runnable onTermsDocumentAdded = setUpTermsList(terms, statusBarColor);
 
         Toolbar toolbar = findViewById(R.id.toolbar);
         toolbar.setNavigationOnClickListener(v -> TermsActivity.this.finish());
@@ -94,28 +97,40 @@ public class TermsActivity extends SetupLayoutActivity {
         mProvisioningAnalyticsTracker = new ProvisioningAnalyticsTracker(
                 MetricsWriterFactory.getMetricsWriter(this, mSettingsFacade),
                 new ManagedProvisioningSharedPreferences(getApplicationContext()));
-        mProvisioningAnalyticsTracker.logNumberOfTermsDisplayed(this, terms.size());
+
+        // Documents are displayed as they are sourced, the first one being the 'General' section.
+        mLoadTermsTask = mTermsProvider.loadTerms(params, 0, new TermsProvider.Callback() {
+            @Override
+            public void onTermsDocumentLoaded(TermsDocument document) {
+                terms.add(document);
+                onTermsDocumentAdded.run();
+            }
+
+            @Override
+            public void onTermsLoaded() {
+                mProvisioningAnalyticsTracker.logNumberOfTermsDisplayed(TermsActivity.this,
+                        terms.size());
+            }
+        });
     }
 
-    private void setUpTermsList(List<TermsDocument> terms, @ColorInt int statusBarColor) {
+    /**
+     * @return a {@link Runnable} to call when a document is added to {@code terms}
+     */
+    private Runnable setUpTermsList(List<TermsDocument> terms, @ColorInt int statusBarColor) {
         if (getPackageManager().hasSystemFeature(PackageManager.FEATURE_AUTOMOTIVE)) {
             PagedListView pagedListView = findViewById(R.id.terms_container);
-            pagedListView.setAdapter(new TermsListAdapterCar(getApplicationContext(), terms,
-                    statusBarColor));
-
+            TermsListAdapterCar adapter = new TermsListAdapterCar(getApplicationContext(), terms,
+                    statusBarColor);
+            pagedListView.setAdapter(adapter);
+            return () -> adapter.notifyItemInserted(terms.size() - 1);
         } else {
             ExpandableListView container = findViewById(R.id.terms_container);
-            container.setAdapter(
-                    new TermsListAdapter(getApplicationContext(), terms,
-                            getLayoutInflater(),
-                            new AccessibilityContextMenuMaker(this),
-                            container::isGroupExpanded, statusBarColor));
-            container.expandGroup(0); // expand the 'General' section
-
-            // Add default open terms to the expanded groups set.
-            for (int i = 0; i < terms.size(); i++) {
-                if (container.isGroupExpanded(i)) mExpandedGroupsPosition.add(i);
-            }
+            TermsListAdapter adapter = new TermsListAdapter(getApplicationContext(), terms,
+                    getLayoutInflater(),
+                    new AccessibilityContextMenuMaker(this),
+                    container::isGroupExpanded, statusBarColor);
+            container.setAdapter(adapter);
 
             // keep at most one group expanded at a time
             container.setOnGroupExpandListener((int groupPosition) -> {
@@ -126,6 +141,13 @@ public class TermsActivity extends SetupLayoutActivity {
                     }
                 }
             });
+
+            return () -> {
+                adapter.notifyDataSetChanged();
+                if (terms.size() == 1) {
+                    container.expandGroup(0); // expand the 'General' section
+                }
+            };
         }
     }
 
@@ -149,6 +171,7 @@ public class TermsActivity extends SetupLayoutActivity {
 
     @Override
     public void onDestroy() {
+        mLoadTermsTask.cancel(false);
         mProvisioningAnalyticsTracker.logNumberOfTermsRead(this, mExpandedGroupsPosition.size());
         super.onDestroy();
     }
@@ -26,20 +26,23 @@ import android.content.Context;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
 import android.content.res.Resources;
+import android.os.AsyncTask;
+import android.text.TextUtils;
 import com.android.managedprovisioning.R;
 import com.android.managedprovisioning.common.ProvisionLogger;
 import com.android.managedprovisioning.common.StoreUtils;
+import com.android.managedprovisioning.common.UriContentFetcher;
 import com.android.managedprovisioning.common.Utils;
 import com.android.managedprovisioning.model.DisclaimersParam;
 import com.android.managedprovisioning.model.ProvisioningParams;
 import java.io.File;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Objects;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
 
 /**
  * Sources all available {@link TermsDocument}s:
@@ -78,19 +81,100 @@ public class TermsProvider {
      */
     public List<TermsDocument> getTerms(ProvisioningParams params, @Flags int flags) {
         List<TermsDocument> result = new ArrayList<>();
+        collectTerms(params, flags, result::add);
+        return result;
+    }
+
+    /**
+     * Returns the headings of the {@link TermsDocument}s returned by {@link #getTerms}, without
+     * reading the content passed from DPC. This scans the installed apps and waits for that
+     * content to be copied, so it must not be called on the main thread.
+     */
+    public List<String> getTermsHeadings(ProvisioningParams params, @Flags int flags) {
+        List<String> result = new ArrayList<>();
+        collectBuiltInTerms(params, flags, document -> result.add(document.getHeading()));
+        DisclaimersParam.Disclaimer[] disclaimers = params.disclaimersParam == null ? null
+                : params.disclaimersParam.mDisclaimers;
+        if (disclaimers != null) {
+            for (DisclaimersParam.Disclaimer disclaimer : disclaimers) {
+                final File file = new File(disclaimer.mContentFilePath);
+                UriContentFetcher.getInstance().await(file);
+                // Disclaimers without content are skipped by getTerms() as well.
+                if (!TextUtils.isEmpty(disclaimer.mHeader) && file.length() > 0) {
+                    result.add(disclaimer.mHeader);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Sources the headings returned by {@link #getTermsHeadings} in the background, passing them
+     * to {@code callback} on the main thread.
+     *
+     * @return the task sourcing the headings, which can be cancelled
+     */
+    public AsyncTask<?, ?, ?> loadTermsHeadings(ProvisioningParams params, @Flags int flags,
+            Consumer<List<String>> callback) {
+        // Not using the serial executor, for the same reason as loadTerms().
+        return new LoadTermsHeadingsTask(params, flags, callback)
+                .executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Sources the same {@link TermsDocument}s as {@link #getTerms} in the background, passing
+     * each of them to {@code callback} on the main thread as soon as it is available.
+     *
+     * @return the task sourcing the terms, which can be cancelled
+     */
+    public AsyncTask<?, ?, ?> loadTerms(ProvisioningParams params, @Flags int flags,
+            Callback callback) {
+        // Not using the serial executor, reading the content passed from DPC may wait for it to
+        // be copied.
+        return new LoadTermsTask(params, flags, callback)
+                .executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Starts sourcing the terms exposed via installed apps in the background, if they are part
+     * of the terms for {@code params}, so that they are cached by the time they are displayed.
+     */
+    public void prefetchTerms(ProvisioningParams params) {
+        if (mUtils.isDeviceOwnerAction(params.provisioningAction)) {
+            AsyncTask.THREAD_POOL_EXECUTOR.execute(this::getSystemAppTerms);
+        }
+    }
+
+    /**
+     * Prints the cache of the terms exposed via installed apps, if it was created.
+     */
+    public static void dumpCache(PrintWriter pw) {
+        SystemAppTermsCache.dumpIfCreated(pw);
+    }
+
+    private void collectTerms(ProvisioningParams params, @Flags int flags,
+            Consumer<TermsDocument> consumer) {
+        collectBuiltInTerms(params, flags, consumer);
+        collectExtraDisclaimers(params, consumer);
+    }
+
+    /**
+     * Sources the 'General' terms and the terms exposed via installed apps.
+     */
+    private void collectBuiltInTerms(ProvisioningParams params, @Flags int flags,
+            Consumer<TermsDocument> consumer) {
         int provisioningCase = determineProvisioningCase(params);
 
         if ((flags & Flags.SKIP_GENERAL_DISCLAIMER) == 0) {
-            result.add(getGeneralDisclaimer(provisioningCase));
+            TermsDocument generalDisclaimer = getGeneralDisclaimer(provisioningCase);
+            if (generalDisclaimer != null) {
+                consumer.accept(generalDisclaimer);
+            }
         }
 
         if (provisioningCase == ProvisioningCase.DEVICE_OWNER) {
-            result.addAll(getSystemAppTerms());
+            getSystemAppTerms().forEach(consumer);
         }
-
-        result.addAll(getExtraDisclaimers(params));
-
-        return result.stream().filter(Objects::nonNull).collect(Collectors.toList());
     }
 
     private int determineProvisioningCase(ProvisioningParams params) {
@@ -116,37 +200,46 @@ public class TermsProvider {
     }
 
     private List<TermsDocument> getSystemAppTerms() {
+        return SystemAppTermsCache.getInstance().get(mContext, this::loadSystemAppTerms);
+    }
+
+    private List<TermsDocument> loadSystemAppTerms() {
         List<TermsDocument> terms = new ArrayList<>();
         List<ApplicationInfo> appInfos = mContext.getPackageManager().getInstalledApplications(
                 MATCH_SYSTEM_ONLY | GET_META_DATA);
         for (ApplicationInfo appInfo : appInfos) {
             String header = getStringMetaData(appInfo, EXTRA_PROVISIONING_DISCLAIMER_HEADER);
             String content = getStringMetaData(appInfo, EXTRA_PROVISIONING_DISCLAIMER_CONTENT);
-            if (header != null && content != null) {
-                terms.add(TermsDocument.createInstance(header, content));
+            TermsDocument document = header != null && content != null
+                    ? TermsDocument.createInstance(header, content) : null;
+            if (document != null) {
+                terms.add(document);
             }
         }
         return terms;
     }
 
-    private List<TermsDocument> getExtraDisclaimers(ProvisioningParams params) {
-        List<TermsDocument> result = new ArrayList<>();
-
+    private void collectExtraDisclaimers(ProvisioningParams params,
+            Consumer<TermsDocument> consumer) {
         DisclaimersParam.Disclaimer[] disclaimers = params.disclaimersParam == null ? null
                 : params.disclaimersParam.mDisclaimers;
         if (disclaimers != null) {
             for (DisclaimersParam.Disclaimer disclaimer : disclaimers) {
                 try {
-                    String htmlContent = mTextFileReader.read(
-                            new File(disclaimer.mContentFilePath));
-                    result.add(TermsDocument.createInstance(disclaimer.mHeader, htmlContent));
+                    final File file = new File(disclaimer.mContentFilePath);
+                    // The content may still be copied from the uri passed by the DPC.
+                    UriContentFetcher.getInstance().await(file);
+                    String htmlContent = mTextFileReader.read(file);
+                    TermsDocument document =
+                            TermsDocument.createInstance(disclaimer.mHeader, htmlContent);
+                    if (document != null) {
+                        consumer.accept(document);
+                    }
                 } catch (IOException e) {
                     ProvisionLogger.loge("Failed to read disclaimer", e);
                 }
             }
         }
-
-        return result;
     }
 
     private String getStringMetaData(ApplicationInfo appInfo, String key) {
@@ -164,6 +257,70 @@ public class TermsProvider {
         return null;
     }
 
+    /**
+     * Receives the {@link TermsDocument}s sourced by {@link #loadTerms}, on the main thread.
+     */
+    public interface Callback {
+        /** Called for each document, in the order of {@link #getTerms}. */
+        void onTermsDocumentLoaded(TermsDocument document);
+
+        /** Called once all the documents were passed to {@link #onTermsDocumentLoaded}. */
+        void onTermsLoaded();
+    }
+
+    private class LoadTermsTask extends AsyncTask<Void, TermsDocument, Void> {
+        private final ProvisioningParams mParams;
+        private final @Flags int mFlags;
+        private final Callback mCallback;
+
+        LoadTermsTask(ProvisioningParams params, @Flags int flags, Callback callback) {
+            mParams = params;
+            mFlags = flags;
+            mCallback = callback;
+        }
+
+        @Override
+        protected Void doInBackground(Void... voids) {
+            collectTerms(mParams, mFlags, document -> publishProgress(document));
+            return null;
+        }
+
+        @Override
+        protected void onProgressUpdate(TermsDocument... documents) {
+            for (TermsDocument document : documents) {
+                mCallback.onTermsDocumentLoaded(document);
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Void result) {
+            mCallback.onTermsLoaded();
+        }
+    }
+
+    private class LoadTermsHeadingsTask extends AsyncTask<Void, Void, List<String>> {
+        private final ProvisioningParams mParams;
+        private final @Flags int mFlags;
+        private final Consumer<List<String>> mCallback;
+
+        LoadTermsHeadingsTask(ProvisioningParams params, @Flags int flags,
+                Consumer<List<String>> callback) {
+            mParams = params;
+            mFlags = flags;
+            mCallback = callback;
+        }
+
+        @Override
+        protected List<String> doInBackground(Void... voids) {
+            return getTermsHeadings(mParams, mFlags);
+        }
+
+        @Override
+        protected void onPostExecute(List<String> headings) {
+            mCallback.accept(headings);
+        }
+    }
+
     // TODO: move somewhere more general
     @IntDef(value = {
             ProvisioningCase.PROFILE_OWNER,
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2019, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.preprovisioning.terms.adapters;
+
+import android.annotation.ColorInt;
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.Spanned;
+import android.text.method.LinkMovementMethod;
+import android.util.LruCache;
+import android.widget.TextView;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.managedprovisioning.R;
+import com.android.managedprovisioning.common.ClickableSpanFactory;
+import com.android.managedprovisioning.common.HtmlToSpannedParser;
+import com.android.managedprovisioning.preprovisioning.WebActivity;
+import com.android.managedprovisioning.preprovisioning.terms.TermsDocument;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Renders the HTML content of terms for the adapters displaying them.
+ *
+ * <p>Rendered content is cached by content, so that binding a document again, e.g. when its
+ * group is expanded again or its view is recycled, doesn't parse its HTML again. Content longer
+ * than {@link #MAX_SYNC_RENDER_LENGTH} is rendered in the background: its view stays empty until
+ * it is rendered. {@link #prerender(TermsDocument)} starts rendering a document before it is
+ * displayed.</p>
+ *
+ * <p>Must be used on the main thread.</p>
+ */
+public final class TermsContentRenderer {
+    /** Length of the longest content which is rendered on the main thread if it isn't cached. */
+    @VisibleForTesting
+    static final int MAX_SYNC_RENDER_LENGTH = 8 * 1024;
+    /** Number of characters of rendered content kept in the cache. */
+    private static final int CACHE_SIZE = 1024 * 1024;
+
+    /** Cache statistics of all the renderers, which only live as long as their adapter. */
+    private static final AtomicInteger sHits = new AtomicInteger();
+    private static final AtomicInteger sMisses = new AtomicInteger();
+
+    private final Context mContext;
+    private final HtmlToSpannedParser mHtmlToSpannedParser;
+    private final Executor mExecutor;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final LruCache<String, Spanned> mCache = new LruCache<String, Spanned>(CACHE_SIZE) {
+        @Override
+        protected int sizeOf(String content, Spanned rendered) {
+            return Math.max(1, rendered.length());
+        }
+    };
+    /** Callbacks waiting for content which is rendered in the background, by content. */
+    private final Map<String, List<Consumer<Spanned>>> mPendingRenders = new HashMap<>();
+
+    TermsContentRenderer(Context context, @ColorInt int statusBarColor) {
+        this(context, new HtmlToSpannedParser(
+                new ClickableSpanFactory(context.getColor(R.color.blue_text)),
+                url -> WebActivity.createIntent(context, url, statusBarColor)),
+                AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    @VisibleForTesting
+    TermsContentRenderer(Context context, HtmlToSpannedParser htmlToSpannedParser,
+            Executor executor) {
+        mContext = context;
+        mHtmlToSpannedParser = htmlToSpannedParser;
+        mExecutor = executor;
+    }
+
+    /**
+     * Populate a given text view with the contents of the term
+     *
+     * @param contentTextView text view to display the term contents
+     * @param disclaimer the term document that contains the contents
+     */
+    void populateContentTextView(TextView contentTextView, TermsDocument disclaimer) {
+        final String content = disclaimer.getContent();
+        // The view may be bound again before the content it was waiting for is rendered.
+        contentTextView.setTag(content);
+        Spanned rendered = mCache.get(content);
+        (rendered == null ? sMisses : sHits).incrementAndGet();
+        final boolean renderSync = content.length() <= MAX_SYNC_RENDER_LENGTH;
+        if (rendered == null && renderSync) {
+            rendered = render(content);
+        }
+        if (rendered != null) {
+            setContent(contentTextView, disclaimer, rendered);
+            return;
+        }
+
+        // Content which can't be rendered is left empty.
+        contentTextView.setText(null);
+        contentTextView.setContentDescription(null);
+        if (!renderSync) {
+            renderInBackground(content, result -> {
+                // The result isn't read back from the cache, which may have evicted it already.
+                if (result != null && content.equals(contentTextView.getTag())) {
+                    setContent(contentTextView, disclaimer, result);
+                }
+            });
+        }
+    }
+
+    /**
+     * Starts rendering the content of {@code disclaimer} in the background if it isn't cached.
+     */
+    void prerender(TermsDocument disclaimer) {
+        final String content = disclaimer.getContent();
+        if (mCache.get(content) == null) {
+            renderInBackground(content, null);
+        }
+    }
+
+    /**
+     * Prints the hit rate of the caches of the renderers created so far.
+     */
+    public static void dump(PrintWriter pw) {
+        final int hits = sHits.get();
+        pw.println("  Terms content cache: " + hits + "/" + (hits + sMisses.get()) + " hits");
+    }
+
+    private void renderInBackground(String content, Consumer<Spanned> callback) {
+        List<Consumer<Spanned>> callbacks = mPendingRenders.get(content);
+        if (callbacks == null) {
+            callbacks = new ArrayList<>();
+            mPendingRenders.put(content, callbacks);
+            mExecutor.execute(() -> {
+                final Spanned rendered = render(content);
+                mMainHandler.post(() -> {
+                    for (Consumer<Spanned> pendingCallback : mPendingRenders.remove(content)) {
+                        pendingCallback.accept(rendered);
+                    }
+                });
+            });
+        }
+        if (callback != null) {
+            callbacks.add(callback);
+        }
+    }
+
+    private Spanned render(String content) {
+        final Spanned rendered = mHtmlToSpannedParser.parseHtml(content);
+        if (rendered != null) {
+            mCache.put(content, rendered);
+        }
+        return rendered;
+    }
+
+    private void setContent(TextView contentTextView, TermsDocument disclaimer,
+            Spanned content) {
+        // makes html links clickable, set first so that the content is only copied once
+        contentTextView.setMovementMethod(LinkMovementMethod.getInstance());
+        contentTextView.setText(content);
+        contentTextView.setContentDescription(
+                mContext.getResources().getString(R.string.section_content,
+                        disclaimer.getHeading(), content));
+    }
+}
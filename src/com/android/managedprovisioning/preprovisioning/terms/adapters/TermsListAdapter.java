@@ -42,8 +42,7 @@ public class TermsListAdapter extends BaseExpandableListAdapter {
     private final LayoutInflater mInflater;
     private final AccessibilityContextMenuMaker mContextMenuMaker;
     private final GroupExpandedInfo mGroupExpandedInfo;
-    private final Context mContext;
-    private final int mStatusBarColor;
+    private final TermsContentRenderer mTermsContentRenderer;
 
     /**
      * Creates a new instance of the class.
@@ -56,8 +55,7 @@ public class TermsListAdapter extends BaseExpandableListAdapter {
         mInflater = checkNotNull(layoutInflater);
         mGroupExpandedInfo = checkNotNull(groupExpandedInfo);
         mContextMenuMaker = checkNotNull(contextMenuMaker);
-        mContext = checkNotNull(context);
-        mStatusBarColor = statusBarColor;
+        mTermsContentRenderer = new TermsContentRenderer(checkNotNull(context), statusBarColor);
     }
 
     @Override
@@ -99,7 +97,10 @@ public class TermsListAdapter extends BaseExpandableListAdapter {
     @Override
     public View getGroupView(int groupPosition, boolean isExpanded, View convertView,
             ViewGroup parent) {
-        String heading = getDisclaimer(groupPosition).getHeading();
+        TermsDocument disclaimer = getDisclaimer(groupPosition);
+        String heading = disclaimer.getHeading();
+        // the content is likely to be displayed next
+        mTermsContentRenderer.prerender(disclaimer);
 
         View groupView = convertView != null ? convertView : mInflater.inflate(
                 R.layout.terms_disclaimer_header, parent, false);
@@ -134,7 +135,7 @@ public class TermsListAdapter extends BaseExpandableListAdapter {
 
         TermsDocument disclaimer = getDisclaimer(groupPosition);
         TextView textView = view.findViewById(R.id.disclaimer_content);
-        TermsAdapterUtils.populateContentTextView(mContext, textView, disclaimer, mStatusBarColor);
+        mTermsContentRenderer.populateContentTextView(textView, disclaimer);
         mContextMenuMaker.registerWithActivity(textView);
         return view;
     }
@@ -37,13 +37,13 @@ public class TermsListAdapterCar extends RecyclerView.Adapter<TermsListAdapterCa
 
     private final List<TermsDocument> mTerms;
     private final Context mContext;
-    private final int mStatusBarColor;
+    private final TermsContentRenderer mTermsContentRenderer;
 
     public TermsListAdapterCar(Context context, List<TermsDocument> terms,
             @ColorInt int statusBarColor) {
         mTerms = terms;
         mContext = context;
-        mStatusBarColor = statusBarColor;
+        mTermsContentRenderer = new TermsContentRenderer(context, statusBarColor);
     }
 
     @Override
@@ -62,8 +62,7 @@ public class TermsListAdapterCar extends RecyclerView.Adapter<TermsListAdapterCa
         holder.mHeaderTextView.setContentDescription(mContext.getResources()
                 .getString(R.string.section_heading, disclaimer.getHeading()));
 
-        TermsAdapterUtils.populateContentTextView(mContext, holder.mContentTextView, disclaimer,
-                mStatusBarColor);
+        mTermsContentRenderer.populateContentTextView(holder.mContentTextView, disclaimer);
     }
 
     @Override
@@ -28,6 +28,7 @@ import android.os.Message;
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.managedprovisioning.analytics.MetricsWriterFactory;
 import com.android.managedprovisioning.analytics.ProvisioningAnalyticsTracker;
+import com.android.managedprovisioning.analytics.ProvisioningTracer;
 import com.android.managedprovisioning.common.ManagedProvisioningSharedPreferences;
 import com.android.managedprovisioning.common.ProvisionLogger;
 import com.android.managedprovisioning.common.SettingsFacade;
@@ -35,18 +36,32 @@ import com.android.managedprovisioning.finalization.FinalizationController;
 import com.android.managedprovisioning.model.ProvisioningParams;
 import com.android.managedprovisioning.task.AbstractProvisioningTask;
 
+import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Controller that manages the provisioning process. It controls the order of provisioning tasks,
  * reacts to errors and user cancellation.
+ *
+ * <p>Tasks form a dependency graph. Tasks added via {@link #addTasks} run one after another, while
+ * tasks added via {@link #addTask(AbstractProvisioningTask, AbstractProvisioningTask...)} only
+ * wait for their declared dependencies, so that independent tasks can run at the same time on a
+ * bounded pool of worker threads.</p>
  */
 public abstract class AbstractProvisioningController implements AbstractProvisioningTask.Callback {
 
     @VisibleForTesting
     static final int MSG_RUN_TASK = 1;
 
+    /** Maximum number of provisioning tasks that are run at the same time. */
+    @VisibleForTesting
+    static final int MAX_CONCURRENT_TASKS = 3;
+
     protected final Context mContext;
     protected final ProvisioningParams mParams;
     protected int mUserId;
@@ -54,6 +69,7 @@ public abstract class AbstractProvisioningController implements AbstractProvisio
     private final ProvisioningAnalyticsTracker mProvisioningAnalyticsTracker;
     private final ProvisioningControllerCallback mCallback;
     private final FinalizationController mFinalizationController;
+    private final ProvisioningTracer.Session mTraceSession;
     private Handler mWorkerHandler;
 
     // Provisioning hasn't started yet
@@ -70,8 +86,15 @@ public abstract class AbstractProvisioningController implements AbstractProvisio
     private static final int STATUS_CLEANED_UP = 5;
 
     private int mStatus = STATUS_NOT_STARTED;
-    private List<AbstractProvisioningTask> mTasks = new ArrayList<>();
+    private final ProvisioningTaskGraph mTaskGraph = new ProvisioningTaskGraph();
+    // Worker slot each running task has been dispatched to
+    private final Map<AbstractProvisioningTask, Integer> mTaskSlots = new HashMap<>();
+    // Tasks that run on the looper the controller was started with, whatever their slot
+    private final Set<AbstractProvisioningTask> mControllerLooperTasks = new HashSet<>();
+    private final boolean[] mBusySlots = new boolean[MAX_CONCURRENT_TASKS];
+    private AbstractProvisioningTask mLastAddedTask;
 
+    // Number of tasks that have completed successfully
     protected int mCurrentTaskIndex;
 
     AbstractProvisioningController(
@@ -88,17 +111,48 @@ public abstract class AbstractProvisioningController implements AbstractProvisio
         mProvisioningAnalyticsTracker = new ProvisioningAnalyticsTracker(
                 MetricsWriterFactory.getMetricsWriter(mContext, new SettingsFacade()),
                 new ManagedProvisioningSharedPreferences(context));
+        mTraceSession = ProvisioningTracer.getInstance().startSession(
+                getClass().getSimpleName() + " user " + userId);
 
         setUpTasks();
     }
 
+    /**
+     * Adds tasks that run sequentially, each of them after the previously added task.
+     */
     @MainThread
     protected synchronized void addTasks(AbstractProvisioningTask... tasks) {
         for (AbstractProvisioningTask task : tasks) {
-            mTasks.add(task);
+            if (mLastAddedTask == null) {
+                addTask(task);
+            } else {
+                addTask(task, mLastAddedTask);
+            }
         }
     }
 
+    /**
+     * Adds a task that runs as soon as all of the given dependencies have completed successfully.
+     * A task without dependencies runs as soon as provisioning starts.
+     */
+    @MainThread
+    protected synchronized void addTask(AbstractProvisioningTask task,
+            AbstractProvisioningTask... dependencies) {
+        mTaskGraph.add(task, dependencies);
+        mLastAddedTask = task;
+    }
+
+    /**
+     * Makes a task that was added before run on the looper the controller was started with,
+     * instead of on an additional worker thread. This is needed for tasks which keep using the
+     * looper they run on after {@link AbstractProvisioningTask#run(int)} returned, e.g. to post
+     * timeouts, since additional worker threads are quit once provisioning is done or cleaned up.
+     */
+    @MainThread
+    protected synchronized void runOnControllerLooper(AbstractProvisioningTask task) {
+        mControllerLooperTasks.add(task);
+    }
+
     protected abstract void setUpTasks();
     protected abstract void performCleanup();
     protected abstract int getErrorTitle();
@@ -106,12 +160,12 @@ public abstract class AbstractProvisioningController implements AbstractProvisio
     protected abstract boolean getRequireFactoryReset(AbstractProvisioningTask task, int errorCode);
 
     /**
-     * Start the provisioning process. The tasks loaded in {@link #setUpTasks()} ()} will be
-     * processed one by one and the respective callbacks will be given to the UI.
+     * Start the provisioning process. The tasks loaded in {@link #setUpTasks()} will be
+     * processed in dependency order and the respective callbacks will be given to the UI.
      */
     @MainThread
     public synchronized void start(Looper looper) {
-        start(new ProvisioningTaskHandler(looper));
+        start(new ProvisioningTaskHandler(looper, mTraceSession));
     }
 
     @VisibleForTesting
@@ -122,7 +176,11 @@ public abstract class AbstractProvisioningController implements AbstractProvisio
         mWorkerHandler = checkNotNull(handler);
 
         mStatus = STATUS_RUNNING;
-        runTask(0);
+        if (mTaskGraph.isCompleted()) {
+            tasksCompleted();
+        } else {
+            runReadyTasks();
+        }
     }
 
     /**
@@ -133,45 +191,130 @@ public abstract class AbstractProvisioningController implements AbstractProvisio
     public synchronized void cancel() {
         ProvisionLogger.logd("Cancel called, current status is " + mStatus);
         mStatus = STATUS_CANCELLING;
+        mTraceSession.finish();
         cleanup(STATUS_CLEANED_UP);
     }
 
-    private void runTask(int index) {
-        if (mTasks.isEmpty()) {
-            tasksCompleted();
-            return;
+    /**
+     * Prints the status of the provisioning process.
+     */
+    public void dump(PrintWriter pw) {
+        // Only take a snapshot under the lock, writing to the dump may block.
+        final List<String> lines = new ArrayList<>();
+        synchronized (this) {
+            lines.add("  " + getClass().getSimpleName() + " for user " + mUserId + ": "
+                    + statusToString(mStatus));
+            lines.add("    Current task index: " + mCurrentTaskIndex);
+            lines.add("    Completed tasks: " + mTaskGraph.getCompletedCount() + "/"
+                    + mTaskGraph.size());
+            for (AbstractProvisioningTask task : mTaskGraph.getRunningTasks()) {
+                lines.add("    Running: " + task.getClass().getSimpleName()
+                        + (mTaskSlots.containsKey(task)
+                                ? " in slot " + mTaskSlots.get(task) : ""));
+            }
+        }
+        for (String line : lines) {
+            pw.println(line);
+        }
+    }
+
+    private static String statusToString(int status) {
+        switch (status) {
+            case STATUS_NOT_STARTED:
+                return "STATUS_NOT_STARTED";
+            case STATUS_RUNNING:
+                return "STATUS_RUNNING";
+            case STATUS_TASKS_COMPLETED:
+                return "STATUS_TASKS_COMPLETED";
+            case STATUS_ERROR:
+                return "STATUS_ERROR";
+            case STATUS_CANCELLING:
+                return "STATUS_CANCELLING";
+            case STATUS_CLEANED_UP:
+                return "STATUS_CLEANED_UP";
+            default:
+                return "UNKNOWN(" + status + ")";
+        }
+    }
+
+    private void runReadyTasks() {
+        for (AbstractProvisioningTask nextTask
+                : mTaskGraph.takeReadyTasks(MAX_CONCURRENT_TASKS - mTaskSlots.size())) {
+            int slot = acquireSlot();
+            mTaskSlots.put(nextTask, slot);
+            mTraceSession.onTaskQueued(nextTask, mUserId);
+            // The slot still counts towards the concurrency limit for these tasks.
+            int worker = mControllerLooperTasks.contains(nextTask) ? 0 : slot;
+            Message msg = mWorkerHandler.obtainMessage(MSG_RUN_TASK, mUserId, worker, nextTask);
+            mWorkerHandler.sendMessage(msg);
+        }
+    }
+
+    private int acquireSlot() {
+        for (int i = 0; i < mBusySlots.length; i++) {
+            if (!mBusySlots[i]) {
+                mBusySlots[i] = true;
+                return i;
+            }
+        }
+        throw new IllegalStateException("No free worker slot");
+    }
+
+    private void releaseSlot(AbstractProvisioningTask task) {
+        Integer slot = mTaskSlots.remove(task);
+        if (slot != null) {
+            mBusySlots[slot] = false;
         }
-        AbstractProvisioningTask nextTask = mTasks.get(index);
-        Message msg = mWorkerHandler.obtainMessage(MSG_RUN_TASK, mUserId, 0 /* arg2 not used */,
-                nextTask);
-        mWorkerHandler.sendMessage(msg);
     }
 
     private void tasksCompleted() {
         mStatus = STATUS_TASKS_COMPLETED;
         mCurrentTaskIndex = -1;
+        mTraceSession.finish();
+        quitWorkers();
         mCallback.provisioningTasksCompleted();
     }
 
+    private void quitWorkers() {
+        if (mWorkerHandler instanceof ProvisioningTaskHandler) {
+            ((ProvisioningTaskHandler) mWorkerHandler).quitWorkers();
+        }
+    }
+
     @Override
     // Note that this callback might come on the main thread
     public synchronized void onSuccess(AbstractProvisioningTask task) {
         if (mStatus != STATUS_RUNNING) {
             return;
         }
+        if (!mTaskGraph.markCompleted(task)) {
+            ProvisionLogger.loge("Unexpected success callback from " + task);
+            return;
+        }
+        mTraceSession.onTaskCompleted(task, true);
+        releaseSlot(task);
 
-        mCurrentTaskIndex++;
-        if (mCurrentTaskIndex == mTasks.size()) {
+        mCurrentTaskIndex = mTaskGraph.getCompletedCount();
+        if (mTaskGraph.isCompleted()) {
             tasksCompleted();
         } else {
-            runTask(mCurrentTaskIndex);
+            runReadyTasks();
         }
     }
 
     @Override
     // Note that this callback might come on the main thread
     public synchronized void onError(AbstractProvisioningTask task, int errorCode) {
+        if (mStatus != STATUS_RUNNING) {
+            // Another task running in parallel has already failed, or provisioning was
+            // cancelled while this task was still running.
+            ProvisionLogger.logw("Ignoring error " + errorCode + " from " + task
+                    + ", provisioning is no longer running");
+            return;
+        }
         mStatus = STATUS_ERROR;
+        mTraceSession.onTaskCompleted(task, false);
+        mTraceSession.finish();
         cleanup(STATUS_ERROR);
         mProvisioningAnalyticsTracker.logProvisioningError(mContext, task, errorCode);
         mCallback.error(getErrorTitle(), getErrorMsgId(task, errorCode),
@@ -182,6 +325,7 @@ public abstract class AbstractProvisioningController implements AbstractProvisio
         mWorkerHandler.post(() -> {
                 performCleanup();
                 mStatus = newStatus;
+                quitWorkers();
                 mCallback.cleanUpCompleted();
             });
     }
@@ -190,21 +334,63 @@ public abstract class AbstractProvisioningController implements AbstractProvisio
      * Handler that runs the provisioning tasks.
      *
      * <p>We're using a {@link HandlerThread} for all the provisioning tasks in order to not
-     * block the UI thread.</p>
+     * block the UI thread. Tasks dispatched to worker 0 run on the looper of this handler, tasks
+     * dispatched to other workers run on additional {@link HandlerThread}s which are only created
+     * once tasks actually run in parallel.</p>
      */
     protected static class ProvisioningTaskHandler extends Handler {
-        public ProvisioningTaskHandler(Looper looper) {
+        private final Handler[] mWorkers = new Handler[MAX_CONCURRENT_TASKS];
+        private final ProvisioningTracer.Session mTraceSession;
+
+        public ProvisioningTaskHandler(Looper looper, ProvisioningTracer.Session traceSession) {
             super(looper);
+            mTraceSession = checkNotNull(traceSession);
         }
 
         public void handleMessage(Message msg) {
             if (msg.what == MSG_RUN_TASK) {
                 AbstractProvisioningTask task = (AbstractProvisioningTask) msg.obj;
-                ProvisionLogger.logd("Running task: " + task.getClass().getSimpleName());
-                task.run(msg.arg1);
+                int userId = msg.arg1;
+                if (msg.arg2 == 0) {
+                    runTask(task, userId);
+                } else {
+                    getWorker(msg.arg2).post(() -> runTask(task, userId));
+                }
             } else {
                 ProvisionLogger.loge("Unknown message: " + msg.what);
             }
         }
+
+        private void runTask(AbstractProvisioningTask task, int userId) {
+            ProvisionLogger.logd("Running task: " + task.getClass().getSimpleName());
+            mTraceSession.onTaskStarted(task);
+            try {
+                task.run(userId);
+            } finally {
+                mTraceSession.onTaskRunReturned(task);
+            }
+        }
+
+        private synchronized Handler getWorker(int slot) {
+            if (mWorkers[slot] == null) {
+                HandlerThread thread = new HandlerThread("ProvisioningTaskWorker" + slot);
+                thread.start();
+                mWorkers[slot] = new Handler(thread.getLooper());
+            }
+            return mWorkers[slot];
+        }
+
+        /**
+         * Quits the additional worker threads. The looper of this handler is not owned by it and
+         * keeps running.
+         */
+        synchronized void quitWorkers() {
+            for (int i = 1; i < mWorkers.length; i++) {
+                if (mWorkers[i] != null) {
+                    mWorkers[i].getLooper().quitSafely();
+                    mWorkers[i] = null;
+                }
+            }
+        }
     }
 }
@@ -33,6 +33,7 @@ import com.android.managedprovisioning.task.DisallowAddUserTask;
 import com.android.managedprovisioning.task.DownloadPackageTask;
 import com.android.managedprovisioning.task.InstallPackageTask;
 import com.android.managedprovisioning.task.SetDevicePolicyTask;
+import com.android.managedprovisioning.task.StreamingInstallPackageTask;
 import com.android.managedprovisioning.task.VerifyPackageTask;
 
 /**
@@ -59,29 +60,50 @@ public class DeviceOwnerProvisioningController extends AbstractProvisioningContr
     }
 
     protected void setUpTasks() {
-        addTasks(new DeviceOwnerInitializeProvisioningTask(mContext, mParams, this));
+        DeviceOwnerInitializeProvisioningTask initializeTask =
+                new DeviceOwnerInitializeProvisioningTask(mContext, mParams, this);
+        addTask(initializeTask);
+        AbstractProvisioningTask adminInstalledTask = initializeTask;
 
         // If new flow is not supported then we should still download the package.
         if (!mParams.isOrganizationOwnedProvisioning) {
+            AbstractProvisioningTask networkTask = null;
             if (mParams.wifiInfo != null) {
-                addTasks(new AddWifiNetworkTask(mContext, mParams, this));
+                networkTask = new AddWifiNetworkTask(mContext, mParams, this);
             } else if (mParams.useMobileData) {
-                addTasks(new ConnectMobileNetworkTask(mContext, mParams, this));
+                networkTask = new ConnectMobileNetworkTask(mContext, mParams, this);
+            }
+            if (networkTask != null) {
+                addTasks(networkTask);
+                // Network tasks post their timeout to the looper they run on.
+                runOnControllerLooper(networkTask);
             }
 
-            if (mParams.deviceAdminDownloadInfo != null) {
+            if (StreamingInstallPackageTask.canStream(mContext, mParams, mUserId)) {
+                // Download, verify and install the package in a single pass.
+                adminInstalledTask = new StreamingInstallPackageTask(mContext, mParams, this);
+                addTasks(adminInstalledTask);
+            } else if (mParams.deviceAdminDownloadInfo != null) {
                 DownloadPackageTask downloadTask = new DownloadPackageTask(mContext, mParams, this);
+                adminInstalledTask = new InstallPackageTask(downloadTask, mContext, mParams, this);
                 addTasks(downloadTask,
                         new VerifyPackageTask(downloadTask, mContext, mParams, this),
-                        new InstallPackageTask(downloadTask, mContext, mParams, this));
+                        adminInstalledTask);
             }
         }
 
-        addTasks(
-                new DeleteNonRequiredAppsTask(true /* new profile */, mContext, mParams, this),
-                new SetDevicePolicyTask(mContext, mParams, this),
-                new DisallowAddUserTask(mContext, mParams, this)
-        );
+        // Deleting non-required apps needs the admin component. If it is given explicitly, the
+        // task runs in parallel to the network and package download tasks, otherwise it is
+        // inferred from the admin package once it is installed.
+        DeleteNonRequiredAppsTask deleteNonRequiredAppsTask =
+                new DeleteNonRequiredAppsTask(true /* new profile */, mContext, mParams, this);
+        addTask(deleteNonRequiredAppsTask, mParams.deviceAdminComponentName != null
+                ? initializeTask : adminInstalledTask);
+
+        SetDevicePolicyTask setDevicePolicyTask = new SetDevicePolicyTask(mContext, mParams, this);
+        addTask(setDevicePolicyTask, adminInstalledTask, deleteNonRequiredAppsTask);
+        // Users are only disallowed once the device owner is set, as before.
+        addTasks(new DisallowAddUserTask(mContext, mParams, this));
 
         if (mParams.accountToMigrate != null) {
             addTasks(new CopyAccountToUserTask(UserHandle.USER_SYSTEM, mContext, mParams, this));
@@ -110,6 +132,18 @@ public class DeviceOwnerProvisioningController extends AbstractProvisioningContr
                 case VerifyPackageTask.ERROR_DEVICE_ADMIN_MISSING:
                     return R.string.error_package_invalid;
             }
+        } else if (task instanceof StreamingInstallPackageTask) {
+            switch (errorCode) {
+                case StreamingInstallPackageTask.ERROR_DOWNLOAD_FAILED:
+                    return R.string.error_download_failed;
+                case StreamingInstallPackageTask.ERROR_HASH_MISMATCH:
+                    return R.string.error_hash_mismatch;
+                case StreamingInstallPackageTask.ERROR_PACKAGE_INVALID:
+                case StreamingInstallPackageTask.ERROR_DEVICE_ADMIN_MISSING:
+                    return R.string.error_package_invalid;
+                case StreamingInstallPackageTask.ERROR_INSTALLATION_FAILED:
+                    return R.string.error_installation_failed;
+            }
         } else if (task instanceof InstallPackageTask) {
             switch (errorCode) {
                 case InstallPackageTask.ERROR_PACKAGE_INVALID:
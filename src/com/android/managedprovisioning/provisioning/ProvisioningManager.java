@@ -34,6 +34,8 @@ import com.android.managedprovisioning.common.ProvisionLogger;
 import com.android.managedprovisioning.common.SettingsFacade;
 import com.android.managedprovisioning.model.ProvisioningParams;
 
+import java.io.PrintWriter;
+
 /**
  * Singleton instance that provides communications between the ongoing provisioning process and the
  * UI layer.
@@ -149,6 +151,36 @@ public class ProvisioningManager implements ProvisioningControllerCallback,
         mHelper.error(titleId, messageId, factoryResetRequired);
     }
 
+    /**
+     * Prints the status of the ongoing provisioning process, without creating the manager if it
+     * wasn't created yet.
+     */
+    public static void dumpIfCreated(PrintWriter pw) {
+        final ProvisioningManager instance = sInstance;
+        if (instance == null) {
+            pw.println("  No provisioning in progress");
+        } else {
+            instance.dump(pw);
+        }
+    }
+
+    /**
+     * Prints the status of the ongoing provisioning process, if any.
+     */
+    public void dump(PrintWriter pw) {
+        final AbstractProvisioningController controller;
+        synchronized (this) {
+            controller = mController;
+        }
+        // Not holding the lock: the controller takes its own lock, and calls back into this class
+        // while holding it.
+        if (controller == null) {
+            pw.println("  No provisioning in progress");
+        } else {
+            controller.dump(pw);
+        }
+    }
+
     private AbstractProvisioningController getController(ProvisioningParams params) {
         return mFactory.createProvisioningController(mContext, params, this);
     }
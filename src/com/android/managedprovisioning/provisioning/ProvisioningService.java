@@ -20,8 +20,23 @@ import android.app.Service;
 import android.content.Intent;
 import android.os.IBinder;
 
+import com.android.managedprovisioning.analytics.ProvisioningTracer;
+import com.android.managedprovisioning.common.ImageLoader;
+import com.android.managedprovisioning.common.InstalledAppsCache;
+import com.android.managedprovisioning.preprovisioning.terms.TermsProvider;
+import com.android.managedprovisioning.preprovisioning.terms.adapters.TermsContentRenderer;
+import com.android.managedprovisioning.task.download.PackageCache;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
 /**
  * Service that keeps the provisioning process alive.
+ *
+ * <p>Its dump, available through {@code adb shell dumpsys activity service
+ * com.android.managedprovisioning/.provisioning.ProvisioningService}, shows the status of the
+ * ongoing provisioning, the tasks which didn't complete yet, the latencies of the recent
+ * provisioning sessions and the hit rates of the caches.</p>
  */
 public class ProvisioningService extends Service {
 
@@ -29,4 +44,18 @@ public class ProvisioningService extends Service {
     public IBinder onBind(Intent intent) {
         return null;
     }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        // Only dumps what was already created: creating it may register receivers or listeners.
+        pw.println("Provisioning status:");
+        ProvisioningManager.dumpIfCreated(pw);
+        ProvisioningTracer.dumpIfCreated(pw);
+        pw.println("Caches:");
+        InstalledAppsCache.dumpIfCreated(pw);
+        PackageCache.dump(this, pw);
+        TermsProvider.dumpCache(pw);
+        TermsContentRenderer.dump(pw);
+        ImageLoader.dumpIfCreated(pw);
+    }
 }
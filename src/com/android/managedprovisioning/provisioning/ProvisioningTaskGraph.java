@@ -0,0 +1,147 @@
+/*
+ * Copyright 2019, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.provisioning;
+
+import static com.android.internal.util.Preconditions.checkNotNull;
+
+import com.android.managedprovisioning.task.AbstractProvisioningTask;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Dependency graph of provisioning tasks.
+ *
+ * <p>Each task is added together with the tasks it depends on. A task becomes ready once all of
+ * its dependencies have completed. Ready tasks are returned in the order they were added, so a
+ * graph in which every task depends on the previously added one behaves like a plain list.</p>
+ *
+ * <p>This class is not thread safe, callers are expected to synchronize.</p>
+ */
+class ProvisioningTaskGraph {
+
+    private static final int STATE_PENDING = 0;
+    private static final int STATE_RUNNING = 1;
+    private static final int STATE_COMPLETED = 2;
+
+    private final Map<AbstractProvisioningTask, Node> mNodes = new LinkedHashMap<>();
+    private int mCompletedCount = 0;
+
+    /**
+     * Adds a task to the graph.
+     *
+     * @param task the task to add.
+     * @param dependencies tasks that have to complete before {@code task} can run. They must have
+     *                     been added to the graph before.
+     */
+    void add(AbstractProvisioningTask task, AbstractProvisioningTask... dependencies) {
+        checkNotNull(task);
+        if (mNodes.containsKey(task)) {
+            throw new IllegalArgumentException("Task already added: " + task);
+        }
+        for (AbstractProvisioningTask dependency : dependencies) {
+            if (!mNodes.containsKey(dependency)) {
+                throw new IllegalArgumentException("Unknown dependency: " + dependency);
+            }
+        }
+        // Dependencies must be known already, which also rules out cycles.
+        mNodes.put(task, new Node(Arrays.asList(dependencies)));
+    }
+
+    /**
+     * Returns up to {@code maxCount} tasks whose dependencies have all completed, and marks them as
+     * running.
+     */
+    List<AbstractProvisioningTask> takeReadyTasks(int maxCount) {
+        List<AbstractProvisioningTask> ready = new ArrayList<>();
+        for (Map.Entry<AbstractProvisioningTask, Node> entry : mNodes.entrySet()) {
+            if (ready.size() >= maxCount) {
+                break;
+            }
+            Node node = entry.getValue();
+            if (node.state == STATE_PENDING && areCompleted(node.dependencies)) {
+                node.state = STATE_RUNNING;
+                ready.add(entry.getKey());
+            }
+        }
+        return ready;
+    }
+
+    /**
+     * Marks a running task as completed.
+     *
+     * @return {@code false} if the task was not running, e.g. because it is unknown or it already
+     * completed before.
+     */
+    boolean markCompleted(AbstractProvisioningTask task) {
+        Node node = mNodes.get(task);
+        if (node == null || node.state != STATE_RUNNING) {
+            return false;
+        }
+        node.state = STATE_COMPLETED;
+        mCompletedCount++;
+        return true;
+    }
+
+    /**
+     * Returns the tasks that are currently running.
+     */
+    Set<AbstractProvisioningTask> getRunningTasks() {
+        Set<AbstractProvisioningTask> running = new LinkedHashSet<>();
+        for (Map.Entry<AbstractProvisioningTask, Node> entry : mNodes.entrySet()) {
+            if (entry.getValue().state == STATE_RUNNING) {
+                running.add(entry.getKey());
+            }
+        }
+        return running;
+    }
+
+    int getCompletedCount() {
+        return mCompletedCount;
+    }
+
+    int size() {
+        return mNodes.size();
+    }
+
+    boolean isCompleted() {
+        return mCompletedCount == mNodes.size();
+    }
+
+    private boolean areCompleted(List<AbstractProvisioningTask> tasks) {
+        for (AbstractProvisioningTask task : tasks) {
+            if (mNodes.get(task).state != STATE_COMPLETED) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final class Node {
+        final List<AbstractProvisioningTask> dependencies;
+        int state = STATE_PENDING;
+
+        Node(List<AbstractProvisioningTask> dependencies) {
+            this.dependencies = dependencies;
+        }
+    }
+}
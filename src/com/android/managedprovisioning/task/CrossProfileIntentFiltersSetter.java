@@ -32,17 +32,33 @@ import android.os.UserHandle;
 import android.os.UserManager;
 import android.provider.AlarmClock;
 import android.provider.MediaStore;
+import android.util.ArrayMap;
 
 import com.android.internal.annotations.VisibleForTesting;
+import com.android.managedprovisioning.common.ManagedProvisioningSharedPreferences;
 import com.android.managedprovisioning.common.ProvisionLogger;
+import com.android.managedprovisioning.common.StoreUtils;
+import com.android.managedprovisioning.common.Utils;
 import com.android.managedprovisioning.task.CrossProfileIntentFilter.Direction;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Class to set CrossProfileIntentFilters during managed profile creation, and reset them after an
  * ota.
+ *
+ * <p>When resetting, the state the filters were last set for is compared with the desired one:
+ * a hash of {@link #FILTERS}, and the managed profiles with their
+ * {@link UserManager#DISALLOW_SHARE_INTO_MANAGED_PROFILE} restriction. Nothing is done if it is
+ * unchanged. Filters can't be removed one by one, but when only the restriction was lifted the
+ * missing filters are added without clearing the others. Anything else resets all filters.</p>
  */
 public class CrossProfileIntentFiltersSetter {
 
@@ -279,18 +295,24 @@ public class CrossProfileIntentFiltersSetter {
         }
     }
 
+    private static String sFiltersHash;
+
     private final PackageManager mPackageManager;
     private final UserManager mUserManager;
+    private final ManagedProvisioningSharedPreferences mSharedPreferences;
 
     public CrossProfileIntentFiltersSetter(Context context) {
         this(context.getPackageManager(),
-                (UserManager) context.getSystemService(Context.USER_SERVICE));
+                (UserManager) context.getSystemService(Context.USER_SERVICE),
+                new ManagedProvisioningSharedPreferences(context));
     }
 
     @VisibleForTesting
-    CrossProfileIntentFiltersSetter(PackageManager packageManager, UserManager userManager) {
+    CrossProfileIntentFiltersSetter(PackageManager packageManager, UserManager userManager,
+            ManagedProvisioningSharedPreferences sharedPreferences) {
         mPackageManager = checkNotNull(packageManager);
         mUserManager = checkNotNull(userManager);
+        mSharedPreferences = checkNotNull(sharedPreferences);
     }
 
     /**
@@ -299,15 +321,30 @@ public class CrossProfileIntentFiltersSetter {
      */
     public void setFilters(int parentUserId, int managedProfileUserId) {
         ProvisionLogger.logd("Setting cross-profile intent filters");
-        boolean disallowSharingIntoProfile = mUserManager.hasUserRestriction(
-                UserManager.DISALLOW_SHARE_INTO_MANAGED_PROFILE,
-                UserHandle.of(managedProfileUserId));
+        addFilters(parentUserId, managedProfileUserId,
+                isSharingIntoProfileDisallowed(managedProfileUserId), false);
+    }
+
+    /**
+     * Adds the default cross profile intent filters from {@code parentUserId} to
+     * {@code managedProfileUserId}.
+     *
+     * @param disallowSharingIntoProfile whether filters that let personal data into the profile
+     *                                   are skipped
+     * @param onlySharingIntoProfile whether only filters that let personal data into the profile
+     *                               are added
+     */
+    private void addFilters(int parentUserId, int managedProfileUserId,
+            boolean disallowSharingIntoProfile, boolean onlySharingIntoProfile) {
         for (CrossProfileIntentFilter filter : FILTERS) {
             // Skip filters that allow data to be shared into the profile, if admin has disabled
             // it.
             if (disallowSharingIntoProfile && filter.letsPersonalDataIntoProfile) {
                 continue;
             }
+            if (onlySharingIntoProfile && !filter.letsPersonalDataIntoProfile) {
+                continue;
+            }
             if (filter.direction == Direction.TO_PARENT) {
                 mPackageManager.addCrossProfileIntentFilter(filter.filter, managedProfileUserId,
                         parentUserId, filter.flags);
@@ -328,17 +365,156 @@ public class CrossProfileIntentFiltersSetter {
             return;
         }
 
+        int parentSerialNumber = userId;
+        List<UserInfo> managedProfiles = new ArrayList<>();
+        // Managed profile serial number -> whether sharing into it is disallowed.
+        Map<Integer, Boolean> desired = new ArrayMap<>();
+        for (UserInfo profile : profiles) {
+            if (profile.id == userId) {
+                parentSerialNumber = profile.serialNumber;
+            } else if (profile.isManagedProfile()) {
+                managedProfiles.add(profile);
+                desired.put(profile.serialNumber, isSharingIntoProfileDisallowed(profile.id));
+            }
+        }
+        final String filtersHash = getFiltersHash();
+        final Map<Integer, Boolean> applied = decodeState(
+                mSharedPreferences.getCrossProfileIntentFiltersState(parentSerialNumber),
+                filtersHash);
+
+        if (applied != null && applied.keySet().equals(desired.keySet())
+                && applyRestrictionChanges(userId, managedProfiles, applied, desired)) {
+            mSharedPreferences.writeCrossProfileIntentFiltersState(
+                    parentSerialNumber, encodeState(filtersHash, desired));
+            return;
+        }
+
+        // Forget the state until the filters are set, in case we don't get that far.
+        mSharedPreferences.writeCrossProfileIntentFiltersState(parentSerialNumber, null);
+
         // Removes cross profile intent filters from the parent to all the managed profiles.
         mPackageManager.clearCrossProfileIntentFilters(userId);
 
         // For each managed profile reset cross profile intent filters
-        for (UserInfo profile : profiles) {
-            if (!profile.isManagedProfile()) {
-                continue;
-            }
+        for (UserInfo profile : managedProfiles) {
             mPackageManager.clearCrossProfileIntentFilters(profile.id);
-            setFilters(userId, profile.id);
+            addFilters(userId, profile.id, desired.get(profile.serialNumber), false);
+        }
+        if (filtersHash != null) {
+            mSharedPreferences.writeCrossProfileIntentFiltersState(
+                    parentSerialNumber, encodeState(filtersHash, desired));
+        }
+    }
+
+    /**
+     * Updates the filters of profiles where sharing into the profile was allowed again. Returns
+     * {@code false} without doing anything if sharing was disallowed for any profile, because
+     * that requires removing filters.
+     */
+    private boolean applyRestrictionChanges(int parentUserId, List<UserInfo> managedProfiles,
+            Map<Integer, Boolean> applied, Map<Integer, Boolean> desired) {
+        List<UserInfo> allowed = new ArrayList<>();
+        for (UserInfo profile : managedProfiles) {
+            boolean wasDisallowed = applied.get(profile.serialNumber);
+            boolean isDisallowed = desired.get(profile.serialNumber);
+            if (!wasDisallowed && isDisallowed) {
+                return false;
+            }
+            if (wasDisallowed && !isDisallowed) {
+                allowed.add(profile);
+            }
+        }
+        if (allowed.isEmpty()) {
+            ProvisionLogger.logd("Cross-profile intent filters are up to date");
+        }
+        for (UserInfo profile : allowed) {
+            ProvisionLogger.logd("Adding cross-profile intent filters for sharing into profile "
+                    + profile.id);
+            addFilters(parentUserId, profile.id, false, true);
+        }
+        return true;
+    }
+
+    private boolean isSharingIntoProfileDisallowed(int managedProfileUserId) {
+        return mUserManager.hasUserRestriction(UserManager.DISALLOW_SHARE_INTO_MANAGED_PROFILE,
+                UserHandle.of(managedProfileUserId));
+    }
+
+    /**
+     * Encodes the hash of {@link #FILTERS} and the restriction state of the managed profiles as
+     * {@code <hash>;<serial>=<0|1>,...}.
+     */
+    private static String encodeState(String filtersHash, Map<Integer, Boolean> profiles) {
+        StringBuilder state = new StringBuilder(filtersHash).append(';');
+        for (Map.Entry<Integer, Boolean> profile : profiles.entrySet()) {
+            state.append(profile.getKey()).append('=').append(profile.getValue() ? 1 : 0)
+                    .append(',');
+        }
+        return state.toString();
+    }
+
+    /**
+     * Returns the restriction state of the managed profiles encoded in {@code state}, or
+     * {@code null} if it doesn't match the current {@link #FILTERS} or can't be parsed.
+     */
+    private static Map<Integer, Boolean> decodeState(String state, String filtersHash) {
+        if (state == null || filtersHash == null || !state.startsWith(filtersHash + ";")) {
+            return null;
+        }
+        Map<Integer, Boolean> profiles = new ArrayMap<>();
+        String encodedProfiles = state.substring(filtersHash.length() + 1);
+        try {
+            for (String profile : encodedProfiles.split(",")) {
+                if (profile.isEmpty()) {
+                    continue;
+                }
+                int separator = profile.indexOf('=');
+                profiles.put(Integer.parseInt(profile.substring(0, separator)),
+                        profile.charAt(separator + 1) == '1');
+            }
+        } catch (IndexOutOfBoundsException | NumberFormatException e) {
+            ProvisionLogger.logw("Invalid cross-profile intent filters state: " + state);
+            return null;
+        }
+        return profiles;
+    }
+
+    /**
+     * Returns a hash of the definition of {@link #FILTERS}, or {@code null} if it can't be
+     * computed.
+     */
+    private static synchronized String getFiltersHash() {
+        if (sFiltersHash != null) {
+            return sFiltersHash;
+        }
+        StringBuilder definition = new StringBuilder();
+        for (CrossProfileIntentFilter filter : FILTERS) {
+            definition.append(filter.direction).append(' ')
+                    .append(filter.flags).append(' ')
+                    .append(filter.letsPersonalDataIntoProfile).append(' ');
+            appendAll(definition, filter.filter.actionsIterator());
+            appendAll(definition, filter.filter.categoriesIterator());
+            appendAll(definition, filter.filter.typesIterator());
+            appendAll(definition, filter.filter.schemesIterator());
+            definition.append('\n');
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance(Utils.SHA256_TYPE);
+            sFiltersHash = StoreUtils.byteArrayToString(
+                    digest.digest(definition.toString().getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            ProvisionLogger.loge("Hashing algorithm " + Utils.SHA256_TYPE + " not supported.", e);
+        }
+        return sFiltersHash;
+    }
+
+    private static void appendAll(StringBuilder builder, Iterator<String> values) {
+        if (values != null) {
+            while (values.hasNext()) {
+                builder.append(values.next()).append(',');
+            }
         }
+        builder.append(';');
     }
 
 }
@@ -19,8 +19,6 @@ package com.android.managedprovisioning.task;
 import static com.android.internal.util.Preconditions.checkNotNull;
 
 import android.content.Context;
-import android.content.pm.IPackageDeleteObserver;
-import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 
 import com.android.internal.annotations.VisibleForTesting;
@@ -32,10 +30,9 @@ import com.android.managedprovisioning.common.ProvisionLogger;
 import com.android.managedprovisioning.common.SettingsFacade;
 import com.android.managedprovisioning.model.ProvisioningParams;
 import com.android.managedprovisioning.task.nonrequiredapps.NonRequiredAppsLogic;
+import com.android.managedprovisioning.task.nonrequiredapps.PackageDeleter;
 
-import java.util.HashSet;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Deletes all non-required apps.
@@ -45,10 +42,14 @@ import java.util.concurrent.atomic.AtomicInteger;
  *
  * It should also be run after a system update with firstTimeCreation false. Note that only
  * newly installed system apps will be deleted.
+ *
+ * The deletions are done by a {@link PackageDeleter}, which retries failed deletions. The task
+ * fails if any package couldn't be deleted, once all other deletions finished.
  */
 public class DeleteNonRequiredAppsTask extends AbstractProvisioningTask {
     private final PackageManager mPm;
     private final NonRequiredAppsLogic mLogic;
+    private final ProvisioningAnalyticsTracker mProvisioningAnalyticsTracker;
 
     public DeleteNonRequiredAppsTask(
             boolean firstTimeCreation,
@@ -91,6 +92,7 @@ public class DeleteNonRequiredAppsTask extends AbstractProvisioningTask {
 
         mPm = checkNotNull(context.getPackageManager());
         mLogic = checkNotNull(logic);
+        mProvisioningAnalyticsTracker = provisioningAnalyticsTracker;
     }
 
     @Override
@@ -98,70 +100,38 @@ public class DeleteNonRequiredAppsTask extends AbstractProvisioningTask {
         Set<String> packagesToDelete = mLogic.getSystemAppsToRemove(userId);
         mLogic.maybeTakeSystemAppsSnapshot(userId);
 
+        PackageDeleter deleter = new PackageDeleter(mPm, userId);
         // Remove all packages that are not currently installed
-        removeNonInstalledPackages(packagesToDelete, userId);
+        packagesToDelete = deleter.filterInstalled(packagesToDelete);
 
         if (packagesToDelete.isEmpty()) {
             success();
             return;
         }
 
-        PackageDeleteObserver packageDeleteObserver =
-                new PackageDeleteObserver(packagesToDelete.size());
-        for (String packageName : packagesToDelete) {
-            ProvisionLogger.logd("Deleting package [" + packageName + "] as user " + userId);
-            mPm.deletePackageAsUser(packageName, packageDeleteObserver,
-                    PackageManager.DELETE_SYSTEM_APP, userId);
-        }
-    }
+        deleter.deletePackages(packagesToDelete, new PackageDeleter.Callback() {
+            @Override
+            public void onPackageDeleted(String packageName, long latencyMs) {
+                mProvisioningAnalyticsTracker.logPackageDeletionLatency(mContext, latencyMs);
+            }
 
-    private void removeNonInstalledPackages(Set<String> packages, int userId) {
-        Set<String> toBeRemoved = new HashSet<>();
-        for (String packageName : packages) {
-            try {
-                PackageInfo info = mPm.getPackageInfoAsUser(
-                    packageName, 0 /* default flags */,
-                    userId);
-                if (info == null) {
-                    toBeRemoved.add(packageName);
+            @Override
+            public void onDeletionFinished(Set<String> failedPackages) {
+                if (!failedPackages.isEmpty()) {
+                    ProvisionLogger.logw("Could not finish the provisioning: deletion of "
+                            + failedPackages + " failed");
+                    error(0);
+                    return;
                 }
-            } catch (PackageManager.NameNotFoundException e) {
-                toBeRemoved.add(packageName);
+                ProvisionLogger.logi("All non-required system apps with launcher icon, "
+                        + "and all disallowed apps have been uninstalled.");
+                success();
             }
-        }
-        packages.removeAll(toBeRemoved);
+        });
     }
 
     @Override
     public int getStatusMsgId() {
         return R.string.progress_delete_non_required_apps;
     }
-
-    /**
-     * Runs the next task when all packages have been deleted or shuts down the activity if package
-     * deletion fails.
-     */
-    class PackageDeleteObserver extends IPackageDeleteObserver.Stub {
-        private final AtomicInteger mPackageCount = new AtomicInteger(0);
-
-        public PackageDeleteObserver(int packageCount) {
-            this.mPackageCount.set(packageCount);
-        }
-
-        @Override
-        public void packageDeleted(String packageName, int returnCode) {
-            if (returnCode != PackageManager.DELETE_SUCCEEDED) {
-                ProvisionLogger.logw(
-                        "Could not finish the provisioning: package deletion failed");
-                error(0);
-                return;
-            }
-            int currentPackageCount = mPackageCount.decrementAndGet();
-            if (currentPackageCount == 0) {
-                ProvisionLogger.logi("All non-required system apps with launcher icon, "
-                        + "and all disallowed apps have been uninstalled.");
-                success();
-            }
-        }
-    }
 }
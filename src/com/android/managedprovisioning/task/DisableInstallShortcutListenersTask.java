@@ -21,8 +21,10 @@ import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.ComponentInfo;
+import android.content.pm.IPackageManager;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
+import android.util.ArraySet;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.managedprovisioning.analytics.MetricsWriterFactory;
@@ -40,12 +42,17 @@ import java.util.Set;
 
 /**
  * Disables all system app components that listen to ACTION_INSTALL_SHORTCUT.
+ *
+ * <p>The listeners of all packages are resolved with a single query and then filtered by the set
+ * of system apps, rather than resolving the listeners of every system app separately.</p>
  */
 public class DisableInstallShortcutListenersTask extends AbstractProvisioningTask {
-    private final PackageManager mPm;
-    private int mUserId;
+    private static final String ACTION_INSTALL_SHORTCUT =
+            "com.android.launcher.action.INSTALL_SHORTCUT";
 
-    private final Utils mUtils = new Utils();
+    private final PackageManager mPm;
+    private final IPackageManager mIPackageManager;
+    private final Utils mUtils;
 
     public DisableInstallShortcutListenersTask(
             Context context,
@@ -63,22 +70,30 @@ public class DisableInstallShortcutListenersTask extends AbstractProvisioningTas
             ProvisioningParams params,
             Callback callback,
             ProvisioningAnalyticsTracker provisioningAnalyticsTracker) {
+        this(context, params, callback, provisioningAnalyticsTracker,
+                AppGlobals.getPackageManager(), new Utils());
+    }
+
+    @VisibleForTesting
+    DisableInstallShortcutListenersTask(
+            Context context,
+            ProvisioningParams params,
+            Callback callback,
+            ProvisioningAnalyticsTracker provisioningAnalyticsTracker,
+            IPackageManager iPackageManager,
+            Utils utils) {
         super(context, params, callback, provisioningAnalyticsTracker);
 
         mPm = context.getPackageManager();
+        mIPackageManager = iPackageManager;
+        mUtils = utils;
     }
 
     @Override
     public void run(int userId) {
-        mUserId = userId;
         ProvisionLogger.logd("Disabling install shortcut listeners.");
-        Intent actionShortcut = new Intent("com.android.launcher.action.INSTALL_SHORTCUT");
-        Set<String> systemApps = mUtils.getCurrentSystemApps(AppGlobals.getPackageManager(),
-                mUserId);
-        for (String systemApp : systemApps) {
-            actionShortcut.setPackage(systemApp);
-            disableReceivers(actionShortcut);
-        }
+        Set<String> systemApps = mUtils.getCurrentSystemApps(mIPackageManager, userId);
+        mUtils.disableComponents(getSystemAppReceivers(systemApps, userId), userId);
         success();
     }
 
@@ -88,12 +103,15 @@ public class DisableInstallShortcutListenersTask extends AbstractProvisioningTas
     }
 
     /**
-     * Disable all components that can handle the specified broadcast intent.
+     * Returns the components of system apps that can handle ACTION_INSTALL_SHORTCUT. Components
+     * that are already disabled aren't returned.
      */
-    private void disableReceivers(Intent intent) {
-        List<ResolveInfo> receivers = mPm.queryBroadcastReceiversAsUser(intent,
+    private Set<ComponentName> getSystemAppReceivers(Set<String> systemApps, int userId) {
+        Set<ComponentName> result = new ArraySet<>();
+        List<ResolveInfo> receivers = mPm.queryBroadcastReceiversAsUser(
+                new Intent(ACTION_INSTALL_SHORTCUT),
                 PackageManager.MATCH_DIRECT_BOOT_UNAWARE | PackageManager.MATCH_DIRECT_BOOT_AWARE,
-                mUserId);
+                userId);
         for (ResolveInfo ri : receivers) {
             // One of ri.activityInfo, ri.serviceInfo, ri.providerInfo is not null. Let's find which
             // one.
@@ -105,7 +123,10 @@ public class DisableInstallShortcutListenersTask extends AbstractProvisioningTas
             } else {
                 ci = ri.providerInfo;
             }
-            mUtils.disableComponent(new ComponentName(ci.packageName, ci.name), mUserId);
+            if (systemApps.contains(ci.packageName)) {
+                result.add(new ComponentName(ci.packageName, ci.name));
+            }
         }
+        return result;
     }
 }
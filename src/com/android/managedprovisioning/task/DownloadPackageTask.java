@@ -20,17 +20,7 @@ import static android.provider.Settings.Secure.MANAGED_PROVISIONING_DPC_DOWNLOAD
 import static com.android.internal.logging.nano.MetricsProto.MetricsEvent.PROVISIONING_DOWNLOAD_PACKAGE_TASK_MS;
 import static com.android.internal.util.Preconditions.checkNotNull;
 
-import android.app.DownloadManager;
-import android.app.DownloadManager.Query;
-import android.app.DownloadManager.Request;
-import android.content.BroadcastReceiver;
 import android.content.Context;
-import android.content.Intent;
-import android.content.IntentFilter;
-import android.database.Cursor;
-import android.net.Uri;
-import android.os.Handler;
-import android.os.Looper;
 import android.provider.Settings;
 
 import com.android.internal.annotations.VisibleForTesting;
@@ -44,33 +34,45 @@ import com.android.managedprovisioning.common.SettingsFacade;
 import com.android.managedprovisioning.common.Utils;
 import com.android.managedprovisioning.model.PackageDownloadInfo;
 import com.android.managedprovisioning.model.ProvisioningParams;
+import com.android.managedprovisioning.task.download.PackageCache;
+import com.android.managedprovisioning.task.download.ResumableDownloader;
 
 import java.io.File;
+import java.util.concurrent.Executor;
 
 /**
  * Downloads the management app apk from the url provided by {@link PackageDownloadInfo#location}.
  * The location of the downloaded file can be read via {@link #getDownloadedPackageLocation()}.
+ *
+ * <p>Interrupted downloads are resumed with HTTP range requests, see {@link ResumableDownloader}.
+ * Downloaded packages are kept in a {@link PackageCache}, so that a retried provisioning doesn't
+ * download the same package again.</p>
  */
 public class DownloadPackageTask extends AbstractProvisioningTask {
     public static final int ERROR_DOWNLOAD_FAILED = 0;
     public static final int ERROR_OTHER = 1;
 
-    private BroadcastReceiver mReceiver;
-    private final DownloadManager mDownloadManager;
     private final String mPackageName;
     private final PackageDownloadInfo mPackageDownloadInfo;
-    private long mDownloadId;
+    private final ResumableDownloader mDownloader;
+    private final PackageCache mPackageCache;
+    private final Executor mExecutor;
 
     private final Utils mUtils;
 
     private String mDownloadLocationTo; //local file where the package is downloaded.
-    private boolean mDoneDownloading;
+    private byte[] mDownloadedPackageHash;
+    private boolean mDownloadedPackageCached;
 
     public DownloadPackageTask(
             Context context,
             ProvisioningParams provisioningParams,
             Callback callback) {
-        this(new Utils(), context, provisioningParams, callback,
+        this(new Utils(), new ResumableDownloader(provisioningParams.deviceAdminDownloadInfo,
+                        getDownloadDestination(context)),
+                new PackageCache(context),
+                command -> new Thread(command, "DownloadPackageTask").start(), context,
+                provisioningParams, callback,
                 new ProvisioningAnalyticsTracker(
                         MetricsWriterFactory.getMetricsWriter(context, new SettingsFacade()),
                         new ManagedProvisioningSharedPreferences(context)));
@@ -79,6 +81,9 @@ public class DownloadPackageTask extends AbstractProvisioningTask {
     @VisibleForTesting
     DownloadPackageTask(
             Utils utils,
+            ResumableDownloader downloader,
+            PackageCache packageCache,
+            Executor executor,
             Context context,
             ProvisioningParams provisioningParams,
             Callback callback,
@@ -86,12 +91,24 @@ public class DownloadPackageTask extends AbstractProvisioningTask {
         super(context, provisioningParams, callback, provisioningAnalyticsTracker);
 
         mUtils = checkNotNull(utils);
-        mDownloadManager = (DownloadManager) context.getSystemService(Context.DOWNLOAD_SERVICE);
-        mDownloadManager.setAccessFilename(true);
+        mDownloader = checkNotNull(downloader);
+        mPackageCache = checkNotNull(packageCache);
+        mExecutor = checkNotNull(executor);
         mPackageName = provisioningParams.inferDeviceAdminPackageName();
         mPackageDownloadInfo = checkNotNull(provisioningParams.deviceAdminDownloadInfo);
     }
 
+    /**
+     * Returns the file the package is downloaded to. A partial download of an earlier attempt is
+     * kept next to it, so that it can be resumed.
+     */
+    private static File getDownloadDestination(Context context) {
+        File downloadedFile = new File(context.getExternalFilesDir(null),
+                "download_cache/managed_provisioning_downloaded_app.apk");
+        downloadedFile.getParentFile().mkdirs(); // If the folder doesn't exists it is created
+        return downloadedFile;
+    }
+
     @Override
     public int getStatusMsgId() {
         return R.string.progress_download;
@@ -107,6 +124,21 @@ public class DownloadPackageTask extends AbstractProvisioningTask {
             success();
             return;
         }
+        // Looking up the cache hashes the cached package, and the download sleeps between
+        // retries, so run them on a dedicated thread rather than the provisioning worker thread
+        // or a shared pool thread.
+        mExecutor.execute(this::downloadOrUseCachedPackage);
+    }
+
+    private void downloadOrUseCachedPackage() {
+        File cachedPackage = mPackageCache.get(mPackageDownloadInfo);
+        if (cachedPackage != null) {
+            ProvisionLogger.logd("Using cached package, skipping download");
+            mDownloadedPackageCached = true;
+            onDownloadSuccess(cachedPackage.getPath(), PackageCache.getHash(cachedPackage));
+            return;
+        }
+
         if (!mUtils.isConnectedToNetwork(mContext)) {
             ProvisionLogger.loge("DownloadPackageTask: not connected to the network, can't download"
                     + " the package");
@@ -116,36 +148,24 @@ public class DownloadPackageTask extends AbstractProvisioningTask {
 
         setDpcDownloadedSetting(mContext);
 
-        mReceiver = createDownloadReceiver();
-        // register the receiver on the worker thread to avoid threading issues with respect to
-        // the location variable
-        mContext.registerReceiver(mReceiver,
-                new IntentFilter(DownloadManager.ACTION_DOWNLOAD_COMPLETE),
-                null,
-                new Handler(Looper.myLooper()));
-
         if (Globals.DEBUG) {
             ProvisionLogger.logd("Starting download from " + mPackageDownloadInfo.location);
         }
 
-        Request request = new Request(Uri.parse(mPackageDownloadInfo.location));
-
-        // Note that the apk may not actually be downloaded to this path. This could happen if
-        // this file already exists.
-        String path = mContext.getExternalFilesDir(null)
-                + "/download_cache/managed_provisioning_downloaded_app.apk";
-        File downloadedFile = new File(path);
-        downloadedFile.getParentFile().mkdirs(); // If the folder doesn't exists it is created
-        request.setDestinationUri(Uri.fromFile(downloadedFile));
+        mDownloader.download(new ResumableDownloader.Callback() {
+            @Override
+            public void onDownloadSucceeded(File destination, byte[] sha256) {
+                File cachedPackage = mPackageCache.put(mPackageDownloadInfo, destination, sha256);
+                mDownloadedPackageCached = cachedPackage != null;
+                onDownloadSuccess(
+                        (cachedPackage != null ? cachedPackage : destination).getPath(), sha256);
+            }
 
-        if (mPackageDownloadInfo.cookieHeader != null) {
-            request.addRequestHeader("Cookie", mPackageDownloadInfo.cookieHeader);
-            if (Globals.DEBUG) {
-                ProvisionLogger.logd("Downloading with http cookie header: "
-                        + mPackageDownloadInfo.cookieHeader);
+            @Override
+            public void onDownloadFailed() {
+                onDownloadFail();
             }
-        }
-        mDownloadId = mDownloadManager.enqueue(request);
+        });
     }
 
     /**
@@ -153,7 +173,7 @@ public class DownloadPackageTask extends AbstractProvisioningTask {
      *
      * <p>See b/132261064.
      */
-    private static void setDpcDownloadedSetting(Context context) {
+    static void setDpcDownloadedSetting(Context context) {
         Settings.Secure.putInt(
                 context.getContentResolver(), MANAGED_PROVISIONING_DPC_DOWNLOADED, 1);
     }
@@ -163,72 +183,52 @@ public class DownloadPackageTask extends AbstractProvisioningTask {
         return PROVISIONING_DOWNLOAD_PACKAGE_TASK_MS;
     }
 
-    private BroadcastReceiver createDownloadReceiver() {
-        return new BroadcastReceiver() {
-            @Override
-            public void onReceive(Context context, Intent intent) {
-                if (DownloadManager.ACTION_DOWNLOAD_COMPLETE.equals(intent.getAction())) {
-                    Query q = new Query();
-                    q.setFilterById(mDownloadId);
-                    Cursor c = mDownloadManager.query(q);
-                    if (c.moveToFirst()) {
-                        int columnIndex = c.getColumnIndex(DownloadManager.COLUMN_STATUS);
-                        if (DownloadManager.STATUS_SUCCESSFUL == c.getInt(columnIndex)) {
-                            mDownloadLocationTo = c.getString(
-                                    c.getColumnIndex(DownloadManager.COLUMN_LOCAL_FILENAME));
-                            c.close();
-                            onDownloadSuccess();
-                        } else if (DownloadManager.STATUS_FAILED == c.getInt(columnIndex)) {
-                            int reason = c.getColumnIndex(DownloadManager.COLUMN_REASON);
-                            c.close();
-                            onDownloadFail(reason);
-                        }
-                    }
-                }
-            }
-        };
+    private void onDownloadSuccess(String location, byte[] sha256) {
+        ProvisionLogger.logd("Downloaded succesfully to: " + location);
+        mDownloadLocationTo = location;
+        mDownloadedPackageHash = sha256;
+        stopTaskTimer();
+        success();
+    }
+
+    public String getDownloadedPackageLocation() {
+        return mDownloadLocationTo;
     }
 
     /**
-     * For a successful download, check that the downloaded file is the expected file.
-     * If the package hash is provided then that is used, otherwise a signature hash is used.
+     * Returns the SHA-256 hash of the downloaded package, computed while it was downloaded, or
+     * {@code null} if no package was downloaded.
      */
-    private void onDownloadSuccess() {
-        if (mDoneDownloading) {
-            // DownloadManager can send success more than once. Only act first time.
-            return;
-        }
+    public byte[] getDownloadedPackageHash() {
+        return mDownloadedPackageHash;
+    }
 
-        ProvisionLogger.logd("Downloaded succesfully to: " + mDownloadLocationTo);
-        mDoneDownloading = true;
-        stopTaskTimer();
-        success();
+    /**
+     * Returns whether the downloaded package is owned by the {@link PackageCache}, in which case it
+     * is kept when installing it fails, so that a retry doesn't download it again.
+     */
+    public boolean isDownloadedPackageCached() {
+        return mDownloadedPackageCached;
     }
 
-    public String getDownloadedPackageLocation() {
-        return mDownloadLocationTo;
+    /**
+     * Removes the downloaded package from the {@link PackageCache} once it has been installed.
+     */
+    public void removeCachedPackage() {
+        if (mDownloadedPackageCached) {
+            mPackageCache.remove(new File(mDownloadLocationTo));
+            mDownloadedPackageCached = false;
+        }
     }
 
-    private void onDownloadFail(int errorCode) {
+    private void onDownloadFail() {
         ProvisionLogger.loge("Downloading package failed.");
-        ProvisionLogger.loge("COLUMN_REASON in DownloadManager response has value: "
-                + errorCode);
         error(ERROR_DOWNLOAD_FAILED);
     }
 
     public void cleanUp() {
-        if (mReceiver != null) {
-            //Unregister receiver.
-            mContext.unregisterReceiver(mReceiver);
-            mReceiver = null;
-        }
-
-        boolean removeSuccess = mDownloadManager.remove(mDownloadId) == 1;
-        if (removeSuccess) {
-            ProvisionLogger.logd("Successfully removed installer file.");
-        } else {
-            ProvisionLogger.loge("Could not remove installer file.");
-            // Ignore this error. Failing cleanup should not stop provisioning flow.
-        }
+        mDownloader.cancel();
+        mDownloader.cleanUp();
+        ProvisionLogger.logd("Successfully removed installer file.");
     }
 }
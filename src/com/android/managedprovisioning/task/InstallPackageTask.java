@@ -19,7 +19,6 @@ import static com.android.internal.logging.nano.MetricsProto.MetricsEvent
         .PROVISIONING_INSTALL_PACKAGE_TASK_MS;
 import static com.android.internal.util.Preconditions.checkNotNull;
 
-import android.annotation.NonNull;
 import android.app.PendingIntent;
 import android.app.admin.DevicePolicyManager;
 import android.content.BroadcastReceiver;
@@ -28,6 +27,8 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.pm.PackageInstaller;
 import android.content.pm.PackageManager;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
 import android.text.TextUtils;
 
 import com.android.internal.annotations.VisibleForTesting;
@@ -40,10 +41,14 @@ import com.android.managedprovisioning.common.SettingsFacade;
 import com.android.managedprovisioning.model.ProvisioningParams;
 
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
 
 /**
  * Installs the management app apk from a download location provided by
@@ -55,7 +60,10 @@ public class InstallPackageTask extends AbstractProvisioningTask {
     public static final int ERROR_PACKAGE_INVALID = 0;
     public static final int ERROR_INSTALLATION_FAILED = 1;
 
+    private static final int BUFFER_SIZE = 256 * 1024;
+
     private final DownloadPackageTask mDownloadPackageTask;
+    private final ProvisioningAnalyticsTracker mProvisioningAnalyticsTracker;
 
     private final PackageManager mPm;
     private final DevicePolicyManager mDpm;
@@ -89,6 +97,7 @@ public class InstallPackageTask extends AbstractProvisioningTask {
         mPm = context.getPackageManager();
         mDpm = context.getSystemService(DevicePolicyManager.class);
         mDownloadPackageTask = checkNotNull(downloadPackageTask);
+        mProvisioningAnalyticsTracker = provisioningAnalyticsTracker;
     }
 
     @Override
@@ -96,12 +105,48 @@ public class InstallPackageTask extends AbstractProvisioningTask {
         return R.string.progress_install;
     }
 
-    private static void copyStream(@NonNull InputStream in, @NonNull OutputStream out)
+    /**
+     * Writes {@code source} into {@code session} without copying it through the Java heap.
+     *
+     * <p>The file descriptor is handed to the installer directly if possible. Otherwise the file
+     * is transferred into the stream of the session with {@link FileChannel#transferTo}, or
+     * through a direct buffer if that stream isn't backed by a file descriptor.</p>
+     */
+    @VisibleForTesting
+    static void writeToSession(PackageInstaller.Session session, File source)
             throws IOException {
-        byte[] buffer = new byte[16 * 1024];
-        int numRead;
-        while ((numRead = in.read(buffer)) != -1) {
-            out.write(buffer, 0, numRead);
+        final long length = source.length();
+        try (ParcelFileDescriptor fd = ParcelFileDescriptor.open(source,
+                ParcelFileDescriptor.MODE_READ_ONLY)) {
+            session.write(source.getName(), 0, length, fd);
+            return;
+        } catch (IOException | SecurityException e) {
+            ProvisionLogger.logw("Could not pass package to the session, copying it instead", e);
+        }
+
+        try (FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+             OutputStream out = session.openWrite(source.getName(), 0, length)) {
+            if (out instanceof FileOutputStream) {
+                FileChannel outChannel = ((FileOutputStream) out).getChannel();
+                long position = 0;
+                while (position < length) {
+                    long transferred = in.transferTo(position, length - position, outChannel);
+                    if (transferred <= 0) {
+                        throw new IOException("Package truncated at " + position + " bytes");
+                    }
+                    position += transferred;
+                }
+            } else {
+                WritableByteChannel outChannel = Channels.newChannel(out);
+                ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+                while (in.read(buffer) != -1) {
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        outChannel.write(buffer);
+                    }
+                    buffer.clear();
+                }
+            }
         }
     }
 
@@ -143,28 +188,34 @@ public class InstallPackageTask extends AbstractProvisioningTask {
         try {
             int sessionId = pi.createSession(params);
             try (PackageInstaller.Session session = pi.openSession(sessionId)) {
-                try (FileInputStream in = new FileInputStream(source);
-                     OutputStream out = session.openWrite(source.getName(), 0, -1)) {
-                    copyStream(in, out);
+                final long startTime = SystemClock.elapsedRealtime();
+                try {
+                    writeToSession(session, source);
                 } catch (IOException e) {
                     session.abandon();
                     throw e;
                 }
+                final long durationMs = SystemClock.elapsedRealtime() - startTime;
+                ProvisionLogger.logi("Wrote " + source.length() + " bytes into install session in "
+                        + durationMs + " ms");
+                mProvisioningAnalyticsTracker.logPackageInstallThroughput(mContext,
+                        source.length(), durationMs);
 
-                String action = ACTION_INSTALL_DONE + sessionId;
-                mContext.registerReceiver(new PackageInstallReceiver(packageName),
-                        new IntentFilter(action));
-
-                PendingIntent pendingIntent = PendingIntent.getBroadcast(mContext, sessionId,
-                        new Intent(action),
-                        PendingIntent.FLAG_ONE_SHOT | PendingIntent.FLAG_UPDATE_CURRENT);
-                session.commit(pendingIntent.getIntentSender());
+                commitSession(this, session, sessionId, packageName, () -> {
+                    mDownloadPackageTask.removeCachedPackage();
+                    stopTaskTimer();
+                    success();
+                });
             }
         } catch (IOException e) {
             ProvisionLogger.loge("Installing package " + packageName + " failed.", e);
             error(ERROR_INSTALLATION_FAILED);
         } finally {
-            source.delete();
+            // Cached packages are kept until they are installed, so that a retry doesn't download
+            // them again.
+            if (!mDownloadPackageTask.isDownloadedPackageCached()) {
+                source.delete();
+            }
         }
     }
 
@@ -173,11 +224,33 @@ public class InstallPackageTask extends AbstractProvisioningTask {
         return PROVISIONING_INSTALL_PACKAGE_TASK_MS;
     }
 
-    private class PackageInstallReceiver extends BroadcastReceiver {
+    /**
+     * Commits a fully written install session. Failures are reported to the callback of
+     * {@code task}, using the error codes of this class. Once the package has been installed,
+     * {@code onInstalled} is run instead.
+     */
+    static void commitSession(AbstractProvisioningTask task, PackageInstaller.Session session,
+            int sessionId, String packageName, Runnable onInstalled) {
+        String action = ACTION_INSTALL_DONE + sessionId;
+        task.mContext.registerReceiver(new PackageInstallReceiver(task, packageName, onInstalled),
+                new IntentFilter(action));
+
+        PendingIntent pendingIntent = PendingIntent.getBroadcast(task.mContext, sessionId,
+                new Intent(action),
+                PendingIntent.FLAG_ONE_SHOT | PendingIntent.FLAG_UPDATE_CURRENT);
+        session.commit(pendingIntent.getIntentSender());
+    }
+
+    private static class PackageInstallReceiver extends BroadcastReceiver {
+        private final AbstractProvisioningTask mTask;
         private final String mPackageName;
+        private final Runnable mOnInstalled;
 
-        public PackageInstallReceiver(String packageName) {
+        public PackageInstallReceiver(AbstractProvisioningTask task, String packageName,
+                Runnable onInstalled) {
+            mTask = task;
             mPackageName = packageName;
+            mOnInstalled = onInstalled;
         }
 
         @Override
@@ -186,14 +259,14 @@ public class InstallPackageTask extends AbstractProvisioningTask {
             if (intent.getAction() == null || !intent.getAction().startsWith(ACTION_INSTALL_DONE)) {
                 ProvisionLogger.logw("Incorrect action");
 
-                error(ERROR_INSTALLATION_FAILED);
+                mTask.error(ERROR_INSTALLATION_FAILED);
                 return;
             }
 
             // Should not happen as we use a one shot pending intent specifically for this receiver
             if (!intent.getStringExtra(PackageInstaller.EXTRA_PACKAGE_NAME).equals(mPackageName)) {
                 ProvisionLogger.loge("Package doesn't have expected package name.");
-                error(ERROR_PACKAGE_INVALID);
+                mTask.error(ERROR_PACKAGE_INVALID);
                 return;
             }
 
@@ -201,23 +274,22 @@ public class InstallPackageTask extends AbstractProvisioningTask {
             String statusMessage = intent.getStringExtra(PackageInstaller.EXTRA_STATUS_MESSAGE);
             int legacyStatus = intent.getIntExtra(PackageInstaller.EXTRA_LEGACY_STATUS, 0);
 
-            mContext.unregisterReceiver(this);
+            mTask.mContext.unregisterReceiver(this);
             ProvisionLogger.logi(status + " " + legacyStatus + " " + statusMessage);
 
             if (status == PackageInstaller.STATUS_SUCCESS) {
                 ProvisionLogger.logd("Package " + mPackageName + " is succesfully installed.");
-                stopTaskTimer();
-                success();
+                mOnInstalled.run();
             } else if (legacyStatus == PackageManager.INSTALL_FAILED_VERSION_DOWNGRADE) {
                 ProvisionLogger.logd("Current version of " + mPackageName
                         + " higher than the version to be installed. It was not reinstalled.");
                 // If the package is already at a higher version: success.
                 // Do not log time if package is already at a higher version, as that isn't useful.
-                success();
+                mTask.success();
             } else {
                 ProvisionLogger.logd("Installing package " + mPackageName + " failed.");
                 ProvisionLogger.logd("Status message returned  = " + statusMessage);
-                error(ERROR_INSTALLATION_FAILED);
+                mTask.error(ERROR_INSTALLATION_FAILED);
             }
         }
     }
@@ -53,7 +53,8 @@ public class MigrateSystemAppsSnapshotTask extends AbstractProvisioningTask {
 
     /**
      * Snapshot files are renamed from {user_id}.xml to {user_serial_number}.xml and moved
-     * to the new folder.
+     * to the new folder. They are converted to the binary format when they are first read, see
+     * {@link SystemAppsSnapshot}.
      */
     private void migrateIfNecessary() {
         File legacyFolder = SystemAppsSnapshot.getLegacyFolder(mContext);
@@ -74,7 +75,7 @@ public class MigrateSystemAppsSnapshotTask extends AbstractProvisioningTask {
             int userId = Integer.parseInt(matcher.group(1));
             File destination;
             try {
-                destination = SystemAppsSnapshot.getSystemAppsFile(mContext, userId);
+                destination = SystemAppsSnapshot.getXmlSystemAppsFile(mContext, userId);
             } catch (IllegalArgumentException ex) {
                 ProvisionLogger.logi(
                         "user " + userId + " no longer exists, skip migrating its snapshot file");
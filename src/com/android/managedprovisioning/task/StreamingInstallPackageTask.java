@@ -0,0 +1,404 @@
+/*
+ * Copyright 2019, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.task;
+
+import static com.android.internal.logging.nano.MetricsProto.MetricsEvent.PROVISIONING_DOWNLOAD_PACKAGE_TASK_MS;
+import static com.android.internal.util.Preconditions.checkNotNull;
+
+import android.app.admin.DevicePolicyManager;
+import android.content.Context;
+import android.content.pm.IPackageDeleteObserver;
+import android.content.pm.PackageInstaller;
+import android.content.pm.PackageManager;
+import android.os.AsyncTask;
+import android.os.SystemProperties;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.managedprovisioning.R;
+import com.android.managedprovisioning.analytics.MetricsWriterFactory;
+import com.android.managedprovisioning.analytics.ProvisioningAnalyticsTracker;
+import com.android.managedprovisioning.common.Globals;
+import com.android.managedprovisioning.common.IllegalProvisioningArgumentException;
+import com.android.managedprovisioning.common.ManagedProvisioningSharedPreferences;
+import com.android.managedprovisioning.common.ProvisionLogger;
+import com.android.managedprovisioning.common.SettingsFacade;
+import com.android.managedprovisioning.common.StoreUtils;
+import com.android.managedprovisioning.common.Utils;
+import com.android.managedprovisioning.model.PackageDownloadInfo;
+import com.android.managedprovisioning.model.ProvisioningParams;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+
+/**
+ * Downloads, verifies and installs the management app apk in a single pass.
+ *
+ * <p>The bytes received from {@link PackageDownloadInfo#location} are hashed while they are
+ * written straight into a {@link PackageInstaller.Session}. The session is only committed if the
+ * SHA-256 hash of the whole stream matches {@link PackageDownloadInfo#packageChecksum}, otherwise
+ * it is abandoned. No copy of the apk is ever written to disk by this task.</p>
+ *
+ * <p>This replaces {@link DownloadPackageTask}, {@link VerifyPackageTask} and
+ * {@link InstallPackageTask} only when {@link #canStream(Context, ProvisioningParams, int)}
+ * returns {@code true}, which requires {@link #STREAM_INSTALL_PROPERTY} to be set. Unlike
+ * {@link DownloadPackageTask}, the download isn't resumed after a network error nor kept in
+ * {@link com.android.managedprovisioning.task.download.PackageCache}, and it doesn't follow
+ * redirects to another protocol, so the download, verify and install tasks remain the default.
+ * As the apk can't be parsed before installing it, the device admin component is checked against
+ * the installed package instead, and the package is uninstalled again if it doesn't contain it.
+ * A package which is already installed is never streamed, as the replaced version couldn't be
+ * restored.</p>
+ */
+public class StreamingInstallPackageTask extends AbstractProvisioningTask {
+    public static final int ERROR_PACKAGE_INVALID = InstallPackageTask.ERROR_PACKAGE_INVALID;
+    public static final int ERROR_INSTALLATION_FAILED =
+            InstallPackageTask.ERROR_INSTALLATION_FAILED;
+    public static final int ERROR_DOWNLOAD_FAILED = 2;
+    public static final int ERROR_HASH_MISMATCH = 3;
+    public static final int ERROR_DEVICE_ADMIN_MISSING = 4;
+    public static final int ERROR_OTHER = 5;
+
+    /** System property enabling this task, it is disabled by default. */
+    @VisibleForTesting
+    static final String STREAM_INSTALL_PROPERTY = "persist.managed_provisioning.stream_install";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int CONNECT_TIMEOUT_MS = 30 * 1000;
+    private static final int READ_TIMEOUT_MS = 60 * 1000;
+    private static final String SESSION_FILE_NAME = "managed_provisioning_downloaded_app.apk";
+
+    private final Utils mUtils;
+    private final PackageManager mPm;
+    private final DevicePolicyManager mDpm;
+    private final PackageDownloadInfo mPackageDownloadInfo;
+    private final String mPackageName;
+    private final PackageSource mPackageSource;
+    private final Executor mExecutor;
+
+    /**
+     * Returns whether the admin package of {@code params} should be installed by this task for
+     * {@code userId}: {@link #STREAM_INSTALL_PROPERTY} is set, the package can be streamed and it
+     * isn't installed yet.
+     */
+    public static boolean canStream(Context context, ProvisioningParams params, int userId) {
+        return SystemProperties.getBoolean(STREAM_INSTALL_PROPERTY, false)
+                && canStream(params.deviceAdminDownloadInfo)
+                && !isPackageInstalled(context.getPackageManager(),
+                        params.inferDeviceAdminPackageName(), userId);
+    }
+
+    /**
+     * Returns whether the package described by {@code downloadInfo} can be installed by this task.
+     * This requires a package checksum, because a signature checksum can only be verified after
+     * parsing the complete apk.
+     */
+    @VisibleForTesting
+    static boolean canStream(PackageDownloadInfo downloadInfo) {
+        return downloadInfo != null && downloadInfo.packageChecksum.length > 0;
+    }
+
+    public StreamingInstallPackageTask(
+            Context context,
+            ProvisioningParams params,
+            Callback callback) {
+        this(new Utils(), new HttpPackageSource(params.deviceAdminDownloadInfo),
+                AsyncTask.THREAD_POOL_EXECUTOR, context, params, callback,
+                new ProvisioningAnalyticsTracker(
+                        MetricsWriterFactory.getMetricsWriter(context, new SettingsFacade()),
+                        new ManagedProvisioningSharedPreferences(context)));
+    }
+
+    @VisibleForTesting
+    StreamingInstallPackageTask(
+            Utils utils,
+            PackageSource packageSource,
+            Executor executor,
+            Context context,
+            ProvisioningParams params,
+            Callback callback,
+            ProvisioningAnalyticsTracker provisioningAnalyticsTracker) {
+        super(context, params, callback, provisioningAnalyticsTracker);
+
+        mUtils = checkNotNull(utils);
+        mPackageSource = checkNotNull(packageSource);
+        mExecutor = checkNotNull(executor);
+        mPm = context.getPackageManager();
+        mDpm = context.getSystemService(DevicePolicyManager.class);
+        mPackageDownloadInfo = checkNotNull(params.deviceAdminDownloadInfo);
+        mPackageName = params.inferDeviceAdminPackageName();
+    }
+
+    @Override
+    public int getStatusMsgId() {
+        return R.string.progress_download;
+    }
+
+    @Override
+    public void run(int userId) {
+        startTaskTimer();
+        if (!mUtils.packageRequiresUpdate(mPackageName, mPackageDownloadInfo.minVersion,
+                mContext)) {
+            // Do not log time if package is already on device and does not require an update, as
+            // that isn't useful.
+            success();
+            return;
+        }
+        if (!mUtils.isConnectedToNetwork(mContext)) {
+            ProvisionLogger.loge("StreamingInstallPackageTask: not connected to the network, can't"
+                    + " download the package");
+            error(ERROR_OTHER);
+            return;
+        }
+
+        DownloadPackageTask.setDpcDownloadedSetting(mContext);
+
+        // The download may take minutes, so don't block the provisioning worker thread.
+        mExecutor.execute(() -> streamAndInstall(userId));
+    }
+
+    @VisibleForTesting
+    void streamAndInstall(int userId) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(Utils.SHA256_TYPE);
+        } catch (NoSuchAlgorithmException e) {
+            ProvisionLogger.loge("Hashing algorithm " + Utils.SHA256_TYPE + " not supported.", e);
+            error(ERROR_OTHER);
+            return;
+        }
+
+        // A package which wasn't installed before is uninstalled again if it turns out not to
+        // contain the device admin. It may have been installed since canStream() was called.
+        final boolean wasInstalled = isPackageInstalled(mPm, mPackageName, userId);
+        PackageInstaller pi = mPm.getPackageInstaller();
+        int sessionId;
+        try {
+            sessionId = pi.createSession(createSessionParams());
+        } catch (IOException e) {
+            ProvisionLogger.loge("Creating install session for " + mPackageName + " failed.", e);
+            error(ERROR_INSTALLATION_FAILED);
+            return;
+        }
+        PackageInstaller.Session session;
+        try {
+            session = pi.openSession(sessionId);
+        } catch (IOException e) {
+            ProvisionLogger.loge("Opening install session for " + mPackageName + " failed.", e);
+            pi.abandonSession(sessionId);
+            error(ERROR_INSTALLATION_FAILED);
+            return;
+        }
+
+        int result;
+        boolean committed = false;
+        try {
+            result = writeToSession(session, digest);
+            if (result == -1) {
+                byte[] hash = digest.digest();
+                if (!Arrays.equals(mPackageDownloadInfo.packageChecksum, hash)) {
+                    ProvisionLogger.loge("Provided hash does not match file hash.");
+                    ProvisionLogger.loge("Hash provided by programmer: "
+                            + StoreUtils.byteArrayToString(mPackageDownloadInfo.packageChecksum));
+                    ProvisionLogger.loge("SHA-256 Hash computed from stream: "
+                            + StoreUtils.byteArrayToString(hash));
+                    result = ERROR_HASH_MISMATCH;
+                }
+            }
+            if (result == -1) {
+                ProvisionLogger.logd("Package hash verified, committing install session.");
+                InstallPackageTask.commitSession(this, session, sessionId, mPackageName,
+                        () -> onPackageInstalled(userId, wasInstalled));
+                committed = true;
+            }
+        } finally {
+            // Also covers runtime exceptions, which would otherwise leak the open session.
+            if (!committed) {
+                session.abandon();
+            }
+            session.close();
+        }
+        if (result != -1) {
+            error(result);
+        }
+    }
+
+    private static boolean isPackageInstalled(PackageManager pm, String packageName, int userId) {
+        try {
+            pm.getPackageInfoAsUser(packageName, 0 /* flags */, userId);
+            return true;
+        } catch (PackageManager.NameNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Copies the package into the session while updating {@code digest}.
+     *
+     * @return -1 on success, otherwise the error code to report.
+     */
+    private int writeToSession(PackageInstaller.Session session, MessageDigest digest) {
+        InputStream in;
+        try {
+            in = mPackageSource.open();
+        } catch (IOException e) {
+            ProvisionLogger.loge("Downloading package from " + mPackageDownloadInfo.location
+                    + " failed.", e);
+            return ERROR_DOWNLOAD_FAILED;
+        }
+
+        long length = mPackageSource.getLength();
+        long written = 0;
+        try (InputStream source = in;
+             OutputStream out = session.openWrite(SESSION_FILE_NAME, 0, length)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int numRead;
+            while (true) {
+                try {
+                    numRead = source.read(buffer);
+                } catch (IOException e) {
+                    ProvisionLogger.loge("Downloading package failed after " + written
+                            + " bytes.", e);
+                    return ERROR_DOWNLOAD_FAILED;
+                }
+                if (numRead == -1) {
+                    break;
+                }
+                digest.update(buffer, 0, numRead);
+                out.write(buffer, 0, numRead);
+                written += numRead;
+            }
+            session.fsync(out);
+        } catch (IOException e) {
+            ProvisionLogger.loge("Writing package " + mPackageName + " to session failed.", e);
+            return ERROR_INSTALLATION_FAILED;
+        }
+
+        if (length >= 0 && written != length) {
+            ProvisionLogger.loge("Downloaded " + written + " bytes, expected " + length);
+            return ERROR_DOWNLOAD_FAILED;
+        }
+        ProvisionLogger.logd("Streamed " + written + " bytes into install session.");
+        return -1;
+    }
+
+    private PackageInstaller.SessionParams createSessionParams() {
+        int installFlags = PackageManager.INSTALL_REPLACE_EXISTING;
+        // Current device owner (if exists) must be test-only, so it is fine to replace it with a
+        // test-only package of same package name. No need to further verify signature as
+        // installation will fail if signatures don't match.
+        if (mDpm.isDeviceOwnerApp(mPackageName)) {
+            installFlags |= PackageManager.INSTALL_ALLOW_TEST;
+        }
+
+        PackageInstaller.SessionParams params = new PackageInstaller.SessionParams(
+                PackageInstaller.SessionParams.MODE_FULL_INSTALL);
+        params.installFlags = installFlags;
+        return params;
+    }
+
+    private void onPackageInstalled(int userId, boolean wasInstalled) {
+        try {
+            mUtils.findDeviceAdmin(mPackageName, mProvisioningParams.deviceAdminComponentName,
+                    mContext, userId);
+        } catch (IllegalProvisioningArgumentException e) {
+            ProvisionLogger.loge("Installed package does not contain the device admin.", e);
+            if (wasInstalled) {
+                // The previous version can't be restored, the package is left as it is.
+                error(ERROR_DEVICE_ADMIN_MISSING);
+                return;
+            }
+            ProvisionLogger.logd("Uninstalling package " + mPackageName);
+            mPm.deletePackageAsUser(mPackageName, new IPackageDeleteObserver.Stub() {
+                @Override
+                public void packageDeleted(String packageName, int returnCode) {
+                    if (returnCode != PackageManager.DELETE_SUCCEEDED) {
+                        ProvisionLogger.loge("Uninstalling package " + packageName
+                                + " failed with " + returnCode);
+                    }
+                    error(ERROR_DEVICE_ADMIN_MISSING);
+                }
+            }, 0 /* flags */, userId);
+            return;
+        }
+        stopTaskTimer();
+        success();
+    }
+
+    @Override
+    protected int getMetricsCategory() {
+        return PROVISIONING_DOWNLOAD_PACKAGE_TASK_MS;
+    }
+
+    /**
+     * Source of the package bytes.
+     */
+    @VisibleForTesting
+    interface PackageSource {
+        /**
+         * Opens a stream over the whole package.
+         */
+        InputStream open() throws IOException;
+
+        /**
+         * Returns the length of the package in bytes once {@link #open()} returned, or -1 if it
+         * is unknown.
+         */
+        long getLength();
+    }
+
+    private static class HttpPackageSource implements PackageSource {
+        private final PackageDownloadInfo mDownloadInfo;
+        private long mLength = -1;
+
+        HttpPackageSource(PackageDownloadInfo downloadInfo) {
+            mDownloadInfo = checkNotNull(downloadInfo);
+        }
+
+        @Override
+        public InputStream open() throws IOException {
+            if (Globals.DEBUG) {
+                ProvisionLogger.logd("Starting download from " + mDownloadInfo.location);
+            }
+            HttpURLConnection connection =
+                    (HttpURLConnection) new URL(mDownloadInfo.location).openConnection();
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+            connection.setReadTimeout(READ_TIMEOUT_MS);
+            if (mDownloadInfo.cookieHeader != null) {
+                connection.setRequestProperty("Cookie", mDownloadInfo.cookieHeader);
+            }
+            int responseCode = connection.getResponseCode();
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                connection.disconnect();
+                throw new IOException("Unexpected response code " + responseCode);
+            }
+            mLength = connection.getContentLengthLong();
+            return connection.getInputStream();
+        }
+
+        @Override
+        public long getLength() {
+            return mLength;
+        }
+    }
+}
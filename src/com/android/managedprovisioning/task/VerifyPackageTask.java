@@ -37,19 +37,22 @@ import com.android.managedprovisioning.model.PackageDownloadInfo;
 import com.android.managedprovisioning.model.ProvisioningParams;
 
 import java.util.Arrays;
-import java.util.LinkedList;
-import java.util.List;
 
 /**
  * Verifies the management app apk downloaded previously in {@link DownloadPackageTask}.
  *
- * <p>The first check verifies that a {@link android.app.admin.DeviceAdminReceiver} is present in
- * the apk and that it corresponds to the one provided via
- * {@link ProvisioningParams#deviceAdminComponentName}.</p>
- *
- * <p>The second check verifies that the package or signature checksum matches the ones given via
- * {@link PackageDownloadInfo#packageChecksum} or {@link PackageDownloadInfo#signatureChecksum}
- * respectively. The package checksum takes priority in case both are present.</p>
+ * <p>The checks run in stages, cheapest first, and stop at the first failure:</p>
+ * <ol>
+ *     <li>If {@link PackageDownloadInfo#packageChecksum} is given, the hash of the file is compared
+ *     to it. The hash computed while downloading is used if available, so the file usually isn't
+ *     read again. The package checksum takes priority in case both checksums are present.</li>
+ *     <li>The apk is parsed to verify that a {@link android.app.admin.DeviceAdminReceiver} is
+ *     present in it and that it corresponds to the one provided via
+ *     {@link ProvisioningParams#deviceAdminComponentName}. Signatures are only collected if they
+ *     are needed for the next stage, as verifying them requires reading the whole apk.</li>
+ *     <li>Otherwise the signatures are hashed one by one until one of them matches
+ *     {@link PackageDownloadInfo#signatureChecksum}.</li>
+ * </ol>
  */
 public class VerifyPackageTask extends AbstractProvisioningTask {
     public static final int ERROR_HASH_MISMATCH = 0;
@@ -96,8 +99,18 @@ public class VerifyPackageTask extends AbstractProvisioningTask {
             return;
         }
 
-        PackageInfo packageInfo = mPackageManager.getPackageArchiveInfo(downloadLocation,
-                PackageManager.GET_SIGNATURES | PackageManager.GET_RECEIVERS);
+        final boolean usePackageChecksum = mDownloadInfo.packageChecksum.length > 0;
+        if (usePackageChecksum
+                && !doesPackageHashMatch(downloadLocation, mDownloadInfo.packageChecksum)) {
+            error(ERROR_HASH_MISMATCH);
+            return;
+        }
+
+        int flags = PackageManager.GET_RECEIVERS;
+        if (!usePackageChecksum) {
+            flags |= PackageManager.GET_SIGNATURES;
+        }
+        PackageInfo packageInfo = mPackageManager.getPackageArchiveInfo(downloadLocation, flags);
         String packageName = mProvisioningParams.inferDeviceAdminPackageName();
         // Device admin package name can't be null
         if (packageInfo == null || packageName == null) {
@@ -112,16 +125,10 @@ public class VerifyPackageTask extends AbstractProvisioningTask {
             return;
         }
 
-        if (mDownloadInfo.packageChecksum.length > 0) {
-            if (!doesPackageHashMatch(downloadLocation, mDownloadInfo.packageChecksum)) {
-                error(ERROR_HASH_MISMATCH);
-                return;
-            }
-        } else {
-            if (!doesASignatureHashMatch(packageInfo, mDownloadInfo.signatureChecksum)) {
-                error(ERROR_HASH_MISMATCH);
-                return;
-            }
+        if (!usePackageChecksum
+                && !doesASignatureHashMatch(packageInfo, mDownloadInfo.signatureChecksum)) {
+            error(ERROR_HASH_MISMATCH);
+            return;
         }
 
         success();
@@ -132,31 +139,21 @@ public class VerifyPackageTask extends AbstractProvisioningTask {
         return R.string.progress_install;
     }
 
-    private List<byte[]> computeHashesOfAllSignatures(Signature[] signatures) {
-        if (signatures == null) {
-            return null;
-        }
-
-        List<byte[]> hashes = new LinkedList<>();
-        for (Signature signature : signatures) {
-            byte[] hash = mUtils.computeHashOfByteArray(signature.toByteArray());
-            hashes.add(hash);
-        }
-        return hashes;
-    }
-
     private boolean doesASignatureHashMatch(PackageInfo packageInfo, byte[] signatureChecksum) {
         // Check whether a signature hash of downloaded apk matches the hash given in constructor.
         ProvisionLogger.logd("Checking " + Utils.SHA256_TYPE
-                + "-hashes of all signatures of downloaded package.");
-        List<byte[]> sigHashes = computeHashesOfAllSignatures(packageInfo.signatures);
-        if (sigHashes == null || sigHashes.isEmpty()) {
+                + "-hashes of signatures of downloaded package.");
+        Signature[] signatures = packageInfo.signatures;
+        if (signatures == null || signatures.length == 0) {
             ProvisionLogger.loge("Downloaded package does not have any signatures.");
             return false;
         }
 
-        for (byte[] sigHash : sigHashes) {
-            if (Arrays.equals(sigHash, signatureChecksum)) {
+        // Hash the signatures one at a time, most packages match on the first one.
+        byte[][] sigHashes = new byte[signatures.length][];
+        for (int i = 0; i < signatures.length; i++) {
+            sigHashes[i] = mUtils.computeHashOfByteArray(signatures[i].toByteArray());
+            if (Arrays.equals(sigHashes[i], signatureChecksum)) {
                 return true;
             }
         }
@@ -179,10 +176,14 @@ public class VerifyPackageTask extends AbstractProvisioningTask {
      * By default, SHA-256 is used to verify the file hash.
      */
     private boolean doesPackageHashMatch(String downloadLocation, byte[] packageChecksum) {
-        byte[] packageSha256Hash = null;
+        byte[] packageSha256Hash = mDownloadPackageTask.getDownloadedPackageHash();
 
-        ProvisionLogger.logd("Checking file hash of entire apk file.");
-        packageSha256Hash = mUtils.computeHashOfFile(downloadLocation, Utils.SHA256_TYPE);
+        if (packageSha256Hash == null) {
+            ProvisionLogger.logd("Checking file hash of entire apk file.");
+            packageSha256Hash = mUtils.computeHashOfFile(downloadLocation, Utils.SHA256_TYPE);
+        } else {
+            ProvisionLogger.logd("Checking file hash computed during download.");
+        }
         if (Arrays.equals(packageChecksum, packageSha256Hash)) {
             return true;
         }
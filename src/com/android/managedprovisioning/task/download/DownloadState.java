@@ -0,0 +1,131 @@
+/*
+ * Copyright 2019, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.task.download;
+
+import android.os.PersistableBundle;
+import android.util.AtomicFile;
+import android.util.Xml;
+
+import com.android.internal.util.FastXmlSerializer;
+import com.android.managedprovisioning.common.ProvisionLogger;
+import com.android.managedprovisioning.common.StoreUtils;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlSerializer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Progress of a partial download, as persisted by {@link ResumableDownloader}.
+ */
+final class DownloadState {
+    private static final String TAG_DOWNLOAD_STATE = "download-state";
+    private static final String KEY_LOCATION = "location";
+    private static final String KEY_OFFSET = "offset";
+    private static final String KEY_ETAG = "etag";
+    private static final String KEY_SHA256 = "sha256";
+
+    /** Location the partial file was downloaded from. */
+    String location;
+    /** Number of bytes of the partial file that belong to the download. */
+    long offset;
+    /** ETag of the server response, or {@code null} if the server didn't send one. */
+    String etag;
+    /** SHA-256 hash of the first {@link #offset} bytes. */
+    byte[] sha256;
+
+    private PersistableBundle toPersistableBundle() {
+        PersistableBundle bundle = new PersistableBundle();
+        bundle.putString(KEY_LOCATION, location);
+        bundle.putLong(KEY_OFFSET, offset);
+        bundle.putString(KEY_ETAG, etag);
+        bundle.putString(KEY_SHA256, StoreUtils.byteArrayToString(sha256));
+        return bundle;
+    }
+
+    private static DownloadState fromPersistableBundle(PersistableBundle bundle) {
+        DownloadState state = new DownloadState();
+        state.location = bundle.getString(KEY_LOCATION);
+        state.offset = bundle.getLong(KEY_OFFSET);
+        state.etag = bundle.getString(KEY_ETAG);
+        String sha256 = bundle.getString(KEY_SHA256);
+        state.sha256 = sha256 == null ? null : StoreUtils.stringToByteArray(sha256);
+        return state;
+    }
+
+    /**
+     * Reads and writes a {@link DownloadState} from and to a file.
+     */
+    static final class Store {
+        private final File mFile;
+
+        Store(File file) {
+            mFile = file;
+        }
+
+        /**
+         * Returns the stored state, or {@code null} if there is none or it can't be read.
+         */
+        DownloadState load() {
+            if (!mFile.exists()) {
+                return null;
+            }
+            try (FileInputStream stream = new FileInputStream(mFile)) {
+                XmlPullParser parser = Xml.newPullParser();
+                parser.setInput(stream, null);
+                int type;
+                while ((type = parser.next()) != XmlPullParser.END_DOCUMENT) {
+                    if (type == XmlPullParser.START_TAG
+                            && TAG_DOWNLOAD_STATE.equals(parser.getName())) {
+                        return fromPersistableBundle(PersistableBundle.restoreFromXml(parser));
+                    }
+                }
+            } catch (IOException | XmlPullParserException | NumberFormatException e) {
+                ProvisionLogger.logw("Could not load download state from " + mFile, e);
+            }
+            return null;
+        }
+
+        void save(DownloadState state) {
+            AtomicFile atomicFile = new AtomicFile(mFile);
+            FileOutputStream stream = null;
+            try {
+                stream = atomicFile.startWrite();
+                XmlSerializer serializer = new FastXmlSerializer();
+                serializer.setOutput(stream, StandardCharsets.UTF_8.name());
+                serializer.startDocument(null, true);
+                serializer.startTag(null, TAG_DOWNLOAD_STATE);
+                state.toPersistableBundle().saveToXml(serializer);
+                serializer.endTag(null, TAG_DOWNLOAD_STATE);
+                serializer.endDocument();
+                atomicFile.finishWrite(stream);
+            } catch (IOException | XmlPullParserException e) {
+                ProvisionLogger.logw("Could not save download state to " + mFile, e);
+                atomicFile.failWrite(stream);
+            }
+        }
+
+        void delete() {
+            new AtomicFile(mFile).delete();
+        }
+    }
+}
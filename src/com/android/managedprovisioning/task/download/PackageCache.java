@@ -0,0 +1,199 @@
+/*
+ * Copyright 2019, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.task.download;
+
+import static com.android.internal.util.Preconditions.checkNotNull;
+
+import android.annotation.Nullable;
+import android.content.Context;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.managedprovisioning.common.FileDigester;
+import com.android.managedprovisioning.common.ProvisionLogger;
+import com.android.managedprovisioning.common.StoreUtils;
+import com.android.managedprovisioning.common.Utils;
+import com.android.managedprovisioning.model.PackageDownloadInfo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Content addressed cache of downloaded packages, so that a package isn't downloaded again when
+ * provisioning is retried.
+ *
+ * <p>Every entry is stored in a file named after the SHA-256 hash of its content. Only packages
+ * identified by their {@link PackageDownloadInfo#packageChecksum} are cached: a package that is
+ * only identified by its signature checksum may change on the server while keeping its location,
+ * so a cached copy of it could be stale. Entries are re-hashed before they are returned, a
+ * corrupted entry is deleted.</p>
+ *
+ * <p>The total size of the cache is limited to {@link #DEFAULT_MAX_SIZE_BYTES}. When an entry is
+ * added, the least recently used entries are evicted until it fits. Entries are only meant to
+ * survive failed attempts, callers {@link #remove} them once the package is installed.</p>
+ */
+public class PackageCache {
+    @VisibleForTesting
+    static final long DEFAULT_MAX_SIZE_BYTES = 256 * 1024 * 1024;
+
+    private static final String CACHE_DIR = "dpc_cache";
+    private static final String PACKAGE_SUFFIX = ".apk";
+
+    private final File mDirectory;
+    private final long mMaxSizeBytes;
+    private final FileDigester mFileDigester;
+
+    public PackageCache(Context context) {
+        this(new File(context.getFilesDir(), CACHE_DIR), DEFAULT_MAX_SIZE_BYTES,
+                new FileDigester());
+    }
+
+    @VisibleForTesting
+    PackageCache(File directory, long maxSizeBytes, FileDigester fileDigester) {
+        mDirectory = checkNotNull(directory);
+        mMaxSizeBytes = maxSizeBytes;
+        mFileDigester = checkNotNull(fileDigester);
+    }
+
+    /**
+     * Returns the cached package for the given download info, or {@code null} if there is no
+     * valid entry.
+     */
+    @Nullable
+    public synchronized File get(PackageDownloadInfo downloadInfo) {
+        if (!isCacheable(downloadInfo)) {
+            return null;
+        }
+        byte[] sha256 = downloadInfo.packageChecksum;
+        File entry = getEntryFile(sha256);
+        if (!entry.exists()) {
+            return null;
+        }
+        Map<String, byte[]> hashes = mFileDigester.digest(entry, Utils.SHA256_TYPE);
+        if (hashes == null || !Arrays.equals(sha256, hashes.get(Utils.SHA256_TYPE))) {
+            ProvisionLogger.logw("Cached package " + entry.getName() + " is corrupted");
+            entry.delete();
+            return null;
+        }
+        // The modification time is used as the access time for eviction.
+        entry.setLastModified(System.currentTimeMillis());
+        ProvisionLogger.logd("Found cached package " + entry.getName());
+        return entry;
+    }
+
+    /**
+     * Moves a downloaded package into the cache.
+     *
+     * @param file the downloaded package, it no longer exists if this method succeeds.
+     * @param sha256 SHA-256 hash of the content of {@code file}.
+     * @return the cache entry, or {@code null} if the package couldn't be cached or isn't
+     * identified by its package checksum, in which case {@code file} is left untouched.
+     */
+    @Nullable
+    public synchronized File put(PackageDownloadInfo downloadInfo, File file, byte[] sha256) {
+        long size = file.length();
+        if (!isCacheable(downloadInfo) || size > mMaxSizeBytes
+                || (!mDirectory.isDirectory() && !mDirectory.mkdirs())) {
+            return null;
+        }
+        File entry = getEntryFile(sha256);
+        evict(mMaxSizeBytes - size, entry);
+        try {
+            // The download and the cache may live on different file systems.
+            Files.move(file.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            ProvisionLogger.logw("Could not add package to cache", e);
+            entry.delete();
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Deletes an entry returned by this cache, once its package doesn't need to be kept anymore.
+     */
+    public synchronized void remove(File entry) {
+        if (entry.delete()) {
+            ProvisionLogger.logd("Removed cached package " + entry.getName());
+        }
+    }
+
+    /**
+     * Returns the SHA-256 hash of the content of an entry returned by this cache.
+     */
+    public static byte[] getHash(File entry) {
+        String name = entry.getName();
+        return StoreUtils.stringToByteArray(
+                name.substring(0, name.length() - PACKAGE_SUFFIX.length()));
+    }
+
+    /**
+     * Prints the entries of the cache of {@code context}. Only lists its directory, so it doesn't
+     * need an instance.
+     */
+    public static void dump(Context context, PrintWriter pw) {
+        File[] entries = new File(context.getFilesDir(), CACHE_DIR)
+                .listFiles((dir, name) -> name.endsWith(PACKAGE_SUFFIX));
+        long total = 0;
+        if (entries != null) {
+            for (File entry : entries) {
+                total += entry.length();
+            }
+        }
+        pw.println("  Package cache: " + (entries == null ? 0 : entries.length) + " packages, "
+                + total + "/" + DEFAULT_MAX_SIZE_BYTES + " bytes");
+    }
+
+    /**
+     * Deletes entries, least recently used first, until the remaining ones take at most
+     * {@code maxBytes}.
+     */
+    private void evict(long maxBytes, File keep) {
+        File[] entries = mDirectory.listFiles((dir, name) -> name.endsWith(PACKAGE_SUFFIX));
+        if (entries == null) {
+            return;
+        }
+        long total = 0;
+        for (File entry : entries) {
+            total += entry.length();
+        }
+        Arrays.sort(entries, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File entry : entries) {
+            if (total <= maxBytes) {
+                break;
+            }
+            if (entry.equals(keep)) {
+                continue;
+            }
+            ProvisionLogger.logd("Evicting cached package " + entry.getName());
+            total -= entry.length();
+            entry.delete();
+        }
+    }
+
+    private File getEntryFile(byte[] sha256) {
+        return new File(mDirectory, StoreUtils.byteArrayToString(sha256) + PACKAGE_SUFFIX);
+    }
+
+    private static boolean isCacheable(PackageDownloadInfo downloadInfo) {
+        return downloadInfo.packageChecksum.length > 0;
+    }
+}
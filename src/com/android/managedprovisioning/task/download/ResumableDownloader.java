@@ -0,0 +1,397 @@
+/*
+ * Copyright 2019, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.task.download;
+
+import static com.android.internal.util.Preconditions.checkNotNull;
+
+import android.os.SystemClock;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.managedprovisioning.common.Globals;
+import com.android.managedprovisioning.common.ProvisionLogger;
+import com.android.managedprovisioning.common.Utils;
+import com.android.managedprovisioning.model.PackageDownloadInfo;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Downloads a package over HTTP into a file, surviving transient failures and process restarts.
+ *
+ * <p>Bytes are first written to a partial file next to the destination. Every
+ * {@link #CHECKPOINT_BYTES} the offset, the ETag of the server response and the SHA-256 hash of
+ * the bytes received so far are persisted in a {@link DownloadState} file. When a download is
+ * started again for the same location, the partial file is checked against the stored hash and
+ * the download continues with an HTTP Range request.</p>
+ *
+ * <p>Transient failures (I/O errors, timeouts, server errors) are retried with an exponential
+ * backoff, up to {@link #MAX_ATTEMPTS} attempts in total. The backoff blocks the calling thread,
+ * which should thus be a dedicated thread rather than a shared pool thread.</p>
+ *
+ * <p>Redirects are followed by this class, up to {@link #MAX_REDIRECTS} per attempt, including
+ * redirects between http and https which {@link HttpURLConnection} doesn't follow.</p>
+ */
+public class ResumableDownloader {
+    @VisibleForTesting
+    static final int MAX_ATTEMPTS = 5;
+    @VisibleForTesting
+    static final long CHECKPOINT_BYTES = 1024 * 1024;
+    @VisibleForTesting
+    static final int MAX_REDIRECTS = 5;
+
+    private static final long INITIAL_BACKOFF_MS = 1000;
+    private static final long MAX_BACKOFF_MS = 30 * 1000;
+    private static final int CONNECT_TIMEOUT_MS = 30 * 1000;
+    private static final int READ_TIMEOUT_MS = 60 * 1000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int HTTP_TEMPORARY_REDIRECT = 307;
+    private static final int HTTP_PERMANENT_REDIRECT = 308;
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private static final int RESULT_SUCCESS = 0;
+    private static final int RESULT_TRANSIENT_FAILURE = 1;
+    private static final int RESULT_PERMANENT_FAILURE = 2;
+
+    /** Callback for the result of a download. */
+    public interface Callback {
+        /**
+         * The complete package is available at the destination.
+         *
+         * @param sha256 SHA-256 hash of the downloaded file.
+         */
+        void onDownloadSucceeded(File destination, byte[] sha256);
+
+        /** The download failed permanently, or all attempts failed. */
+        void onDownloadFailed();
+    }
+
+    /** Opens connections, can be replaced in tests. */
+    @VisibleForTesting
+    interface ConnectionFactory {
+        HttpURLConnection openConnection(URL url) throws IOException;
+    }
+
+    private final PackageDownloadInfo mDownloadInfo;
+    private final File mDestination;
+    private final File mPartialFile;
+    private final DownloadState.Store mStateStore;
+    private final ConnectionFactory mConnectionFactory;
+    private final long mInitialBackoffMs;
+
+    private volatile boolean mCancelled;
+
+    public ResumableDownloader(PackageDownloadInfo downloadInfo, File destination) {
+        this(downloadInfo, destination,
+                url -> (HttpURLConnection) url.openConnection(), INITIAL_BACKOFF_MS);
+    }
+
+    @VisibleForTesting
+    ResumableDownloader(PackageDownloadInfo downloadInfo, File destination,
+            ConnectionFactory connectionFactory, long initialBackoffMs) {
+        mDownloadInfo = checkNotNull(downloadInfo);
+        mDestination = checkNotNull(destination);
+        mPartialFile = new File(destination.getPath() + ".part");
+        mStateStore = new DownloadState.Store(new File(destination.getPath() + ".state"));
+        mConnectionFactory = checkNotNull(connectionFactory);
+        mInitialBackoffMs = initialBackoffMs;
+    }
+
+    /**
+     * Downloads the package, blocking the calling thread until the download finished or failed
+     * permanently. Must not be called on the main thread.
+     */
+    public void download(Callback callback) {
+        // A downloader may be used again after an earlier download was cancelled.
+        mCancelled = false;
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(Utils.SHA256_TYPE);
+        } catch (NoSuchAlgorithmException e) {
+            ProvisionLogger.loge("Hashing algorithm " + Utils.SHA256_TYPE + " not supported.", e);
+            callback.onDownloadFailed();
+            return;
+        }
+
+        DownloadState state = restoreState(digest);
+        long backoffMs = mInitialBackoffMs;
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS && !mCancelled; attempt++) {
+            int result = downloadOnce(state, digest);
+            if (result == RESULT_SUCCESS) {
+                byte[] hash = digest.digest();
+                mStateStore.delete();
+                if (!mPartialFile.renameTo(mDestination)) {
+                    ProvisionLogger.loge("Could not move " + mPartialFile + " to " + mDestination);
+                    callback.onDownloadFailed();
+                    return;
+                }
+                ProvisionLogger.logd("Downloaded " + state.offset + " bytes to " + mDestination);
+                callback.onDownloadSucceeded(mDestination, hash);
+                return;
+            }
+            if (result == RESULT_PERMANENT_FAILURE) {
+                break;
+            }
+            if (attempt < MAX_ATTEMPTS) {
+                ProvisionLogger.logw("Download attempt " + attempt + " failed at offset "
+                        + state.offset + ", retrying in " + backoffMs + " ms");
+                SystemClock.sleep(backoffMs);
+                backoffMs = Math.min(backoffMs * 2, MAX_BACKOFF_MS);
+            }
+        }
+        // Keep the partial file and state, so that a later attempt can resume.
+        callback.onDownloadFailed();
+    }
+
+    /**
+     * Stops retrying. A running attempt stops at the next buffer.
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    /**
+     * Deletes the downloaded file and any partial download state.
+     */
+    public void cleanUp() {
+        mStateStore.delete();
+        mPartialFile.delete();
+        mDestination.delete();
+    }
+
+    private int downloadOnce(DownloadState state, MessageDigest digest) {
+        HttpURLConnection connection = null;
+        try {
+            URL url = new URL(mDownloadInfo.location);
+            int responseCode;
+            for (int redirects = 0; ; redirects++) {
+                connection = openConnection(url, state);
+                responseCode = connection.getResponseCode();
+                if (!isRedirect(responseCode)) {
+                    break;
+                }
+                String location = connection.getHeaderField("Location");
+                connection.disconnect();
+                connection = null;
+                if (location == null || redirects >= MAX_REDIRECTS) {
+                    ProvisionLogger.loge("Can't follow redirect " + (redirects + 1)
+                            + " to " + location);
+                    return RESULT_PERMANENT_FAILURE;
+                }
+                url = new URL(url, location);
+                if (!"http".equals(url.getProtocol()) && !"https".equals(url.getProtocol())) {
+                    ProvisionLogger.loge("Unsupported redirect to " + url.getProtocol());
+                    return RESULT_PERMANENT_FAILURE;
+                }
+                if (Globals.DEBUG) {
+                    ProvisionLogger.logd("Following redirect to " + url);
+                }
+            }
+
+            if (responseCode == HttpURLConnection.HTTP_OK) {
+                if (state.offset > 0) {
+                    ProvisionLogger.logd("Server ignored range request, restarting download");
+                }
+                state.offset = 0;
+                digest.reset();
+            } else if (responseCode == HttpURLConnection.HTTP_PARTIAL) {
+                long rangeStart = getRangeStart(connection.getHeaderField("Content-Range"));
+                if (rangeStart != state.offset) {
+                    // Appending these bytes would corrupt the partial file.
+                    ProvisionLogger.logw("Server sent range starting at " + rangeStart
+                            + " instead of " + state.offset + ", restarting download");
+                    resetState(state, digest);
+                    return RESULT_TRANSIENT_FAILURE;
+                }
+                ProvisionLogger.logd("Resuming download at offset " + state.offset);
+            } else if (responseCode == HTTP_RANGE_NOT_SATISFIABLE) {
+                // The stored offset doesn't fit the package on the server, start from scratch.
+                resetState(state, digest);
+                return RESULT_TRANSIENT_FAILURE;
+            } else {
+                ProvisionLogger.loge("Unexpected response code " + responseCode);
+                return isTransient(responseCode)
+                        ? RESULT_TRANSIENT_FAILURE : RESULT_PERMANENT_FAILURE;
+            }
+
+            state.etag = connection.getHeaderField("ETag");
+
+            try (InputStream in = connection.getInputStream();
+                 RandomAccessFile out = new RandomAccessFile(mPartialFile, "rw")) {
+                out.setLength(state.offset);
+                out.seek(state.offset);
+                long sinceCheckpoint = 0;
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int numRead;
+                while ((numRead = in.read(buffer)) != -1) {
+                    if (mCancelled) {
+                        saveCheckpoint(state, digest);
+                        return RESULT_PERMANENT_FAILURE;
+                    }
+                    out.write(buffer, 0, numRead);
+                    digest.update(buffer, 0, numRead);
+                    state.offset += numRead;
+                    sinceCheckpoint += numRead;
+                    if (sinceCheckpoint >= CHECKPOINT_BYTES) {
+                        saveCheckpoint(state, digest);
+                        sinceCheckpoint = 0;
+                    }
+                }
+            }
+            return RESULT_SUCCESS;
+        } catch (IOException e) {
+            ProvisionLogger.logw("Downloading package failed at offset " + state.offset, e);
+            saveCheckpoint(state, digest);
+            return RESULT_TRANSIENT_FAILURE;
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    private HttpURLConnection openConnection(URL url, DownloadState state) throws IOException {
+        HttpURLConnection connection = mConnectionFactory.openConnection(url);
+        // Redirects are followed in downloadOnce, so that http <-> https redirects work too.
+        connection.setInstanceFollowRedirects(false);
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+        if (mDownloadInfo.cookieHeader != null) {
+            connection.setRequestProperty("Cookie", mDownloadInfo.cookieHeader);
+            if (Globals.DEBUG) {
+                ProvisionLogger.logd("Downloading with http cookie header: "
+                        + mDownloadInfo.cookieHeader);
+            }
+        }
+        if (state.offset > 0) {
+            connection.setRequestProperty("Range", "bytes=" + state.offset + "-");
+            if (state.etag != null) {
+                // The server sends the whole package if it changed since the last attempt.
+                connection.setRequestProperty("If-Range", state.etag);
+            }
+        }
+        return connection;
+    }
+
+    private static boolean isRedirect(int responseCode) {
+        return responseCode == HttpURLConnection.HTTP_MOVED_PERM
+                || responseCode == HttpURLConnection.HTTP_MOVED_TEMP
+                || responseCode == HttpURLConnection.HTTP_SEE_OTHER
+                || responseCode == HTTP_TEMPORARY_REDIRECT
+                || responseCode == HTTP_PERMANENT_REDIRECT;
+    }
+
+    /**
+     * Returns the first byte position of a {@code Content-Range: bytes <first>-<last>/<length>}
+     * header, or -1 if it is missing or malformed.
+     */
+    @VisibleForTesting
+    static long getRangeStart(String contentRange) {
+        if (contentRange == null || !contentRange.startsWith("bytes ")) {
+            return -1;
+        }
+        int dash = contentRange.indexOf('-');
+        if (dash < 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentRange.substring("bytes ".length(), dash).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static boolean isTransient(int responseCode) {
+        return responseCode >= HttpURLConnection.HTTP_INTERNAL_ERROR
+                || responseCode == HttpURLConnection.HTTP_CLIENT_TIMEOUT
+                || responseCode == HTTP_TOO_MANY_REQUESTS;
+    }
+
+    /**
+     * Loads the state of a previous attempt, and feeds the bytes already on disk into
+     * {@code digest}. Starts from scratch if the state doesn't match the partial file.
+     */
+    private DownloadState restoreState(MessageDigest digest) {
+        DownloadState state = mStateStore.load();
+        if (state == null || !mDownloadInfo.location.equals(state.location)
+                || state.offset <= 0 || mPartialFile.length() < state.offset) {
+            return resetState(new DownloadState(), digest);
+        }
+
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = new FileInputStream(mPartialFile)) {
+            long remaining = state.offset;
+            while (remaining > 0) {
+                int numRead = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (numRead == -1) {
+                    break;
+                }
+                digest.update(buffer, 0, numRead);
+                remaining -= numRead;
+            }
+        } catch (IOException e) {
+            ProvisionLogger.logw("Could not read partial download", e);
+            return resetState(new DownloadState(), digest);
+        }
+
+        if (!Arrays.equals(state.sha256, cloneDigest(digest))) {
+            ProvisionLogger.logw("Partial download is corrupted, starting from scratch");
+            return resetState(new DownloadState(), digest);
+        }
+        ProvisionLogger.logd("Found partial download of " + state.offset + " bytes");
+        return state;
+    }
+
+    private DownloadState resetState(DownloadState state, MessageDigest digest) {
+        state.location = mDownloadInfo.location;
+        state.offset = 0;
+        state.etag = null;
+        state.sha256 = null;
+        digest.reset();
+        mPartialFile.delete();
+        mStateStore.delete();
+        return state;
+    }
+
+    private void saveCheckpoint(DownloadState state, MessageDigest digest) {
+        if (state.offset <= 0) {
+            return;
+        }
+        state.sha256 = cloneDigest(digest);
+        if (state.sha256 != null) {
+            mStateStore.save(state);
+        }
+    }
+
+    /** Returns the hash of the bytes fed into {@code digest} so far, without resetting it. */
+    private static byte[] cloneDigest(MessageDigest digest) {
+        try {
+            return ((MessageDigest) digest.clone()).digest();
+        } catch (CloneNotSupportedException e) {
+            ProvisionLogger.logw("Can't checkpoint " + digest.getAlgorithm() + " state", e);
+            return null;
+        }
+    }
+}
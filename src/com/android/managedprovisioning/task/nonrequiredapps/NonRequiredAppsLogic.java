@@ -34,6 +34,7 @@ import com.android.managedprovisioning.model.ProvisioningParams;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Set;
 
 /**
@@ -106,7 +107,7 @@ public class NonRequiredAppsLogic {
 
         // Remove the ones that were already present in the last snapshot only when OTA
         if (!mNewProfile) {
-            newSystemApps.removeAll(mSnapshot.getSnapshot(userId));
+            newSystemApps = new HashSet<>(mSnapshot.diff(userId, newSystemApps).added);
         }
         ComponentName deviceAdminComponentName;
         try {
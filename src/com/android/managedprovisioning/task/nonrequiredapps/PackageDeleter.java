@@ -0,0 +1,244 @@
+/*
+ * Copyright 2019, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.task.nonrequiredapps;
+
+import static com.android.internal.util.Preconditions.checkArgument;
+import static com.android.internal.util.Preconditions.checkNotNull;
+
+import android.content.pm.IPackageDeleteObserver;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.managedprovisioning.common.ProvisionLogger;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+/**
+ * Deletes a set of packages for a user.
+ *
+ * <p>Packages which aren't installed for the user are skipped, using a single query for all
+ * installed packages. At most {@link #DEFAULT_WINDOW_SIZE} deletions are in flight at any time, a
+ * new one is started whenever one finishes. A deletion which failed with a transient error is
+ * retried after a delay, starting at {@link #INITIAL_RETRY_DELAY_MS} and doubling with every
+ * attempt, up to {@link #DEFAULT_MAX_ATTEMPTS} times in total. The package is then reported as
+ * failed, like a package whose deletion failed with a permanent error, and the other packages
+ * are still deleted.</p>
+ */
+public class PackageDeleter {
+    @VisibleForTesting
+    static final int DEFAULT_WINDOW_SIZE = 8;
+    @VisibleForTesting
+    static final int DEFAULT_MAX_ATTEMPTS = 3;
+    @VisibleForTesting
+    static final long INITIAL_RETRY_DELAY_MS = 500;
+
+    /** Runs a retry after a delay. */
+    @VisibleForTesting
+    interface RetryScheduler {
+        void schedule(Runnable retry, long delayMs);
+    }
+
+    /** Callback for the result of {@link #deletePackages(Set, Callback)}. */
+    public interface Callback {
+        /**
+         * Called once for every package that was deleted.
+         *
+         * @param latencyMs time between requesting the deletion and it finishing.
+         */
+        void onPackageDeleted(String packageName, long latencyMs);
+
+        /**
+         * Called once all deletions finished.
+         *
+         * @param failedPackages the packages that couldn't be deleted, empty on success.
+         */
+        void onDeletionFinished(Set<String> failedPackages);
+    }
+
+    private final PackageManager mPm;
+    private final int mUserId;
+    private final int mWindowSize;
+    private final int mMaxAttempts;
+    private final RetryScheduler mRetryScheduler;
+
+    private final Object mLock = new Object();
+    @GuardedBy("mLock")
+    private final Queue<String> mPending = new ArrayDeque<>();
+    @GuardedBy("mLock")
+    private final Map<String, Integer> mAttempts = new HashMap<>();
+    @GuardedBy("mLock")
+    private final Set<String> mFailed = new HashSet<>();
+    @GuardedBy("mLock")
+    private int mInFlight;
+    @GuardedBy("mLock")
+    private int mScheduledRetries;
+    @GuardedBy("mLock")
+    private Callback mCallback;
+
+    public PackageDeleter(PackageManager pm, int userId) {
+        // A retry only starts deletions, which doesn't block the main thread.
+        this(pm, userId, DEFAULT_WINDOW_SIZE, DEFAULT_MAX_ATTEMPTS,
+                new Handler(Looper.getMainLooper())::postDelayed);
+    }
+
+    @VisibleForTesting
+    PackageDeleter(PackageManager pm, int userId, int windowSize, int maxAttempts,
+            RetryScheduler retryScheduler) {
+        checkArgument(windowSize > 0, "windowSize must be positive");
+        checkArgument(maxAttempts > 0, "maxAttempts must be positive");
+        mPm = checkNotNull(pm);
+        mUserId = userId;
+        mWindowSize = windowSize;
+        mMaxAttempts = maxAttempts;
+        mRetryScheduler = checkNotNull(retryScheduler);
+    }
+
+    /**
+     * Returns the packages of {@code packages} which are installed for the user.
+     */
+    public Set<String> filterInstalled(Set<String> packages) {
+        Set<String> installed = new HashSet<>();
+        if (packages.isEmpty()) {
+            return installed;
+        }
+        List<PackageInfo> infos = mPm.getInstalledPackagesAsUser(0 /* default flags */, mUserId);
+        for (PackageInfo info : infos) {
+            if (packages.contains(info.packageName)) {
+                installed.add(info.packageName);
+            }
+        }
+        return installed;
+    }
+
+    /**
+     * Deletes {@code packages}. The callback is invoked on binder threads, unless
+     * {@code packages} is empty, in which case it is invoked immediately.
+     */
+    public void deletePackages(Set<String> packages, Callback callback) {
+        synchronized (mLock) {
+            mCallback = checkNotNull(callback);
+            mPending.addAll(packages);
+        }
+        if (packages.isEmpty()) {
+            callback.onDeletionFinished(new HashSet<>());
+            return;
+        }
+        dispatch();
+    }
+
+    /**
+     * Starts deletions until the window is full or no package is left. The package manager may
+     * call the observer synchronously, so it must not be called with the lock held.
+     */
+    private void dispatch() {
+        while (true) {
+            String packageName;
+            synchronized (mLock) {
+                if (mInFlight >= mWindowSize || mPending.isEmpty()) {
+                    return;
+                }
+                packageName = mPending.remove();
+                mInFlight++;
+                mAttempts.merge(packageName, 1, Integer::sum);
+            }
+            ProvisionLogger.logd("Deleting package [" + packageName + "] as user " + mUserId);
+            mPm.deletePackageAsUser(packageName,
+                    new PackageDeleteObserver(packageName, SystemClock.elapsedRealtime()),
+                    PackageManager.DELETE_SYSTEM_APP, mUserId);
+        }
+    }
+
+    private void onPackageDeleted(String packageName, int returnCode, long latencyMs) {
+        final Callback callback;
+        final Set<String> failed;
+        long retryDelayMs = -1;
+        synchronized (mLock) {
+            mInFlight--;
+            callback = mCallback;
+            if (returnCode != PackageManager.DELETE_SUCCEEDED) {
+                final int attempts = mAttempts.get(packageName);
+                if (attempts < mMaxAttempts && isTransientFailure(returnCode)) {
+                    retryDelayMs = INITIAL_RETRY_DELAY_MS << (attempts - 1);
+                    ProvisionLogger.logw("Deleting package " + packageName + " failed with "
+                            + returnCode + ", retrying in " + retryDelayMs + " ms");
+                    mScheduledRetries++;
+                } else {
+                    ProvisionLogger.loge("Deleting package " + packageName + " failed with "
+                            + returnCode + " after " + attempts + " attempts");
+                    mFailed.add(packageName);
+                }
+            }
+            failed = mInFlight == 0 && mScheduledRetries == 0 && mPending.isEmpty()
+                    ? new HashSet<>(mFailed) : null;
+        }
+        if (retryDelayMs >= 0) {
+            mRetryScheduler.schedule(() -> retry(packageName), retryDelayMs);
+        }
+        if (returnCode == PackageManager.DELETE_SUCCEEDED) {
+            ProvisionLogger.logd("Deleted package " + packageName + " in " + latencyMs + " ms");
+            callback.onPackageDeleted(packageName, latencyMs);
+        }
+        if (failed != null) {
+            callback.onDeletionFinished(failed);
+        } else {
+            dispatch();
+        }
+    }
+
+    private void retry(String packageName) {
+        synchronized (mLock) {
+            mScheduledRetries--;
+            mPending.add(packageName);
+        }
+        dispatch();
+    }
+
+    /**
+     * Returns whether a deletion which failed with {@code returnCode} may succeed when retried.
+     * The other failures are caused by policies, restrictions or other apps, which don't change
+     * while provisioning.
+     */
+    private static boolean isTransientFailure(int returnCode) {
+        return returnCode == PackageManager.DELETE_FAILED_INTERNAL_ERROR;
+    }
+
+    private class PackageDeleteObserver extends IPackageDeleteObserver.Stub {
+        private final String mPackageName;
+        private final long mStartTime;
+
+        PackageDeleteObserver(String packageName, long startTime) {
+            mPackageName = packageName;
+            mStartTime = startTime;
+        }
+
+        @Override
+        public void packageDeleted(String packageName, int returnCode) {
+            onPackageDeleted(mPackageName, returnCode, SystemClock.elapsedRealtime() - mStartTime);
+        }
+    }
+}
@@ -25,31 +25,52 @@ import android.os.UserManager;
 import android.util.Xml;
 
 import com.android.internal.annotations.VisibleForTesting;
-import com.android.internal.util.FastXmlSerializer;
 import com.android.managedprovisioning.common.ProvisionLogger;
 import com.android.managedprovisioning.common.Utils;
 
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
-import org.xmlpull.v1.XmlSerializer;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 
 /**
  * Stores and retrieves the system apps that were on the device during provisioning and on
  * subsequent OTAs.
+ *
+ * <p>Snapshots are stored in the binary format of {@link SystemAppsSnapshotFormat}. Snapshots
+ * written as XML by earlier versions are converted the first time they are read.</p>
  */
 public class SystemAppsSnapshot {
-    private static final String TAG_SYSTEM_APPS = "system-apps";
     private static final String TAG_PACKAGE_LIST_ITEM = "item";
     private static final String ATTR_VALUE = "value";
     private static final String LEGACY_FOLDER_NAME = "system_apps";
     private static final String FOLDER_NAME = "system_apps_v2";
+    private static final String XML_FILE_EXTENSION = ".xml";
+    private static final String FILE_EXTENSION = ".bin";
+
+    /**
+     * Difference between a snapshot and the current system apps.
+     */
+    public static final class Diff {
+        /** System apps which aren't in the snapshot, in their natural order. */
+        public final List<String> added;
+        /** Apps of the snapshot which aren't system apps anymore, in their natural order. */
+        public final List<String> removed;
+
+        Diff(List<String> added, List<String> removed) {
+            this.added = Collections.unmodifiableList(added);
+            this.removed = Collections.unmodifiableList(removed);
+        }
+    }
 
     private final Context mContext;
     private final IPackageManager mIPackageManager;
@@ -73,7 +94,8 @@ public class SystemAppsSnapshot {
      * @param userId the user id for which the snapshot is requested.
      */
     public boolean hasSnapshot(int userId) {
-        return getSystemAppsFile(mContext, userId).exists();
+        return getSystemAppsFile(mContext, userId).exists()
+                || getXmlSystemAppsFile(mContext, userId).exists();
     }
 
     /**
@@ -82,7 +104,21 @@ public class SystemAppsSnapshot {
      * @param userId the user id for which the snapshot is requested.
      */
     public Set<String> getSnapshot(int userId) {
-        return readSystemApps(getSystemAppsFile(mContext, userId));
+        Set<String> result = new HashSet<>();
+        readSnapshot(userId).forEachRemaining(result::add);
+        return result;
+    }
+
+    /**
+     * Compares the last stored snapshot for the given user with {@code currentSystemApps}. The
+     * snapshot is merged with the sorted current apps while it is decoded, so it is never loaded
+     * into a set.
+     *
+     * @param userId the user id for which the snapshot is requested.
+     * @param currentSystemApps the system apps currently installed for the user.
+     */
+    public Diff diff(int userId, Set<String> currentSystemApps) {
+        return computeDiff(readSnapshot(userId), currentSystemApps);
     }
 
     /**
@@ -94,33 +130,82 @@ public class SystemAppsSnapshot {
         final File systemAppsFile = getSystemAppsFile(mContext, userId);
         systemAppsFile.getParentFile().mkdirs(); // Creating the folder if it does not exist
         writeSystemApps(mUtils.getCurrentSystemApps(mIPackageManager, userId), systemAppsFile);
+        getXmlSystemAppsFile(mContext, userId).delete();
     }
 
-    private void writeSystemApps(Set<String> packageNames, File systemAppsFile) {
-        try {
-            FileOutputStream stream = new FileOutputStream(systemAppsFile, false);
-            XmlSerializer serializer = new FastXmlSerializer();
-            serializer.setOutput(stream, "utf-8");
-            serializer.startDocument(null, true);
-            serializer.startTag(null, TAG_SYSTEM_APPS);
-            for (String packageName : packageNames) {
-                serializer.startTag(null, TAG_PACKAGE_LIST_ITEM);
-                serializer.attribute(null, ATTR_VALUE, packageName);
-                serializer.endTag(null, TAG_PACKAGE_LIST_ITEM);
+    @VisibleForTesting
+    static Diff computeDiff(Iterator<String> sortedSnapshot, Set<String> currentSystemApps) {
+        String[] current = currentSystemApps.toArray(new String[0]);
+        Arrays.sort(current);
+        List<String> added = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        int i = 0;
+        String snapshotApp = sortedSnapshot.hasNext() ? sortedSnapshot.next() : null;
+        while (snapshotApp != null || i < current.length) {
+            int comparison = snapshotApp == null ? 1
+                    : i == current.length ? -1
+                    : snapshotApp.compareTo(current[i]);
+            if (comparison > 0) {
+                added.add(current[i++]);
+                continue;
             }
-            serializer.endTag(null, TAG_SYSTEM_APPS);
-            serializer.endDocument();
-            stream.close();
+            if (comparison < 0) {
+                removed.add(snapshotApp);
+            } else {
+                i++;
+            }
+            snapshotApp = sortedSnapshot.hasNext() ? sortedSnapshot.next() : null;
+        }
+        return new Diff(added, removed);
+    }
+
+    /**
+     * Returns the package names of the last snapshot in their natural order, converting an XML
+     * snapshot to the binary format if necessary.
+     */
+    private Iterator<String> readSnapshot(int userId) {
+        final File systemAppsFile = getSystemAppsFile(mContext, userId);
+        if (systemAppsFile.exists()) {
+            try {
+                return SystemAppsSnapshotFormat.read(systemAppsFile);
+            } catch (IOException e) {
+                ProvisionLogger.loge("IOException trying to read the system apps", e);
+            }
+        }
+
+        final File xmlFile = getXmlSystemAppsFile(mContext, userId);
+        if (!xmlFile.exists()) {
+            return Collections.emptyIterator();
+        }
+        Set<String> packageNames = readXmlSystemApps(xmlFile);
+        if (packageNames == null) {
+            return Collections.emptyIterator();
+        }
+        ProvisionLogger.logi("Converting system apps snapshot " + xmlFile.getName());
+        if (writeSystemApps(packageNames, systemAppsFile)) {
+            xmlFile.delete();
+        }
+        String[] sorted = packageNames.toArray(new String[0]);
+        Arrays.sort(sorted);
+        return Arrays.asList(sorted).iterator();
+    }
+
+    private boolean writeSystemApps(Set<String> packageNames, File systemAppsFile) {
+        try {
+            SystemAppsSnapshotFormat.write(systemAppsFile, packageNames);
+            return true;
         } catch (IOException e) {
             ProvisionLogger.loge("IOException trying to write the system apps", e);
+            return false;
         }
     }
 
-    private Set<String> readSystemApps(File systemAppsFile) {
+    /**
+     * Returns the package names of a snapshot written by an earlier version, or {@code null} if
+     * it can't be read.
+     */
+    private Set<String> readXmlSystemApps(File systemAppsFile) {
         Set<String> result = new HashSet<>();
-        if (!systemAppsFile.exists()) {
-            return result;
-        }
         try {
             FileInputStream stream = new FileInputStream(systemAppsFile);
 
@@ -145,19 +230,33 @@ public class SystemAppsSnapshot {
             stream.close();
         } catch (IOException e) {
             ProvisionLogger.loge("IOException trying to read the system apps", e);
+            return null;
         } catch (XmlPullParserException e) {
             ProvisionLogger.loge("XmlPullParserException trying to read the system apps", e);
+            return null;
         }
         return result;
     }
 
     public static File getSystemAppsFile(Context context, int userId) {
+        return new File(getFolder(context), getUserSerialNumber(context, userId) + FILE_EXTENSION);
+    }
+
+    /**
+     * Returns the file a snapshot was stored in before the binary format was introduced.
+     */
+    public static File getXmlSystemAppsFile(Context context, int userId) {
+        return new File(getFolder(context),
+                getUserSerialNumber(context, userId) + XML_FILE_EXTENSION);
+    }
+
+    private static int getUserSerialNumber(Context context, int userId) {
         UserManager userManager = (UserManager) context.getSystemService(Context.USER_SERVICE);
         int userSerialNumber = userManager.getUserSerialNumber(userId);
         if (userSerialNumber == -1 ) {
             throw new IllegalArgumentException("Invalid userId : " + userId);
         }
-        return new File(getFolder(context), userSerialNumber + ".xml");
+        return userSerialNumber;
     }
 
     public static File getFolder(Context context) {
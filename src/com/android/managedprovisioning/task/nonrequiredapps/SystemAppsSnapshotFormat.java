@@ -0,0 +1,193 @@
+/*
+ * Copyright 2019, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.task.nonrequiredapps;
+
+import android.util.AtomicFile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.zip.CRC32;
+
+/**
+ * Binary encoding of a system apps snapshot.
+ *
+ * <p>The file starts with a magic number, a version byte and the number of package names. The
+ * package names follow in their natural order, each encoded as the number of leading UTF-8 bytes
+ * shared with the previous name, the number of remaining bytes and the remaining bytes. Numbers
+ * are unsigned variable length integers. The file ends with the CRC-32 of everything before
+ * it.</p>
+ */
+final class SystemAppsSnapshotFormat {
+    private static final int MAGIC = 0x53415053; // "SAPS"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 5;
+    private static final int CHECKSUM_SIZE = 4;
+
+    private SystemAppsSnapshotFormat() {}
+
+    /**
+     * Writes {@code packageNames} to {@code file}, replacing it atomically.
+     */
+    static void write(File file, Collection<String> packageNames) throws IOException {
+        byte[] data = encode(packageNames);
+        AtomicFile atomicFile = new AtomicFile(file);
+        FileOutputStream stream = atomicFile.startWrite();
+        try {
+            stream.write(data);
+            atomicFile.finishWrite(stream);
+        } catch (IOException e) {
+            atomicFile.failWrite(stream);
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the package names stored in {@code file}, in their natural order. The names are
+     * decoded while iterating.
+     *
+     * @throws IOException if the file can't be read, or isn't a valid snapshot.
+     */
+    static Iterator<String> read(File file) throws IOException {
+        return decode(new AtomicFile(file).readFully());
+    }
+
+    static byte[] encode(Collection<String> packageNames) {
+        String[] sorted = packageNames.toArray(new String[0]);
+        Arrays.sort(sorted);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).put((byte) VERSION);
+        out.write(header.array(), 0, HEADER_SIZE);
+        writeVarInt(out, sorted.length);
+
+        byte[] previous = new byte[0];
+        for (String packageName : sorted) {
+            byte[] current = packageName.getBytes(StandardCharsets.UTF_8);
+            int shared = 0;
+            int max = Math.min(previous.length, current.length);
+            while (shared < max && previous[shared] == current[shared]) {
+                shared++;
+            }
+            writeVarInt(out, shared);
+            writeVarInt(out, current.length - shared);
+            out.write(current, shared, current.length - shared);
+            previous = current;
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(out.toByteArray());
+        out.write(ByteBuffer.allocate(CHECKSUM_SIZE).putInt((int) crc.getValue()).array(), 0,
+                CHECKSUM_SIZE);
+        return out.toByteArray();
+    }
+
+    static Iterator<String> decode(byte[] data) throws IOException {
+        if (data.length < HEADER_SIZE + 1 + CHECKSUM_SIZE) {
+            throw new IOException("Snapshot too short: " + data.length + " bytes");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        int end = data.length - CHECKSUM_SIZE;
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, end);
+        if ((int) crc.getValue() != buffer.getInt(end)) {
+            throw new IOException("Snapshot checksum mismatch");
+        }
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException("Not a system apps snapshot");
+        }
+        int version = buffer.get();
+        if (version != VERSION) {
+            throw new IOException("Unsupported snapshot version " + version);
+        }
+        buffer.limit(end);
+        int count = readVarInt(buffer);
+        return new NameIterator(buffer, count);
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarInt(ByteBuffer buffer) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            if (!buffer.hasRemaining()) {
+                throw new IOException("Truncated snapshot");
+            }
+            int b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed snapshot");
+    }
+
+    private static class NameIterator implements Iterator<String> {
+        private final ByteBuffer mBuffer;
+        private int mRemaining;
+        private byte[] mName = new byte[64];
+        private int mLength;
+
+        NameIterator(ByteBuffer buffer, int count) {
+            mBuffer = buffer;
+            mRemaining = count;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return mRemaining > 0;
+        }
+
+        @Override
+        public String next() {
+            if (mRemaining <= 0) {
+                throw new NoSuchElementException();
+            }
+            mRemaining--;
+            try {
+                int shared = readVarInt(mBuffer);
+                int suffix = readVarInt(mBuffer);
+                if (shared > mLength || suffix > mBuffer.remaining()) {
+                    throw new IOException("Malformed snapshot entry");
+                }
+                if (shared + suffix > mName.length) {
+                    mName = Arrays.copyOf(mName, Math.max(shared + suffix, mName.length * 2));
+                }
+                mBuffer.get(mName, shared, suffix);
+                mLength = shared + suffix;
+                return new String(mName, 0, mLength, StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                // The checksum matched, so the file was written incorrectly.
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
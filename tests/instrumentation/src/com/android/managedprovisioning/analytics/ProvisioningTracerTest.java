@@ -0,0 +1,138 @@
+/*
+ * Copyright 2019, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.analytics;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.managedprovisioning.task.AbstractProvisioningTask;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.List;
+
+/**
+ * Unit tests for {@link ProvisioningTracer}.
+ */
+@SmallTest
+public class ProvisioningTracerTest {
+    private static final int TEST_USER_ID = 10;
+
+    @Mock private AbstractProvisioningTask mTask1;
+    @Mock private AbstractProvisioningTask mTask2;
+
+    private ProvisioningTracer mTracer;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        mTracer = new ProvisioningTracer();
+    }
+
+    @Test
+    public void testSession_recordsEveryTask() {
+        // GIVEN a session
+        ProvisioningTracer.Session session = mTracer.startSession("test");
+
+        // WHEN one task completes while running and another one after running
+        session.onTaskQueued(mTask1, TEST_USER_ID);
+        session.onTaskQueued(mTask2, TEST_USER_ID);
+        session.onTaskStarted(mTask1);
+        session.onTaskCompleted(mTask1, true);
+        session.onTaskRunReturned(mTask1);
+        session.onTaskStarted(mTask2);
+        session.onTaskRunReturned(mTask2);
+        session.onTaskCompleted(mTask2, false);
+        session.finish();
+
+        // THEN both tasks are traced in the order they were queued
+        List<String> spans = session.getSpanDescriptions();
+        assertThat(spans).hasSize(2);
+        assertThat(spans.get(0)).startsWith(mTask1.getClass().getSimpleName()
+                + " user=" + TEST_USER_ID + " wait=");
+        assertThat(spans.get(0)).contains(" run=");
+        assertThat(spans.get(0)).contains(" succeeded");
+        assertThat(spans.get(1)).contains(" failed");
+    }
+
+    @Test
+    public void testFinish_pendingTasks() {
+        // GIVEN a task which ran, and a task which never started
+        ProvisioningTracer.Session session = mTracer.startSession("test");
+        session.onTaskQueued(mTask1, TEST_USER_ID);
+        session.onTaskQueued(mTask2, TEST_USER_ID);
+        session.onTaskStarted(mTask1);
+        session.onTaskRunReturned(mTask1);
+
+        // WHEN the session finishes
+        session.finish();
+
+        // THEN the results of the task are ignored
+        session.onTaskCompleted(mTask1, true);
+        List<String> spans = session.getSpanDescriptions();
+        assertThat(spans.get(0)).contains(" pending");
+        assertThat(spans.get(1)).endsWith(" queued");
+    }
+
+    @Test
+    public void testDump_onlyRecentSessions() {
+        // WHEN starting more sessions than are kept
+        for (int i = 0; i <= ProvisioningTracer.MAX_SESSIONS; i++) {
+            mTracer.startSession("session" + i).finish();
+        }
+
+        // THEN the oldest session isn't dumped
+        StringWriter writer = new StringWriter();
+        mTracer.dump(new PrintWriter(writer));
+        String dump = writer.toString();
+        assertThat(dump).contains("Provisioning sessions: " + ProvisioningTracer.MAX_SESSIONS);
+        assertThat(dump).doesNotContain("session0,");
+        assertThat(dump).contains("session" + ProvisioningTracer.MAX_SESSIONS + ",");
+    }
+
+    @Test
+    public void testDump_latencyHistogramsAndOutstandingTasks() {
+        // GIVEN a task which completed in two sessions, and a task which is still running
+        for (int i = 0; i < 2; i++) {
+            ProvisioningTracer.Session session = mTracer.startSession("session" + i);
+            session.onTaskQueued(mTask1, TEST_USER_ID);
+            session.onTaskStarted(mTask1);
+            session.onTaskRunReturned(mTask1);
+            session.onTaskCompleted(mTask1, true);
+            session.finish();
+        }
+        ProvisioningTracer.Session session = mTracer.startSession("running");
+        session.onTaskQueued(mTask2, TEST_USER_ID);
+
+        // WHEN dumping
+        StringWriter writer = new StringWriter();
+        mTracer.dump(new PrintWriter(writer));
+        String dump = writer.toString();
+
+        // THEN the latencies of both runs of the first task are aggregated
+        assertThat(dump).contains(mTask1.getClass().getSimpleName() + ": n=2 <100ms:2");
+        // THEN the second task is outstanding
+        assertThat(dump).contains("Outstanding tasks:\n  running: "
+                + mTask2.getClass().getSimpleName() + " user=" + TEST_USER_ID + " queued");
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2019, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.common;
+
+import static com.android.managedprovisioning.TestUtils.createTestAdminExtras;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.junit.Assert.fail;
+
+import android.os.PersistableBundle;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.managedprovisioning.TestUtils;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Unit tests for {@link BinaryBundleFormat}.
+ */
+@SmallTest
+public class BinaryBundleFormatTest {
+
+    @Test
+    public void testEncodeDecode_allTypes() throws Exception {
+        // GIVEN a bundle with values of every type, and a null string
+        PersistableBundle bundle = createTestAdminExtras();
+        bundle.putString("null", null);
+        bundle.putStringArray("null_array", new String[] {null, "été"});
+
+        // WHEN it is encoded and decoded
+        byte[] data = BinaryBundleFormat.encode(bundle);
+        PersistableBundle copy = BinaryBundleFormat.decode(data);
+
+        // THEN the same bundle is obtained
+        assertThat(BinaryBundleFormat.isEncoded(data)).isTrue();
+        assertThat(TestUtils.bundleEquals(bundle, copy)).isTrue();
+        assertThat(copy.containsKey("null")).isTrue();
+        assertThat(copy.getStringArray("null_array")).asList()
+                .containsExactly(null, "été").inOrder();
+    }
+
+    @Test
+    public void testDecode_unknownTypeSkipped() throws Exception {
+        // GIVEN an encoded bundle with a value of a type added by a newer version
+        PersistableBundle bundle = new PersistableBundle();
+        bundle.putInt("a", 1);
+        byte[] data = BinaryBundleFormat.encode(bundle);
+        // Header, entry count and key "a"
+        int typePosition = 4 + 1 + 1 + 2;
+        data[typePosition] = 99;
+
+        // WHEN it is decoded
+        PersistableBundle copy = BinaryBundleFormat.decode(data);
+
+        // THEN the unknown value is skipped
+        assertThat(copy.isEmpty()).isTrue();
+    }
+
+    @Test
+    public void testDecode_notEncoded() {
+        // GIVEN a bundle saved as xml
+        byte[] data = "<?xml version='1.0'?>".getBytes(StandardCharsets.UTF_8);
+
+        // THEN it isn't recognized
+        assertThat(BinaryBundleFormat.isEncoded(data)).isFalse();
+        try {
+            BinaryBundleFormat.decode(data);
+            fail("Expected IOException");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void testDecode_truncated() {
+        // GIVEN a truncated encoded bundle
+        byte[] data = BinaryBundleFormat.encode(createTestAdminExtras());
+        byte[] truncated = Arrays.copyOf(data, data.length - 3);
+
+        // THEN it can't be decoded
+        try {
+            BinaryBundleFormat.decode(truncated);
+            fail("Expected IOException");
+        } catch (IOException expected) {
+        }
+    }
+}
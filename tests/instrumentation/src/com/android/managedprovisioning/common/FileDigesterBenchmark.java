@@ -0,0 +1,129 @@
+/*
+ * Copyright 2019, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.common;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.filters.LargeTest;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.Random;
+
+/**
+ * Compares {@link FileDigester} against the former 256 byte stream loop of
+ * {@link Utils#computeHashOfFile(String, String)}. Results are written to logcat with the tag
+ * {@link #TAG}.
+ */
+@LargeTest
+public class FileDigesterBenchmark {
+    private static final String TAG = "FileDigesterBenchmark";
+    private static final int MB = 1024 * 1024;
+    private static final int ITERATIONS = 3;
+
+    private File mFile;
+
+    @After
+    public void tearDown() {
+        if (mFile != null) {
+            mFile.delete();
+        }
+    }
+
+    @Test
+    public void benchmark_10MB() throws Exception {
+        runBenchmark(10);
+    }
+
+    @Test
+    public void benchmark_100MB() throws Exception {
+        runBenchmark(100);
+    }
+
+    @Test
+    public void benchmark_500MB() throws Exception {
+        runBenchmark(500);
+    }
+
+    private void runBenchmark(int sizeMb) throws Exception {
+        mFile = createFile(sizeMb);
+
+        long legacyMs = Long.MAX_VALUE;
+        long digesterMs = Long.MAX_VALUE;
+        byte[] legacyHash = null;
+        byte[] digesterHash = null;
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = SystemClock.elapsedRealtime();
+            legacyHash = legacyHashOfFile(mFile, Utils.SHA256_TYPE);
+            legacyMs = Math.min(legacyMs, SystemClock.elapsedRealtime() - start);
+
+            start = SystemClock.elapsedRealtime();
+            digesterHash = new FileDigester().digest(mFile, Utils.SHA256_TYPE)
+                    .get(Utils.SHA256_TYPE);
+            digesterMs = Math.min(digesterMs, SystemClock.elapsedRealtime() - start);
+        }
+        assertArrayEquals(legacyHash, digesterHash);
+
+        long start = SystemClock.elapsedRealtime();
+        new FileDigester().digest(mFile, Utils.SHA256_TYPE, "SHA-1");
+        long bothMs = SystemClock.elapsedRealtime() - start;
+
+        Log.i(TAG, sizeMb + " MB: legacy " + legacyMs + " ms, FileDigester " + digesterMs
+                + " ms, FileDigester SHA-256 + SHA-1 " + bothMs + " ms");
+    }
+
+    private static File createFile(int sizeMb) throws IOException {
+        File file = File.createTempFile("benchmark", ".apk",
+                InstrumentationRegistry.getTargetContext().getCacheDir());
+        byte[] chunk = new byte[MB];
+        Random random = new Random(0);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            for (int i = 0; i < sizeMb; i++) {
+                random.nextBytes(chunk);
+                out.write(chunk);
+            }
+        }
+        return file;
+    }
+
+    /** The implementation of {@link Utils#computeHashOfFile} before {@link FileDigester}. */
+    private static byte[] legacyHashOfFile(File file, String hashType) throws Exception {
+        MessageDigest md = MessageDigest.getInstance(hashType);
+        try (InputStream fis = new FileInputStream(file)) {
+            byte[] buffer = new byte[256];
+            int n = 0;
+            while (n != -1) {
+                n = fis.read(buffer);
+                if (n > 0) {
+                    md.update(buffer, 0, n);
+                }
+            }
+        }
+        return md.digest();
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2019, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.common;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.filters.SmallTest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Unit tests for {@link FileDigester}.
+ */
+@SmallTest
+public class FileDigesterTest {
+    private static final String SHA1_TYPE = "SHA-1";
+
+    private File mFile;
+    private byte[] mContent;
+
+    @Before
+    public void setUp() throws Exception {
+        mContent = new byte[100 * 1024 + 17];
+        new Random(0).nextBytes(mContent);
+        mFile = File.createTempFile("digest", ".apk",
+                InstrumentationRegistry.getTargetContext().getCacheDir());
+        try (FileOutputStream out = new FileOutputStream(mFile)) {
+            out.write(mContent);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void testDigest_buffered() throws Exception {
+        // Map threshold above file size, buffer smaller than the file
+        FileDigester digester = new FileDigester(Long.MAX_VALUE, 0, 4096);
+
+        assertDigests(digester.digest(mFile, Utils.SHA256_TYPE, SHA1_TYPE));
+    }
+
+    @Test
+    public void testDigest_mapped() throws Exception {
+        // Always mapped, with several regions
+        FileDigester digester = new FileDigester(0, 8192, 0);
+
+        assertDigests(digester.digest(mFile, Utils.SHA256_TYPE, SHA1_TYPE));
+    }
+
+    @Test
+    public void testDigest_emptyFile() throws Exception {
+        mContent = new byte[0];
+        new FileOutputStream(mFile).close();
+
+        assertDigests(new FileDigester().digest(mFile, Utils.SHA256_TYPE, SHA1_TYPE));
+    }
+
+    @Test
+    public void testDigest_matchesUtils() {
+        assertArrayEquals(
+                new Utils().computeHashOfFile(mFile.getPath(), Utils.SHA256_TYPE),
+                new FileDigester().digest(mFile, Utils.SHA256_TYPE).get(Utils.SHA256_TYPE));
+    }
+
+    @Test
+    public void testDigest_unknownAlgorithm() {
+        assertNull(new FileDigester().digest(mFile, "unknown"));
+    }
+
+    @Test
+    public void testDigest_missingFile() {
+        assertNull(new FileDigester().digest(new File(mFile.getPath() + ".missing"),
+                Utils.SHA256_TYPE));
+    }
+
+    private void assertDigests(Map<String, byte[]> digests) throws Exception {
+        assertThat(digests.keySet()).containsExactly(Utils.SHA256_TYPE, SHA1_TYPE).inOrder();
+        assertArrayEquals(MessageDigest.getInstance(Utils.SHA256_TYPE).digest(mContent),
+                digests.get(Utils.SHA256_TYPE));
+        assertArrayEquals(MessageDigest.getInstance(SHA1_TYPE).digest(mContent),
+                digests.get(SHA1_TYPE));
+    }
+}
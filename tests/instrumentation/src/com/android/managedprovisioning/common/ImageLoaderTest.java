@@ -0,0 +1,140 @@
+/*
+ * Copyright 2019, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.common;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.filters.SmallTest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Unit tests for {@link ImageLoader}.
+ */
+@SmallTest
+public class ImageLoaderTest {
+    private final List<Runnable> mQueuedDecodes = new ArrayList<>();
+
+    private ImageLoader mImageLoader;
+    private File mFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mImageLoader = new ImageLoader(mQueuedDecodes::add);
+        mFile = File.createTempFile("image", ".png",
+                InstrumentationRegistry.getTargetContext().getCacheDir());
+        writeBitmap(40, 20);
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void testLoad_scalesDownAndCaches() {
+        // WHEN an image is loaded at a size smaller than its own
+        Bitmap bitmap = mImageLoader.load(mFile, 10, 10);
+
+        // THEN it is scaled down, keeping its ratio, and cached
+        assertThat(bitmap.getWidth()).isEqualTo(10);
+        assertThat(bitmap.getHeight()).isEqualTo(5);
+        assertThat(mImageLoader.getCached(mFile, 10, 10)).isSameAs(bitmap);
+        assertThat(mImageLoader.load(mFile, 10, 10)).isSameAs(bitmap);
+        // Other sizes are cached separately.
+        assertThat(mImageLoader.getCached(mFile, 20, 20)).isNull();
+    }
+
+    @Test
+    public void testGetCached_fileModified() throws Exception {
+        // GIVEN a cached image
+        mImageLoader.load(mFile, 10, 10);
+
+        // WHEN its file is modified
+        writeBitmap(20, 20);
+        mFile.setLastModified(mFile.lastModified() + 1000);
+
+        // THEN it isn't cached anymore
+        assertThat(mImageLoader.getCached(mFile, 10, 10)).isNull();
+        assertThat(mImageLoader.load(mFile, 10, 10).getHeight()).isEqualTo(10);
+    }
+
+    @Test
+    public void testLoad_missingFile() {
+        mFile.delete();
+
+        assertThat(mImageLoader.load(mFile, 10, 10)).isNull();
+    }
+
+    @Test
+    public void testLoadAsync() {
+        List<Bitmap> loaded = new ArrayList<>();
+
+        // WHEN an image which isn't cached is loaded asynchronously
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(
+                () -> mImageLoader.loadAsync(mFile, 10, 10, loaded::add));
+
+        // THEN it is only passed to the callback once decoded in the background
+        assertThat(loaded).isEmpty();
+        for (Runnable decode : mQueuedDecodes) {
+            decode.run();
+        }
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+        assertThat(loaded).hasSize(1);
+        assertThat(loaded.get(0).getWidth()).isEqualTo(10);
+
+        // WHEN it is loaded again
+        mQueuedDecodes.clear();
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(
+                () -> mImageLoader.loadAsync(mFile, 10, 10, loaded::add));
+
+        // THEN the cached image is passed to the callback right away
+        assertThat(mQueuedDecodes).isEmpty();
+        assertThat(loaded).hasSize(2);
+        assertThat(loaded.get(1)).isSameAs(loaded.get(0));
+    }
+
+    @Test
+    public void testInvalidate() {
+        mImageLoader.load(mFile, 10, 10);
+        mImageLoader.load(mFile, 20, 20);
+
+        mImageLoader.invalidate(mFile);
+
+        assertThat(mImageLoader.getCached(mFile, 10, 10)).isNull();
+        assertThat(mImageLoader.getCached(mFile, 20, 20)).isNull();
+    }
+
+    private void writeBitmap(int width, int height) throws Exception {
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(Color.RED);
+        try (FileOutputStream out = new FileOutputStream(mFile)) {
+            bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+        }
+    }
+}
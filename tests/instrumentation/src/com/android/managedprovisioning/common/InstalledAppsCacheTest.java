@@ -0,0 +1,195 @@
+/*
+ * Copyright 2019, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.common;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.content.pm.ApplicationInfo;
+import android.content.pm.IPackageManager;
+import android.content.pm.PackageManager;
+import android.content.pm.ParceledListSlice;
+
+import androidx.test.filters.SmallTest;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Arrays;
+
+/**
+ * Unit tests for {@link InstalledAppsCache}.
+ */
+@SmallTest
+public class InstalledAppsCacheTest {
+    private static final String TEST_PACKAGE_NAME_1 = "com.test.packagea";
+    private static final String TEST_PACKAGE_NAME_2 = "com.test.packageb";
+    private static final int TEST_USER_ID = 10;
+    private static final int OTHER_USER_ID = 11;
+
+    @Mock private IPackageManager mIPackageManager;
+
+    private InstalledAppsCache mCache;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        setInstalledApps(TEST_USER_ID,
+                createApplicationInfo(TEST_PACKAGE_NAME_1, false),
+                createApplicationInfo(TEST_PACKAGE_NAME_2, true));
+        setInstalledApps(OTHER_USER_ID, createApplicationInfo(TEST_PACKAGE_NAME_1, true));
+        mCache = new InstalledAppsCache();
+    }
+
+    @Test
+    public void testGetSystemApps_loadedOnce() throws Exception {
+        // WHEN requesting the system apps of a user twice
+        assertThat(mCache.getSystemApps(mIPackageManager, TEST_USER_ID))
+                .containsExactly(TEST_PACKAGE_NAME_2);
+        assertThat(mCache.getSystemApps(mIPackageManager, TEST_USER_ID))
+                .containsExactly(TEST_PACKAGE_NAME_2);
+
+        // THEN the package manager is only called once
+        verifyLoaded(TEST_USER_ID, 1);
+    }
+
+    @Test
+    public void testGetSystemApps_perUser() throws Exception {
+        // WHEN requesting the system apps of two users
+        assertThat(mCache.getSystemApps(mIPackageManager, TEST_USER_ID))
+                .containsExactly(TEST_PACKAGE_NAME_2);
+        assertThat(mCache.getSystemApps(mIPackageManager, OTHER_USER_ID))
+                .containsExactly(TEST_PACKAGE_NAME_1);
+
+        // THEN both are loaded separately
+        verifyLoaded(TEST_USER_ID, 1);
+        verifyLoaded(OTHER_USER_ID, 1);
+    }
+
+    @Test
+    public void testGetSystemApps_otherPackageManager() throws Exception {
+        // GIVEN the system apps of a user were loaded
+        mCache.getSystemApps(mIPackageManager, TEST_USER_ID);
+
+        // WHEN requesting them from another package manager
+        IPackageManager otherPackageManager = mock(IPackageManager.class);
+        when(otherPackageManager.getInstalledApplications(
+                PackageManager.MATCH_UNINSTALLED_PACKAGES, TEST_USER_ID))
+                .thenReturn(new ParceledListSlice<>(
+                        Arrays.asList(createApplicationInfo(TEST_PACKAGE_NAME_1, true))));
+
+        // THEN they are loaded from that package manager
+        assertThat(mCache.getSystemApps(otherPackageManager, TEST_USER_ID))
+                .containsExactly(TEST_PACKAGE_NAME_1);
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        // GIVEN the system apps of both users were loaded
+        mCache.getSystemApps(mIPackageManager, TEST_USER_ID);
+        mCache.getSystemApps(mIPackageManager, OTHER_USER_ID);
+
+        // WHEN a package of one user changes
+        setInstalledApps(TEST_USER_ID, createApplicationInfo(TEST_PACKAGE_NAME_1, true));
+        mCache.invalidate(TEST_USER_ID);
+
+        // THEN only the apps of that user are loaded again
+        assertThat(mCache.getSystemApps(mIPackageManager, TEST_USER_ID))
+                .containsExactly(TEST_PACKAGE_NAME_1);
+        mCache.getSystemApps(mIPackageManager, OTHER_USER_ID);
+        verifyLoaded(TEST_USER_ID, 2);
+        verifyLoaded(OTHER_USER_ID, 1);
+    }
+
+    @Test
+    public void testInvalidateAll() throws Exception {
+        // GIVEN the system apps of both users were loaded
+        mCache.getSystemApps(mIPackageManager, TEST_USER_ID);
+        mCache.getSystemApps(mIPackageManager, OTHER_USER_ID);
+
+        // WHEN invalidating all users
+        mCache.invalidateAll();
+
+        // THEN the apps of both users are loaded again
+        mCache.getSystemApps(mIPackageManager, TEST_USER_ID);
+        mCache.getSystemApps(mIPackageManager, OTHER_USER_ID);
+        verifyLoaded(TEST_USER_ID, 2);
+        verifyLoaded(OTHER_USER_ID, 2);
+    }
+
+    @Test
+    public void testInvalidateDuringLoad_notCached() throws Exception {
+        // GIVEN a package changes while the apps are loaded
+        when(mIPackageManager.getInstalledApplications(
+                PackageManager.MATCH_UNINSTALLED_PACKAGES, TEST_USER_ID))
+                .thenAnswer(invocation -> {
+                    mCache.invalidate(TEST_USER_ID);
+                    return new ParceledListSlice<>(
+                            Arrays.asList(createApplicationInfo(TEST_PACKAGE_NAME_2, true)));
+                });
+
+        // WHEN requesting the system apps twice
+        mCache.getSystemApps(mIPackageManager, TEST_USER_ID);
+        mCache.getSystemApps(mIPackageManager, TEST_USER_ID);
+
+        // THEN the possibly stale result isn't cached
+        verifyLoaded(TEST_USER_ID, 2);
+    }
+
+    @Test
+    public void testDump_hitRate() throws Exception {
+        // GIVEN the system apps of a user were requested three times
+        mCache.getSystemApps(mIPackageManager, TEST_USER_ID);
+        mCache.getSystemApps(mIPackageManager, TEST_USER_ID);
+        mCache.getSystemApps(mIPackageManager, TEST_USER_ID);
+
+        // WHEN dumping the cache
+        StringWriter writer = new StringWriter();
+        mCache.dump(new PrintWriter(writer));
+
+        // THEN the two last requests were hits
+        assertThat(writer.toString()).contains("1 users cached, 2/3 hits (66%)");
+    }
+
+    private void setInstalledApps(int userId, ApplicationInfo... infos) throws Exception {
+        when(mIPackageManager.getInstalledApplications(
+                PackageManager.MATCH_UNINSTALLED_PACKAGES, userId))
+                .thenReturn(new ParceledListSlice<>(Arrays.asList(infos)));
+    }
+
+    private void verifyLoaded(int userId, int times) throws Exception {
+        verify(mIPackageManager, times(times)).getInstalledApplications(
+                PackageManager.MATCH_UNINSTALLED_PACKAGES, userId);
+    }
+
+    private ApplicationInfo createApplicationInfo(String packageName, boolean system) {
+        ApplicationInfo ai = new ApplicationInfo();
+        ai.packageName = packageName;
+        if (system) {
+            ai.flags = ApplicationInfo.FLAG_SYSTEM;
+        }
+        return ai;
+    }
+}
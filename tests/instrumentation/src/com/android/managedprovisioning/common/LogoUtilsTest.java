@@ -17,6 +17,7 @@
 package com.android.managedprovisioning.common;
 
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
@@ -26,6 +27,8 @@ import android.net.Uri;
 import android.test.AndroidTestCase;
 import android.test.suitebuilder.annotation.SmallTest;
 
+import com.android.managedprovisioning.R;
+
 import java.io.File;
 import java.io.FileOutputStream;
 
@@ -102,6 +105,35 @@ public class LogoUtilsTest extends AndroidTestCase {
         }
     }
 
+    public void testSaveOrganisationLogo_savesScaledLogo() throws Exception {
+        int maxWidth = (int) getContext().getResources().getDimension(R.dimen.max_logo_width);
+        int maxHeight = (int) getContext().getResources().getDimension(R.dimen.max_logo_height);
+        Bitmap bitmap = createSampleBitmap(maxWidth * 4, maxHeight * 2);
+        File tempFile = writeBitmapToTempFile(bitmap);
+        try {
+            LogoUtils.saveOrganisationLogo(getContext(), Uri.fromFile(tempFile));
+
+            // A variant scaled down to the size of the logo is saved along the logo.
+            File scaledLogoFile = new File(getContext().getFilesDir(),
+                    "organisation_logo_" + maxWidth + "x" + maxHeight);
+            assertTrue(scaledLogoFile.exists());
+            Bitmap scaledBitmap = BitmapFactory.decodeFile(scaledLogoFile.getPath());
+            assertEquals(maxWidth, scaledBitmap.getWidth());
+            assertEquals(maxHeight / 2, scaledBitmap.getHeight());
+
+            Drawable drawable = LogoUtils.getOrganisationLogo(getContext(), SAMPLE_COLOR);
+            assertEquals(maxWidth, drawable.getIntrinsicWidth());
+            assertEquals(maxHeight / 2, drawable.getIntrinsicHeight());
+
+            // Scaled variants are deleted along the logo.
+            LogoUtils.cleanUp(getContext());
+            assertFalse(scaledLogoFile.exists());
+        } finally {
+            LogoUtils.cleanUp(getContext());
+            tempFile.delete();
+        }
+    }
+
     public void testDefaultOrganisationLogo() throws Exception {
         // First let's compute the expected logo. It is the default one.
         Drawable expected = getContext().getResources().getDrawable(
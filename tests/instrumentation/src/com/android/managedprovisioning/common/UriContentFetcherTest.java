@@ -0,0 +1,166 @@
+/*
+ * Copyright 2019, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.common;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.filters.SmallTest;
+
+import com.android.managedprovisioning.testcommon.TestUtils;
+import com.android.managedprovisioning.tests.R;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Unit tests for {@link UriContentFetcher}.
+ */
+@SmallTest
+public class UriContentFetcherTest {
+    private static final String TEST_FILE_DIRNAME = "UriContentFetcherTest";
+
+    private final List<Runnable> mQueuedFetches = new ArrayList<>();
+
+    private ContentResolver mContentResolver;
+    private File mDir;
+    private File mOutputFile;
+    private Uri mUri;
+    private String mContent;
+    private ExecutorService mExecutor;
+    private Handler mHandler;
+
+    @Before
+    public void setUp() throws Exception {
+        Context targetContext = InstrumentationRegistry.getTargetContext();
+        mContentResolver = targetContext.getContentResolver();
+        mDir = new File(targetContext.getFilesDir(), TEST_FILE_DIRNAME);
+        mDir.mkdirs();
+        mOutputFile = new File(mDir, "content");
+        mUri = TestUtils.resourceToUri(InstrumentationRegistry.getContext(),
+                R.raw.test_disclaimer1);
+        mContent = TestUtils.stringFromUri(mContentResolver, mUri);
+        mExecutor = Executors.newFixedThreadPool(2);
+        mHandler = new Handler(Looper.getMainLooper());
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+        TestUtils.deleteRecursive(mDir);
+    }
+
+    @Test
+    public void testFetch_copiesContent() throws Exception {
+        // GIVEN a fetcher running copies in the background
+        UriContentFetcher fetcher = new UriContentFetcher(mExecutor, mHandler, 10_000);
+
+        // WHEN the content of a uri is fetched
+        fetcher.fetch(mContentResolver, mUri, mOutputFile, Long.MAX_VALUE);
+
+        // THEN the file is available once awaited, with the content of the uri
+        assertThat(fetcher.await(mOutputFile)).isTrue();
+        assertThat(StoreUtils.readString(mOutputFile)).isEqualTo(mContent);
+        assertThat(mDir.list()).asList().containsExactly(mOutputFile.getName());
+    }
+
+    @Test
+    public void testFetch_contentTooLarge() {
+        // GIVEN a fetcher running copies in the background
+        UriContentFetcher fetcher = new UriContentFetcher(mExecutor, mHandler, 10_000);
+
+        // WHEN the content of a uri is fetched with a size limit below its size
+        fetcher.fetch(mContentResolver, mUri, mOutputFile, mContent.length() - 1);
+
+        // THEN no file is written
+        assertThat(fetcher.await(mOutputFile)).isFalse();
+        assertThat(mDir.list()).isEmpty();
+    }
+
+    @Test
+    public void testAwait_timesOut() {
+        // GIVEN a fetcher whose copies never run and time out immediately
+        UriContentFetcher fetcher = new UriContentFetcher(mQueuedFetches::add, mHandler, 0);
+
+        // WHEN the content of a uri is fetched
+        fetcher.fetch(mContentResolver, mUri, mOutputFile, Long.MAX_VALUE);
+
+        // THEN awaiting it gives up, and the copy doesn't write the file if it runs later
+        assertThat(fetcher.await(mOutputFile)).isFalse();
+        runQueuedFetches();
+        assertThat(mOutputFile.exists()).isFalse();
+    }
+
+    @Test
+    public void testFetch_timeoutStartsWhenCopyRuns() throws Exception {
+        // GIVEN a copy queued for longer than its timeout
+        UriContentFetcher fetcher = new UriContentFetcher(mQueuedFetches::add, mHandler, 200);
+        fetcher.fetch(mContentResolver, mUri, mOutputFile, Long.MAX_VALUE);
+        Thread.sleep(300);
+
+        // WHEN it runs
+        runQueuedFetches();
+
+        // THEN the content is still copied
+        assertThat(fetcher.await(mOutputFile)).isTrue();
+        assertThat(StoreUtils.readString(mOutputFile)).isEqualTo(mContent);
+    }
+
+    @Test
+    public void testCancel() {
+        // GIVEN a pending copy
+        UriContentFetcher fetcher = new UriContentFetcher(mQueuedFetches::add, mHandler, 10_000);
+        fetcher.fetch(mContentResolver, mUri, mOutputFile, Long.MAX_VALUE);
+
+        // WHEN it is cancelled before it runs
+        fetcher.cancel(mOutputFile);
+        runQueuedFetches();
+
+        // THEN the file isn't written
+        assertThat(fetcher.await(mOutputFile)).isFalse();
+        assertThat(mDir.list()).isEmpty();
+    }
+
+    @Test
+    public void testAwait_noPendingFetch() throws Exception {
+        UriContentFetcher fetcher = new UriContentFetcher(mExecutor, mHandler, 10_000);
+
+        assertThat(fetcher.await(mOutputFile)).isFalse();
+        mOutputFile.createNewFile();
+        assertThat(fetcher.await(mOutputFile)).isTrue();
+    }
+
+    private void runQueuedFetches() {
+        for (Runnable fetch : mQueuedFetches) {
+            fetch.run();
+        }
+        mQueuedFetches.clear();
+    }
+}
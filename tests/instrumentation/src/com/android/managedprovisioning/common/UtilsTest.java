@@ -87,7 +87,7 @@ public class UtilsTest extends AndroidTestCase {
         when(mockContext.getSystemService(Context.CONNECTIVITY_SERVICE))
                 .thenReturn(mockConnectivityManager);
 
-        mUtils = new Utils();
+        mUtils = new Utils(new InstalledAppsCache());
     }
 
     @Override
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2019, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.model;
+
+import static com.android.managedprovisioning.TestUtils.createTestAdminExtras;
+
+import static org.junit.Assert.assertEquals;
+
+import android.content.ComponentName;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.filters.LargeTest;
+
+import com.android.internal.util.FastXmlSerializer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xmlpull.v1.XmlSerializer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Compares the latency and allocations of saving and loading {@link ProvisioningParams} in the
+ * binary format against the former XML format. Results are written to logcat with the tag
+ * {@link #TAG}.
+ */
+@LargeTest
+public class ProvisioningParamsPersistenceBenchmark {
+    private static final String TAG = "ProvisioningParamsPersistenceBenchmark";
+    private static final int WARM_UP_ITERATIONS = 20;
+    private static final int ITERATIONS = 200;
+
+    private ProvisioningParams mParams;
+    private File mFile;
+
+    @Before
+    public void setUp() {
+        mParams = ProvisioningParams.Builder.builder()
+                .setProvisioningAction("android.app.action.PROVISION_MANAGED_DEVICE")
+                .setDeviceAdminComponentName(
+                        new ComponentName("com.test.dpc", "com.test.dpc.Receiver"))
+                .setDeviceAdminDownloadInfo(PackageDownloadInfo.Builder.builder()
+                        .setLocation("https://www.example.com/dpc.apk")
+                        .setCookieHeader("cookie")
+                        .setPackageChecksum(new byte[32])
+                        .build())
+                .setWifiInfo(WifiInfo.Builder.builder()
+                        .setSsid("\"ssid\"")
+                        .setSecurityType("WPA")
+                        .setPassword("password")
+                        .build())
+                .setLocale(Locale.US)
+                .setTimeZone("America/New_York")
+                .setOrganizationName("Test organization")
+                .setSupportUrl("https://www.example.com/support")
+                .setAdminExtrasBundle(createTestAdminExtras())
+                .build();
+        mFile = new File(InstrumentationRegistry.getTargetContext().getCacheDir(),
+                "benchmark_params");
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void benchmark_saveAndLoad() throws Exception {
+        final Result xmlSave = measure(() -> saveAsXml(mParams, mFile));
+        final long xmlSize = mFile.length();
+        final Result xmlLoad =
+                measure(() -> assertEquals(mParams, ProvisioningParams.load(mFile)));
+
+        final Result binarySave = measure(() -> mParams.save(mFile));
+        final long binarySize = mFile.length();
+        final Result binaryLoad =
+                measure(() -> assertEquals(mParams, ProvisioningParams.load(mFile)));
+
+        Log.i(TAG, "XML: " + xmlSize + " bytes, save " + xmlSave + ", load " + xmlLoad);
+        Log.i(TAG, "Binary: " + binarySize + " bytes, save " + binarySave + ", load "
+                + binaryLoad);
+    }
+
+    private static Result measure(ThrowingRunnable runnable) throws Exception {
+        for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+            runnable.run();
+        }
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        final long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < ITERATIONS; i++) {
+            runnable.run();
+        }
+        final long elapsed = SystemClock.elapsedRealtimeNanos() - start;
+        final int allocations = Debug.getThreadAllocCount();
+        Debug.stopAllocCounting();
+        // The loads compare the result, which only allocates a little.
+        return new Result(elapsed / ITERATIONS / 1000, allocations / ITERATIONS);
+    }
+
+    /** The implementation of {@link ProvisioningParams#save} before the binary format. */
+    private static void saveAsXml(ProvisioningParams params, File file) throws Exception {
+        final AtomicFile atomicFile = new AtomicFile(file);
+        final FileOutputStream stream = atomicFile.startWrite();
+        try {
+            XmlSerializer serializer = new FastXmlSerializer();
+            serializer.setOutput(stream, StandardCharsets.UTF_8.name());
+            serializer.startDocument(null, true);
+            serializer.startTag(null, "provisioning-params");
+            params.toPersistableBundle().saveToXml(serializer);
+            serializer.endTag(null, "provisioning-params");
+            serializer.endDocument();
+            atomicFile.finishWrite(stream);
+        } catch (Exception e) {
+            atomicFile.failWrite(stream);
+            throw e;
+        }
+    }
+
+    private interface ThrowingRunnable {
+        void run() throws Exception;
+    }
+
+    private static final class Result {
+        final long micros;
+        final int allocations;
+
+        Result(long micros, int allocations) {
+            this.micros = micros;
+            this.allocations = allocations;
+        }
+
+        @Override
+        public String toString() {
+            return micros + " us / " + allocations + " allocations";
+        }
+    }
+}
@@ -31,13 +31,17 @@ import android.test.AndroidTestCase;
 
 import androidx.test.filters.SmallTest;
 
+import com.android.internal.util.FastXmlSerializer;
 import com.android.managedprovisioning.common.IllegalProvisioningArgumentException;
 import com.android.managedprovisioning.common.Utils;
 
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.xmlpull.v1.XmlSerializer;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Locale;
 
 /** Tests for {@link ProvisioningParams} */
@@ -216,6 +220,28 @@ public class ProvisioningParamsTest extends AndroidTestCase {
         assertThat(original).isEqualTo(copy);
     }
 
+    @SmallTest
+    public void testRestoreFromXml() throws Exception {
+        // GIVEN a ProvisioningParams object saved as xml by a previous version
+        ProvisioningParams original = getCompleteProvisioningParams();
+        File file = new File(mContext.getFilesDir(), "test_store.xml");
+        try (FileOutputStream stream = new FileOutputStream(file)) {
+            XmlSerializer serializer = new FastXmlSerializer();
+            serializer.setOutput(stream, StandardCharsets.UTF_8.name());
+            serializer.startDocument(null, true);
+            serializer.startTag(null, "provisioning-params");
+            original.toPersistableBundle().saveToXml(serializer);
+            serializer.endTag(null, "provisioning-params");
+            serializer.endDocument();
+        }
+
+        // WHEN the file is read back
+        ProvisioningParams copy = ProvisioningParams.load(file);
+
+        // THEN the same ProvisioningParams is obtained
+        assertThat(original).isEqualTo(copy);
+    }
+
     @SmallTest
     public void testParceable() {
         // GIVEN a ProvisioningParams object.
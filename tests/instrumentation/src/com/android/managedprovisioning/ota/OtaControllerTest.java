@@ -17,9 +17,11 @@
 package com.android.managedprovisioning.ota;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -51,8 +53,12 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.IntFunction;
 
 /**
@@ -63,6 +69,7 @@ public class OtaControllerTest {
     private static final int DEVICE_OWNER_USER_ID = 12;
     private static final int MANAGED_PROFILE_USER_ID = 15;
     private static final int MANAGED_USER_USER_ID = 18;
+    private static final int OTHER_MANAGED_USER_USER_ID = 19;
 
     private static final String DUMMY_SYSTEM_IME_PACKAGE_NAME =
             "com.android.inputmethod.dummysystemime";
@@ -237,10 +244,131 @@ public class OtaControllerTest {
                 Pair.create(MANAGED_USER_USER_ID, DeleteNonRequiredAppsTask.class));
     }
 
+    @Test
+    public void testTasksOfOneUserRunInOrder() {
+        OtaController controller = new OtaController(mContext, mTaskExecutor,
+                mCrossProfileIntentFiltersSetter, NO_MISSING_SYSTEM_IME_PROVIDER,
+                mProvisioningAnalyticsTracker);
+
+        // GIVEN that there is a managed profile
+        addManagedProfile(MANAGED_PROFILE_USER_ID, ADMIN_COMPONENT);
+
+        // WHEN running the OtaController
+        controller.run();
+
+        // THEN the tasks of the managed profile are executed in order
+        List<Class> profileTasks = new ArrayList<>();
+        for (Pair<Integer, AbstractProvisioningTask> task : mTasks) {
+            if (task.first == MANAGED_PROFILE_USER_ID) {
+                profileTasks.add(task.second.getClass());
+            }
+        }
+        assertEquals(Arrays.asList(InstallExistingPackageTask.class,
+                DisableInstallShortcutListenersTask.class, DeleteNonRequiredAppsTask.class),
+                profileTasks);
+    }
+
+    @Test
+    public void testUsersRunInParallel() {
+        // GIVEN two managed users whose tasks only finish once both have started
+        addManagedUser(MANAGED_USER_USER_ID, ADMIN_COMPONENT);
+        addManagedUser(OTHER_MANAGED_USER_USER_ID, ADMIN_COMPONENT);
+        CountDownLatch bothStarted = new CountDownLatch(2);
+        List<Boolean> results = new ArrayList<>();
+        TaskExecutor taskExecutor = new TaskExecutor(mContext, mProvisioningAnalyticsTracker) {
+            @Override
+            public void execute(int userId, AbstractProvisioningTask task) {
+                if (userId == UserHandle.USER_SYSTEM) {
+                    return;
+                }
+                bothStarted.countDown();
+                try {
+                    boolean started = bothStarted.await(10, TimeUnit.SECONDS);
+                    synchronized (results) {
+                        results.add(started);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        OtaController controller = new OtaController(mContext, taskExecutor,
+                mCrossProfileIntentFiltersSetter, NO_MISSING_SYSTEM_IME_PROVIDER,
+                mProvisioningAnalyticsTracker, 2, TimeUnit.SECONDS.toMillis(30));
+
+        // WHEN running the OtaController
+        controller.run();
+
+        // THEN the tasks of both users ran at the same time
+        assertEquals(Arrays.asList(true, true), results);
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        // GIVEN a managed user whose task never finishes on its own
+        addManagedUser(MANAGED_USER_USER_ID, ADMIN_COMPONENT);
+        CountDownLatch release = new CountDownLatch(1);
+        TaskExecutor taskExecutor = new TaskExecutor(mContext, mProvisioningAnalyticsTracker) {
+            @Override
+            public void execute(int userId, AbstractProvisioningTask task) {
+                if (userId == MANAGED_USER_USER_ID) {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        };
+        OtaController controller = new OtaController(mContext, taskExecutor,
+                mCrossProfileIntentFiltersSetter, NO_MISSING_SYSTEM_IME_PROVIDER,
+                mProvisioningAnalyticsTracker, 2, 100);
+
+        // WHEN running the OtaController
+        controller.run();
+
+        // THEN it returns after the timeout, and the other users were still handled
+        verify(mCrossProfileIntentFiltersSetter, timeout(1000))
+                .resetFilters(UserHandle.USER_SYSTEM);
+        assertTrue(release.getCount() > 0);
+        release.countDown();
+    }
+
+    @Test
+    public void testAsyncResultsAwaitedSeparately() throws Exception {
+        // GIVEN a task executor counting how often its results are awaited
+        AtomicInteger awaited = new AtomicInteger();
+        TaskExecutor taskExecutor = new TaskExecutor(mContext, mProvisioningAnalyticsTracker) {
+            @Override
+            public void execute(int userId, AbstractProvisioningTask task) {}
+
+            @Override
+            public Result awaitCompletion() throws InterruptedException {
+                awaited.incrementAndGet();
+                return super.awaitCompletion();
+            }
+        };
+        OtaController controller = new OtaController(mContext, taskExecutor,
+                mCrossProfileIntentFiltersSetter, NO_MISSING_SYSTEM_IME_PROVIDER,
+                mProvisioningAnalyticsTracker);
+
+        // WHEN running the OtaController
+        controller.run();
+
+        // THEN the results aren't awaited
+        assertEquals(0, awaited.get());
+
+        // WHEN awaiting the results
+        controller.awaitTaskResults();
+
+        // THEN they are awaited once
+        assertEquals(1, awaited.get());
+    }
+
     private class FakeTaskExecutor extends TaskExecutor {
 
         public FakeTaskExecutor() {
-            super();
+            super(mContext, mProvisioningAnalyticsTracker);
         }
 
         @Override
@@ -16,12 +16,19 @@
 
 package com.android.managedprovisioning.ota;
 
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 
 import android.content.Context;
 
 import androidx.test.filters.SmallTest;
 
+import com.android.managedprovisioning.analytics.ProvisioningAnalyticsTracker;
 import com.android.managedprovisioning.task.AbstractProvisioningTask;
 
 import org.junit.Before;
@@ -35,10 +42,13 @@ import org.mockito.MockitoAnnotations;
 @SmallTest
 public class TaskExecutorTest {
     private final int TEST_USER_ID = 123;
+    private final int TEST_ERROR_CODE = 7;
+    private final long TEST_TASK_TIMEOUT_MS = 100;
 
     @Mock private Context mContext;
     @Mock private AbstractProvisioningTask mTask1;
     @Mock private AbstractProvisioningTask mTask2;
+    @Mock private ProvisioningAnalyticsTracker mProvisioningAnalyticsTracker;
 
     private TaskExecutor mExecutor;
 
@@ -46,7 +56,8 @@ public class TaskExecutorTest {
     public void setUp() {
         MockitoAnnotations.initMocks(this);
 
-        mExecutor = new TaskExecutor();
+        mExecutor = new TaskExecutor(mContext, mProvisioningAnalyticsTracker,
+                TEST_TASK_TIMEOUT_MS);
     }
 
     @Test
@@ -72,4 +83,73 @@ public class TaskExecutorTest {
         // THEN run method of the task should be called
         verify(mTask2).run(TEST_USER_ID);
     }
+
+    @Test
+    public void testAwaitCompletion_synchronousTasks() throws Exception {
+        // GIVEN a task that succeeds and one that fails while running
+        doAnswer(invocation -> {
+            mExecutor.onSuccess(mTask1);
+            return null;
+        }).when(mTask1).run(TEST_USER_ID);
+        doAnswer(invocation -> {
+            mExecutor.onError(mTask2, TEST_ERROR_CODE);
+            return null;
+        }).when(mTask2).run(TEST_USER_ID);
+
+        // WHEN executing both tasks and waiting for them
+        mExecutor.execute(TEST_USER_ID, mTask1);
+        mExecutor.execute(TEST_USER_ID, mTask2);
+        TaskExecutor.Result result = mExecutor.awaitCompletion();
+
+        // THEN the results are aggregated
+        assertEquals(1, result.succeeded);
+        assertEquals(1, result.failed);
+        assertEquals(0, result.timedOut);
+
+        // THEN the latency of both tasks and the failure are logged
+        verify(mProvisioningAnalyticsTracker).logOtaTaskCompleted(eq(mContext), eq(mTask1),
+                anyLong());
+        verify(mProvisioningAnalyticsTracker).logOtaTaskCompleted(eq(mContext), eq(mTask2),
+                anyLong());
+        verify(mProvisioningAnalyticsTracker).logOtaTaskError(eq(mContext), eq(mTask2),
+                eq(TEST_ERROR_CODE), anyLong());
+    }
+
+    @Test
+    public void testAwaitCompletion_asynchronousTask() throws Exception {
+        // GIVEN a task that reports its result after run returned
+        mExecutor.execute(TEST_USER_ID, mTask1);
+        new Thread(() -> mExecutor.onSuccess(mTask1)).start();
+
+        // WHEN waiting for the task
+        TaskExecutor.Result result = mExecutor.awaitCompletion();
+
+        // THEN it succeeded
+        assertEquals(1, result.succeeded);
+        assertEquals(0, result.timedOut);
+    }
+
+    @Test
+    public void testAwaitCompletion_timeout() throws Exception {
+        // GIVEN a task that never reports its result
+        mExecutor.execute(TEST_USER_ID, mTask1);
+
+        // WHEN waiting for the task
+        TaskExecutor.Result result = mExecutor.awaitCompletion();
+
+        // THEN it timed out and the timeout is logged
+        assertEquals(1, result.timedOut);
+        verify(mProvisioningAnalyticsTracker).logOtaTaskError(eq(mContext), eq(mTask1),
+                eq(TaskExecutor.ERROR_TIMED_OUT), anyLong());
+
+        // WHEN the task reports its result afterwards
+        mExecutor.onSuccess(mTask1);
+
+        // THEN it isn't logged
+        verify(mProvisioningAnalyticsTracker, never()).logOtaTaskCompleted(eq(mContext), any(),
+                anyLong());
+
+        // THEN it isn't counted again
+        assertEquals(0, mExecutor.awaitCompletion().timedOut);
+    }
 }
@@ -19,6 +19,7 @@ import static com.android.managedprovisioning.common.StoreUtils.DIR_PROVISIONING
 
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
 
 import static org.mockito.Mockito.when;
 
@@ -30,6 +31,7 @@ import androidx.test.InstrumentationRegistry;
 import androidx.test.filters.SmallTest;
 
 import com.android.managedprovisioning.common.StoreUtils;
+import com.android.managedprovisioning.common.UriContentFetcher;
 import com.android.managedprovisioning.testcommon.TestUtils;
 import com.android.managedprovisioning.tests.R;
 
@@ -99,6 +101,7 @@ public class DeviceAdminIconParserTest {
     @Test
     public void testUri() throws Exception {
         assertEquals(OUTPUT_FILE.getAbsolutePath(), mDeviceAdminIconParser.parse(INPUT_URI));
+        assertTrue(UriContentFetcher.getInstance().await(OUTPUT_FILE));
         assertEquals(INPUT_CONTENT, StoreUtils.readString(OUTPUT_FILE));
     }
 
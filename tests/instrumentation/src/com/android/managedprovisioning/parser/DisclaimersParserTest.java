@@ -34,6 +34,7 @@ import androidx.test.InstrumentationRegistry;
 import androidx.test.filters.SmallTest;
 
 import com.android.managedprovisioning.common.StoreUtils;
+import com.android.managedprovisioning.common.UriContentFetcher;
 import com.android.managedprovisioning.model.DisclaimersParam;
 import com.android.managedprovisioning.testcommon.TestUtils;
 import com.android.managedprovisioning.tests.R;
@@ -174,7 +175,9 @@ public class DisclaimersParserTest {
 
     private String getDisclaimerContentString(DisclaimersParam.Disclaimer disclaimer)
             throws IOException {
-        return StoreUtils.readString(new File(disclaimer.mContentFilePath));
+        final File file = new File(disclaimer.mContentFilePath);
+        UriContentFetcher.getInstance().await(file);
+        return StoreUtils.readString(file);
     }
 
     private static String getDisclaimerPath(int index) {
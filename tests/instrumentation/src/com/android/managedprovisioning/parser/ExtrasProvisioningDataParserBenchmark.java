@@ -0,0 +1,274 @@
+/*
+ * Copyright 2019, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.parser;
+
+import static android.app.admin.DevicePolicyManager.ACTION_PROVISION_MANAGED_DEVICE;
+import static android.app.admin.DevicePolicyManager.ACTION_PROVISION_MANAGED_DEVICE_FROM_TRUSTED_SOURCE;
+import static android.app.admin.DevicePolicyManager.EXTRA_PROVISIONING_ACCOUNT_TO_MIGRATE;
+import static android.app.admin.DevicePolicyManager.EXTRA_PROVISIONING_ADMIN_EXTRAS_BUNDLE;
+import static android.app.admin.DevicePolicyManager.EXTRA_PROVISIONING_DEVICE_ADMIN_COMPONENT_NAME;
+import static android.app.admin.DevicePolicyManager.EXTRA_PROVISIONING_DEVICE_ADMIN_MINIMUM_VERSION_CODE;
+import static android.app.admin.DevicePolicyManager.EXTRA_PROVISIONING_DEVICE_ADMIN_PACKAGE_CHECKSUM;
+import static android.app.admin.DevicePolicyManager.EXTRA_PROVISIONING_DEVICE_ADMIN_PACKAGE_DOWNLOAD_COOKIE_HEADER;
+import static android.app.admin.DevicePolicyManager.EXTRA_PROVISIONING_DEVICE_ADMIN_PACKAGE_DOWNLOAD_LOCATION;
+import static android.app.admin.DevicePolicyManager.EXTRA_PROVISIONING_DEVICE_ADMIN_PACKAGE_ICON_URI;
+import static android.app.admin.DevicePolicyManager.EXTRA_PROVISIONING_DEVICE_ADMIN_PACKAGE_LABEL;
+import static android.app.admin.DevicePolicyManager.EXTRA_PROVISIONING_DEVICE_ADMIN_SIGNATURE_CHECKSUM;
+import static android.app.admin.DevicePolicyManager.EXTRA_PROVISIONING_DISCLAIMERS;
+import static android.app.admin.DevicePolicyManager.EXTRA_PROVISIONING_KEEP_ACCOUNT_ON_MIGRATION;
+import static android.app.admin.DevicePolicyManager.EXTRA_PROVISIONING_LEAVE_ALL_SYSTEM_APPS_ENABLED;
+import static android.app.admin.DevicePolicyManager.EXTRA_PROVISIONING_LOCALE;
+import static android.app.admin.DevicePolicyManager.EXTRA_PROVISIONING_LOCAL_TIME;
+import static android.app.admin.DevicePolicyManager.EXTRA_PROVISIONING_LOGO_URI;
+import static android.app.admin.DevicePolicyManager.EXTRA_PROVISIONING_MAIN_COLOR;
+import static android.app.admin.DevicePolicyManager.EXTRA_PROVISIONING_ORGANIZATION_NAME;
+import static android.app.admin.DevicePolicyManager.EXTRA_PROVISIONING_SKIP_EDUCATION_SCREENS;
+import static android.app.admin.DevicePolicyManager.EXTRA_PROVISIONING_SKIP_ENCRYPTION;
+import static android.app.admin.DevicePolicyManager.EXTRA_PROVISIONING_SKIP_USER_CONSENT;
+import static android.app.admin.DevicePolicyManager.EXTRA_PROVISIONING_SKIP_USER_SETUP;
+import static android.app.admin.DevicePolicyManager.EXTRA_PROVISIONING_SUPPORT_URL;
+import static android.app.admin.DevicePolicyManager.EXTRA_PROVISIONING_TIME_ZONE;
+import static android.app.admin.DevicePolicyManager.EXTRA_PROVISIONING_USE_MOBILE_DATA;
+import static android.app.admin.DevicePolicyManager.EXTRA_PROVISIONING_WIFI_HIDDEN;
+import static android.app.admin.DevicePolicyManager.EXTRA_PROVISIONING_WIFI_PAC_URL;
+import static android.app.admin.DevicePolicyManager.EXTRA_PROVISIONING_WIFI_PASSWORD;
+import static android.app.admin.DevicePolicyManager.EXTRA_PROVISIONING_WIFI_PROXY_BYPASS;
+import static android.app.admin.DevicePolicyManager.EXTRA_PROVISIONING_WIFI_PROXY_HOST;
+import static android.app.admin.DevicePolicyManager.EXTRA_PROVISIONING_WIFI_PROXY_PORT;
+import static android.app.admin.DevicePolicyManager.EXTRA_PROVISIONING_WIFI_SECURITY_TYPE;
+import static android.app.admin.DevicePolicyManager.EXTRA_PROVISIONING_WIFI_SSID;
+
+import static com.android.managedprovisioning.TestUtils.createTestAdminExtras;
+
+import static org.junit.Assert.assertEquals;
+
+import android.content.ComponentName;
+import android.content.Intent;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.filters.LargeTest;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares reading the extras of realistic QR and NFC provisioning intents through
+ * {@link NormalizedExtras} against the former lookups, which probed the intent for the long and
+ * then the short name of every extra. Results are written to logcat with the tag {@link #TAG}.
+ */
+@LargeTest
+public class ExtrasProvisioningDataParserBenchmark {
+    private static final String TAG = "ExtrasProvisioningDataParserBenchmark";
+    private static final int WARM_UP_ITERATIONS = 200;
+    private static final int ITERATIONS = 2000;
+
+    private static final int TYPE_STRING = 0;
+    private static final int TYPE_BOOLEAN = 1;
+    private static final int TYPE_INT = 2;
+    private static final int TYPE_LONG = 3;
+    private static final int TYPE_PARCELABLE = 4;
+    private static final int TYPE_PARCELABLE_ARRAY = 5;
+
+    /** The extras read when parsing a provisioning intent, with their type. */
+    private static final Object[][] READ_EXTRAS = {
+            {EXTRA_PROVISIONING_DEVICE_ADMIN_COMPONENT_NAME, TYPE_PARCELABLE},
+            {EXTRA_PROVISIONING_SKIP_USER_SETUP, TYPE_BOOLEAN},
+            {EXTRA_PROVISIONING_SKIP_USER_CONSENT, TYPE_BOOLEAN},
+            {EXTRA_PROVISIONING_SKIP_EDUCATION_SCREENS, TYPE_BOOLEAN},
+            {EXTRA_PROVISIONING_KEEP_ACCOUNT_ON_MIGRATION, TYPE_BOOLEAN},
+            {EXTRA_PROVISIONING_MAIN_COLOR, TYPE_INT},
+            {EXTRA_PROVISIONING_LOGO_URI, TYPE_PARCELABLE},
+            {EXTRA_PROVISIONING_DISCLAIMERS, TYPE_PARCELABLE_ARRAY},
+            {EXTRA_PROVISIONING_DEVICE_ADMIN_PACKAGE_LABEL, TYPE_STRING},
+            {EXTRA_PROVISIONING_ORGANIZATION_NAME, TYPE_STRING},
+            {EXTRA_PROVISIONING_SUPPORT_URL, TYPE_STRING},
+            {EXTRA_PROVISIONING_DEVICE_ADMIN_PACKAGE_ICON_URI, TYPE_PARCELABLE},
+            {EXTRA_PROVISIONING_LEAVE_ALL_SYSTEM_APPS_ENABLED, TYPE_BOOLEAN},
+            {EXTRA_PROVISIONING_SKIP_ENCRYPTION, TYPE_BOOLEAN},
+            {EXTRA_PROVISIONING_ADMIN_EXTRAS_BUNDLE, TYPE_PARCELABLE},
+            {EXTRA_PROVISIONING_ACCOUNT_TO_MIGRATE, TYPE_PARCELABLE},
+            {EXTRA_PROVISIONING_TIME_ZONE, TYPE_STRING},
+            {EXTRA_PROVISIONING_LOCAL_TIME, TYPE_LONG},
+            {EXTRA_PROVISIONING_LOCALE, TYPE_STRING},
+            {EXTRA_PROVISIONING_USE_MOBILE_DATA, TYPE_BOOLEAN},
+            {EXTRA_PROVISIONING_WIFI_SSID, TYPE_STRING},
+            {EXTRA_PROVISIONING_WIFI_SECURITY_TYPE, TYPE_STRING},
+            {EXTRA_PROVISIONING_WIFI_PASSWORD, TYPE_STRING},
+            {EXTRA_PROVISIONING_WIFI_PROXY_HOST, TYPE_STRING},
+            {EXTRA_PROVISIONING_WIFI_PROXY_BYPASS, TYPE_STRING},
+            {EXTRA_PROVISIONING_WIFI_PAC_URL, TYPE_STRING},
+            {EXTRA_PROVISIONING_WIFI_PROXY_PORT, TYPE_INT},
+            {EXTRA_PROVISIONING_WIFI_HIDDEN, TYPE_BOOLEAN},
+            {EXTRA_PROVISIONING_DEVICE_ADMIN_PACKAGE_DOWNLOAD_LOCATION, TYPE_STRING},
+            {EXTRA_PROVISIONING_DEVICE_ADMIN_MINIMUM_VERSION_CODE, TYPE_INT},
+            {EXTRA_PROVISIONING_DEVICE_ADMIN_PACKAGE_DOWNLOAD_COOKIE_HEADER, TYPE_STRING},
+            {EXTRA_PROVISIONING_DEVICE_ADMIN_PACKAGE_CHECKSUM, TYPE_STRING},
+            {EXTRA_PROVISIONING_DEVICE_ADMIN_SIGNATURE_CHECKSUM, TYPE_STRING},
+    };
+
+    @Test
+    public void benchmark_qrPayload() {
+        // QR codes are decoded into an intent with the long extra names.
+        runBenchmark("QR", new Intent(ACTION_PROVISION_MANAGED_DEVICE_FROM_TRUSTED_SOURCE)
+                .putExtra(EXTRA_PROVISIONING_DEVICE_ADMIN_COMPONENT_NAME,
+                        new ComponentName("com.test.dpc", "com.test.dpc.Receiver"))
+                .putExtra(EXTRA_PROVISIONING_DEVICE_ADMIN_PACKAGE_DOWNLOAD_LOCATION,
+                        "https://www.example.com/dpc.apk")
+                .putExtra(EXTRA_PROVISIONING_DEVICE_ADMIN_SIGNATURE_CHECKSUM,
+                        "gJD2YwtOiWJHkSMkkIfLRlj-quNqG1fb6v100QmzM9w")
+                .putExtra(EXTRA_PROVISIONING_WIFI_SSID, "\"ssid\"")
+                .putExtra(EXTRA_PROVISIONING_WIFI_SECURITY_TYPE, "WPA")
+                .putExtra(EXTRA_PROVISIONING_WIFI_PASSWORD, "password")
+                .putExtra(EXTRA_PROVISIONING_SKIP_ENCRYPTION, true)
+                .putExtra(EXTRA_PROVISIONING_LEAVE_ALL_SYSTEM_APPS_ENABLED, true)
+                .putExtra(EXTRA_PROVISIONING_LOCALE, "en_US")
+                .putExtra(EXTRA_PROVISIONING_TIME_ZONE, "America/New_York")
+                .putExtra(EXTRA_PROVISIONING_ADMIN_EXTRAS_BUNDLE, createTestAdminExtras()));
+    }
+
+    @Test
+    public void benchmark_nfcPayload() {
+        // Programmers short of space on NFC tags use the short extra names.
+        runBenchmark("NFC", new Intent(ACTION_PROVISION_MANAGED_DEVICE)
+                .putExtra(shortName(EXTRA_PROVISIONING_DEVICE_ADMIN_COMPONENT_NAME),
+                        new ComponentName("com.test.dpc", "com.test.dpc.Receiver"))
+                .putExtra(shortName(EXTRA_PROVISIONING_DEVICE_ADMIN_PACKAGE_DOWNLOAD_LOCATION),
+                        "https://www.example.com/dpc.apk")
+                .putExtra(shortName(EXTRA_PROVISIONING_DEVICE_ADMIN_PACKAGE_CHECKSUM),
+                        "gJD2YwtOiWJHkSMkkIfLRlj-quNqG1fb6v100QmzM9w")
+                .putExtra(shortName(EXTRA_PROVISIONING_WIFI_SSID), "\"ssid\"")
+                .putExtra(shortName(EXTRA_PROVISIONING_WIFI_SECURITY_TYPE), "WPA")
+                .putExtra(shortName(EXTRA_PROVISIONING_WIFI_PASSWORD), "password")
+                .putExtra(shortName(EXTRA_PROVISIONING_LOCAL_TIME), 1456939524713L)
+                .putExtra(shortName(EXTRA_PROVISIONING_LOCALE), "en_US")
+                .putExtra(shortName(EXTRA_PROVISIONING_TIME_ZONE), "America/New_York")
+                .putExtra(shortName(EXTRA_PROVISIONING_USE_MOBILE_DATA), true));
+    }
+
+    private static String shortName(String longName) {
+        return ExtrasProvisioningDataParser.getShortExtraNames(longName);
+    }
+
+    private void runBenchmark(String name, Intent intent) {
+        assertEquals(readLegacy(intent), readNormalized(intent));
+
+        final Result legacy = measure(() -> readLegacy(intent));
+        final Result normalized = measure(() -> readNormalized(intent));
+
+        Log.i(TAG, name + " payload: former lookups " + legacy + ", single pass " + normalized);
+    }
+
+    private static Result measure(Runnable runnable) {
+        for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+            runnable.run();
+        }
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        final long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < ITERATIONS; i++) {
+            runnable.run();
+        }
+        final long elapsed = SystemClock.elapsedRealtimeNanos() - start;
+        final int allocations = Debug.getThreadAllocCount();
+        Debug.stopAllocCounting();
+        // Both include the list of results, which only allocates a little.
+        return new Result(elapsed / ITERATIONS, allocations / ITERATIONS);
+    }
+
+    private static List<Object> readNormalized(Intent intent) {
+        final NormalizedExtras extras = ExtrasProvisioningDataParser.normalizeExtras(intent);
+        final List<Object> values = new ArrayList<>(READ_EXTRAS.length);
+        for (Object[] extra : READ_EXTRAS) {
+            final String longName = (String) extra[0];
+            switch ((int) extra[1]) {
+                case TYPE_STRING:
+                    values.add(extras.getString(longName));
+                    break;
+                case TYPE_BOOLEAN:
+                    values.add(extras.getBoolean(longName, false));
+                    break;
+                case TYPE_INT:
+                    values.add(extras.getInt(longName, 0));
+                    break;
+                case TYPE_LONG:
+                    values.add(extras.getLong(longName, 0));
+                    break;
+                case TYPE_PARCELABLE:
+                    values.add(extras.getParcelable(longName));
+                    break;
+                default:
+                    values.add(extras.getParcelableArray(longName));
+            }
+        }
+        return values;
+    }
+
+    /** The lookups of {@link ExtrasProvisioningDataParser} before {@link NormalizedExtras}. */
+    private static List<Object> readLegacy(Intent intent) {
+        final List<Object> values = new ArrayList<>(READ_EXTRAS.length);
+        for (Object[] extra : READ_EXTRAS) {
+            final String longName = (String) extra[0];
+            final int type = (int) extra[1];
+            if (type == TYPE_STRING) {
+                if (intent.getStringExtra(longName) != null) {
+                    values.add(intent.getStringExtra(longName));
+                } else {
+                    values.add(intent.getStringExtra(shortName(longName)));
+                }
+                continue;
+            }
+            final String name = intent.hasExtra(longName) ? longName
+                    : intent.hasExtra(shortName(longName)) ? shortName(longName) : null;
+            switch (type) {
+                case TYPE_BOOLEAN:
+                    values.add(name == null ? false : intent.getBooleanExtra(name, false));
+                    break;
+                case TYPE_INT:
+                    values.add(name == null ? 0 : intent.getIntExtra(name, 0));
+                    break;
+                case TYPE_LONG:
+                    values.add(name == null ? 0L : intent.getLongExtra(name, 0));
+                    break;
+                case TYPE_PARCELABLE:
+                    values.add(name == null ? null : intent.getParcelableExtra(name));
+                    break;
+                default:
+                    values.add(name == null ? null : intent.getParcelableArrayExtra(name));
+            }
+        }
+        return values;
+    }
+
+    private static final class Result {
+        final long nanos;
+        final int allocations;
+
+        Result(long nanos, int allocations) {
+            this.nanos = nanos;
+            this.allocations = allocations;
+        }
+
+        @Override
+        public String toString() {
+            return nanos + " ns / " + allocations + " allocations";
+        }
+    }
+}
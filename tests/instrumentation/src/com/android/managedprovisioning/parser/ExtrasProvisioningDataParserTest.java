@@ -478,6 +478,51 @@ public class ExtrasProvisioningDataParserTest extends AndroidTestCase {
             .isEqualTo(mExtrasProvisioningDataParser.parse(buildIntentWithAllShortExtras()));
     }
 
+    public void testNormalizeExtras_longNameTakesPrecedence() {
+        // GIVEN an intent with an extra passed under both its long and short names
+        Intent intent = new Intent(ACTION_PROVISION_MANAGED_DEVICE)
+                .putExtra(EXTRA_PROVISIONING_WIFI_SSID_SHORT, "short")
+                .putExtra(EXTRA_PROVISIONING_WIFI_SSID, TEST_SSID)
+                .putExtra(EXTRA_PROVISIONING_SKIP_ENCRYPTION_SHORT, true);
+
+        // WHEN the extras are normalized
+        NormalizedExtras extras = ExtrasProvisioningDataParser.normalizeExtras(intent);
+
+        // THEN the long name wins, and short names are found under their long names
+        assertThat(extras.getString(EXTRA_PROVISIONING_WIFI_SSID)).isEqualTo(TEST_SSID);
+        assertThat(extras.containsKey(EXTRA_PROVISIONING_WIFI_SSID_SHORT)).isFalse();
+        assertThat(extras.getBoolean(EXTRA_PROVISIONING_SKIP_ENCRYPTION, false)).isTrue();
+    }
+
+    public void testNormalizeExtras_stringFallsBackToShortName() {
+        // GIVEN an intent with a non string extra under the long name, and a string under the
+        // short name
+        Intent intent = new Intent(ACTION_PROVISION_MANAGED_DEVICE)
+                .putExtra(EXTRA_PROVISIONING_WIFI_SSID, 1)
+                .putExtra(EXTRA_PROVISIONING_WIFI_SSID_SHORT, TEST_SSID);
+
+        // WHEN the extras are normalized
+        NormalizedExtras extras = ExtrasProvisioningDataParser.normalizeExtras(intent);
+
+        // THEN the string is read from the short name, other types only from the long name
+        assertThat(extras.getString(EXTRA_PROVISIONING_WIFI_SSID)).isEqualTo(TEST_SSID);
+        assertThat(extras.getInt(EXTRA_PROVISIONING_WIFI_SSID, 0)).isEqualTo(1);
+    }
+
+    public void testNormalizeExtras_invalidTypeReturnsDefault() {
+        // GIVEN an intent with an extra of an unexpected type
+        Intent intent = new Intent(ACTION_PROVISION_MANAGED_DEVICE)
+                .putExtra(EXTRA_PROVISIONING_WIFI_PROXY_PORT_SHORT, "8080");
+
+        // WHEN the extras are normalized
+        NormalizedExtras extras = ExtrasProvisioningDataParser.normalizeExtras(intent);
+
+        // THEN the default value is returned
+        assertThat(extras.containsKey(EXTRA_PROVISIONING_WIFI_PROXY_PORT)).isTrue();
+        assertThat(extras.getInt(EXTRA_PROVISIONING_WIFI_PROXY_PORT, 42)).isEqualTo(42);
+        assertThat(extras.getParcelableArray(EXTRA_PROVISIONING_WIFI_PROXY_PORT)).isNull();
+    }
+
     public void testParse_managedDeviceIntent() throws Exception {
         // GIVEN a managed device provisioning intent and other extras.
         Intent intent = new Intent(ACTION_PROVISION_MANAGED_DEVICE)
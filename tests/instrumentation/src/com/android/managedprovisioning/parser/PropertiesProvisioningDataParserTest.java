@@ -135,6 +135,7 @@ import org.mockito.MockitoAnnotations;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.Locale;
 import java.util.Properties;
 
@@ -393,6 +394,70 @@ public class PropertiesProvisioningDataParserTest extends AndroidTestCase {
         }
     }
 
+    public void testParse_longNameTakesPrecedenceOverShortName() throws Exception {
+        // GIVEN a NFC provisioning intent with the SSID under both its long and short names.
+        Properties properties = buildNfcProvisioningProperties();
+        properties.setProperty(EXTRA_PROVISIONING_WIFI_SSID_SHORT, "\"short\"");
+        Intent intent = buildNfcProvisioningIntent(properties);
+
+        // WHEN the intent is parsed by the parser.
+        ProvisioningParams params = mPropertiesProvisioningDataParser.parse(intent);
+
+        // THEN the long name is used.
+        assertThat(params.wifiInfo.ssid).isEqualTo(TEST_SSID);
+    }
+
+    public void testParse_escapedAndContinuedValues() throws Exception {
+        // GIVEN a NFC provisioning payload with escapes, comments and continuation lines.
+        String payload = "# comment\n"
+                + "! another comment\n"
+                + EXTRA_PROVISIONING_DEVICE_ADMIN_COMPONENT_NAME + " : "
+                + TEST_PACKAGE_NAME + "/\\\n    .Receiver\r\n"
+                + EXTRA_PROVISIONING_TIME_ZONE + "=Europe/Lond\\u006fn\n"
+                + EXTRA_PROVISIONING_ADMIN_EXTRAS_BUNDLE + "=key1\\=val1\\nkey2\\=val2\n";
+        Intent intent = buildNfcProvisioningIntent(payload.getBytes(StandardCharsets.UTF_8));
+
+        // WHEN the intent is parsed by the parser.
+        ProvisioningParams params = mPropertiesProvisioningDataParser.parse(intent);
+
+        // THEN the values are unescaped like Properties#load() does.
+        assertThat(params.deviceAdminComponentName)
+                .isEqualTo(new ComponentName(TEST_PACKAGE_NAME, TEST_PACKAGE_NAME + ".Receiver"));
+        assertThat(params.timeZone).isEqualTo("Europe/London");
+        assertThat(params.adminExtrasBundle.getString("key1")).isEqualTo("val1");
+        assertThat(params.adminExtrasBundle.getString("key2")).isEqualTo("val2");
+    }
+
+    public void testParse_malformedEscapeThrowsException() throws Exception {
+        // GIVEN a NFC provisioning payload with a malformed unicode escape.
+        String payload = EXTRA_PROVISIONING_WIFI_SSID + "=\\u00";
+        Intent intent = buildNfcProvisioningIntent(payload.getBytes(StandardCharsets.UTF_8));
+
+        try {
+            // WHEN the intent is parsed by the parser.
+            mPropertiesProvisioningDataParser.parse(intent);
+            fail("IllegalProvisioningArgumentException should be thrown");
+        } catch (IllegalProvisioningArgumentException e) {
+            // THEN IllegalProvisioningArgumentException is thrown.
+        }
+    }
+
+    public void testParse_oversizedPayloadThrowsException() throws Exception {
+        // GIVEN a NFC provisioning payload larger than supported.
+        Properties properties = buildNfcProvisioningProperties();
+        properties.setProperty(EXTRA_PROVISIONING_ORGANIZATION_NAME,
+                new String(new char[PropertiesProvisioningDataParser.MAX_PAYLOAD_SIZE]));
+        Intent intent = buildNfcProvisioningIntent(properties);
+
+        try {
+            // WHEN the intent is parsed by the parser.
+            mPropertiesProvisioningDataParser.parse(intent);
+            fail("IllegalProvisioningArgumentException should be thrown");
+        } catch (IllegalProvisioningArgumentException e) {
+            // THEN IllegalProvisioningArgumentException is thrown.
+        }
+    }
+
     public void testGetFirstNdefRecord_nullNdefMessages() {
         // GIVEN nfc intent with no ndef messages
         Intent nfcIntent = new Intent(NfcAdapter.ACTION_NDEF_DISCOVERED);
@@ -678,11 +743,15 @@ public class PropertiesProvisioningDataParserTest extends AndroidTestCase {
     }
 
     private Intent buildNfcProvisioningIntent(Properties properties) throws IOException {
+        return buildNfcProvisioningIntent(buildNfcProvisioningMimeData(properties));
+    }
+
+    private Intent buildNfcProvisioningIntent(byte[] payload) {
         NdefMessage[] ndefMessages = new NdefMessage[] {
             new NdefMessage(new NdefRecord[] {
                 NdefRecord.createMime(
                         DevicePolicyManager.MIME_TYPE_PROVISIONING_NFC,
-                        buildNfcProvisioningMimeData(properties))
+                        payload)
             })
         };
         return new Intent(NfcAdapter.ACTION_NDEF_DISCOVERED)
@@ -32,6 +32,7 @@ import static org.mockito.Mockito.anyInt;
 import static org.mockito.Mockito.anyString;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
@@ -82,6 +83,7 @@ public class PreProvisioningControllerTest extends AndroidTestCase {
     private static final String TEST_WIFI_SSID = "TestNet";
     private static final String MP_PACKAGE_NAME = "com.android.managedprovisioning";
     private static final int TEST_USER_ID = 10;
+    private static final long UI_TIMEOUT_MS = 1000;
     private static final PackageDownloadInfo PACKAGE_DOWNLOAD_INFO =
             PackageDownloadInfo.Builder.builder()
                     .setCookieHeader("COOKIE_HEADER")
@@ -767,11 +769,12 @@ public class PreProvisioningControllerTest extends AndroidTestCase {
     }
 
     private void verifyInitiateProfileOwnerUi() {
-        verify(mUi).initiateUi(any());
+        // The disclaimer headings are sourced in the background.
+        verify(mUi, timeout(UI_TIMEOUT_MS)).initiateUi(any());
     }
 
     private void verifyInitiateDeviceOwnerUi() {
-        verify(mUi).initiateUi(any());
+        verify(mUi, timeout(UI_TIMEOUT_MS)).initiateUi(any());
     }
 
     private ProvisioningParams.Builder createProvisioningParamsBuilder() {
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2019, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.preprovisioning.terms;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.junit.Assert.fail;
+
+import android.content.Context;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.filters.SmallTest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Unit tests for {@link SystemAppTermsCache}.
+ */
+@SmallTest
+public class SystemAppTermsCacheTest {
+    private static final List<TermsDocument> TERMS = Arrays.asList(
+            TermsDocument.createInstance("header1", "content1"),
+            TermsDocument.createInstance("header2", "<b>content2</b>"));
+
+    private final Supplier<List<TermsDocument>> mFailingLoader = () -> {
+        fail("Terms shouldn't be loaded again");
+        return null;
+    };
+
+    private Context mContext;
+    private File mCacheFile;
+    private int mLoadCount;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mCacheFile = new File(mContext.getCacheDir(), SystemAppTermsCache.CACHE_FILE_NAME);
+        mCacheFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        mCacheFile.delete();
+    }
+
+    @Test
+    public void testGet_loadsOnce() {
+        SystemAppTermsCache cache = new SystemAppTermsCache();
+
+        assertTerms(cache.get(mContext, this::loadTerms));
+        assertTerms(cache.get(mContext, mFailingLoader));
+        assertThat(mLoadCount).isEqualTo(1);
+    }
+
+    @Test
+    public void testGet_readsPersistedTerms() {
+        // GIVEN terms cached by another instance, e.g. in a previous process
+        new SystemAppTermsCache().get(mContext, this::loadTerms);
+
+        // WHEN a new instance is asked for the terms
+        SystemAppTermsCache cache = new SystemAppTermsCache();
+
+        // THEN they are read from the file instead of being loaded
+        assertTerms(cache.get(mContext, mFailingLoader));
+    }
+
+    @Test
+    public void testGet_clearedMemoryReadsPersistedTerms() {
+        SystemAppTermsCache cache = new SystemAppTermsCache();
+        cache.get(mContext, this::loadTerms);
+
+        cache.clearMemory();
+
+        assertTerms(cache.get(mContext, mFailingLoader));
+    }
+
+    @Test
+    public void testGet_corruptedFileLoadsTerms() throws Exception {
+        // GIVEN a corrupted cache file
+        try (FileOutputStream out = new FileOutputStream(mCacheFile)) {
+            out.write(new byte[] {1, 2, 3});
+        }
+
+        // WHEN the terms are requested
+        SystemAppTermsCache cache = new SystemAppTermsCache();
+
+        // THEN they are loaded
+        assertTerms(cache.get(mContext, this::loadTerms));
+        assertThat(mLoadCount).isEqualTo(1);
+    }
+
+    private List<TermsDocument> loadTerms() {
+        mLoadCount++;
+        return TERMS;
+    }
+
+    private static void assertTerms(List<TermsDocument> terms) {
+        assertThat(terms).hasSize(TERMS.size());
+        for (int i = 0; i < TERMS.size(); i++) {
+            assertThat(terms.get(i).getHeading()).isEqualTo(TERMS.get(i).getHeading());
+            assertThat(terms.get(i).getContent()).isEqualTo(TERMS.get(i).getContent());
+        }
+    }
+}
@@ -29,12 +29,16 @@ import androidx.test.filters.SmallTest;
 
 import com.android.managedprovisioning.R;
 import com.android.managedprovisioning.common.Utils;
+import com.android.managedprovisioning.model.DisclaimersParam;
 import com.android.managedprovisioning.model.ProvisioningParams;
 
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 @SmallTest
 public class TermsProviderTest {
@@ -80,4 +84,58 @@ public class TermsProviderTest {
             }
         }
     }
+
+    @Test
+    public void getTermsHeadings_sameAsGetTerms() {
+        List<TermsDocument> terms = mTermsProvider.getTerms(DEVICE_OWNER_PARAMS, 0);
+        List<String> headings = mTermsProvider.getTermsHeadings(DEVICE_OWNER_PARAMS, 0);
+
+        assertThat(headings.size(), equalTo(terms.size()));
+        for (int i = 0; i < terms.size(); i++) {
+            assertThat(headings.get(i), equalTo(terms.get(i).getHeading()));
+        }
+    }
+
+    @Test
+    public void getTermsHeadings_skipsDisclaimerWithoutContent() {
+        DisclaimersParam.Disclaimer disclaimer =
+                new DisclaimersParam.Disclaimer("Missing", "/does/not/exist");
+        ProvisioningParams params = DEVICE_OWNER_PARAMS.toBuilder()
+                .setDisclaimersParam(new DisclaimersParam.Builder()
+                        .setDisclaimers(new DisclaimersParam.Disclaimer[] {disclaimer})
+                        .build())
+                .build();
+
+        List<String> headings = mTermsProvider.getTermsHeadings(params, 0);
+
+        assertThat(headings.size(), equalTo(mTermsProvider.getTerms(params, 0).size()));
+        assertThat(headings.contains("Missing"), equalTo(false));
+    }
+
+    @Test
+    public void loadTerms_sameAsGetTerms() throws Exception {
+        List<TermsDocument> expected = mTermsProvider.getTerms(DEVICE_OWNER_PARAMS, 0);
+        List<TermsDocument> loaded = new ArrayList<>();
+        CountDownLatch latch = new CountDownLatch(1);
+
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() ->
+                mTermsProvider.loadTerms(DEVICE_OWNER_PARAMS, 0, new TermsProvider.Callback() {
+                    @Override
+                    public void onTermsDocumentLoaded(TermsDocument document) {
+                        loaded.add(document);
+                    }
+
+                    @Override
+                    public void onTermsLoaded() {
+                        latch.countDown();
+                    }
+                }));
+
+        assertThat(latch.await(10, TimeUnit.SECONDS), equalTo(true));
+        assertThat(loaded.size(), equalTo(expected.size()));
+        for (int i = 0; i < expected.size(); i++) {
+            assertThat(loaded.get(i).getHeading(), equalTo(expected.get(i).getHeading()));
+            assertThat(loaded.get(i).getContent(), equalTo(expected.get(i).getContent()));
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2019, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.preprovisioning.terms.adapters;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.content.Intent;
+import android.widget.TextView;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.filters.SmallTest;
+
+import com.android.managedprovisioning.common.ClickableSpanFactory;
+import com.android.managedprovisioning.common.HtmlToSpannedParser;
+import com.android.managedprovisioning.preprovisioning.terms.TermsDocument;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Unit tests for {@link TermsContentRenderer}.
+ */
+@SmallTest
+public class TermsContentRendererTest {
+    private static final TermsDocument SHORT_DOCUMENT =
+            TermsDocument.createInstance("header", "<b>short</b> content");
+    private static final TermsDocument LONG_DOCUMENT =
+            TermsDocument.createInstance("long header", createLongContent());
+
+    private final Instrumentation mInstrumentation = InstrumentationRegistry.getInstrumentation();
+    private final List<Runnable> mQueuedRenders = new ArrayList<>();
+
+    private HtmlToSpannedParser mHtmlToSpannedParser;
+    private TermsContentRenderer mRenderer;
+    private TextView mTextView;
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getTargetContext();
+        mHtmlToSpannedParser = spy(new HtmlToSpannedParser(new ClickableSpanFactory(0),
+                url -> new Intent()));
+        mRenderer = new TermsContentRenderer(context, mHtmlToSpannedParser, mQueuedRenders::add);
+        mTextView = new TextView(context);
+    }
+
+    @Test
+    public void testShortContent_renderedOnceAndCached() {
+        // WHEN a short document is displayed twice
+        mInstrumentation.runOnMainSync(() -> {
+            mRenderer.populateContentTextView(mTextView, SHORT_DOCUMENT);
+            mRenderer.populateContentTextView(mTextView, SHORT_DOCUMENT);
+        });
+
+        // THEN it is rendered right away, only once
+        assertThat(mTextView.getText().toString()).isEqualTo("short content");
+        assertThat(mQueuedRenders).isEmpty();
+        verify(mHtmlToSpannedParser, times(1)).parseHtml(anyString());
+    }
+
+    @Test
+    public void testLongContent_renderedInBackground() {
+        // WHEN a long document is displayed
+        mInstrumentation.runOnMainSync(
+                () -> mRenderer.populateContentTextView(mTextView, LONG_DOCUMENT));
+
+        // THEN nothing is displayed until it is rendered in the background
+        assertThat(mTextView.getText().toString()).isEmpty();
+        runQueuedRenders();
+        assertThat(mTextView.getText().toString()).startsWith("paragraph");
+        verify(mHtmlToSpannedParser, times(1)).parseHtml(anyString());
+    }
+
+    @Test
+    public void testLongContent_viewRebound() {
+        // GIVEN a view waiting for a long document to be rendered
+        mInstrumentation.runOnMainSync(
+                () -> mRenderer.populateContentTextView(mTextView, LONG_DOCUMENT));
+
+        // WHEN the view is bound to another document before the rendering is done
+        mInstrumentation.runOnMainSync(
+                () -> mRenderer.populateContentTextView(mTextView, SHORT_DOCUMENT));
+        runQueuedRenders();
+
+        // THEN the view keeps displaying the other document
+        assertThat(mTextView.getText().toString()).isEqualTo("short content");
+    }
+
+    @Test
+    public void testLongContent_notRendered() {
+        // GIVEN a long document whose content can't be rendered
+        doReturn(null).when(mHtmlToSpannedParser).parseHtml(anyString());
+
+        // WHEN it is displayed
+        mInstrumentation.runOnMainSync(
+                () -> mRenderer.populateContentTextView(mTextView, LONG_DOCUMENT));
+        runQueuedRenders();
+
+        // THEN the view stays empty
+        assertThat(mTextView.getText().toString()).isEmpty();
+        assertThat(mTextView.getContentDescription()).isNull();
+    }
+
+    @Test
+    public void testPrerender() {
+        // GIVEN a long document rendered ahead of being displayed
+        mInstrumentation.runOnMainSync(() -> mRenderer.prerender(LONG_DOCUMENT));
+        runQueuedRenders();
+
+        // WHEN it is displayed
+        mInstrumentation.runOnMainSync(
+                () -> mRenderer.populateContentTextView(mTextView, LONG_DOCUMENT));
+
+        // THEN it is displayed right away, without rendering it again
+        assertThat(mTextView.getText().toString()).startsWith("paragraph");
+        assertThat(mQueuedRenders).isEmpty();
+        verify(mHtmlToSpannedParser, times(1)).parseHtml(anyString());
+    }
+
+    private void runQueuedRenders() {
+        for (Runnable render : mQueuedRenders) {
+            render.run();
+        }
+        mQueuedRenders.clear();
+        // Rendered content is delivered on the main thread.
+        mInstrumentation.waitForIdleSync();
+    }
+
+    private static String createLongContent() {
+        StringBuilder content = new StringBuilder();
+        while (content.length() <= TermsContentRenderer.MAX_SYNC_RENDER_LENGTH) {
+            content.append("<p>paragraph <a href=\"https://www.android.com\">link</a></p>");
+        }
+        return content.toString();
+    }
+}
@@ -40,6 +40,7 @@ import com.android.managedprovisioning.task.DisallowAddUserTask;
 import com.android.managedprovisioning.task.DownloadPackageTask;
 import com.android.managedprovisioning.task.InstallPackageTask;
 import com.android.managedprovisioning.task.SetDevicePolicyTask;
+import com.android.managedprovisioning.task.StreamingInstallPackageTask;
 import com.android.managedprovisioning.task.VerifyPackageTask;
 
 import org.mockito.Mock;
@@ -104,6 +105,106 @@ public class DeviceOwnerProvisioningControllerTest extends ProvisioningControlle
         verify(mCallback).provisioningTasksCompleted();
     }
 
+    @SmallTest
+    public void testIndependentTasksRunInParallel() throws Exception {
+        // GIVEN device owner provisioning was invoked with a wifi and download info
+        createController(createProvisioningParamsBuilder().build());
+
+        // WHEN starting the test run
+        mController.start(mHandler);
+
+        // THEN the initialization task is run first
+        taskSucceeded(DeviceOwnerInitializeProvisioningTask.class);
+
+        // THEN the add wifi and delete non-required apps tasks are both run without waiting for
+        // each other
+        AbstractProvisioningTask wifiTask = verifyTaskRun(AddWifiNetworkTask.class);
+        AbstractProvisioningTask deleteTask = verifyTaskRun(DeleteNonRequiredAppsTask.class);
+
+        // WHEN the delete non-required apps task completes
+        mController.onSuccess(deleteTask);
+
+        // THEN the set device policy task still waits for the admin package to be installed
+        verifyTaskNotRun(SetDevicePolicyTask.class);
+
+        // WHEN the package is downloaded, verified and installed
+        mController.onSuccess(wifiTask);
+        taskSucceeded(DownloadPackageTask.class);
+        taskSucceeded(VerifyPackageTask.class);
+        taskSucceeded(InstallPackageTask.class);
+
+        // THEN the set device policy task should be run
+        taskSucceeded(SetDevicePolicyTask.class);
+
+        // THEN the disallow add user task should be run only once the device owner is set
+        taskSucceeded(DisallowAddUserTask.class);
+
+        // THEN the provisioning complete callback should have happened
+        verify(mCallback).provisioningTasksCompleted();
+    }
+
+    @SmallTest
+    public void testAdminPackageNameOnly_deleteNonRequiredAppsWaitsForInstall()
+            throws Exception {
+        // GIVEN device owner provisioning was invoked with only the admin package name
+        createController(createProvisioningParamsBuilder()
+                .setDeviceAdminComponentName(null)
+                .setDeviceAdminPackageName(TEST_ADMIN.getPackageName())
+                .build());
+
+        // WHEN starting the test run
+        mController.start(mHandler);
+        taskSucceeded(DeviceOwnerInitializeProvisioningTask.class);
+
+        // THEN the delete non-required apps task waits for the admin package to be installed
+        taskSucceeded(AddWifiNetworkTask.class);
+        taskSucceeded(DownloadPackageTask.class);
+        verifyTaskNotRun(DeleteNonRequiredAppsTask.class);
+        taskSucceeded(VerifyPackageTask.class);
+        taskSucceeded(InstallPackageTask.class);
+        taskSucceeded(DeleteNonRequiredAppsTask.class);
+        taskSucceeded(SetDevicePolicyTask.class);
+        taskSucceeded(DisallowAddUserTask.class);
+
+        // THEN the provisioning complete callback should have happened
+        verify(mCallback).provisioningTasksCompleted();
+    }
+
+    @SmallTest
+    public void testPackageChecksum_downloadsPackageByDefault() throws Exception {
+        // GIVEN device owner provisioning was invoked with a package checksum
+        createController(createProvisioningParamsBuilder()
+                .setDeviceAdminDownloadInfo(new PackageDownloadInfo.Builder()
+                        .setLocation(TEST_DOWNLOAD_LOCATION)
+                        .setPackageChecksum(TEST_PACKAGE_CHECKSUM)
+                        .build())
+                .build());
+
+        // WHEN starting the test run
+        mController.start(mHandler);
+
+        // THEN the initialization task is run first
+        taskSucceeded(DeviceOwnerInitializeProvisioningTask.class);
+
+        // THEN the add wifi task should be run
+        taskSucceeded(AddWifiNetworkTask.class);
+
+        // THEN the package is downloaded, verified and installed by separate tasks, as streaming
+        // isn't enabled
+        taskSucceeded(DownloadPackageTask.class);
+        taskSucceeded(VerifyPackageTask.class);
+        taskSucceeded(InstallPackageTask.class);
+        verifyTaskNotRun(StreamingInstallPackageTask.class);
+
+        // THEN the remaining tasks should be run
+        taskSucceeded(DeleteNonRequiredAppsTask.class);
+        taskSucceeded(SetDevicePolicyTask.class);
+        taskSucceeded(DisallowAddUserTask.class);
+
+        // THEN the provisioning complete callback should have happened
+        verify(mCallback).provisioningTasksCompleted();
+    }
+
     @SmallTest
     public void testNoWifiInfo() throws Exception {
         // GIVEN device owner provisioning was invoked with a wifi and download info
@@ -18,11 +18,14 @@ package com.android.managedprovisioning.provisioning;
 
 import static android.app.admin.DevicePolicyManager.ACTION_PROVISION_MANAGED_PROFILE;
 
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doAnswer;
-import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -85,7 +88,8 @@ public class ProfileOwnerProvisioningControllerTest extends ProvisioningControll
             }
         };
 
-        when(mUserManager.createProfileForUser(anyString(), anyInt(), eq(TEST_PARENT_USER_ID)))
+        when(mUserManager.createProfileForUserEvenWhenDisallowed(anyString(), anyInt(),
+                eq(TEST_PARENT_USER_ID), any(String[].class)))
                 .thenReturn(new UserInfo(TEST_PROFILE_USER_ID, null, 0));
     }
 
@@ -98,12 +102,12 @@ public class ProfileOwnerProvisioningControllerTest extends ProvisioningControll
         mController.start(mHandler);
 
         // THEN the create managed profile task is run first
-        verifyTaskRun(CreateManagedProfileTask.class);
+        CreateManagedProfileTask createManagedProfileTask =
+                (CreateManagedProfileTask) verifyTaskRun(CreateManagedProfileTask.class);
 
-        // WHEN the task completes successfully
-        CreateManagedProfileTask createManagedProfileTask = mock(CreateManagedProfileTask.class);
-        when(createManagedProfileTask.getProfileUserId()).thenReturn(TEST_PROFILE_USER_ID);
-        mController.onSuccess(createManagedProfileTask);
+        // WHEN the task creates the profile successfully
+        createManagedProfileTask.run(TEST_PARENT_USER_ID);
+        assertEquals(TEST_PROFILE_USER_ID, createManagedProfileTask.getProfileUserId());
 
         // THEN the install existing package task is run
         taskSucceeded(InstallExistingPackageTask.class);
@@ -136,12 +140,12 @@ public class ProfileOwnerProvisioningControllerTest extends ProvisioningControll
         mController.start(mHandler);
 
         // THEN the create managed profile task is run first
-        verifyTaskRun(CreateManagedProfileTask.class);
+        CreateManagedProfileTask createManagedProfileTask =
+                (CreateManagedProfileTask) verifyTaskRun(CreateManagedProfileTask.class);
 
-        // WHEN the task completes successfully
-        CreateManagedProfileTask createManagedProfileTask = mock(CreateManagedProfileTask.class);
-        when(createManagedProfileTask.getProfileUserId()).thenReturn(TEST_PROFILE_USER_ID);
-        mController.onSuccess(createManagedProfileTask);
+        // WHEN the task creates the profile successfully
+        createManagedProfileTask.run(TEST_PARENT_USER_ID);
+        assertEquals(TEST_PROFILE_USER_ID, createManagedProfileTask.getProfileUserId());
 
         // THEN the install existing package task is run
         AbstractProvisioningTask task = verifyTaskRun(InstallExistingPackageTask.class);
@@ -172,6 +176,35 @@ public class ProfileOwnerProvisioningControllerTest extends ProvisioningControll
         assertNull(mHandler.getLastTask());
     }
 
+    @MediumTest
+    public void testErrorAfterCancel_ignored() throws Exception {
+        // GIVEN device profile owner provisioning was invoked
+        createController();
+        mController.start(mHandler);
+        CreateManagedProfileTask createManagedProfileTask =
+                (CreateManagedProfileTask) verifyTaskRun(CreateManagedProfileTask.class);
+        createManagedProfileTask.run(TEST_PARENT_USER_ID);
+        AbstractProvisioningTask task = verifyTaskRun(InstallExistingPackageTask.class);
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            latch.countDown();
+            return null;
+        }).when(mCallback).cleanUpCompleted();
+
+        // WHEN the user cancels the provisioning progress
+        mController.cancel();
+        assertTrue(latch.await(1, TimeUnit.SECONDS));
+
+        // WHEN the install existing package task eventually fails
+        mController.onError(task, 0);
+
+        // THEN the error is ignored and the profile is only removed once
+        verify(mCallback, never()).error(anyInt(), anyInt(), anyBoolean());
+        verify(mCallback, times(1)).cleanUpCompleted();
+        verify(mUserManager, times(1)).removeUserEvenWhenDisallowed(TEST_PROFILE_USER_ID);
+    }
+
     @SmallTest
     public void testError() throws Exception {
         // GIVEN device profile owner provisioning was invoked
@@ -181,12 +214,12 @@ public class ProfileOwnerProvisioningControllerTest extends ProvisioningControll
         mController.start(mHandler);
 
         // THEN the create managed profile task is run first
-        verifyTaskRun(CreateManagedProfileTask.class);
+        CreateManagedProfileTask createManagedProfileTask =
+                (CreateManagedProfileTask) verifyTaskRun(CreateManagedProfileTask.class);
 
-        // WHEN the task completes successfully
-        CreateManagedProfileTask createManagedProfileTask = mock(CreateManagedProfileTask.class);
-        when(createManagedProfileTask.getProfileUserId()).thenReturn(TEST_PROFILE_USER_ID);
-        mController.onSuccess(createManagedProfileTask);
+        // WHEN the task creates the profile successfully
+        createManagedProfileTask.run(TEST_PARENT_USER_ID);
+        assertEquals(TEST_PROFILE_USER_ID, createManagedProfileTask.getProfileUserId());
 
         // THEN the install existing package task is run
         AbstractProvisioningTask task = verifyTaskRun(InstallExistingPackageTask.class);
@@ -203,6 +236,8 @@ public class ProfileOwnerProvisioningControllerTest extends ProvisioningControll
         mParams = new ProvisioningParams.Builder()
                 .setDeviceAdminComponentName(TEST_ADMIN)
                 .setProvisioningAction(ACTION_PROVISION_MANAGED_PROFILE)
+                // Keeps the profile creation away from the system apps of the device
+                .setLeaveAllSystemAppsEnabled(true)
                 .build();
 
         mController = new ProfileOwnerProvisioningController(
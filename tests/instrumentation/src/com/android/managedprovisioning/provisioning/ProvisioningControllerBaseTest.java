@@ -28,8 +28,10 @@ import com.android.managedprovisioning.task.AbstractProvisioningTask;
 
 import org.mockito.MockitoAnnotations;
 
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -65,13 +67,24 @@ public abstract class ProvisioningControllerBaseTest extends AndroidTestCase {
         mController.onSuccess(task);
     }
 
+    /**
+     * Verifies that a task of the given class has been dispatched. Tasks that run in parallel may
+     * be dispatched in any order, so tasks of other classes are kept for later verifications.
+     */
     protected AbstractProvisioningTask verifyTaskRun(Class expected) throws Exception {
-        AbstractProvisioningTask task = mHandler.getLastTask();
+        AbstractProvisioningTask task = mHandler.getTask(expected);
         assertNotNull(task);
         assertEquals(expected, task.getClass());
         return task;
     }
 
+    /**
+     * Verifies that no task of the given class is dispatched within a short time.
+     */
+    protected void verifyTaskNotRun(Class unexpected) throws Exception {
+        assertNull(mHandler.getTask(unexpected, 1, TimeUnit.SECONDS));
+    }
+
     protected class FakeTaskHandler extends Handler {
 
         FakeTaskHandler(Looper looper) {
@@ -79,12 +92,39 @@ public abstract class ProvisioningControllerBaseTest extends AndroidTestCase {
         }
 
         private BlockingQueue<AbstractProvisioningTask> mBlockingQueue
-                = new ArrayBlockingQueue<>(1);
+                = new LinkedBlockingQueue<>();
+        private final List<AbstractProvisioningTask> mDispatchedTasks = new ArrayList<>();
 
         public AbstractProvisioningTask getLastTask() throws Exception {
+            if (!mDispatchedTasks.isEmpty()) {
+                return mDispatchedTasks.remove(0);
+            }
             return mBlockingQueue.poll(10, TimeUnit.SECONDS);
         }
 
+        public AbstractProvisioningTask getTask(Class expected) throws Exception {
+            return getTask(expected, 10, TimeUnit.SECONDS);
+        }
+
+        public AbstractProvisioningTask getTask(Class expected, long timeout, TimeUnit unit)
+                throws Exception {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            while (true) {
+                for (AbstractProvisioningTask task : mDispatchedTasks) {
+                    if (expected.equals(task.getClass())) {
+                        mDispatchedTasks.remove(task);
+                        return task;
+                    }
+                }
+                AbstractProvisioningTask task = mBlockingQueue.poll(
+                        deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (task == null) {
+                    return null;
+                }
+                mDispatchedTasks.add(task);
+            }
+        }
+
         public void handleMessage(Message msg) {
             if (msg.what == MSG_RUN_TASK) {
                 assertTrue(mBlockingQueue.add((AbstractProvisioningTask) msg.obj));
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2019, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.provisioning;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.managedprovisioning.task.AbstractProvisioningTask;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+/**
+ * Unit tests for {@link ProvisioningTaskGraph}.
+ */
+@SmallTest
+public class ProvisioningTaskGraphTest {
+
+    @Mock private AbstractProvisioningTask mTask1;
+    @Mock private AbstractProvisioningTask mTask2;
+    @Mock private AbstractProvisioningTask mTask3;
+    @Mock private AbstractProvisioningTask mTask4;
+
+    private ProvisioningTaskGraph mGraph;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+
+        mGraph = new ProvisioningTaskGraph();
+    }
+
+    @Test
+    public void testEmptyGraph_isCompleted() {
+        assertTrue(mGraph.isCompleted());
+        assertThat(mGraph.takeReadyTasks(Integer.MAX_VALUE)).isEmpty();
+    }
+
+    @Test
+    public void testChain_runsOneAfterAnother() {
+        // GIVEN a chain of three tasks
+        mGraph.add(mTask1);
+        mGraph.add(mTask2, mTask1);
+        mGraph.add(mTask3, mTask2);
+
+        // THEN only the first task is ready
+        assertThat(mGraph.takeReadyTasks(Integer.MAX_VALUE)).containsExactly(mTask1);
+
+        // WHEN the first task completes
+        assertTrue(mGraph.markCompleted(mTask1));
+
+        // THEN the second task is ready
+        assertThat(mGraph.takeReadyTasks(Integer.MAX_VALUE)).containsExactly(mTask2);
+        assertTrue(mGraph.markCompleted(mTask2));
+        assertThat(mGraph.takeReadyTasks(Integer.MAX_VALUE)).containsExactly(mTask3);
+        assertTrue(mGraph.markCompleted(mTask3));
+
+        // THEN the graph is completed
+        assertTrue(mGraph.isCompleted());
+        assertThat(mGraph.getCompletedCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void testIndependentTasks_areReadyTogether() {
+        // GIVEN two tasks depending on a common task and one depending on both
+        mGraph.add(mTask1);
+        mGraph.add(mTask2, mTask1);
+        mGraph.add(mTask3, mTask1);
+        mGraph.add(mTask4, mTask2, mTask3);
+
+        assertThat(mGraph.takeReadyTasks(Integer.MAX_VALUE)).containsExactly(mTask1);
+        mGraph.markCompleted(mTask1);
+
+        // THEN both independent tasks are ready, in insertion order
+        assertThat(mGraph.takeReadyTasks(Integer.MAX_VALUE))
+                .containsExactly(mTask2, mTask3).inOrder();
+        assertThat(mGraph.getRunningTasks()).containsExactly(mTask2, mTask3);
+
+        // WHEN only one of them completes
+        mGraph.markCompleted(mTask3);
+
+        // THEN the joining task is not ready yet
+        assertThat(mGraph.takeReadyTasks(Integer.MAX_VALUE)).isEmpty();
+
+        // WHEN the other one completes
+        mGraph.markCompleted(mTask2);
+
+        // THEN the joining task is ready
+        assertThat(mGraph.takeReadyTasks(Integer.MAX_VALUE)).containsExactly(mTask4);
+    }
+
+    @Test
+    public void testTakeReadyTasks_respectsLimit() {
+        mGraph.add(mTask1);
+        mGraph.add(mTask2);
+        mGraph.add(mTask3);
+
+        assertThat(mGraph.takeReadyTasks(2)).containsExactly(mTask1, mTask2).inOrder();
+        assertThat(mGraph.takeReadyTasks(2)).containsExactly(mTask3);
+    }
+
+    @Test
+    public void testMarkCompleted_notRunning() {
+        mGraph.add(mTask1);
+
+        // Task has not been taken yet
+        assertFalse(mGraph.markCompleted(mTask1));
+        // Unknown task
+        assertFalse(mGraph.markCompleted(mTask2));
+
+        mGraph.takeReadyTasks(1);
+        assertTrue(mGraph.markCompleted(mTask1));
+        // Completed twice
+        assertFalse(mGraph.markCompleted(mTask1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAdd_unknownDependency() {
+        mGraph.add(mTask1, mTask2);
+    }
+}
@@ -18,6 +18,9 @@ package com.android.managedprovisioning.task;
 
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
@@ -31,6 +34,8 @@ import android.os.UserManager;
 
 import androidx.test.filters.SmallTest;
 
+import com.android.managedprovisioning.common.ManagedProvisioningSharedPreferences;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
@@ -38,6 +43,8 @@ import org.mockito.MockitoAnnotations;
 
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Unit tests for {@link CrossProfileIntentFiltersSetter}
@@ -50,14 +57,23 @@ public class CrossProfileIntentFiltersSetterTest {
 
     @Mock PackageManager mPackageManager;
     @Mock UserManager mUserManager;
+    @Mock ManagedProvisioningSharedPreferences mSharedPreferences;
 
+    private final Map<Integer, String> mFiltersState = new HashMap<>();
     private CrossProfileIntentFiltersSetter mSetter;
 
     @Before
     public void setUp() {
         MockitoAnnotations.initMocks(this);
 
-        mSetter = new CrossProfileIntentFiltersSetter(mPackageManager, mUserManager);
+        when(mSharedPreferences.getCrossProfileIntentFiltersState(anyInt()))
+                .thenAnswer(invocation -> mFiltersState.get(invocation.getArgument(0)));
+        doAnswer(invocation -> mFiltersState.put(invocation.getArgument(0),
+                invocation.getArgument(1)))
+                .when(mSharedPreferences).writeCrossProfileIntentFiltersState(anyInt(), any());
+
+        mSetter = new CrossProfileIntentFiltersSetter(mPackageManager, mUserManager,
+                mSharedPreferences);
     }
 
     @Test
@@ -115,4 +131,83 @@ public class CrossProfileIntentFiltersSetterTest {
         verify(mPackageManager, times(CrossProfileIntentFiltersSetter.FILTERS.size()))
                 .addCrossProfileIntentFilter(any(IntentFilter.class), anyInt(), anyInt(), anyInt());
     }
+
+    @Test
+    public void testResetFilters_Unchanged() {
+        // GIVEN that the filters were reset for a profile
+        setUpProfile();
+        mSetter.resetFilters(TEST_PARENT_USER_ID);
+        reset(mPackageManager);
+
+        // WHEN calling reset filters again
+        mSetter.resetFilters(TEST_PARENT_USER_ID);
+
+        // THEN nothing should happen
+        verifyZeroInteractions(mPackageManager);
+    }
+
+    @Test
+    public void testResetFilters_SharingAllowedAgain() {
+        // GIVEN that the filters were reset while sharing into the profile was disallowed
+        setUpProfile();
+        setSharingIntoProfileDisallowed(true);
+        mSetter.resetFilters(TEST_PARENT_USER_ID);
+        reset(mPackageManager);
+
+        // WHEN sharing is allowed again
+        setSharingIntoProfileDisallowed(false);
+        mSetter.resetFilters(TEST_PARENT_USER_ID);
+
+        // THEN the existing filters are kept
+        verify(mPackageManager, never()).clearCrossProfileIntentFilters(anyInt());
+
+        // THEN only the filters that share data into the profile are added
+        verify(mPackageManager, times(countSharingIntoProfileFilters()))
+                .addCrossProfileIntentFilter(any(IntentFilter.class), anyInt(), anyInt(), anyInt());
+        verify(mPackageManager).addCrossProfileIntentFilter(
+                CrossProfileIntentFiltersSetter.ACTION_SEND.filter,
+                TEST_PARENT_USER_ID, TEST_PROFILE_USER_ID,
+                CrossProfileIntentFiltersSetter.ACTION_SEND.flags);
+    }
+
+    @Test
+    public void testResetFilters_SharingDisallowed() {
+        // GIVEN that the filters were reset while sharing into the profile was allowed
+        setUpProfile();
+        mSetter.resetFilters(TEST_PARENT_USER_ID);
+        reset(mPackageManager);
+
+        // WHEN sharing is disallowed
+        setSharingIntoProfileDisallowed(true);
+        mSetter.resetFilters(TEST_PARENT_USER_ID);
+
+        // THEN all filters are reset
+        verify(mPackageManager).clearCrossProfileIntentFilters(TEST_PARENT_USER_ID);
+        verify(mPackageManager).clearCrossProfileIntentFilters(TEST_PROFILE_USER_ID);
+        verify(mPackageManager, times(CrossProfileIntentFiltersSetter.FILTERS.size()
+                - countSharingIntoProfileFilters()))
+                .addCrossProfileIntentFilter(any(IntentFilter.class), anyInt(), anyInt(), anyInt());
+    }
+
+    private void setUpProfile() {
+        UserInfo parent = new UserInfo(TEST_PARENT_USER_ID, null, UserInfo.FLAG_PRIMARY);
+        UserInfo profile = new UserInfo(TEST_PROFILE_USER_ID, null, UserInfo.FLAG_MANAGED_PROFILE);
+        when(mUserManager.getProfiles(TEST_PARENT_USER_ID))
+                .thenReturn(Arrays.asList(parent, profile));
+    }
+
+    private void setSharingIntoProfileDisallowed(boolean disallowed) {
+        when(mUserManager.hasUserRestriction(UserManager.DISALLOW_SHARE_INTO_MANAGED_PROFILE,
+                UserHandle.of(TEST_PROFILE_USER_ID))).thenReturn(disallowed);
+    }
+
+    private int countSharingIntoProfileFilters() {
+        int count = 0;
+        for (CrossProfileIntentFilter filter : CrossProfileIntentFiltersSetter.FILTERS) {
+            if (filter.letsPersonalDataIntoProfile) {
+                count++;
+            }
+        }
+        return count;
+    }
 }
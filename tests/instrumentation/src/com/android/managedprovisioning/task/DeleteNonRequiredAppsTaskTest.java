@@ -45,9 +45,11 @@ import org.junit.Test;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 @SmallTest
@@ -145,6 +147,44 @@ public class DeleteNonRequiredAppsTaskTest {
         assertDeletedApps();
     }
 
+    @Test
+    public void testDeletionFailedOnce_retried() {
+        // GIVEN that one app should be deleted
+        when(mLogic.getSystemAppsToRemove(TEST_USER_ID))
+            .thenReturn(setFromArray("app.a"));
+        mPackageManager.setInstalledApps(setFromArray("app.a"));
+
+        // GIVEN that the first deletion fails
+        mPackageManager.setFailuresBeforeSuccess(1);
+
+        // WHEN running the task
+        mTask.run(TEST_USER_ID);
+
+        // THEN the deletion is retried and success should be called
+        verify(mCallback).onSuccess(mTask);
+        verifyNoMoreInteractions(mCallback);
+        assertDeletedApps("app.a");
+    }
+
+    @Test
+    public void testDeletionFailed_otherAppsStillDeleted() {
+        // GIVEN that two apps should be deleted
+        when(mLogic.getSystemAppsToRemove(TEST_USER_ID))
+            .thenReturn(setFromArray("app.a", "app.b"));
+        mPackageManager.setInstalledApps(setFromArray("app.a", "app.b"));
+
+        // GIVEN that deleting app a always fails
+        mPackageManager.setFailingApp("app.a");
+
+        // WHEN running the task
+        mTask.run(TEST_USER_ID);
+
+        // THEN app b is deleted anyway, and error should be returned
+        assertDeletedApps("app.b");
+        verify(mCallback).onError(mTask, 0);
+        verifyNoMoreInteractions(mCallback);
+    }
+
     @Test
     public void testDeletionFailed() {
         // GIVEN that one app should be deleted
@@ -180,12 +220,22 @@ public class DeleteNonRequiredAppsTaskTest {
 
     class FakePackageManager extends MockPackageManager {
         private boolean mDeletionSucceeds = true;
+        private int mFailuresBeforeSuccess = 0;
+        private String mFailingApp;
         private Set<String> mInstalledApps = new HashSet<>();
 
         void setDeletionSucceeds(boolean deletionSucceeds) {
             mDeletionSucceeds = deletionSucceeds;
         }
 
+        void setFailuresBeforeSuccess(int failures) {
+            mFailuresBeforeSuccess = failures;
+        }
+
+        void setFailingApp(String packageName) {
+            mFailingApp = packageName;
+        }
+
         void setInstalledApps(Set<String> set) {
             mInstalledApps = set;
         }
@@ -193,19 +243,23 @@ public class DeleteNonRequiredAppsTaskTest {
         @Override
         public void deletePackageAsUser(String packageName, IPackageDeleteObserver observer,
                 int flags, int userId) {
-            if (mDeletionSucceeds) {
-                mDeletedApps.add(packageName);
+            boolean succeeds = mDeletionSucceeds && mFailuresBeforeSuccess == 0
+                    && !packageName.equals(mFailingApp);
+            if (mFailuresBeforeSuccess > 0) {
+                mFailuresBeforeSuccess--;
             }
             assertTrue((flags & PackageManager.DELETE_SYSTEM_APP) != 0);
             assertEquals(TEST_USER_ID, userId);
+            assertTrue(mInstalledApps.contains(packageName));
 
             int resultCode;
-            if (mDeletionSucceeds) {
+            if (succeeds) {
+                mDeletedApps.add(packageName);
+                mInstalledApps.remove(packageName);
                 resultCode = PackageManager.DELETE_SUCCEEDED;
             } else {
                 resultCode = PackageManager.DELETE_FAILED_INTERNAL_ERROR;
             }
-            assertTrue(mInstalledApps.remove(packageName));
 
             try {
                 observer.packageDeleted(packageName, resultCode);
@@ -215,12 +269,16 @@ public class DeleteNonRequiredAppsTaskTest {
         }
 
         @Override
-        public PackageInfo getPackageInfoAsUser(String pkg, int flag, int userId)
-                throws NameNotFoundException {
-            if (mInstalledApps.contains(pkg) && userId == TEST_USER_ID) {
-                return new PackageInfo();
+        public List<PackageInfo> getInstalledPackagesAsUser(int flags, int userId) {
+            List<PackageInfo> infos = new ArrayList<>();
+            if (userId == TEST_USER_ID) {
+                for (String packageName : mInstalledApps) {
+                    PackageInfo info = new PackageInfo();
+                    info.packageName = packageName;
+                    infos.add(info);
+                }
             }
-            throw new NameNotFoundException();
+            return infos;
         }
     }
 }
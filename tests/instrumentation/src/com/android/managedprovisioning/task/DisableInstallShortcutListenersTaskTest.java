@@ -0,0 +1,119 @@
+/*
+ * Copyright 2019, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.task;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ActivityInfo;
+import android.content.pm.IPackageManager;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.managedprovisioning.analytics.ProvisioningAnalyticsTracker;
+import com.android.managedprovisioning.common.Utils;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+
+/**
+ * Unit tests for {@link DisableInstallShortcutListenersTask}.
+ */
+@SmallTest
+public class DisableInstallShortcutListenersTaskTest {
+    private static final int TEST_USER_ID = 10;
+    private static final String SYSTEM_PACKAGE_1 = "com.test.system1";
+    private static final String SYSTEM_PACKAGE_2 = "com.test.system2";
+    private static final String OTHER_PACKAGE = "com.test.other";
+
+    @Mock private Context mContext;
+    @Mock private PackageManager mPackageManager;
+    @Mock private IPackageManager mIPackageManager;
+    @Mock private Utils mUtils;
+    @Mock private AbstractProvisioningTask.Callback mCallback;
+    @Mock private ProvisioningAnalyticsTracker mProvisioningAnalyticsTracker;
+
+    private DisableInstallShortcutListenersTask mTask;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        when(mContext.getPackageManager()).thenReturn(mPackageManager);
+        when(mUtils.getCurrentSystemApps(mIPackageManager, TEST_USER_ID))
+                .thenReturn(new HashSet<>(Arrays.asList(SYSTEM_PACKAGE_1, SYSTEM_PACKAGE_2)));
+        mTask = new DisableInstallShortcutListenersTask(mContext, null, mCallback,
+                mProvisioningAnalyticsTracker, mIPackageManager, mUtils);
+    }
+
+    @Test
+    public void testRun_onlySystemAppReceiversDisabled() {
+        // GIVEN listeners in two system apps and in one other app
+        when(mPackageManager.queryBroadcastReceiversAsUser(any(Intent.class), anyInt(),
+                eq(TEST_USER_ID))).thenReturn(Arrays.asList(
+                        createResolveInfo(SYSTEM_PACKAGE_1, ".Receiver1"),
+                        createResolveInfo(SYSTEM_PACKAGE_1, ".Receiver2"),
+                        createResolveInfo(SYSTEM_PACKAGE_2, ".Receiver"),
+                        createResolveInfo(OTHER_PACKAGE, ".Receiver")));
+
+        // WHEN running the task
+        mTask.run(TEST_USER_ID);
+
+        // THEN the listeners are resolved once, for all packages
+        ArgumentCaptor<Intent> intent = ArgumentCaptor.forClass(Intent.class);
+        verify(mPackageManager, times(1)).queryBroadcastReceiversAsUser(intent.capture(),
+                anyInt(), eq(TEST_USER_ID));
+        assertThat(intent.getValue().getPackage()).isNull();
+
+        // THEN only the listeners of system apps are disabled
+        ArgumentCaptor<Collection<ComponentName>> disabled =
+                ArgumentCaptor.forClass(Collection.class);
+        verify(mUtils).disableComponents(disabled.capture(), eq(TEST_USER_ID));
+        assertThat(disabled.getValue()).containsExactly(
+                new ComponentName(SYSTEM_PACKAGE_1, ".Receiver1"),
+                new ComponentName(SYSTEM_PACKAGE_1, ".Receiver2"),
+                new ComponentName(SYSTEM_PACKAGE_2, ".Receiver"));
+
+        // THEN the task succeeds
+        verify(mCallback).onSuccess(mTask);
+    }
+
+    private ResolveInfo createResolveInfo(String packageName, String name) {
+        ResolveInfo ri = new ResolveInfo();
+        ri.activityInfo = new ActivityInfo();
+        ri.activityInfo.packageName = packageName;
+        ri.activityInfo.name = name;
+        return ri;
+    }
+}
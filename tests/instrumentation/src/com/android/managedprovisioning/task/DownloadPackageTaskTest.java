@@ -21,57 +21,54 @@ import static android.app.admin.DevicePolicyManager.ACTION_PROVISION_MANAGED_DEV
 import static com.android.managedprovisioning.task.DownloadPackageTask.ERROR_DOWNLOAD_FAILED;
 import static com.android.managedprovisioning.task.DownloadPackageTask.ERROR_OTHER;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.mockito.Matchers.any;
-import static org.mockito.Matchers.nullable;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
-import android.app.DownloadManager;
-import android.app.DownloadManager.Query;
-import android.app.DownloadManager.Request;
-import android.content.BroadcastReceiver;
 import android.content.Context;
-import android.content.Intent;
-import android.content.IntentFilter;
-import android.database.MatrixCursor;
-import android.os.Handler;
 import android.os.Looper;
 
-import androidx.test.filters.FlakyTest;
 import androidx.test.filters.SmallTest;
 
-import com.android.managedprovisioning.analytics.MetricsWriter;
 import com.android.managedprovisioning.analytics.ProvisioningAnalyticsTracker;
-import com.android.managedprovisioning.common.ManagedProvisioningSharedPreferences;
+import com.android.managedprovisioning.common.StoreUtils;
 import com.android.managedprovisioning.common.Utils;
 import com.android.managedprovisioning.model.PackageDownloadInfo;
 import com.android.managedprovisioning.model.ProvisioningParams;
+import com.android.managedprovisioning.task.download.PackageCache;
+import com.android.managedprovisioning.task.download.ResumableDownloader;
 
 import org.junit.Before;
 import org.junit.Test;
-import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.io.File;
+
 @SmallTest
-@FlakyTest // TODO: http://b/34117742
 public class DownloadPackageTaskTest {
     @Mock private Context mContext;
     @Mock private AbstractProvisioningTask.Callback mCallback;
-    @Mock private DownloadManager mDownloadManager;
+    @Mock private ResumableDownloader mDownloader;
+    @Mock private PackageCache mPackageCache;
     @Mock private Utils mUtils;
 
     private static final String TEST_PACKAGE_NAME = "sample.package.name";
     private static final String TEST_PACKAGE_LOCATION = "http://www.some.uri.com";
     private static final String TEST_LOCAL_FILENAME = "/local/filename";
+    private static final String TEST_CACHED_FILENAME =
+            "/cache/" + StoreUtils.byteArrayToString(new byte[] {'1', '2', '3', '4'}) + ".apk";
     private static final int TEST_USER_ID = 123;
     private static final byte[] TEST_SIGNATURE = new byte[] {'a', 'b', 'c', 'd'};
+    private static final byte[] TEST_PACKAGE_HASH = new byte[] {'1', '2', '3', '4'};
 
-    private static final long TEST_DOWNLOAD_ID = 1234;
     private static final int PACKAGE_VERSION = 43;
     private static final PackageDownloadInfo TEST_DOWNLOAD_INFO = new PackageDownloadInfo.Builder()
             .setLocation(TEST_PACKAGE_LOCATION)
@@ -90,12 +87,14 @@ public class DownloadPackageTaskTest {
     public void setUp() throws Exception {
         MockitoAnnotations.initMocks(this);
 
-        when(mContext.getSystemService(Context.DOWNLOAD_SERVICE)).thenReturn(mDownloadManager);
         when(mUtils.packageRequiresUpdate(TEST_PACKAGE_NAME, PACKAGE_VERSION, mContext))
                 .thenReturn(true);
 
         mTask = new DownloadPackageTask(
                 mUtils,
+                mDownloader,
+                mPackageCache,
+                Runnable::run,
                 mContext,
                 PARAMS,
                 mCallback,
@@ -114,6 +113,7 @@ public class DownloadPackageTaskTest {
         // THEN we get a success callback directly
         verifyOnTaskFinished(null);
         verifyNoMoreInteractions(mCallback);
+        verifyNoMoreInteractions(mDownloader);
     }
 
     @Test
@@ -127,23 +127,22 @@ public class DownloadPackageTaskTest {
         // THEN we get an error callback
         verify(mCallback).onError(mTask, ERROR_OTHER);
         verifyNoMoreInteractions(mCallback);
+        verifyNoMoreInteractions(mDownloader);
     }
 
     @Test
     public void testDownloadFailed() throws Exception {
-        // GIVEN the download succeeds
-        mockSuccessfulDownload(DownloadManager.STATUS_FAILED);
+        // GIVEN the download fails, even after retrying
+        doReturn(true).when(mUtils).isConnectedToNetwork(any(Context.class));
+        doAnswer(invocation -> {
+            ((ResumableDownloader.Callback) invocation.getArgument(0)).onDownloadFailed();
+            return null;
+        }).when(mDownloader).download(any(ResumableDownloader.Callback.class));
 
         // WHEN running the download package task
         runTask();
 
-        // THEN a download receiver was registered
-        BroadcastReceiver receiver = verifyDownloadReceiver();
-
-        // WHEN invoking download complete
-        receiver.onReceive(mContext, new Intent(DownloadManager.ACTION_DOWNLOAD_COMPLETE));
-
-        // THEN we get a success callback
+        // THEN we get an error callback
         verify(mCallback).onError(mTask, ERROR_DOWNLOAD_FAILED);
         verifyNoMoreInteractions(mCallback);
     }
@@ -151,67 +150,82 @@ public class DownloadPackageTaskTest {
     @Test
     public void testDownloadSucceeded() throws Exception {
         // GIVEN the download succeeds
-        mockSuccessfulDownload(DownloadManager.STATUS_SUCCESSFUL);
+        doReturn(true).when(mUtils).isConnectedToNetwork(any(Context.class));
+        doAnswer(invocation -> {
+            ((ResumableDownloader.Callback) invocation.getArgument(0)).onDownloadSucceeded(
+                    new File(TEST_LOCAL_FILENAME), TEST_PACKAGE_HASH);
+            return null;
+        }).when(mDownloader).download(any(ResumableDownloader.Callback.class));
 
         // WHEN running the download package task
         runTask();
 
-        // THEN a download receiver was registered
-        BroadcastReceiver receiver = verifyDownloadReceiver();
-
-        // WHEN invoking download complete
-        receiver.onReceive(mContext, new Intent(DownloadManager.ACTION_DOWNLOAD_COMPLETE));
-
         // THEN we get a success callback
         verifyOnTaskFinished(TEST_LOCAL_FILENAME);
+        assertArrayEquals(TEST_PACKAGE_HASH, mTask.getDownloadedPackageHash());
         verifyNoMoreInteractions(mCallback);
     }
 
-    /** Test that it works fine even if DownloadManager sends the broadcast twice */
     @Test
-    public void testSendBroadcastTwice() throws Exception {
+    public void testDownloadSucceeded_addedToCache() throws Exception {
         // GIVEN the download succeeds
-        mockSuccessfulDownload(DownloadManager.STATUS_SUCCESSFUL);
+        doReturn(true).when(mUtils).isConnectedToNetwork(any(Context.class));
+        File downloadedFile = new File(TEST_LOCAL_FILENAME);
+        doAnswer(invocation -> {
+            ((ResumableDownloader.Callback) invocation.getArgument(0)).onDownloadSucceeded(
+                    downloadedFile, TEST_PACKAGE_HASH);
+            return null;
+        }).when(mDownloader).download(any(ResumableDownloader.Callback.class));
+        // GIVEN the package can be cached
+        when(mPackageCache.put(TEST_DOWNLOAD_INFO, downloadedFile, TEST_PACKAGE_HASH))
+                .thenReturn(new File(TEST_CACHED_FILENAME));
 
         // WHEN running the download package task
         runTask();
 
-        // THEN a download receiver was registered
-        BroadcastReceiver receiver = verifyDownloadReceiver();
+        // THEN the cached package is used
+        verifyOnTaskFinished(TEST_CACHED_FILENAME);
+        verifyNoMoreInteractions(mCallback);
+    }
+
+    @Test
+    public void testCacheHit() throws Exception {
+        // GIVEN the package was downloaded before, and we're not connected to a network
+        when(mPackageCache.get(TEST_DOWNLOAD_INFO)).thenReturn(new File(TEST_CACHED_FILENAME));
+        doReturn(false).when(mUtils).isConnectedToNetwork(mContext);
 
-        // WHEN invoking download complete twice
-        receiver.onReceive(mContext, new Intent(DownloadManager.ACTION_DOWNLOAD_COMPLETE));
-        receiver.onReceive(mContext, new Intent(DownloadManager.ACTION_DOWNLOAD_COMPLETE));
+        // WHEN running the download package task
+        runTask();
 
-        // THEN we still get only one success callback
-        verifyOnTaskFinished(TEST_LOCAL_FILENAME);
+        // THEN the cached package is used without downloading it
+        verifyOnTaskFinished(TEST_CACHED_FILENAME);
+        assertArrayEquals(TEST_PACKAGE_HASH, mTask.getDownloadedPackageHash());
         verifyNoMoreInteractions(mCallback);
+        verifyNoMoreInteractions(mDownloader);
     }
 
-    private void mockSuccessfulDownload(int downloadStatus) {
-        doReturn(true).when(mUtils).isConnectedToNetwork(any(Context.class));
-        when(mDownloadManager.enqueue(any(Request.class))).thenReturn(TEST_DOWNLOAD_ID);
-        MatrixCursor cursor = new MatrixCursor(new String[]{
-                DownloadManager.COLUMN_STATUS,
-                DownloadManager.COLUMN_LOCAL_FILENAME});
-        cursor.addRow(new Object[]{downloadStatus, TEST_LOCAL_FILENAME});
-        when(mDownloadManager.query(any(Query.class))).thenReturn(cursor);
+    @Test
+    public void testRemoveCachedPackage() throws Exception {
+        // GIVEN the cached package was used
+        when(mPackageCache.get(TEST_DOWNLOAD_INFO)).thenReturn(new File(TEST_CACHED_FILENAME));
+        runTask();
+
+        // WHEN the package has been installed
+        mTask.removeCachedPackage();
+
+        // THEN it is removed from the cache
+        verify(mPackageCache).remove(new File(TEST_CACHED_FILENAME));
+        assertFalse(mTask.isDownloadedPackageCached());
     }
 
-    private BroadcastReceiver verifyDownloadReceiver() {
-        verify(mDownloadManager).setAccessFilename(true);
-        ArgumentCaptor<BroadcastReceiver> receiverCaptor = ArgumentCaptor.forClass(
-                BroadcastReceiver.class);
-        ArgumentCaptor<IntentFilter> filterCaptor = ArgumentCaptor.forClass(
-                IntentFilter.class);
-        verify(mContext).registerReceiver(
-                receiverCaptor.capture(),
-                filterCaptor.capture(),
-                nullable(String.class),
-                any(Handler.class));
-        assertEquals(filterCaptor.getValue().getAction(0),
-                DownloadManager.ACTION_DOWNLOAD_COMPLETE);
-        return receiverCaptor.getValue();
+    @Test
+    public void testCleanUp() throws Exception {
+        // WHEN cleaning up the task
+        mTask.cleanUp();
+
+        // THEN the download is stopped and all files are deleted
+        verify(mDownloader).cancel();
+        verify(mDownloader).cleanUp();
     }
 
     private void verifyOnTaskFinished(String location) {
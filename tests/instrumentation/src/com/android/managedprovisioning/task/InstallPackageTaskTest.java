@@ -28,7 +28,8 @@ import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
-import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
@@ -43,6 +44,7 @@ import android.content.IntentFilter;
 import android.content.IntentSender;
 import android.content.pm.PackageInstaller;
 import android.content.pm.PackageManager;
+import android.os.ParcelFileDescriptor;
 import android.os.Process;
 import android.os.UserHandle;
 import android.test.AndroidTestCase;
@@ -83,6 +85,7 @@ public class InstallPackageTaskTest extends AndroidTestCase {
     @Mock private DevicePolicyManager mDpm;
     @Mock private AbstractProvisioningTask.Callback mCallback;
     @Mock private DownloadPackageTask mDownloadPackageTask;
+    @Mock private ProvisioningAnalyticsTracker mProvisioningAnalyticsTracker;
     private InstallPackageTask mTask;
     private String mTestPackageLocation;
 
@@ -110,13 +113,17 @@ public class InstallPackageTaskTest extends AndroidTestCase {
         when(mMockContext.getUser()).thenReturn(Process.myUserHandle());
         when(mMockContext.getUserId()).thenReturn(UserHandle.myUserId());
 
+        // Fall back to copying through the session stream, so that the content can be verified.
+        doThrow(new IOException("not supported")).when(mSession).write(anyString(), anyLong(),
+                anyLong(), any(ParcelFileDescriptor.class));
+
         mTestPackageLocation = File.createTempFile("test", "apk").getPath();
         try (FileOutputStream out = new FileOutputStream(mTestPackageLocation)) {
             out.write(APK_CONTENT);
         }
 
         mTask = new InstallPackageTask(mDownloadPackageTask, mMockContext, TEST_PARAMS, mCallback,
-                mock(ProvisioningAnalyticsTracker.class));
+                mProvisioningAnalyticsTracker);
     }
 
     @SmallTest
@@ -152,6 +159,44 @@ public class InstallPackageTaskTest extends AndroidTestCase {
         // THEN we receive a success callback
         verify(mCallback, timeout(TIMEOUT)).onSuccess(mTask);
         verifyNoMoreInteractions(mCallback);
+        // THEN the package is removed from the package cache
+        verify(mDownloadPackageTask).removeCachedPackage();
+    }
+
+    @SmallTest
+    public void testSuccess_fileDescriptorWrite() throws Exception {
+        // GIVEN a package was downloaded to TEST_LOCATION
+        when(mDownloadPackageTask.getDownloadedPackageLocation()).thenReturn(mTestPackageLocation);
+        // GIVEN the session accepts file descriptors
+        doNothing().when(mSession).write(anyString(), anyLong(), anyLong(),
+                any(ParcelFileDescriptor.class));
+
+        // WHEN running the InstallPackageTask specifying an install location
+        mTask.run(TEST_USER_ID);
+
+        // THEN the file descriptor of the package is handed to the session
+        verify(mSession).write(anyString(), eq(0L), eq((long) APK_CONTENT.length),
+                any(ParcelFileDescriptor.class));
+        verify(mSession, never()).openWrite(anyString(), anyLong(), anyLong());
+        // THEN the throughput is logged
+        verify(mProvisioningAnalyticsTracker).logPackageInstallThroughput(eq(mMockContext),
+                eq((long) APK_CONTENT.length), anyLong());
+        // THEN the downloaded package is deleted
+        assertFalse(new File(mTestPackageLocation).exists());
+    }
+
+    @SmallTest
+    public void testSuccess_cachedPackageKept() throws Exception {
+        // GIVEN a package was taken from the package cache
+        when(mDownloadPackageTask.getDownloadedPackageLocation()).thenReturn(mTestPackageLocation);
+        when(mDownloadPackageTask.isDownloadedPackageCached()).thenReturn(true);
+
+        // WHEN running the InstallPackageTask specifying an install location
+        mTask.run(TEST_USER_ID);
+
+        // THEN the package is not deleted before it is installed
+        assertTrue(new File(mTestPackageLocation).exists());
+        new File(mTestPackageLocation).delete();
     }
 
     @SmallTest
@@ -226,6 +271,8 @@ public class InstallPackageTaskTest extends AndroidTestCase {
         // THEN we get a success callback, because an existing version of the DPC is present
         verify(mCallback, timeout(TIMEOUT)).onError(mTask, ERROR_INSTALLATION_FAILED);
         verifyNoMoreInteractions(mCallback);
+        // THEN the package is kept in the package cache for a retry
+        verify(mDownloadPackageTask, never()).removeCachedPackage();
     }
 
     @SmallTest
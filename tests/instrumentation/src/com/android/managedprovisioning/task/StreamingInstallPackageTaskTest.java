@@ -0,0 +1,305 @@
+/*
+ * Copyright 2019, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.task;
+
+import static android.app.admin.DevicePolicyManager.ACTION_PROVISION_MANAGED_DEVICE;
+
+import static com.android.managedprovisioning.task.StreamingInstallPackageTask.ERROR_DEVICE_ADMIN_MISSING;
+import static com.android.managedprovisioning.task.StreamingInstallPackageTask.ERROR_DOWNLOAD_FAILED;
+import static com.android.managedprovisioning.task.StreamingInstallPackageTask.ERROR_HASH_MISMATCH;
+
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+import android.app.admin.DevicePolicyManager;
+import android.content.BroadcastReceiver;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.IntentSender;
+import android.content.pm.IPackageDeleteObserver;
+import android.content.pm.PackageInstaller;
+import android.content.pm.PackageManager;
+import android.os.Process;
+import android.os.UserHandle;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.managedprovisioning.analytics.ProvisioningAnalyticsTracker;
+import com.android.managedprovisioning.common.IllegalProvisioningArgumentException;
+import com.android.managedprovisioning.common.Utils;
+import com.android.managedprovisioning.model.PackageDownloadInfo;
+import com.android.managedprovisioning.model.ProvisioningParams;
+
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+public class StreamingInstallPackageTaskTest extends AndroidTestCase {
+    private static final String TEST_PACKAGE_NAME = "com.android.test";
+    private static final ComponentName TEST_ADMIN = new ComponentName(TEST_PACKAGE_NAME,
+            TEST_PACKAGE_NAME + ".AdminReceiver");
+    private static final int TEST_USER_ID = 123;
+    private static final int TEST_SESSION_ID = 42;
+    private static final byte[] APK_CONTENT = new byte[]{'t', 'e', 's', 't'};
+    private static final byte[] APK_HASH = new Utils().computeHashOfByteArray(APK_CONTENT);
+    private static final long TIMEOUT = 10000;
+
+    @Mock private Context mMockContext;
+    @Mock private PackageManager mPackageManager;
+    @Mock private PackageInstaller mPackageInstaller;
+    @Mock private PackageInstaller.Session mSession;
+    @Mock private OutputStream mSessionWriteStream;
+    @Mock private DevicePolicyManager mDpm;
+    @Mock private Utils mUtils;
+    @Mock private AbstractProvisioningTask.Callback mCallback;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // this is necessary for mockito to work
+        System.setProperty("dexmaker.dexcache", getContext().getCacheDir().toString());
+        MockitoAnnotations.initMocks(this);
+
+        when(mMockContext.getPackageManager()).thenReturn(mPackageManager);
+        when(mMockContext.getPackageName()).thenReturn(getContext().getPackageName());
+        when(mPackageManager.getPackageInstaller()).thenReturn(mPackageInstaller);
+        when(mPackageInstaller.createSession(any(PackageInstaller.SessionParams.class)))
+                .thenReturn(TEST_SESSION_ID);
+        when(mPackageInstaller.openSession(anyInt())).thenReturn(mSession);
+        when(mSession.openWrite(anyString(), anyLong(), anyLong())).thenReturn(mSessionWriteStream);
+        when(mMockContext.registerReceiver(any(BroadcastReceiver.class),
+                any(IntentFilter.class))).thenAnswer(
+                invocation -> getContext().registerReceiver(
+                        invocation.getArgument(0), invocation.getArgument(1)));
+        when(mMockContext.getSystemServiceName(eq(DevicePolicyManager.class)))
+                .thenReturn(Context.DEVICE_POLICY_SERVICE);
+        when(mMockContext.getSystemService(eq(Context.DEVICE_POLICY_SERVICE))).thenReturn(mDpm);
+        when(mMockContext.getUser()).thenReturn(Process.myUserHandle());
+        when(mMockContext.getUserId()).thenReturn(UserHandle.myUserId());
+    }
+
+    @SmallTest
+    public void testCanStream() {
+        assertTrue(StreamingInstallPackageTask.canStream(createDownloadInfo(APK_HASH)));
+        assertFalse(StreamingInstallPackageTask.canStream(new PackageDownloadInfo.Builder()
+                .setLocation("http://www.some.uri.com")
+                .setSignatureChecksum(APK_HASH)
+                .build()));
+        assertFalse(StreamingInstallPackageTask.canStream(null));
+    }
+
+    @SmallTest
+    public void testCanStream_disabledByDefault() {
+        // GIVEN the streaming property isn't set
+        ProvisioningParams params = new ProvisioningParams.Builder()
+                .setDeviceAdminComponentName(TEST_ADMIN)
+                .setProvisioningAction(ACTION_PROVISION_MANAGED_DEVICE)
+                .setDeviceAdminDownloadInfo(createDownloadInfo(APK_HASH))
+                .build();
+
+        // THEN the package isn't streamed, even though it could be
+        assertFalse(StreamingInstallPackageTask.canStream(mMockContext, params, TEST_USER_ID));
+    }
+
+    @SmallTest
+    public void testHashMatches_sessionCommitted() throws Exception {
+        // GIVEN the streamed package matches the package checksum
+        StreamingInstallPackageTask task = createTask(APK_HASH, new FakePackageSource());
+        when(mUtils.findDeviceAdmin(TEST_PACKAGE_NAME, TEST_ADMIN, mMockContext, TEST_USER_ID))
+                .thenReturn(TEST_ADMIN);
+
+        // WHEN streaming the package
+        task.streamAndInstall(TEST_USER_ID);
+
+        // THEN the bytes are written into the session and the session is committed
+        verify(mSessionWriteStream).write(any(byte[].class), eq(0), eq(APK_CONTENT.length));
+        IntentSender observer = verifySessionCommitted();
+
+        // WHEN the package installed callback is invoked with success
+        Intent fillIn = new Intent();
+        fillIn.putExtra(PackageInstaller.EXTRA_PACKAGE_NAME, TEST_PACKAGE_NAME);
+        fillIn.putExtra(PackageInstaller.EXTRA_STATUS, PackageInstaller.STATUS_SUCCESS);
+        observer.sendIntent(getContext(), 0, fillIn, null, null);
+
+        // THEN we receive a success callback
+        verify(mCallback, timeout(TIMEOUT)).onSuccess(task);
+        verifyNoMoreInteractions(mCallback);
+    }
+
+    @SmallTest
+    public void testAdminMissing_packageUninstalled() throws Exception {
+        // GIVEN a package which isn't installed yet and doesn't contain the admin
+        StreamingInstallPackageTask task = createTask(APK_HASH, new FakePackageSource());
+        when(mPackageManager.getPackageInfoAsUser(TEST_PACKAGE_NAME, 0, TEST_USER_ID))
+                .thenThrow(new PackageManager.NameNotFoundException());
+        when(mUtils.findDeviceAdmin(TEST_PACKAGE_NAME, TEST_ADMIN, mMockContext, TEST_USER_ID))
+                .thenThrow(new IllegalProvisioningArgumentException("missing"));
+
+        // WHEN the package is streamed and installed
+        task.streamAndInstall(TEST_USER_ID);
+        sendInstallSucceeded(verifySessionCommitted());
+
+        // THEN the package is uninstalled again
+        ArgumentCaptor<IPackageDeleteObserver> observerCaptor =
+                ArgumentCaptor.forClass(IPackageDeleteObserver.class);
+        verify(mPackageManager, timeout(TIMEOUT)).deletePackageAsUser(eq(TEST_PACKAGE_NAME),
+                observerCaptor.capture(), eq(0), eq(TEST_USER_ID));
+        verify(mCallback, never()).onError(task, ERROR_DEVICE_ADMIN_MISSING);
+
+        // WHEN the package is uninstalled
+        observerCaptor.getValue().packageDeleted(TEST_PACKAGE_NAME,
+                PackageManager.DELETE_SUCCEEDED);
+
+        // THEN we receive an error callback
+        verify(mCallback).onError(task, ERROR_DEVICE_ADMIN_MISSING);
+        verifyNoMoreInteractions(mCallback);
+    }
+
+    @SmallTest
+    public void testAdminMissing_packageUpdated() throws Exception {
+        // GIVEN an update of an installed package which doesn't contain the admin
+        StreamingInstallPackageTask task = createTask(APK_HASH, new FakePackageSource());
+        when(mUtils.findDeviceAdmin(TEST_PACKAGE_NAME, TEST_ADMIN, mMockContext, TEST_USER_ID))
+                .thenThrow(new IllegalProvisioningArgumentException("missing"));
+
+        // WHEN the package is streamed and installed
+        task.streamAndInstall(TEST_USER_ID);
+        sendInstallSucceeded(verifySessionCommitted());
+
+        // THEN we receive an error callback, without uninstalling the package
+        verify(mCallback, timeout(TIMEOUT)).onError(task, ERROR_DEVICE_ADMIN_MISSING);
+        verify(mPackageManager, never()).deletePackageAsUser(anyString(),
+                any(IPackageDeleteObserver.class), anyInt(), anyInt());
+        verifyNoMoreInteractions(mCallback);
+    }
+
+    @SmallTest
+    public void testSessionWriteThrows_sessionAbandoned() throws Exception {
+        // GIVEN writing into the session throws a runtime exception
+        StreamingInstallPackageTask task = createTask(APK_HASH, new FakePackageSource());
+        when(mSession.openWrite(anyString(), anyLong(), anyLong()))
+                .thenThrow(new SecurityException("session sealed"));
+
+        // WHEN streaming the package
+        try {
+            task.streamAndInstall(TEST_USER_ID);
+            fail("SecurityException expected");
+        } catch (SecurityException expected) {
+        }
+
+        // THEN the session is abandoned and closed
+        verify(mSession).abandon();
+        verify(mSession).close();
+        verify(mSession, never()).commit(any(IntentSender.class));
+    }
+
+    @SmallTest
+    public void testHashMismatch_sessionAbandoned() throws Exception {
+        // GIVEN the streamed package doesn't match the package checksum
+        StreamingInstallPackageTask task = createTask(new byte[] {'1', '2', '3'},
+                new FakePackageSource());
+
+        // WHEN streaming the package
+        task.streamAndInstall(TEST_USER_ID);
+
+        // THEN the session is abandoned and never committed
+        verify(mSession).abandon();
+        verify(mSession, never()).commit(any(IntentSender.class));
+        verify(mCallback).onError(task, ERROR_HASH_MISMATCH);
+        verifyNoMoreInteractions(mCallback);
+    }
+
+    @SmallTest
+    public void testDownloadFails_sessionAbandoned() throws Exception {
+        // GIVEN the download can't be started
+        StreamingInstallPackageTask task = createTask(APK_HASH, new FakePackageSource() {
+            @Override
+            public InputStream open() throws IOException {
+                throw new IOException("no connection");
+            }
+        });
+
+        // WHEN streaming the package
+        task.streamAndInstall(TEST_USER_ID);
+
+        // THEN the session is abandoned
+        verify(mSession).abandon();
+        verify(mSession, never()).commit(any(IntentSender.class));
+        verify(mCallback).onError(task, ERROR_DOWNLOAD_FAILED);
+        verifyNoMoreInteractions(mCallback);
+    }
+
+    private void sendInstallSucceeded(IntentSender observer) throws Exception {
+        Intent fillIn = new Intent();
+        fillIn.putExtra(PackageInstaller.EXTRA_PACKAGE_NAME, TEST_PACKAGE_NAME);
+        fillIn.putExtra(PackageInstaller.EXTRA_STATUS, PackageInstaller.STATUS_SUCCESS);
+        observer.sendIntent(getContext(), 0, fillIn, null, null);
+    }
+
+    private IntentSender verifySessionCommitted() {
+        ArgumentCaptor<IntentSender> intentSenderCaptor
+                = ArgumentCaptor.forClass(IntentSender.class);
+        verify(mSession).commit(intentSenderCaptor.capture());
+        return intentSenderCaptor.getValue();
+    }
+
+    private StreamingInstallPackageTask createTask(byte[] packageChecksum,
+            StreamingInstallPackageTask.PackageSource source) {
+        ProvisioningParams params = new ProvisioningParams.Builder()
+                .setDeviceAdminComponentName(TEST_ADMIN)
+                .setProvisioningAction(ACTION_PROVISION_MANAGED_DEVICE)
+                .setDeviceAdminDownloadInfo(createDownloadInfo(packageChecksum))
+                .build();
+        return new StreamingInstallPackageTask(mUtils, source, Runnable::run, mMockContext,
+                params, mCallback, mock(ProvisioningAnalyticsTracker.class));
+    }
+
+    private static PackageDownloadInfo createDownloadInfo(byte[] packageChecksum) {
+        return new PackageDownloadInfo.Builder()
+                .setLocation("http://www.some.uri.com")
+                .setPackageChecksum(packageChecksum)
+                .build();
+    }
+
+    private static class FakePackageSource implements StreamingInstallPackageTask.PackageSource {
+        @Override
+        public InputStream open() throws IOException {
+            return new ByteArrayInputStream(APK_CONTENT);
+        }
+
+        @Override
+        public long getLength() {
+            return APK_CONTENT.length;
+        }
+    }
+}
@@ -22,7 +22,10 @@ import static com.android.managedprovisioning.task.VerifyPackageTask.ERROR_DEVIC
 import static com.android.managedprovisioning.task.VerifyPackageTask.ERROR_HASH_MISMATCH;
 
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
@@ -87,6 +90,9 @@ public class VerifyPackageTaskTest {
         when(mPackageManager.getPackageArchiveInfo(TEST_LOCAL_FILENAME,
                 PackageManager.GET_SIGNATURES | PackageManager.GET_RECEIVERS))
                 .thenReturn(mPackageInfo);
+        when(mPackageManager.getPackageArchiveInfo(TEST_LOCAL_FILENAME,
+                PackageManager.GET_RECEIVERS))
+                .thenReturn(mPackageInfo);
 
         when(mDownloadPackageTask.getDownloadedPackageLocation()).thenReturn(TEST_LOCAL_FILENAME);
 
@@ -109,6 +115,9 @@ public class VerifyPackageTaskTest {
 
     @Test
     public void testMissingDeviceAdminComponent() {
+        // GIVEN the hash of the downloaded file matches the parameter value
+        when(mUtils.computeHashOfFile(TEST_LOCAL_FILENAME, Utils.SHA256_TYPE))
+                .thenReturn(TEST_PACKAGE_CHECKSUM_HASH);
         // GIVEN that the device admin component cannot be found
         when(mUtils.findDeviceAdminInPackageInfo(TEST_PACKAGE_NAME, null, mPackageInfo))
                 .thenReturn(null);
@@ -135,6 +144,57 @@ public class VerifyPackageTaskTest {
         verifyNoMoreInteractions(mCallback);
     }
 
+    @Test
+    public void testPackageChecksumSha256_hashFromDownload() throws Exception {
+        // GIVEN the hash computed while downloading matches the parameter value
+        when(mDownloadPackageTask.getDownloadedPackageHash())
+                .thenReturn(TEST_PACKAGE_CHECKSUM_HASH);
+
+        // WHEN running the VerifyPackageTask
+        runWithDownloadInfo(TEST_PACKAGE_CHECKSUM_HASH, EMPTY_BYTE_ARRAY);
+
+        // THEN success should be called without hashing the file again
+        verify(mCallback).onSuccess(mTask);
+        verifyNoMoreInteractions(mCallback);
+        verify(mUtils, never()).computeHashOfFile(anyString(), anyString());
+        // THEN the signatures aren't collected
+        verify(mPackageManager, never()).getPackageArchiveInfo(TEST_LOCAL_FILENAME,
+                PackageManager.GET_SIGNATURES | PackageManager.GET_RECEIVERS);
+    }
+
+    @Test
+    public void testPackageChecksumSha256_failure_archiveNotParsed() throws Exception {
+        // GIVEN the hash of the downloaded file does not match the parameter value
+        when(mUtils.computeHashOfFile(TEST_LOCAL_FILENAME, Utils.SHA256_TYPE))
+                .thenReturn(TEST_BAD_HASH);
+
+        // WHEN running the VerifyPackageTask
+        runWithDownloadInfo(TEST_PACKAGE_CHECKSUM_HASH, EMPTY_BYTE_ARRAY);
+
+        // THEN hash mismatch error should be called before parsing the apk
+        verify(mCallback).onError(mTask, ERROR_HASH_MISMATCH);
+        verifyNoMoreInteractions(mCallback);
+        verify(mPackageManager, never()).getPackageArchiveInfo(anyString(), anyInt());
+    }
+
+    @Test
+    public void testSignatureHash_secondSignatureMatches() throws Exception {
+        // GIVEN the package has two signers and the second one matches the parameter value
+        Signature otherSignature = new Signature("2001");
+        mPackageInfo.signatures = new Signature[] { otherSignature, TEST_SIGNATURES[0] };
+        when(mUtils.computeHashOfByteArray(otherSignature.toByteArray()))
+                .thenReturn(TEST_BAD_HASH);
+        when(mUtils.computeHashOfByteArray(TEST_SIGNATURES[0].toByteArray()))
+                .thenReturn(TEST_SIGNATURE_HASH);
+
+        // WHEN running the VerifyPackageTask
+        runWithDownloadInfo(EMPTY_BYTE_ARRAY, TEST_SIGNATURE_HASH);
+
+        // THEN success should be called
+        verify(mCallback).onSuccess(mTask);
+        verifyNoMoreInteractions(mCallback);
+    }
+
     @Test
     public void testSignatureHash_success() throws Exception {
         // GIVEN the hash of the signature matches the parameter value
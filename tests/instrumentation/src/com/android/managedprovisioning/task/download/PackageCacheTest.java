@@ -0,0 +1,218 @@
+/*
+ * Copyright 2019, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.task.download;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.filters.SmallTest;
+
+import com.android.managedprovisioning.common.FileDigester;
+import com.android.managedprovisioning.common.Utils;
+import com.android.managedprovisioning.model.PackageDownloadInfo;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+/**
+ * Unit tests for {@link PackageCache}.
+ */
+@SmallTest
+public class PackageCacheTest {
+    private static final String TEST_LOCATION = "http://www.some.uri.com/dpc.apk";
+    private static final byte[] TEST_SIGNATURE = new byte[] {'a', 'b', 'c', 'd'};
+    private static final long MAX_SIZE = 100;
+
+    private final Utils mUtils = new Utils();
+    private File mDirectory;
+    private File mDownloadDirectory;
+    private PackageCache mPackageCache;
+
+    @Before
+    public void setUp() {
+        File cacheDir = InstrumentationRegistry.getTargetContext().getCacheDir();
+        mDirectory = new File(cacheDir, "package_cache_test");
+        mDownloadDirectory = new File(cacheDir, "package_cache_test_download");
+        deleteRecursively(mDirectory);
+        deleteRecursively(mDownloadDirectory);
+        mDownloadDirectory.mkdirs();
+        mPackageCache = new PackageCache(mDirectory, MAX_SIZE, new FileDigester());
+    }
+
+    @After
+    public void tearDown() {
+        deleteRecursively(mDirectory);
+        deleteRecursively(mDownloadDirectory);
+    }
+
+    @Test
+    public void testPutAndGet_packageChecksum() throws Exception {
+        // GIVEN a downloaded package was added to the cache
+        byte[] content = new byte[] {1, 2, 3};
+        byte[] hash = mUtils.computeHashOfByteArray(content);
+        PackageDownloadInfo info = packageChecksumInfo(hash);
+        File download = writeDownload(content);
+        File entry = mPackageCache.put(info, download, hash);
+
+        // THEN the download was moved into the cache
+        assertThat(entry).isNotNull();
+        assertThat(download.exists()).isFalse();
+
+        // WHEN looking up the same package
+        File cached = mPackageCache.get(info);
+
+        // THEN the cached package is returned
+        assertThat(cached).isEqualTo(entry);
+        assertThat(Files.readAllBytes(cached.toPath())).isEqualTo(content);
+        assertThat(PackageCache.getHash(cached)).isEqualTo(hash);
+    }
+
+    @Test
+    public void testPut_signatureChecksum_notCached() throws Exception {
+        // GIVEN a package identified by its signature only
+        byte[] content = new byte[] {1, 2, 3};
+        byte[] hash = mUtils.computeHashOfByteArray(content);
+        PackageDownloadInfo info = signatureChecksumInfo(TEST_LOCATION);
+        File download = writeDownload(content);
+
+        // WHEN adding it to the cache
+        File entry = mPackageCache.put(info, download, hash);
+
+        // THEN it is not cached, as the package at its location may change
+        assertThat(entry).isNull();
+        assertThat(download.exists()).isTrue();
+        assertThat(mPackageCache.get(info)).isNull();
+    }
+
+    @Test
+    public void testGet_miss() {
+        assertThat(mPackageCache.get(packageChecksumInfo(new byte[] {1}))).isNull();
+    }
+
+    @Test
+    public void testRemove() throws Exception {
+        // GIVEN a cached package
+        PackageDownloadInfo info = put(new byte[] {1, 2, 3});
+        File entry = mPackageCache.get(info);
+
+        // WHEN removing it
+        mPackageCache.remove(entry);
+
+        // THEN it is no longer cached
+        assertThat(entry.exists()).isFalse();
+        assertThat(mPackageCache.get(info)).isNull();
+    }
+
+    @Test
+    public void testGet_corruptedEntry_deleted() throws Exception {
+        // GIVEN a cached package which was modified afterwards
+        byte[] content = new byte[] {1, 2, 3};
+        byte[] hash = mUtils.computeHashOfByteArray(content);
+        PackageDownloadInfo info = packageChecksumInfo(hash);
+        File entry = mPackageCache.put(info, writeDownload(content), hash);
+        try (RandomAccessFile file = new RandomAccessFile(entry, "rw")) {
+            file.write(9);
+        }
+
+        // WHEN looking up the package
+        File cached = mPackageCache.get(info);
+
+        // THEN it is not returned and deleted
+        assertThat(cached).isNull();
+        assertThat(entry.exists()).isFalse();
+    }
+
+    @Test
+    public void testPut_evictsLeastRecentlyUsed() throws Exception {
+        // GIVEN two packages filling the cache
+        byte[] first = new byte[40];
+        byte[] second = new byte[40];
+        second[0] = 1;
+        PackageDownloadInfo firstInfo = put(first);
+        PackageDownloadInfo secondInfo = put(second);
+        mPackageCache.get(firstInfo).setLastModified(2000);
+        mPackageCache.get(secondInfo).setLastModified(1000);
+
+        // WHEN adding a third package
+        byte[] third = new byte[40];
+        third[0] = 2;
+        PackageDownloadInfo thirdInfo = put(third);
+
+        // THEN the least recently used package is evicted
+        assertThat(mPackageCache.get(firstInfo)).isNotNull();
+        assertThat(mPackageCache.get(secondInfo)).isNull();
+        assertThat(mPackageCache.get(thirdInfo)).isNotNull();
+    }
+
+    @Test
+    public void testPut_tooLarge() throws Exception {
+        // GIVEN a package larger than the cache
+        byte[] content = new byte[(int) MAX_SIZE + 1];
+        byte[] hash = mUtils.computeHashOfByteArray(content);
+        File download = writeDownload(content);
+
+        // WHEN adding it to the cache
+        File entry = mPackageCache.put(packageChecksumInfo(hash), download, hash);
+
+        // THEN it is not cached and the download is left untouched
+        assertThat(entry).isNull();
+        assertThat(download.exists()).isTrue();
+    }
+
+    private PackageDownloadInfo put(byte[] content) throws IOException {
+        byte[] hash = mUtils.computeHashOfByteArray(content);
+        PackageDownloadInfo info = packageChecksumInfo(hash);
+        assertThat(mPackageCache.put(info, writeDownload(content), hash)).isNotNull();
+        return info;
+    }
+
+    private File writeDownload(byte[] content) throws IOException {
+        File file = File.createTempFile("download", ".apk", mDownloadDirectory);
+        Files.write(file.toPath(), content);
+        return file;
+    }
+
+    private static PackageDownloadInfo packageChecksumInfo(byte[] hash) {
+        return new PackageDownloadInfo.Builder()
+                .setLocation(TEST_LOCATION)
+                .setPackageChecksum(hash)
+                .build();
+    }
+
+    private static PackageDownloadInfo signatureChecksumInfo(String location) {
+        return new PackageDownloadInfo.Builder()
+                .setLocation(location)
+                .setSignatureChecksum(TEST_SIGNATURE)
+                .build();
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,372 @@
+/*
+ * Copyright 2019, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.task.download;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.filters.SmallTest;
+
+import com.android.managedprovisioning.model.PackageDownloadInfo;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Unit tests for {@link ResumableDownloader}.
+ */
+@SmallTest
+public class ResumableDownloaderTest {
+    private static final String TEST_LOCATION = "http://www.some.uri.com/dpc.apk";
+    private static final String TEST_ETAG = "\"etag-1\"";
+    private static final PackageDownloadInfo TEST_DOWNLOAD_INFO = new PackageDownloadInfo.Builder()
+            .setLocation(TEST_LOCATION)
+            .setSignatureChecksum(new byte[] {'a', 'b', 'c', 'd'})
+            .build();
+
+    @Mock private ResumableDownloader.Callback mCallback;
+
+    private final List<FakeConnection> mConnections = new ArrayList<>();
+    private final List<FakeConnection> mResponses = new ArrayList<>();
+    private final List<URL> mRequestedUrls = new ArrayList<>();
+    private byte[] mContent;
+    private File mDestination;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+
+        mContent = new byte[(int) (2.5 * ResumableDownloader.CHECKPOINT_BYTES)];
+        new Random(0).nextBytes(mContent);
+        mDestination = new File(InstrumentationRegistry.getTargetContext().getCacheDir(),
+                "resumable_downloader_test.apk");
+        createDownloader().cleanUp();
+    }
+
+    @After
+    public void tearDown() {
+        createDownloader().cleanUp();
+    }
+
+    @Test
+    public void testDownload_success() throws Exception {
+        // GIVEN the server sends the whole package
+        mResponses.add(new FakeConnection(HttpURLConnection.HTTP_OK, mContent, -1));
+
+        // WHEN downloading
+        createDownloader().download(mCallback);
+
+        // THEN the package and its hash are reported
+        verifySuccess();
+        assertNull(mConnections.get(0).getRequestProperty("Range"));
+    }
+
+    @Test
+    public void testDownload_transientFailure_resumesWithRange() throws Exception {
+        // GIVEN the connection breaks after two checkpoints
+        int breakAt = (int) (2 * ResumableDownloader.CHECKPOINT_BYTES);
+        mResponses.add(new FakeConnection(HttpURLConnection.HTTP_OK, mContent, breakAt));
+        // GIVEN the server supports range requests
+        mResponses.add(createPartialResponse(breakAt));
+
+        // WHEN downloading
+        createDownloader().download(mCallback);
+
+        // THEN the second request only asks for the missing bytes
+        assertEquals(2, mConnections.size());
+        assertEquals("bytes=" + breakAt + "-", mConnections.get(1).getRequestProperty("Range"));
+        assertEquals(TEST_ETAG, mConnections.get(1).getRequestProperty("If-Range"));
+        verifySuccess();
+    }
+
+    @Test
+    public void testDownload_resumesAfterRestart() throws Exception {
+        // GIVEN a first download failed permanently after a checkpoint
+        int checkpoint = (int) ResumableDownloader.CHECKPOINT_BYTES;
+        mResponses.add(new FakeConnection(HttpURLConnection.HTTP_OK, mContent, checkpoint + 10));
+        mResponses.add(new FakeConnection(HttpURLConnection.HTTP_NOT_FOUND, new byte[0], -1));
+        createDownloader().download(mCallback);
+        verify(mCallback).onDownloadFailed();
+
+        // WHEN a new downloader is created for the same destination, e.g. after a restart
+        mConnections.clear();
+        mResponses.clear();
+        mResponses.add(createPartialResponse(checkpoint + 10));
+        createDownloader().download(mCallback);
+
+        // THEN it resumes where the first one stopped
+        assertEquals("bytes=" + (checkpoint + 10) + "-",
+                mConnections.get(0).getRequestProperty("Range"));
+        verifySuccess();
+    }
+
+    @Test
+    public void testDownload_serverIgnoresRange_restarts() throws Exception {
+        // GIVEN the connection breaks and the server then sends the whole package again
+        mResponses.add(new FakeConnection(HttpURLConnection.HTTP_OK, mContent, 1000));
+        mResponses.add(new FakeConnection(HttpURLConnection.HTTP_OK, mContent, -1));
+
+        // WHEN downloading
+        createDownloader().download(mCallback);
+
+        // THEN the package is still correct
+        verifySuccess();
+    }
+
+    @Test
+    public void testDownload_permanentFailure_noRetry() throws Exception {
+        // GIVEN the package doesn't exist
+        mResponses.add(new FakeConnection(HttpURLConnection.HTTP_NOT_FOUND, new byte[0], -1));
+
+        // WHEN downloading
+        createDownloader().download(mCallback);
+
+        // THEN the download fails without retrying
+        assertEquals(1, mConnections.size());
+        verify(mCallback).onDownloadFailed();
+        verify(mCallback, never()).onDownloadSucceeded(any(File.class), any(byte[].class));
+    }
+
+    @Test
+    public void testDownload_allAttemptsFail() throws Exception {
+        // GIVEN the server keeps failing
+        for (int i = 0; i < ResumableDownloader.MAX_ATTEMPTS; i++) {
+            mResponses.add(new FakeConnection(HttpURLConnection.HTTP_UNAVAILABLE, new byte[0], -1));
+        }
+
+        // WHEN downloading
+        createDownloader().download(mCallback);
+
+        // THEN it gives up after the maximum number of attempts
+        assertEquals(ResumableDownloader.MAX_ATTEMPTS, mConnections.size());
+        verify(mCallback).onDownloadFailed();
+        assertFalse(mDestination.exists());
+    }
+
+    @Test
+    public void testDownload_wrongContentRange_restarts() throws Exception {
+        // GIVEN the connection breaks and the server then sends another range than requested
+        int breakAt = (int) (2 * ResumableDownloader.CHECKPOINT_BYTES);
+        mResponses.add(new FakeConnection(HttpURLConnection.HTTP_OK, mContent, breakAt));
+        mResponses.add(createPartialResponse(breakAt - 10));
+        mResponses.add(new FakeConnection(HttpURLConnection.HTTP_OK, mContent, -1));
+
+        // WHEN downloading
+        createDownloader().download(mCallback);
+
+        // THEN the download restarts from scratch instead of appending the wrong bytes
+        assertEquals(3, mConnections.size());
+        assertNull(mConnections.get(2).getRequestProperty("Range"));
+        verifySuccess();
+    }
+
+    @Test
+    public void testDownload_followsRedirectToHttps() throws Exception {
+        // GIVEN the server redirects to https
+        String httpsLocation = "https://www.some.uri.com/dpc.apk";
+        FakeConnection redirect = new FakeConnection(HttpURLConnection.HTTP_MOVED_TEMP,
+                new byte[0], -1);
+        redirect.setResponseHeader("Location", httpsLocation);
+        mResponses.add(redirect);
+        mResponses.add(new FakeConnection(HttpURLConnection.HTTP_OK, mContent, -1));
+
+        // WHEN downloading
+        createDownloader().download(mCallback);
+
+        // THEN the package is downloaded from the redirect location
+        assertEquals(Arrays.asList(new URL(TEST_LOCATION), new URL(httpsLocation)),
+                mRequestedUrls);
+        assertFalse(mConnections.get(0).getInstanceFollowRedirects());
+        verifySuccess();
+    }
+
+    @Test
+    public void testDownload_tooManyRedirects() throws Exception {
+        // GIVEN the server keeps redirecting
+        for (int i = 0; i <= ResumableDownloader.MAX_REDIRECTS; i++) {
+            FakeConnection redirect = new FakeConnection(HttpURLConnection.HTTP_MOVED_PERM,
+                    new byte[0], -1);
+            redirect.setResponseHeader("Location", "/dpc" + i + ".apk");
+            mResponses.add(redirect);
+        }
+
+        // WHEN downloading
+        createDownloader().download(mCallback);
+
+        // THEN the download fails without retrying
+        assertEquals(ResumableDownloader.MAX_REDIRECTS + 1, mConnections.size());
+        verify(mCallback).onDownloadFailed();
+    }
+
+    @Test
+    public void testDownload_afterCancel() throws Exception {
+        // GIVEN a downloader which was cancelled
+        ResumableDownloader downloader = createDownloader();
+        downloader.cancel();
+        mResponses.add(new FakeConnection(HttpURLConnection.HTTP_OK, mContent, -1));
+
+        // WHEN downloading again with it
+        downloader.download(mCallback);
+
+        // THEN the package is downloaded
+        verifySuccess();
+    }
+
+    @Test
+    public void testGetRangeStart() {
+        assertEquals(100, ResumableDownloader.getRangeStart("bytes 100-199/200"));
+        assertEquals(-1, ResumableDownloader.getRangeStart("bytes */200"));
+        assertEquals(-1, ResumableDownloader.getRangeStart(null));
+    }
+
+    private ResumableDownloader createDownloader() {
+        return new ResumableDownloader(TEST_DOWNLOAD_INFO, mDestination, url -> {
+            FakeConnection connection = mResponses.remove(0);
+            mRequestedUrls.add(url);
+            mConnections.add(connection);
+            return connection;
+        }, 0 /* initialBackoffMs */);
+    }
+
+    private FakeConnection createPartialResponse(int from) throws IOException {
+        FakeConnection connection = new FakeConnection(HttpURLConnection.HTTP_PARTIAL,
+                Arrays.copyOfRange(mContent, from, mContent.length), -1);
+        connection.setResponseHeader("Content-Range",
+                "bytes " + from + "-" + (mContent.length - 1) + "/" + mContent.length);
+        return connection;
+    }
+
+    private void verifySuccess() throws Exception {
+        ArgumentCaptor<byte[]> hashCaptor = ArgumentCaptor.forClass(byte[].class);
+        verify(mCallback).onDownloadSucceeded(eq(mDestination), hashCaptor.capture());
+        assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(mContent),
+                hashCaptor.getValue());
+        assertArrayEquals(mContent, Files.readAllBytes(mDestination.toPath()));
+    }
+
+    /**
+     * Connection returning a fixed response, optionally failing after {@code breakAt} bytes.
+     */
+    private static class FakeConnection extends HttpURLConnection {
+        private final int mResponseCode;
+        private final byte[] mBody;
+        private final int mBreakAt;
+        private final Map<String, String> mRequestProperties = new HashMap<>();
+        private final Map<String, String> mResponseHeaders = new HashMap<>();
+
+        FakeConnection(int responseCode, byte[] body, int breakAt) throws IOException {
+            super(new URL(TEST_LOCATION));
+            mResponseCode = responseCode;
+            mBody = body;
+            mBreakAt = breakAt;
+            mResponseHeaders.put("ETag", TEST_ETAG);
+        }
+
+        void setResponseHeader(String name, String value) {
+            mResponseHeaders.put(name, value);
+        }
+
+        @Override
+        public void setRequestProperty(String key, String value) {
+            mRequestProperties.put(key, value);
+        }
+
+        @Override
+        public String getRequestProperty(String key) {
+            return mRequestProperties.get(key);
+        }
+
+        @Override
+        public int getResponseCode() {
+            return mResponseCode;
+        }
+
+        @Override
+        public String getHeaderField(String name) {
+            return mResponseHeaders.get(name);
+        }
+
+        @Override
+        public long getContentLengthLong() {
+            return mBody.length;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return new InputStream() {
+                private int mPosition;
+
+                @Override
+                public int read() throws IOException {
+                    byte[] b = new byte[1];
+                    return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    if (mBreakAt >= 0 && mPosition >= mBreakAt) {
+                        throw new IOException("connection reset");
+                    }
+                    if (mPosition >= mBody.length) {
+                        return -1;
+                    }
+                    int end = mBreakAt >= 0 ? Math.min(mBreakAt, mBody.length) : mBody.length;
+                    int count = Math.min(len, end - mPosition);
+                    System.arraycopy(mBody, mPosition, b, off, count);
+                    mPosition += count;
+                    return count;
+                }
+            };
+        }
+
+        @Override
+        public void disconnect() {}
+
+        @Override
+        public boolean usingProxy() {
+            return false;
+        }
+
+        @Override
+        public void connect() {}
+    }
+}
@@ -20,6 +20,7 @@ import static android.app.admin.DevicePolicyManager.ACTION_PROVISION_MANAGED_DEV
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.nullable;
 import static org.mockito.Matchers.anyInt;
@@ -46,6 +47,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.stream.Collectors;
 
 /**
@@ -226,6 +228,9 @@ public class NonRequiredAppsLogicTest {
 
     private void setLastSnapshot(Set<String> set) {
         when(mSnapshot.getSnapshot(TEST_USER_ID)).thenReturn(set);
+        when(mSnapshot.diff(eq(TEST_USER_ID), any())).thenAnswer(invocation ->
+                SystemAppsSnapshot.computeDiff(
+                        new TreeSet<>(set).iterator(), invocation.getArgument(1)));
         when(mSnapshot.hasSnapshot(TEST_USER_ID)).thenReturn(true);
     }
 
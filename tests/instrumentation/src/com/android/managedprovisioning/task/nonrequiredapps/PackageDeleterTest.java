@@ -0,0 +1,251 @@
+/*
+ * Copyright 2019, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.task.nonrequiredapps;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.content.pm.IPackageDeleteObserver;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+
+import androidx.test.filters.SmallTest;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Unit-tests for {@link PackageDeleter}.
+ */
+@SmallTest
+public class PackageDeleterTest {
+    private static final int TEST_USER_ID = 123;
+    private static final int WINDOW_SIZE = 2;
+    private static final int MAX_ATTEMPTS = 2;
+
+    @Mock private PackageManager mPackageManager;
+    @Mock private PackageDeleter.Callback mCallback;
+
+    /** Deletions which were requested, but whose observer wasn't called yet. */
+    private final List<PendingDeletion> mPendingDeletions = new ArrayList<>();
+    /** Retries which were scheduled, but didn't run yet. */
+    private final List<Runnable> mScheduledRetries = new ArrayList<>();
+    private final List<Long> mRetryDelays = new ArrayList<>();
+    private PackageDeleter mPackageDeleter;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+
+        doAnswer(invocation -> {
+            mPendingDeletions.add(new PendingDeletion(invocation.getArgument(0),
+                    invocation.getArgument(1)));
+            return null;
+        }).when(mPackageManager).deletePackageAsUser(anyString(),
+                any(IPackageDeleteObserver.class), eq(PackageManager.DELETE_SYSTEM_APP),
+                eq(TEST_USER_ID));
+
+        mPackageDeleter = createPackageDeleter(MAX_ATTEMPTS);
+    }
+
+    @Test
+    public void testFilterInstalled_singleQuery() {
+        // GIVEN that app a and c are installed
+        when(mPackageManager.getInstalledPackagesAsUser(0, TEST_USER_ID))
+                .thenReturn(Arrays.asList(packageInfo("app.a"), packageInfo("app.c")));
+
+        // WHEN filtering app a and b
+        Set<String> installed = mPackageDeleter.filterInstalled(setOf("app.a", "app.b"));
+
+        // THEN only app a is returned, using a single query
+        assertEquals(setOf("app.a"), installed);
+        verify(mPackageManager).getInstalledPackagesAsUser(0, TEST_USER_ID);
+    }
+
+    @Test
+    public void testNothingToDelete() {
+        // WHEN deleting no packages
+        mPackageDeleter.deletePackages(Collections.emptySet(), mCallback);
+
+        // THEN the deletion finishes immediately
+        verify(mCallback).onDeletionFinished(Collections.emptySet());
+    }
+
+    @Test
+    public void testWindowIsRespected() throws Exception {
+        // WHEN deleting more packages than the window size
+        mPackageDeleter.deletePackages(setOf("app.a", "app.b", "app.c"), mCallback);
+
+        // THEN only as many deletions as the window allows are started
+        assertEquals(WINDOW_SIZE, mPendingDeletions.size());
+
+        // WHEN one of them finishes
+        finishDeletion(0, PackageManager.DELETE_SUCCEEDED);
+
+        // THEN the next deletion is started
+        assertEquals(WINDOW_SIZE, mPendingDeletions.size());
+        verify(mCallback).onPackageDeleted(anyString(), anyLong());
+
+        // WHEN all of them finish
+        finishDeletion(0, PackageManager.DELETE_SUCCEEDED);
+        finishDeletion(0, PackageManager.DELETE_SUCCEEDED);
+
+        // THEN the deletion finishes without failures
+        verify(mCallback, times(3)).onPackageDeleted(anyString(), anyLong());
+        verify(mCallback).onDeletionFinished(Collections.emptySet());
+    }
+
+    @Test
+    public void testFailureRetried() throws Exception {
+        // GIVEN a package is being deleted
+        mPackageDeleter.deletePackages(setOf("app.a"), mCallback);
+
+        // WHEN the first deletion fails
+        finishDeletion(0, PackageManager.DELETE_FAILED_INTERNAL_ERROR);
+
+        // THEN it is retried after a delay
+        assertEquals(0, mPendingDeletions.size());
+        assertEquals(Arrays.asList(PackageDeleter.INITIAL_RETRY_DELAY_MS), mRetryDelays);
+        runScheduledRetries();
+        assertEquals(1, mPendingDeletions.size());
+        assertEquals("app.a", mPendingDeletions.get(0).packageName);
+        verify(mCallback, never()).onDeletionFinished(any());
+
+        // WHEN the retry succeeds
+        finishDeletion(0, PackageManager.DELETE_SUCCEEDED);
+
+        // THEN the deletion finishes without failures
+        verify(mCallback).onPackageDeleted(eq("app.a"), anyLong());
+        verify(mCallback).onDeletionFinished(Collections.emptySet());
+    }
+
+    @Test
+    public void testFailureAfterAllAttempts() throws Exception {
+        // GIVEN two packages are being deleted
+        mPackageDeleter.deletePackages(setOf("app.a", "app.b"), mCallback);
+        PendingDeletion deletionA = mPendingDeletions.get(0).packageName.equals("app.a")
+                ? mPendingDeletions.get(0) : mPendingDeletions.get(1);
+        mPendingDeletions.remove(deletionA);
+
+        // WHEN deleting app a fails on every attempt
+        deletionA.finish(PackageManager.DELETE_FAILED_INTERNAL_ERROR);
+        for (int i = 1; i < MAX_ATTEMPTS; i++) {
+            runScheduledRetries();
+            PendingDeletion retry = mPendingDeletions.remove(mPendingDeletions.size() - 1);
+            assertEquals("app.a", retry.packageName);
+            retry.finish(PackageManager.DELETE_FAILED_INTERNAL_ERROR);
+        }
+        // WHEN deleting app b succeeds
+        finishDeletion(0, PackageManager.DELETE_SUCCEEDED);
+
+        // THEN app a is reported as failed
+        verify(mCallback).onPackageDeleted(eq("app.b"), anyLong());
+        verify(mCallback).onDeletionFinished(setOf("app.a"));
+    }
+
+    @Test
+    public void testRetryDelayGrows() throws Exception {
+        // GIVEN a package is being deleted with three attempts
+        mPackageDeleter = createPackageDeleter(3);
+        mPackageDeleter.deletePackages(setOf("app.a"), mCallback);
+
+        // WHEN every attempt fails
+        for (int i = 0; i < 3; i++) {
+            finishDeletion(0, PackageManager.DELETE_FAILED_INTERNAL_ERROR);
+            runScheduledRetries();
+        }
+
+        // THEN the delay doubles with every retry
+        assertEquals(Arrays.asList(PackageDeleter.INITIAL_RETRY_DELAY_MS,
+                2 * PackageDeleter.INITIAL_RETRY_DELAY_MS), mRetryDelays);
+        verify(mCallback).onDeletionFinished(setOf("app.a"));
+    }
+
+    @Test
+    public void testPermanentFailureNotRetried() throws Exception {
+        // GIVEN a package is being deleted
+        mPackageDeleter.deletePackages(setOf("app.a"), mCallback);
+
+        // WHEN its deletion is blocked by a policy
+        finishDeletion(0, PackageManager.DELETE_FAILED_DEVICE_POLICY_MANAGER);
+
+        // THEN it isn't retried, and is reported as failed
+        assertEquals(0, mScheduledRetries.size());
+        verify(mCallback).onDeletionFinished(setOf("app.a"));
+    }
+
+    private PackageDeleter createPackageDeleter(int maxAttempts) {
+        return new PackageDeleter(mPackageManager, TEST_USER_ID, WINDOW_SIZE, maxAttempts,
+                (retry, delayMs) -> {
+                    mScheduledRetries.add(retry);
+                    mRetryDelays.add(delayMs);
+                });
+    }
+
+    private void runScheduledRetries() {
+        List<Runnable> retries = new ArrayList<>(mScheduledRetries);
+        mScheduledRetries.clear();
+        for (Runnable retry : retries) {
+            retry.run();
+        }
+    }
+
+    private void finishDeletion(int index, int returnCode) throws Exception {
+        mPendingDeletions.remove(index).finish(returnCode);
+    }
+
+    private static PackageInfo packageInfo(String packageName) {
+        PackageInfo info = new PackageInfo();
+        info.packageName = packageName;
+        return info;
+    }
+
+    private static Set<String> setOf(String... packageNames) {
+        return new HashSet<>(Arrays.asList(packageNames));
+    }
+
+    private static class PendingDeletion {
+        final String packageName;
+        final IPackageDeleteObserver observer;
+
+        PendingDeletion(String packageName, IPackageDeleteObserver observer) {
+            this.packageName = packageName;
+            this.observer = observer;
+        }
+
+        void finish(int returnCode) throws Exception {
+            observer.packageDeleted(packageName, returnCode);
+        }
+    }
+}
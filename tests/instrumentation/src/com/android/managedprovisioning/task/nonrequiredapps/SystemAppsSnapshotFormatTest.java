@@ -0,0 +1,110 @@
+/*
+ * Copyright 2019, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.managedprovisioning.task.nonrequiredapps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import androidx.test.filters.SmallTest;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Unit-tests for {@link SystemAppsSnapshotFormat}.
+ */
+@SmallTest
+public class SystemAppsSnapshotFormatTest {
+    private static final List<String> PACKAGES = Arrays.asList(
+            "com.android.settings", "com.android.contacts", "com.android.camera2",
+            "com.google.android.gms", "com.android.contacts.overlay", "ünïcödé.package");
+
+    @Test
+    public void testRoundTrip_sorted() throws Exception {
+        // WHEN encoding and decoding a list of packages
+        Iterator<String> decoded = SystemAppsSnapshotFormat.decode(
+                SystemAppsSnapshotFormat.encode(PACKAGES));
+
+        // THEN the packages are returned in their natural order
+        List<String> expected = new ArrayList<>(PACKAGES);
+        Collections.sort(expected);
+        assertEquals(expected, toList(decoded));
+    }
+
+    @Test
+    public void testRoundTrip_empty() throws Exception {
+        assertFalse(SystemAppsSnapshotFormat.decode(
+                SystemAppsSnapshotFormat.encode(Collections.emptyList())).hasNext());
+    }
+
+    @Test
+    public void testSharedPrefixesCompressed() {
+        // WHEN encoding packages with a long common prefix
+        int namesLength = 0;
+        for (String packageName : PACKAGES) {
+            namesLength += packageName.length();
+        }
+        byte[] encoded = SystemAppsSnapshotFormat.encode(PACKAGES);
+
+        // THEN the encoding is smaller than the names themselves
+        assertTrue(encoded.length < namesLength);
+    }
+
+    @Test
+    public void testCorruptedData() {
+        // GIVEN an encoded snapshot with a flipped bit
+        byte[] encoded = SystemAppsSnapshotFormat.encode(PACKAGES);
+        encoded[encoded.length / 2] ^= 1;
+
+        // THEN decoding it fails
+        assertDecodeFails(encoded);
+    }
+
+    @Test
+    public void testTruncatedData() {
+        assertDecodeFails(new byte[] {0x53, 0x41});
+        byte[] encoded = SystemAppsSnapshotFormat.encode(PACKAGES);
+        assertDecodeFails(Arrays.copyOf(encoded, encoded.length - 1));
+    }
+
+    @Test
+    public void testXmlData() {
+        assertDecodeFails("<?xml version='1.0' encoding='utf-8' standalone='yes' ?>".getBytes());
+    }
+
+    private void assertDecodeFails(byte[] data) {
+        try {
+            SystemAppsSnapshotFormat.decode(data);
+            fail("IOException expected");
+        } catch (IOException expected) {
+        }
+    }
+
+    private List<String> toList(Iterator<String> iterator) {
+        List<String> result = new ArrayList<>();
+        iterator.forEachRemaining(result::add);
+        return result;
+    }
+}
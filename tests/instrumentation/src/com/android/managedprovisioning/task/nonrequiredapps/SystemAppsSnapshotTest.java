@@ -38,6 +38,8 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
@@ -49,6 +51,7 @@ import java.util.HashSet;
 public class SystemAppsSnapshotTest {
     private static final String TEST_PACKAGE_NAME_1 = "com.test.packagea";
     private static final String TEST_PACKAGE_NAME_2 = "com.test.packageb";
+    private static final String TEST_PACKAGE_NAME_3 = "com.test.packagec";
     private static final int TEST_USER_ID = 123;
     private static final int TEST_USER_SERIAL_NUMBER = 456;
 
@@ -108,6 +111,57 @@ public class SystemAppsSnapshotTest {
                 TEST_PACKAGE_NAME_1, TEST_PACKAGE_NAME_2);
     }
 
+    @Test
+    public void testDiff() throws Exception {
+        // GIVEN a snapshot of two system apps
+        setCurrentSystemApps(TEST_PACKAGE_NAME_1, TEST_PACKAGE_NAME_2);
+        mSystemAppsSnapshot.takeNewSnapshot(TEST_USER_ID);
+
+        // WHEN comparing it with a set where one app was replaced
+        SystemAppsSnapshot.Diff diff = mSystemAppsSnapshot.diff(TEST_USER_ID,
+                new HashSet<>(Arrays.asList(TEST_PACKAGE_NAME_2, TEST_PACKAGE_NAME_3)));
+
+        // THEN the new app is added and the old one is removed
+        assertEquals(Arrays.asList(TEST_PACKAGE_NAME_3), diff.added);
+        assertEquals(Arrays.asList(TEST_PACKAGE_NAME_1), diff.removed);
+    }
+
+    @Test
+    public void testDiff_noSnapshot() throws Exception {
+        // WHEN comparing with a set of apps while there is no snapshot
+        SystemAppsSnapshot.Diff diff = mSystemAppsSnapshot.diff(TEST_USER_ID,
+                new HashSet<>(Arrays.asList(TEST_PACKAGE_NAME_2, TEST_PACKAGE_NAME_1)));
+
+        // THEN all apps are added, in order
+        assertEquals(Arrays.asList(TEST_PACKAGE_NAME_1, TEST_PACKAGE_NAME_2), diff.added);
+        assertTrue(diff.removed.isEmpty());
+    }
+
+    @Test
+    public void testXmlSnapshotConverted() throws Exception {
+        // GIVEN a snapshot written as XML by an earlier version
+        File xmlFile = SystemAppsSnapshot.getXmlSystemAppsFile(mContext, TEST_USER_ID);
+        xmlFile.getParentFile().mkdirs();
+        try (FileOutputStream out = new FileOutputStream(xmlFile)) {
+            out.write(("<?xml version='1.0' encoding='utf-8' standalone='yes' ?>"
+                    + "<system-apps>"
+                    + "<item value=\"" + TEST_PACKAGE_NAME_1 + "\" />"
+                    + "<item value=\"" + TEST_PACKAGE_NAME_2 + "\" />"
+                    + "</system-apps>").getBytes(StandardCharsets.UTF_8));
+        }
+        assertTrue(mSystemAppsSnapshot.hasSnapshot(TEST_USER_ID));
+
+        // WHEN reading the snapshot
+        assertSetEquals(mSystemAppsSnapshot.getSnapshot(TEST_USER_ID),
+                TEST_PACKAGE_NAME_1, TEST_PACKAGE_NAME_2);
+
+        // THEN it is converted to the binary format
+        assertFalse(xmlFile.exists());
+        assertTrue(SystemAppsSnapshot.getSystemAppsFile(mContext, TEST_USER_ID).exists());
+        assertSetEquals(mSystemAppsSnapshot.getSnapshot(TEST_USER_ID),
+                TEST_PACKAGE_NAME_1, TEST_PACKAGE_NAME_2);
+    }
+
     private void setCurrentSystemApps(String... packages) throws Exception {
         when(mUtils.getCurrentSystemApps(mockIPackageManager, TEST_USER_ID))
                 .thenReturn(new HashSet<>(Arrays.asList(packages)));
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.managedprovisioning.analytics;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.managedprovisioning.DevicePolicyProtos.DevicePolicyEvent;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Robolectric tests for {@link DeferredMetricsLog}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class DeferredMetricsLogRoboTest {
+
+    private static final DevicePolicyEvent EVENT_1 = DevicePolicyEvent.newBuilder()
+            .setEventId(124)
+            .setAdminPackageName("test1")
+            .build();
+    private static final DevicePolicyEvent EVENT_2 = DevicePolicyEvent.newBuilder()
+            .setEventId(125)
+            .setIntegerValue(37)
+            .build();
+    private static final DevicePolicyEvent EVENT_3 = DevicePolicyEvent.newBuilder()
+            .setEventId(126)
+            .addStringListValue("one")
+            .build();
+
+    private final File mFile = new File("test-log-file");
+    private final File mDir = new File("test-log-dir");
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+        new File(mDir, mFile.getName()).delete();
+        mDir.delete();
+    }
+
+    @Test
+    public void append_queuedEventsWrittenTogether() throws IOException {
+        final List<Runnable> tasks = new ArrayList<>();
+        final DeferredMetricsLog log = new DeferredMetricsLog(mFile, tasks::add);
+
+        log.append(Arrays.asList(EVENT_1));
+        log.append(Arrays.asList(EVENT_2, EVENT_3));
+
+        assertThat(tasks).hasSize(1);
+        tasks.get(0).run();
+        assertThat(readEvents()).containsExactly(EVENT_1, EVENT_2, EVENT_3).inOrder();
+    }
+
+    @Test
+    public void append_tornFrameDropped() throws IOException {
+        new DeferredMetricsLog(mFile, Runnable::run).append(Arrays.asList(EVENT_1, EVENT_2));
+        try (FileOutputStream outputStream = new FileOutputStream(mFile, /* append */ true)) {
+            // Start of a frame which was interrupted by a crash
+            outputStream.write(new byte[] {0, 0, 0, 10, 1, 2});
+        }
+
+        new DeferredMetricsLog(mFile, Runnable::run).append(Arrays.asList(EVENT_3));
+
+        assertThat(readEvents()).containsExactly(EVENT_1, EVENT_2, EVENT_3).inOrder();
+    }
+
+    @Test
+    public void append_legacyLogConverted() throws IOException {
+        try (FileOutputStream outputStream = new FileOutputStream(mFile)) {
+            EVENT_1.writeDelimitedTo(outputStream);
+            EVENT_2.writeDelimitedTo(outputStream);
+        }
+        try (DeferredMetricsLog.Reader reader = DeferredMetricsLog.Reader.open(mFile, 0)) {
+            assertThat(reader.isLegacy()).isTrue();
+        }
+        assertThat(readEvents()).containsExactly(EVENT_1, EVENT_2).inOrder();
+
+        new DeferredMetricsLog(mFile, Runnable::run).append(Arrays.asList(EVENT_3));
+
+        try (DeferredMetricsLog.Reader reader = DeferredMetricsLog.Reader.open(mFile, 0)) {
+            assertThat(reader.isLegacy()).isFalse();
+        }
+        assertThat(readEvents()).containsExactly(EVENT_1, EVENT_2, EVENT_3).inOrder();
+        assertThat(new File(mFile.getPath() + ".tmp").exists()).isFalse();
+    }
+
+    @Test
+    public void append_failedWriteRetriedByNextFlush() throws IOException {
+        final File file = new File(mDir, mFile.getName());
+        final DeferredMetricsLog log = new DeferredMetricsLog(file, Runnable::run);
+
+        // The directory of the log doesn't exist yet, so the write fails.
+        log.append(Arrays.asList(EVENT_1));
+        assertThat(file.exists()).isFalse();
+
+        mDir.mkdir();
+        log.append(Arrays.asList(EVENT_2));
+
+        try (DeferredMetricsLog.Reader reader = DeferredMetricsLog.Reader.open(file, 0)) {
+            assertThat(reader.next()).isEqualTo(EVENT_1);
+            assertThat(reader.next()).isEqualTo(EVENT_2);
+            assertThat(reader.next()).isNull();
+        }
+    }
+
+    @Test
+    public void reader_resumesFromOffset() throws IOException {
+        new DeferredMetricsLog(mFile, Runnable::run)
+                .append(Arrays.asList(EVENT_1, EVENT_2, EVENT_3));
+        final long offset;
+        try (DeferredMetricsLog.Reader reader = DeferredMetricsLog.Reader.open(mFile, 0)) {
+            reader.next();
+            offset = reader.getOffset();
+        }
+
+        try (DeferredMetricsLog.Reader reader = DeferredMetricsLog.Reader.open(mFile, offset)) {
+            assertThat(reader.next()).isEqualTo(EVENT_2);
+            assertThat(reader.next()).isEqualTo(EVENT_3);
+            assertThat(reader.next()).isNull();
+        }
+    }
+
+    private List<DevicePolicyEvent> readEvents() throws IOException {
+        final List<DevicePolicyEvent> events = new ArrayList<>();
+        try (DeferredMetricsLog.Reader reader = DeferredMetricsLog.Reader.open(mFile, 0)) {
+            DevicePolicyEvent event;
+            while ((event = reader.next()) != null) {
+                events.add(event);
+            }
+        }
+        return events;
+    }
+}
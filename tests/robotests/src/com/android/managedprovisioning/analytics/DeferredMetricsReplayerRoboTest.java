@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.managedprovisioning.analytics;
+
+import static com.android.managedprovisioning.analytics.AnalyticsRoboTestUtils.assertDevicePolicyEventLoggersEqual;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.app.admin.DevicePolicyEventLogger;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Robolectric tests for {@link DeferredMetricsReplayer}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class DeferredMetricsReplayerRoboTest {
+
+    private static final DevicePolicyEventLogger[] EVENTS_TO_WRITE
+            = new DevicePolicyEventLogger[] {
+                    DevicePolicyEventLogger.createEvent(124).setAdmin("test1"),
+                    DevicePolicyEventLogger.createEvent(125).setInt(37),
+                    DevicePolicyEventLogger.createEvent(126).setStrings("one", "two"),
+                    DevicePolicyEventLogger.createEvent(127).setBoolean(true),
+                    DevicePolicyEventLogger.createEvent(128).setTimePeriod(50231L)
+    };
+
+    private final File mFile = new File("test-replay-file");
+    private final File mRotatedFile = DeferredMetricsLog.getRotatedFile(mFile);
+    private final DeferredMetricsLog mLog = new DeferredMetricsLog(mFile, Runnable::run);
+    private final List<DevicePolicyEventLogger> mEventsRead = new ArrayList<>();
+    private final List<Integer> mBatchSizes = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+        mRotatedFile.delete();
+        new File(mRotatedFile.getPath() + ".offset").delete();
+    }
+
+    @Test
+    public void replay_eventsWrittenInBatches() {
+        writeMetricsToFile(EVENTS_TO_WRITE);
+        final DeferredMetricsReplayer replayer = createReplayer(/* batchSize */ 2);
+
+        assertThat(replayer.replay()).isTrue();
+
+        assertDevicePolicyEventLoggersEqual(EVENTS_TO_WRITE,
+                mEventsRead.toArray(new DevicePolicyEventLogger[0]));
+        assertThat(mBatchSizes).containsExactly(2, 2, 1).inOrder();
+        assertThat(mFile.exists()).isFalse();
+        assertThat(mRotatedFile.exists()).isFalse();
+    }
+
+    @Test
+    public void replay_noLogs() {
+        assertThat(createReplayer(/* batchSize */ 2).replay()).isTrue();
+
+        assertThat(mEventsRead).isEmpty();
+    }
+
+    @Test
+    public void replay_eventsAppendedDuringReplay_kept() {
+        writeMetricsToFile(EVENTS_TO_WRITE[0]);
+
+        // An event is appended while the rotated log is replayed
+        final DeferredMetricsReplayer replayer = new DeferredMetricsReplayer(mLog, loggers -> {
+            mEventsRead.addAll(Arrays.asList(loggers));
+            writeMetricsToFile(EVENTS_TO_WRITE[1]);
+        }, new FixedTokenBucket(2));
+        assertThat(replayer.replay()).isTrue();
+        assertThat(mEventsRead).hasSize(1);
+
+        // It is kept for the next replay
+        assertThat(mFile.exists()).isTrue();
+        assertThat(createReplayer(/* batchSize */ 2).replay()).isTrue();
+        assertDevicePolicyEventLoggersEqual(
+                new DevicePolicyEventLogger[] {EVENTS_TO_WRITE[0], EVENTS_TO_WRITE[1]},
+                mEventsRead.toArray(new DevicePolicyEventLogger[0]));
+    }
+
+    @Test
+    public void replay_cancelled_resumesFromCheckpoint() {
+        writeMetricsToFile(EVENTS_TO_WRITE);
+
+        // Cancelled while writing the first batch
+        final DeferredMetricsReplayer[] holder = new DeferredMetricsReplayer[1];
+        holder[0] = new DeferredMetricsReplayer(mLog, loggers -> {
+            mEventsRead.addAll(Arrays.asList(loggers));
+            holder[0].cancel();
+        }, new FixedTokenBucket(2));
+        assertThat(holder[0].replay()).isFalse();
+        assertThat(mEventsRead).hasSize(2);
+        assertThat(mRotatedFile.exists()).isTrue();
+
+        assertThat(createReplayer(/* batchSize */ 2).replay()).isTrue();
+
+        assertDevicePolicyEventLoggersEqual(EVENTS_TO_WRITE,
+                mEventsRead.toArray(new DevicePolicyEventLogger[0]));
+        assertThat(mRotatedFile.exists()).isFalse();
+    }
+
+    private DeferredMetricsReplayer createReplayer(int batchSize) {
+        return new DeferredMetricsReplayer(mLog, loggers -> {
+            mBatchSizes.add(loggers.length);
+            mEventsRead.addAll(Arrays.asList(loggers));
+        }, new FixedTokenBucket(batchSize));
+    }
+
+    private void writeMetricsToFile(DevicePolicyEventLogger... devicePolicyEvent) {
+        final DeferredMetricsWriter writer = new DeferredMetricsWriter(mLog);
+        writer.write(devicePolicyEvent);
+    }
+
+    /**
+     * Token bucket which always has {@code batchSize} tokens available, as the clock doesn't
+     * advance in Robolectric tests.
+     */
+    private static class FixedTokenBucket extends DeferredMetricsReplayer.TokenBucket {
+        private final int mBatchSize;
+
+        FixedTokenBucket(int batchSize) {
+            super(batchSize, batchSize);
+            mBatchSize = batchSize;
+        }
+
+        @Override
+        int acquire(int max) {
+            return Math.min(max, mBatchSize);
+        }
+    }
+}
@@ -75,8 +75,8 @@ public class DeferredMetricsWriteReadRoboTest {
 
     private void writeMetricsToFile(
             DevicePolicyEventLogger[] devicePolicyEvent, File file) {
-        final DeferredMetricsWriter writer = new DeferredMetricsWriter(file);
+        final DeferredMetricsWriter writer =
+                new DeferredMetricsWriter(new DeferredMetricsLog(file, Runnable::run));
         writer.write(devicePolicyEvent);
-        Robolectric.flushBackgroundThreadScheduler();
     }
 }